@@ -0,0 +1,70 @@
+package com.zmy.rtmp_pusher.lib.flv;
+
+import com.zmy.rtmp_pusher.lib.encoder.DirectBufferPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Java side of building a video packet and an FLV tag.
+ * <ul>
+ * <li>{@code zeroCopyVideoPacket}: what the zero-copy
+ * {@link com.zmy.rtmp_pusher.lib.encoder.RtmpPacket} factory does before the native call, i.e.
+ * take a pooled buffer, copy the NAL unit without its start code, write the video tag header and
+ * hand the buffer back. The native packet is left out, it can't be loaded on the JVM.</li>
+ * <li>{@code flvTag}: the tag header, video header and previous tag size around one frame, as
+ * written to a recording.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FlvFramingBenchmark {
+    //音频帧,P帧,1080p关键帧
+    @Param({"400", "16384", "262144"})
+    public int frameSize;
+
+    private ByteBuffer frame;
+    private ByteBuffer tag;
+    private final DirectBufferPool pool = new DirectBufferPool(4);
+    private int timestamp = 0;
+
+    @Setup
+    public void setUp() {
+        frame = ByteBuffer.allocateDirect(frameSize);
+        frame.putInt(0, 1);
+        frame.put(4, (byte) 0x65);
+        tag = ByteBuffer.allocateDirect(FlvTag.TAG_HEADER_SIZE + FlvTag.VIDEO_NALU_HEADER_SIZE + frameSize + FlvTag.PREVIOUS_TAG_SIZE);
+    }
+
+    @Benchmark
+    public int zeroCopyVideoPacket() {
+        ByteBuffer payload = pool.acquire(frameSize);
+        int naluLength = FlvTag.copyNalu(frame, 0, frameSize, payload);
+        ByteBuffer header = ByteBuffer.allocate(FlvTag.VIDEO_NALU_HEADER_SIZE);
+        FlvTag.writeVideoNaluHeader(header, true, 0, naluLength);
+        pool.recycle(payload);
+        return header.position() + naluLength;
+    }
+
+    @Benchmark
+    public int flvTag() {
+        tag.clear();
+        int naluLength = frameSize - 4;
+        int dataSize = FlvTag.VIDEO_NALU_HEADER_SIZE + naluLength;
+        FlvTag.writeTagHeader(tag, FlvTag.TYPE_VIDEO, dataSize, timestamp += 33);
+        FlvTag.writeVideoNaluHeader(tag, false, 0, naluLength);
+        FlvTag.copyNalu(frame, 0, frameSize, tag);
+        FlvTag.writePreviousTagSize(tag, dataSize);
+        return tag.position();
+    }
+}
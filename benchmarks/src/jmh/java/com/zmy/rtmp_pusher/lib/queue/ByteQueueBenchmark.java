@@ -0,0 +1,84 @@
+package com.zmy.rtmp_pusher.lib.queue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ByteQueue} as the PCM path uses it: the capture thread enqueues chunks, the encoder
+ * thread dequeues them.
+ * <ul>
+ * <li>{@code roundTrip}: one thread enqueues a chunk and dequeues it again, the cost of the ring
+ * itself without any handoff.</li>
+ * <li>{@code handoff}: the benchmark thread enqueues while a consumer thread drains, including the
+ * parking and waking when either side runs ahead.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ByteQueueBenchmark {
+    //AudioRecord一次读取的大小从几十字节到几KB不等
+    @Param({"64", "1024", "4096", "16384"})
+    public int chunkSize;
+
+    @Param({"65536"})
+    public int capacity;
+
+    private ByteQueue queue;
+    private ByteBuffer chunk;
+    private ByteBuffer output;
+    private Thread consumer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        queue = new ByteQueue(capacity, capacity);
+        chunk = ByteBuffer.allocateDirect(chunkSize);
+        output = ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        queue.close();
+        if (consumer != null) consumer.join();
+    }
+
+    @Benchmark
+    public int roundTrip() {
+        chunk.clear();
+        queue.enqueue(chunk);
+        output.clear();
+        return queue.dequeue(output);
+    }
+
+    @Benchmark
+    public void handoff() {
+        if (consumer == null) startConsumer();
+        chunk.clear();
+        queue.enqueue(chunk);
+    }
+
+    private void startConsumer() {
+        final ByteBuffer drain = ByteBuffer.allocateDirect(chunkSize);
+        consumer = new Thread("ByteQueueConsumer") {
+            @Override
+            public void run() {
+                while (true) {
+                    drain.clear();
+                    if (queue.dequeue(drain) <= 0) return;
+                }
+            }
+        };
+        consumer.start();
+    }
+}
@@ -0,0 +1,69 @@
+package com.zmy.rtmp_pusher.lib.queue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handoff of packet references from an encoder thread to a send thread, through
+ * {@link LinkedQueue} and through {@link ArrayChannel} for comparison. The benchmark thread
+ * enqueues, a consumer thread drains up to {@code batch} packets per call like the push thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class PacketQueueBenchmark {
+    @Param({"linked", "array"})
+    public String queueType;
+
+    @Param({"64"})
+    public int capacity;
+
+    @Param({"1", "16"})
+    public int batch;
+
+    private static final Object PACKET = new Object();
+
+    private Queue<Object, Object[]> queue;
+    private Thread consumer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("linked".equals(queueType)) {
+            queue = new LinkedQueue<>(capacity, null);
+        } else {
+            queue = new ArrayChannel<>(capacity, null);
+        }
+        final Object[] output = new Object[batch];
+        consumer = new Thread("PacketQueueConsumer") {
+            @Override
+            public void run() {
+                while (queue.dequeue(output) > 0) {
+                    Arrays.fill(output, null);
+                }
+            }
+        };
+        consumer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        queue.close();
+        consumer.join();
+    }
+
+    @Benchmark
+    public void handoff() {
+        queue.enqueue(PACKET);
+    }
+}
@@ -0,0 +1,94 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Creates and releases a 1080p30-like mix of packets with the {@link PacketPool} off and on, and
+ * logs how many native allocations per second each mode needs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PacketPoolBenchmarkTest {
+    private static final String TAG = PacketPoolBenchmarkTest.class.getSimpleName();
+    private static final int FRAMES = 20000;
+    //发送队列里同时存在的packet数量
+    private static final int IN_FLIGHT = 16;
+    private static final int KEY_FRAME_SIZE = 300 * 1024;
+    private static final int P_FRAME_SIZE = 40 * 1024;
+    private static final int AUDIO_FRAME_SIZE = 400;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        System.loadLibrary("pusher");
+    }
+
+    @After
+    public void restore() {
+        PacketPool.setEnabled(true);
+    }
+
+    @Test
+    public void poolRemovesPerFrameAllocations() {
+        ByteBuffer data = ByteBuffer.allocateDirect(KEY_FRAME_SIZE);
+        run(data, false);
+        long[] unpooled = run(data, false);
+        run(data, true);
+        long[] pooled = run(data, true);
+        Log.i(TAG, "malloc: " + unpooled[0] + " allocations in " + unpooled[1] / 1000000 + "ms, "
+                + perSecond(unpooled) + " allocations/s");
+        Log.i(TAG, "pool:   " + pooled[0] + " allocations in " + pooled[1] / 1000000 + "ms, "
+                + perSecond(pooled) + " allocations/s");
+        for (PacketPool.Stats stats : PacketPool.getStats()) {
+            if (stats.getAcquired() > 0) Log.i(TAG, stats.toString());
+        }
+        assertEquals(unpooled[0], FRAMES);
+        //预热之后只剩下偶尔的超出缓存上限
+        assertTrue(pooled[0] < FRAMES / 100);
+    }
+
+    /**
+     * @return {allocations, elapsed nanos}
+     */
+    private static long[] run(ByteBuffer data, boolean pooled) {
+        PacketPool.setEnabled(pooled);
+        PacketPool.resetStats();
+        RtmpPacket[] window = new RtmpPacket[IN_FLIGHT];
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            RtmpPacket packet;
+            if (i % 2 == 1) {
+                packet = RtmpPacket.createForAudio(data, 0, AUDIO_FRAME_SIZE, RtmpPacket.NO_TIMESTAMP, 44100, 2, 2, false);
+            } else if (i % 60 == 0) {
+                packet = RtmpPacket.createForVideo(data, 0, KEY_FRAME_SIZE, RtmpPacket.NO_TIMESTAMP, true);
+            } else {
+                packet = RtmpPacket.createForVideo(data, 0, P_FRAME_SIZE - (i % 7) * 1024, RtmpPacket.NO_TIMESTAMP, false);
+            }
+            int slot = i % IN_FLIGHT;
+            if (window[slot] != null) window[slot].release();
+            window[slot] = packet;
+        }
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            if (window[i] != null) window[i].release();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocations = 0;
+        for (PacketPool.Stats stats : PacketPool.getStats()) {
+            allocations += stats.getAllocated();
+        }
+        return new long[]{allocations, elapsed};
+    }
+
+    private static long perSecond(long[] result) {
+        return result[0] * 1000000000L / Math.max(result[1], 1);
+    }
+}
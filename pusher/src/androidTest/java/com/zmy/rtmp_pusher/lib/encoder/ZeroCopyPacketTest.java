@@ -0,0 +1,106 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the native packets built by the zero-copy video path against the copying path, for the
+ * same frames the FlvTagTest golden file is written from.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ZeroCopyPacketTest {
+    private static final int OFFSET = 7;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        System.loadLibrary("pusher");
+    }
+
+    @Test
+    public void zeroCopyBodyMatchesCopiedBody() {
+        DirectBufferPool pool = new DirectBufferPool(4);
+        byte[][] frames = frames();
+        for (int i = 0; i < frames.length; i++) {
+            boolean keyFrame = i == 0;
+            ByteBuffer data = wrap(frames[i]);
+            RtmpPacket copied = RtmpPacket.createForVideo(data, OFFSET, frames[i].length, i * 33000L, keyFrame);
+            RtmpPacket zeroCopy = RtmpPacket.createForVideo(data, OFFSET, frames[i].length, i * 33000L, keyFrame, pool);
+            assertEquals(copied.getType(), zeroCopy.getType());
+            //拷贝路径的body是一整块
+            assertNull(copied.getBodyPrefix());
+            byte[] expected = toArray(copied.getBodyData());
+            byte[] actual = concat(toArray(zeroCopy.getBodyPrefix()), toArray(zeroCopy.getBodyData()));
+            assertTrue("frame " + i, Arrays.equals(expected, actual));
+            copied.release();
+            zeroCopy.release();
+        }
+    }
+
+    @Test
+    public void payloadReturnedToPoolOnLastRelease() {
+        DirectBufferPool pool = new DirectBufferPool(4);
+        byte[] frame = frames()[1];
+        //池里只放一个buffer,packet一定用它
+        ByteBuffer payload = pool.acquire(frame.length);
+        pool.recycle(payload);
+        RtmpPacket packet = RtmpPacket.createForVideo(wrap(frame), OFFSET, frame.length, 0, false, pool);
+        packet.retain();
+        packet.release();
+        //还有一个引用,payload不能回到池里
+        ByteBuffer other = pool.acquire(frame.length);
+        assertNotSame(payload, other);
+
+        packet.release();
+        assertSame(payload, pool.acquire(frame.length));
+    }
+
+    /**
+     * A key frame with a 4 byte start code, a P frame with a 3 byte one and a P frame without.
+     */
+    private static byte[][] frames() {
+        byte[] key = new byte[205];
+        key[3] = 1;
+        key[4] = 0x65;
+        for (int i = 0; i < 200; i++) key[5 + i] = (byte) (i * 7);
+        byte[] p1 = new byte[54];
+        p1[2] = 1;
+        p1[3] = 0x41;
+        for (int i = 0; i < 50; i++) p1[4 + i] = (byte) (i * 13 + 5);
+        byte[] p2 = new byte[23];
+        p2[0] = 0x41;
+        p2[1] = (byte) 0x9a;
+        p2[2] = 0x22;
+        for (int i = 0; i < 20; i++) p2[3 + i] = (byte) (i * 3);
+        return new byte[][]{key, p1, p2};
+    }
+
+    //MediaCodec的输出buffer带offset
+    private static ByteBuffer wrap(byte[] frame) {
+        ByteBuffer data = ByteBuffer.allocateDirect(frame.length + OFFSET);
+        data.position(OFFSET);
+        data.put(frame);
+        data.clear();
+        return data;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate();
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
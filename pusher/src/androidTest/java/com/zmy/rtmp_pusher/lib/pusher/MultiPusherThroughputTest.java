@@ -0,0 +1,137 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.zmy.rtmp_pusher.lib.LocalRtmpServer;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.queue.ArrayChannel;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs several {@link Pusher}s side by side against {@link LocalRtmpServer}s on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MultiPusherThroughputTest {
+    private static final String TAG = MultiPusherThroughputTest.class.getSimpleName();
+    private static final int FRAMES = 600;
+    private static final int FRAME_SIZE = 16 * 1024;
+
+    private static final PusherCallback CALLBACK = new PusherCallback() {
+        @Override
+        public void onPushError(PusherException exception) {
+            Log.w(TAG, "push error", exception);
+        }
+    };
+
+    @BeforeClass
+    public static void loadLibrary() {
+        System.loadLibrary("pusher");
+    }
+
+    @Test
+    public void pushersScaleIndependently() throws Exception {
+        long single = pushFrames(1);
+        long quad = pushFrames(4);
+        Log.i(TAG, "1 pusher: " + single + " frames/s, 4 pushers: " + quad + " frames/s");
+        //四路不共享锁时,总吞吐至少不应低于单路
+        assertTrue("aggregate throughput dropped from " + single + " to " + quad, quad >= single);
+    }
+
+    @Test
+    public void stalledConnectDoesNotBlockOtherPusher() throws Exception {
+        LocalRtmpServer stalled = new LocalRtmpServer(true);
+        LocalRtmpServer server = new LocalRtmpServer();
+        Pusher backup = new Pusher(stalled.getUrl("backup"), new ArrayChannel<RtmpPacket>(64, RtmpPacket.DELETER), CALLBACK);
+        Pusher primary = new Pusher(server.getUrl("primary"), new ArrayChannel<RtmpPacket>(64, RtmpPacket.DELETER), CALLBACK);
+        try {
+            backup.start();
+            backup.getQueue().enqueue(createSpsPps());
+            Thread.sleep(100);
+
+            primary.start();
+            long start = System.nanoTime();
+            feed(primary, FRAMES);
+            assertTrue(server.awaitMediaMessages(FRAMES + 1, 10000));
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            Log.i(TAG, "primary pushed " + FRAMES + " frames in " + elapsedMs + "ms while backup was stalled");
+            //backup每次握手要卡住1s,共用锁时primary每一批都要排在它后面
+            assertTrue("primary took " + elapsedMs + "ms", elapsedMs < 5000);
+        } finally {
+            primary.release();
+            backup.release();
+            server.close();
+            stalled.close();
+        }
+    }
+
+    /**
+     * @return aggregate frames per second delivered by {@code count} pushers
+     */
+    private long pushFrames(int count) throws Exception {
+        List<LocalRtmpServer> servers = new ArrayList<>();
+        List<Pusher> pushers = new ArrayList<>();
+        List<Thread> feeders = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                LocalRtmpServer server = new LocalRtmpServer();
+                servers.add(server);
+                pushers.add(new Pusher(server.getUrl("stream" + i), new ArrayChannel<RtmpPacket>(64, RtmpPacket.DELETER), CALLBACK));
+            }
+            long start = System.nanoTime();
+            for (final Pusher pusher : pushers) {
+                pusher.start();
+                Thread feeder = new Thread() {
+                    @Override
+                    public void run() {
+                        feed(pusher, FRAMES);
+                    }
+                };
+                feeders.add(feeder);
+                feeder.start();
+            }
+            for (LocalRtmpServer server : servers) {
+                assertTrue(server.awaitMediaMessages(FRAMES + 1, 30000));
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            for (Thread feeder : feeders) {
+                feeder.join();
+            }
+            return (long) count * FRAMES * 1000000000L / elapsedNanos;
+        } finally {
+            for (Pusher pusher : pushers) {
+                pusher.release();
+            }
+            for (LocalRtmpServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    private static void feed(Pusher pusher, int frames) {
+        ArrayChannel<RtmpPacket> queue = pusher.getQueue();
+        queue.enqueue(createSpsPps());
+        ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_SIZE);
+        for (int i = 0; i < frames; i++) {
+            queue.enqueue(RtmpPacket.createForVideo(frame, 0, FRAME_SIZE, i * 33333L, i % 30 == 0));
+        }
+    }
+
+    private static RtmpPacket createSpsPps() {
+        ByteBuffer sps = ByteBuffer.allocateDirect(16);
+        ByteBuffer pps = ByteBuffer.allocateDirect(8);
+        sps.put(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f});
+        pps.put(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80});
+        return RtmpPacket.createForSpsPps(sps, 0, 16, pps, 0, 8);
+    }
+}
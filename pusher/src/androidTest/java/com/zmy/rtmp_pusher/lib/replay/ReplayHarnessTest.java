@@ -0,0 +1,125 @@
+package com.zmy.rtmp_pusher.lib.replay;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.zmy.rtmp_pusher.lib.LocalRtmpServer;
+import com.zmy.rtmp_pusher.lib.encoder.TimestampNormalizer;
+import com.zmy.rtmp_pusher.lib.pusher.CongestionPolicy;
+import com.zmy.rtmp_pusher.lib.pusher.FanOut;
+import com.zmy.rtmp_pusher.lib.pusher.Interleaver;
+import com.zmy.rtmp_pusher.lib.pusher.Pusher;
+import com.zmy.rtmp_pusher.lib.pusher.PusherCallback;
+import com.zmy.rtmp_pusher.lib.pusher.PusherException;
+import com.zmy.rtmp_pusher.lib.pusher.SendQueue;
+import com.zmy.rtmp_pusher.lib.transport.NativeTransport;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays a synthetic session through the same queue chain as
+ * {@link com.zmy.rtmp_pusher.lib.RtmpPusher} into a {@link LocalRtmpServer} and logs the report.
+ * Swap the synthetic file for a recorded one to check the send path against a real stream.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ReplayHarnessTest {
+    private static final String TAG = ReplayHarnessTest.class.getSimpleName();
+    private static final int SECONDS = 8;
+    private static final int FPS = 30;
+    private static final int GOP = 60;
+    //44100Hz下每帧1024个采样
+    private static final long AUDIO_FRAME_US = 1024 * 1000000L / 44100;
+    private static final float SPEED = 4;
+
+    private static final PusherCallback CALLBACK = new PusherCallback() {
+        @Override
+        public void onPushError(PusherException exception) {
+            Log.w(TAG, "push error", exception);
+        }
+    };
+
+    @BeforeClass
+    public static void loadLibrary() {
+        System.loadLibrary("pusher");
+    }
+
+    @Test
+    public void replayDeliversEveryFrame() throws Exception {
+        File file = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "replay.session");
+        int[] counts = writeSession(file);
+        int mediaFrames = counts[0] + counts[1];
+
+        LocalRtmpServer server = new LocalRtmpServer();
+        TimingTransport.Factory transports = new TimingTransport.Factory(NativeTransport.FACTORY, 4096);
+        SendQueue sendQueue = new SendQueue(256, CongestionPolicy.DEFAULT);
+        Pusher pusher = new Pusher(server.getUrl("replay"), transports, sendQueue, CALLBACK);
+        FanOut fanOut = new FanOut();
+        fanOut.addOutput(sendQueue);
+        TimestampNormalizer input = new TimestampNormalizer(new Interleaver(fanOut, 300), 0);
+        ReplayStats stats = new ReplayStats(pusher, sendQueue, 250);
+        try {
+            pusher.start();
+            stats.start();
+            SessionReplayer replayer = new SessionReplayer(file, input, SPEED);
+            long start = System.nanoTime();
+            long packets = replayer.replay();
+            input.flush();
+            //两个配置包也算媒体消息
+            assertTrue(server.awaitMediaMessages(mediaFrames + 2, 10000));
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            stats.stop();
+            Log.i(TAG, "replayed " + packets + " packets at " + SPEED + "x in " + elapsedMs + "ms, max lag "
+                    + replayer.getMaxLagMs() + "ms\n" + stats.report(transports.getLast()));
+            assertEquals(mediaFrames + 2, packets);
+            assertEquals(0, pusher.getDroppedFrames());
+            //4倍速下应该明显快于实时
+            assertTrue("took " + elapsedMs + "ms", elapsedMs < SECONDS * 1000);
+        } finally {
+            stats.stop();
+            pusher.release();
+            server.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * @return {video frames, audio frames}
+     */
+    private static int[] writeSession(File file) throws IOException {
+        ByteBuffer sps = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f});
+        ByteBuffer pps = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80});
+        ByteBuffer frame = ByteBuffer.allocate(120 * 1024);
+        frame.putInt(0, 1);
+        frame.put(4, (byte) 0x65);
+        SessionWriter writer = new SessionWriter(file);
+        writer.writeVideoFormat(sps, pps, 1280, 720);
+        writer.writeAudioFormat(ByteBuffer.wrap(new byte[]{0x12, 0x10}), 44100, 2);
+        int video = 0;
+        int audio = 0;
+        long endUs = SECONDS * 1000000L;
+        long videoUs = 0;
+        long audioUs = 0;
+        while (videoUs < endUs || audioUs < endUs) {
+            if (videoUs <= audioUs) {
+                boolean keyFrame = video % GOP == 0;
+                writer.writeVideo(frame, 0, keyFrame ? 120 * 1024 : 12 * 1024 + (video % 7) * 1024, videoUs, keyFrame);
+                videoUs = ++video * 1000000L / FPS;
+            } else {
+                writer.writeAudio(frame, 0, 370, audioUs);
+                audioUs = ++audio * AUDIO_FRAME_US;
+            }
+        }
+        writer.close();
+        return new int[]{video, audio};
+    }
+}
@@ -0,0 +1,92 @@
+package com.zmy.rtmp_pusher.lib.transport;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.zmy.rtmp_pusher.lib.LocalRtmpServer;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends ten seconds of 30fps video through each transport at chunk sizes 128, 4096 and 65536 and
+ * logs the chunk header overhead and the socket writes per second of video.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChunkSizeBenchmarkTest {
+    private static final String TAG = ChunkSizeBenchmarkTest.class.getSimpleName();
+    private static final int SECONDS = 10;
+    private static final int FPS = 30;
+    private static final int KEY_FRAME_SIZE = 200 * 1024;
+    private static final int P_FRAME_SIZE = 20 * 1024;
+    private static final int[] CHUNK_SIZES = {128, 4096, 65536};
+
+    @BeforeClass
+    public static void loadLibrary() {
+        System.loadLibrary("pusher");
+    }
+
+    @Test
+    public void nativeTransport() throws Exception {
+        compare("native", NativeTransport.FACTORY);
+    }
+
+    @Test
+    public void nioTransport() throws Exception {
+        compare("nio", new NioRtmpTransport.Builder().factory());
+    }
+
+    private static void compare(String name, Transport.Factory factory) throws Exception {
+        double[][] results = new double[CHUNK_SIZES.length][];
+        for (int i = 0; i < CHUNK_SIZES.length; i++) {
+            results[i] = run(factory, CHUNK_SIZES[i]);
+            Log.i(TAG, String.format("%s chunk=%d: header overhead %.3f%%, %.1f writes per second of video",
+                    name, CHUNK_SIZES[i], results[i][0] * 100, results[i][1]));
+        }
+        assertTrue(results[1][0] < results[0][0]);
+        assertTrue(results[2][0] <= results[1][0]);
+        assertTrue(results[1][1] <= results[0][1]);
+    }
+
+    /**
+     * @return {header bytes / body bytes, writes per second of video}
+     */
+    private static double[] run(Transport.Factory factory, int chunkSize) throws Exception {
+        LocalRtmpServer server = new LocalRtmpServer();
+        Transport transport = factory.create(server.getUrl("chunk" + chunkSize));
+        ByteBuffer data = ByteBuffer.allocateDirect(KEY_FRAME_SIZE);
+        RtmpPacket[] batch = new RtmpPacket[1];
+        try {
+            transport.setChunkSize(chunkSize);
+            transport.connect();
+            long writes = transport.getWriteCalls();
+            long headers = transport.getHeaderBytes();
+            long written = transport.getWrittenBytes();
+            int frames = SECONDS * FPS;
+            for (int i = 0; i < frames; i++) {
+                boolean key = i % FPS == 0;
+                batch[0] = RtmpPacket.createForVideo(data, 0, key ? KEY_FRAME_SIZE : P_FRAME_SIZE, i * 1000000L / FPS, key);
+                try {
+                    //编码器逐帧输出,每帧单独发送
+                    transport.send(batch, 1);
+                } finally {
+                    batch[0].release();
+                }
+            }
+            assertTrue(server.awaitMediaMessages(frames, 10000));
+            long headerBytes = transport.getHeaderBytes() - headers;
+            long bodyBytes = transport.getWrittenBytes() - written - headerBytes;
+            return new double[]{(double) headerBytes / bodyBytes, (double) (transport.getWriteCalls() - writes) / SECONDS};
+        } finally {
+            transport.close();
+            server.close();
+        }
+    }
+}
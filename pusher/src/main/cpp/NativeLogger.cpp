@@ -10,6 +10,10 @@
 NativeLogger::NativeLogger(JavaVM *jvm, jobject logger) : jvm(jvm) {
     JNIEnvPtr env(jvm);
     logger_ref = env->NewGlobalRef(logger);
+    //每条消息都查一次类和方法太慢,这里查一次缓存起来
+    jclass clazz = env->GetObjectClass(logger);
+    print_method = env->GetMethodID(clazz, "print", "(ILjava/lang/String;Ljava/lang/String;)V");
+    env->DeleteLocalRef(clazz);
 }
 
 NativeLogger::~NativeLogger() {
@@ -35,11 +39,12 @@ int getLevel(RTMP_LogLevel level) {
 
 void NativeLogger::print(RTMP_LogLevel level, const char *tag, const char *msg) {
     JNIEnvPtr env(jvm);
-    jclass clazz = env->FindClass("com/zmy/rtmp_pusher/lib/log/RtmpLogger");
-    jmethodID print_method = env->GetMethodID(clazz, "print", "(ILjava/lang/String;Ljava/lang/String;)V");
     int android_level = getLevel(level);
     jstring tag_string = env->NewStringUTF(tag);
     jstring msg_string = env->NewStringUTF(msg);
     env->CallVoidMethod(logger_ref, print_method, android_level, tag_string, msg_string);
+    //推流线程是attach上来的,不会回到Java释放局部引用
+    env->DeleteLocalRef(tag_string);
+    env->DeleteLocalRef(msg_string);
 }
 
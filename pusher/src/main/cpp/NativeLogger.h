@@ -12,6 +12,7 @@ class NativeLogger {
 private:
     JavaVM *jvm = nullptr;
     jobject logger_ref = nullptr;
+    jmethodID print_method = nullptr;
 public:
     NativeLogger(JavaVM *jvm, jobject logger);
 
@@ -0,0 +1,127 @@
+//
+// Created by zmy on 2021/10/12.
+//
+
+#include "PacketPool.h"
+#include <cstdlib>
+
+//块头放在返回给调用者的地址前面,保持16字节对齐
+static const size_t HEADER_SIZE = 16;
+
+PacketPool &PacketPool::instance() {
+    static PacketPool pool;
+    return pool;
+}
+
+PacketPool::PacketPool() {
+    size_t block_size = MIN_BLOCK_SIZE;
+    for (int i = 0; i < CLASS_COUNT; i++) {
+        classes[i].block_size = block_size;
+        classes[i].max_cached = static_cast<int64_t>(MAX_CACHED_BYTES_PER_CLASS / block_size);
+        if (classes[i].max_cached < 2) classes[i].max_cached = 2;
+        block_size <<= 1;
+    }
+}
+
+int PacketPool::class_of(size_t size) {
+    size_t block_size = MIN_BLOCK_SIZE;
+    for (int i = 0; i < CLASS_COUNT; i++) {
+        if (size <= block_size) return i;
+        block_size <<= 1;
+    }
+    return CLASS_COUNT;
+}
+
+void *PacketPool::acquire(size_t size) {
+    int index = class_of(size);
+    SizeClass &size_class = classes[index];
+    Block *block = nullptr;
+    {
+        std::lock_guard<std::mutex> guard(size_class.mutex);
+        size_class.acquired++;
+        if (size_class.free_list) {
+            block = size_class.free_list;
+            size_class.free_list = block->next;
+            size_class.cached--;
+        } else {
+            size_class.allocated++;
+        }
+        size_class.in_use++;
+        if (size_class.in_use > size_class.high_water_mark) {
+            size_class.high_water_mark = size_class.in_use;
+        }
+    }
+    if (!block) {
+        size_t block_size = index < CLASS_COUNT ? size_class.block_size : size;
+        block = static_cast<Block *>(malloc(HEADER_SIZE + block_size));
+        if (!block) {
+            std::lock_guard<std::mutex> guard(size_class.mutex);
+            size_class.in_use--;
+            return nullptr;
+        }
+        block->size_class = static_cast<uint32_t>(index);
+    }
+    return reinterpret_cast<char *>(block) + HEADER_SIZE;
+}
+
+void PacketPool::release(void *ptr) {
+    if (!ptr) return;
+    auto *block = reinterpret_cast<Block *>(static_cast<char *>(ptr) - HEADER_SIZE);
+    SizeClass &size_class = classes[block->size_class];
+    {
+        std::lock_guard<std::mutex> guard(size_class.mutex);
+        size_class.in_use--;
+        if (enabled && block->size_class < CLASS_COUNT && size_class.cached < size_class.max_cached) {
+            block->next = size_class.free_list;
+            size_class.free_list = block;
+            size_class.cached++;
+            return;
+        }
+    }
+    free(block);
+}
+
+void PacketPool::trim() {
+    for (auto &size_class : classes) {
+        Block *block;
+        {
+            std::lock_guard<std::mutex> guard(size_class.mutex);
+            block = size_class.free_list;
+            size_class.free_list = nullptr;
+            size_class.cached = 0;
+        }
+        while (block) {
+            Block *next = block->next;
+            free(block);
+            block = next;
+        }
+    }
+}
+
+void PacketPool::set_enabled(bool enable) {
+    enabled = enable;
+    if (!enable) trim();
+}
+
+void PacketPool::get_stats(int64_t *out) {
+    for (int i = 0; i <= CLASS_COUNT; i++) {
+        SizeClass &size_class = classes[i];
+        std::lock_guard<std::mutex> guard(size_class.mutex);
+        int64_t *row = out + i * STATS_FIELDS;
+        row[0] = i < CLASS_COUNT ? static_cast<int64_t>(size_class.block_size) : 0;
+        row[1] = size_class.acquired;
+        row[2] = size_class.allocated;
+        row[3] = size_class.in_use;
+        row[4] = size_class.high_water_mark;
+        row[5] = size_class.cached;
+    }
+}
+
+void PacketPool::reset_stats() {
+    for (auto &size_class : classes) {
+        std::lock_guard<std::mutex> guard(size_class.mutex);
+        size_class.acquired = 0;
+        size_class.allocated = 0;
+        size_class.high_water_mark = size_class.in_use;
+    }
+}
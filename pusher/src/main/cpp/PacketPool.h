@@ -0,0 +1,75 @@
+//
+// Created by zmy on 2021/10/12.
+//
+
+#ifndef RTMP_PUSHER_PACKETPOOL_H
+#define RTMP_PUSHER_PACKETPOOL_H
+
+#include <cstddef>
+#include <cstdint>
+#include <mutex>
+
+/**
+ * 按大小分级的packet body缓存池。每一级的块大小是上一级的2倍(256B~8MB),释放的块挂回所属级别的空闲链表,
+ * 超过最大级别的请求直接走malloc。每一级缓存的总字节数有上限,超出的块直接free。
+ */
+class PacketPool {
+public:
+    static const int CLASS_COUNT = 16;
+    static const size_t MIN_BLOCK_SIZE = 256;
+    //每一级空闲链表最多缓存的字节数
+    static const size_t MAX_CACHED_BYTES_PER_CLASS = 8 * 1024 * 1024;
+    //每一级统计信息的字段数,和java层PacketPool.Stats对应
+    static const int STATS_FIELDS = 6;
+
+    static PacketPool &instance();
+
+    void *acquire(size_t size);
+
+    void release(void *block);
+
+    /**
+     * 释放所有空闲块
+     */
+    void trim();
+
+    void set_enabled(bool enabled);
+
+    /**
+     * 每一级依次写入 block_size, acquired, allocated, in_use, high_water_mark, cached,
+     * 最后一级之后是超大块的统计,block_size为0
+     */
+    void get_stats(int64_t *out);
+
+    void reset_stats();
+
+private:
+    struct Block {
+        //所属级别,CLASS_COUNT表示超大块
+        uint32_t size_class;
+        uint32_t padding;
+        Block *next;
+    };
+
+    struct SizeClass {
+        std::mutex mutex;
+        size_t block_size = 0;
+        Block *free_list = nullptr;
+        int64_t cached = 0;
+        int64_t max_cached = 0;
+        int64_t acquired = 0;
+        int64_t allocated = 0;
+        int64_t in_use = 0;
+        int64_t high_water_mark = 0;
+    };
+
+    SizeClass classes[CLASS_COUNT + 1];
+    volatile bool enabled = true;
+
+    PacketPool();
+
+    static int class_of(size_t size);
+};
+
+
+#endif //RTMP_PUSHER_PACKETPOOL_H
@@ -8,20 +8,94 @@
 #include <log.h>
 #include <string>
 #include "RtmpPacket.h"
+#include "PacketPool.h"
 
-RtmpPacket::RtmpPacket() {
-    packet = static_cast<RTMPPacket *>(malloc(sizeof(RTMPPacket)));
-}
+RtmpPacket::RtmpPacket() = default;
 
-void RtmpPacket::init(int size) {
+bool RtmpPacket::init(int size) {
     this->body_size = size;
-    RTMPPacket_Alloc(packet, size);
-    RTMPPacket_Reset(packet);
+    RTMPPacket_Reset(&packet);
+    //和RTMPPacket_Alloc一样在body前面预留chunk头的空间
+    buffer = static_cast<char *>(PacketPool::instance().acquire(RTMP_MAX_HEADER_SIZE + size));
+    if (!buffer) return false;
+    packet.m_body = buffer + RTMP_MAX_HEADER_SIZE;
+    return true;
+}
+
+
+const RTMPPacket *RtmpPacket::getPacket() const {
+    return &packet;
+}
+
+void RtmpPacket::retain() {
+    ref_count.fetch_add(1, std::memory_order_relaxed);
+}
+
+int RtmpPacket::release() {
+    //最后一个引用释放前,其他线程对body的读取必须已经完成
+    int remaining = ref_count.fetch_sub(1, std::memory_order_acq_rel) - 1;
+    if (remaining == 0) {
+        delete this;
+    }
+    return remaining;
 }
 
+int RtmpPacket::get_ref_count() const {
+    return ref_count.load(std::memory_order_relaxed);
+}
+
+void RtmpPacket::set_timestamps(uint32_t dts, int32_t composition_time) {
+    timestamp = dts;
+    if (packet.m_packetType != RTMP_PACKET_TYPE_VIDEO) return;
+    char *body = prefix_size > 0 ? prefix : packet.m_body;
+    uint32_t size = prefix_size > 0 ? prefix_size : packet.m_nBodySize;
+    //只有AVC NALU(AVCPacketType为1)带composition time
+    if (!body || size < 5 || body[1] != 0x01) return;
+    body[2] = (composition_time >> 16) & 0xff;
+    body[3] = (composition_time >> 8) & 0xff;
+    body[4] = composition_time & 0xff;
+}
+
+bool RtmpPacket::has_timestamp() const {
+    return timestamp >= 0;
+}
+
+uint32_t RtmpPacket::get_timestamp() const {
+    return static_cast<uint32_t>(timestamp);
+}
+
+const char *RtmpPacket::get_prefix() const {
+    return prefix;
+}
 
-RTMPPacket *RtmpPacket::getPacket() const {
-    return packet;
+uint32_t RtmpPacket::get_prefix_size() const {
+    return prefix_size;
+}
+
+const char *RtmpPacket::get_data() const {
+    return payload ? payload : packet.m_body;
+}
+
+uint32_t RtmpPacket::get_data_size() const {
+    return packet.m_nBodySize - prefix_size;
+}
+
+RtmpPacket *RtmpPacket::create_for_video_segments(const char *header, int header_length, const char *payload, int payload_length) {
+    if (!header || !payload || header_length <= 0 || payload_length <= 0) return nullptr;
+    if (header_length > static_cast<int>(sizeof(RtmpPacket::prefix))) return nullptr;
+    auto rtmp_packet = new RtmpPacket();
+    RTMPPacket_Reset(&rtmp_packet->packet);
+    memcpy(rtmp_packet->prefix, header, header_length);
+    rtmp_packet->prefix_size = header_length;
+    rtmp_packet->payload = payload;
+    rtmp_packet->body_size = header_length + payload_length;
+
+    rtmp_packet->packet.m_packetType = RTMP_PACKET_TYPE_VIDEO;
+    rtmp_packet->packet.m_nBodySize = rtmp_packet->body_size;
+    rtmp_packet->packet.m_hasAbsTimestamp = 0;
+    rtmp_packet->packet.m_nChannel = 0x04;//音频或者视频
+    rtmp_packet->packet.m_headerType = RTMP_PACKET_SIZE_LARGE;
+    return rtmp_packet;
 }
 
 int get_start_code_length(const char *data, int len) {
@@ -55,8 +129,11 @@ RtmpPacket *RtmpPacket::create_for_sps_pps(char *sps, int sps_length, char *pps,
 
     auto rtmp_packet = new RtmpPacket();
     int body_size = sps_no_start_code_length + pps_no_start_code_length + 16;
-    rtmp_packet->init(body_size);
-    char *body = rtmp_packet->packet->m_body;
+    if (!rtmp_packet->init(body_size)) {
+        rtmp_packet->release();
+        return nullptr;
+    }
+    char *body = rtmp_packet->packet.m_body;
 
     int i = 0;
     //frame type(4bit)和CodecId(4bit)合成一个字节(byte)
@@ -102,11 +179,11 @@ RtmpPacket *RtmpPacket::create_for_sps_pps(char *sps, int sps_length, char *pps,
     //pps data 内容
     memcpy(&body[i], pps_no_start_code, pps_no_start_code_length);
 
-    rtmp_packet->packet->m_packetType = RTMP_PACKET_TYPE_VIDEO;
-    rtmp_packet->packet->m_nBodySize = body_size;
-    rtmp_packet->packet->m_hasAbsTimestamp = 0;
-    rtmp_packet->packet->m_nChannel = 0x04;//音频或者视频
-    rtmp_packet->packet->m_headerType = RTMP_PACKET_SIZE_MEDIUM;
+    rtmp_packet->packet.m_packetType = RTMP_PACKET_TYPE_VIDEO;
+    rtmp_packet->packet.m_nBodySize = body_size;
+    rtmp_packet->packet.m_hasAbsTimestamp = 0;
+    rtmp_packet->packet.m_nChannel = 0x04;//音频或者视频
+    rtmp_packet->packet.m_headerType = RTMP_PACKET_SIZE_MEDIUM;
     return rtmp_packet;
 }
 
@@ -119,10 +196,13 @@ RtmpPacket *RtmpPacket::create_for_video(char *data, int data_length, bool keyFr
     char *data_no_start_code = data + start_code_length;
     int body_size = data_no_start_code_length + 9;
     auto rtmpPacket = new RtmpPacket();
-    rtmpPacket->init(body_size);
+    if (!rtmpPacket->init(body_size)) {
+        rtmpPacket->release();
+        return nullptr;
+    }
 
 
-    char *body = rtmpPacket->packet->m_body;
+    char *body = rtmpPacket->packet.m_body;
 
     int i = 0;
     //frame type(4bit)和CodecId(4bit)合成一个字节(byte)
@@ -148,11 +228,11 @@ RtmpPacket *RtmpPacket::create_for_video(char *data, int data_length, bool keyFr
     //data
     memcpy(&body[i], data_no_start_code, data_no_start_code_length);
 
-    rtmpPacket->packet->m_packetType = RTMP_PACKET_TYPE_VIDEO;
-    rtmpPacket->packet->m_nBodySize = body_size;
-    rtmpPacket->packet->m_hasAbsTimestamp = 0;
-    rtmpPacket->packet->m_nChannel = 0x04;//音频或者视频
-    rtmpPacket->packet->m_headerType = RTMP_PACKET_SIZE_LARGE;
+    rtmpPacket->packet.m_packetType = RTMP_PACKET_TYPE_VIDEO;
+    rtmpPacket->packet.m_nBodySize = body_size;
+    rtmpPacket->packet.m_hasAbsTimestamp = 0;
+    rtmpPacket->packet.m_nChannel = 0x04;//音频或者视频
+    rtmpPacket->packet.m_headerType = RTMP_PACKET_SIZE_LARGE;
 
     return rtmpPacket;
 }
@@ -211,8 +291,11 @@ char getChannelCountMask(int channels) {
 RtmpPacket *RtmpPacket::create_for_audio(char *data, int data_len, bool is_audiO_specific_config, int sample_rate, int channels, int bytes_per_sample) {
     auto rtmpPacket = new RtmpPacket();
     int body_size = data_len + 2;
-    rtmpPacket->init(body_size);
-    char *body = rtmpPacket->packet->m_body;
+    if (!rtmpPacket->init(body_size)) {
+        rtmpPacket->release();
+        return nullptr;
+    }
+    char *body = rtmpPacket->packet.m_body;
     char byte = 0xA0;//前四位表示音频数据格式  10（十进制）表示AAC，16进制就是A
     byte |= getSampleRateMask(sample_rate);//第5-6位的数值表示采样率，0 = 5.5 kHz，1 = 11 kHz，2 = 22 kHz，3(11) = 44 kHz。
     byte |= getSampleAccuracyMask(bytes_per_sample); //第7位表示采样精度，0 = 8bits，1 = 16bits。
@@ -226,39 +309,18 @@ RtmpPacket *RtmpPacket::create_for_audio(char *data, int data_len, bool is_audiO
     //data
     memcpy(&body[2], data, data_len);
 
-    rtmpPacket->packet->m_packetType = RTMP_PACKET_TYPE_AUDIO;
-    rtmpPacket->packet->m_nBodySize = body_size;
-    rtmpPacket->packet->m_hasAbsTimestamp = 0;
-    rtmpPacket->packet->m_nChannel = 0x04;//音频或者视频
-    rtmpPacket->packet->m_headerType = RTMP_PACKET_SIZE_LARGE;
+    rtmpPacket->packet.m_packetType = RTMP_PACKET_TYPE_AUDIO;
+    rtmpPacket->packet.m_nBodySize = body_size;
+    rtmpPacket->packet.m_hasAbsTimestamp = 0;
+    rtmpPacket->packet.m_nChannel = 0x04;//音频或者视频
+    rtmpPacket->packet.m_headerType = RTMP_PACKET_SIZE_LARGE;
 
     return rtmpPacket;
 }
 
 
 RtmpPacket::~RtmpPacket() {
-    RTMPPacket_Free(packet);
-    free(packet);
-    packet = nullptr;
-}
-
-void RtmpPacket::update_stream_id(int id) {
-    packet->m_nInfoField2 = id;
-}
-
-void RtmpPacket::update_timestamp(uint32_t timestamp) {
-    packet->m_nTimeStamp = timestamp;
-}
-
-RtmpPacket *RtmpPacket::clone() {
-    auto target = new RtmpPacket();
-    target->init(body_size);
-    memcpy(target->getPacket()->m_body, packet->m_body, body_size);
-
-    target->packet->m_packetType = packet->m_packetType;
-    target->packet->m_nBodySize = packet->m_nBodySize;
-    target->packet->m_hasAbsTimestamp = packet->m_hasAbsTimestamp;
-    target->packet->m_nChannel = packet->m_nChannel;
-    target->packet->m_headerType = packet->m_headerType;
-    return target;
+    PacketPool::instance().release(buffer);
+    buffer = nullptr;
+    packet.m_body = nullptr;
 }
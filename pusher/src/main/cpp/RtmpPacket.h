@@ -5,25 +5,77 @@
 #ifndef RTMP_PUSHER_RTMPPACKET_H
 #define RTMP_PUSHER_RTMPPACKET_H
 
+#include <atomic>
+#include <cstdint>
+
+/**
+ * 每次发送时的消息头,packet本身在创建后只读,可以被多个推流实例同时发送
+ */
+struct RtmpSendHeader {
+    uint32_t timestamp;
+    int32_t stream_id;
+};
 
 class RtmpPacket {
-    RTMPPacket *packet = nullptr;
+    RTMPPacket packet = {};
+    //body所在的缓存块,来自PacketPool
+    char *buffer = nullptr;
     int body_size = 0;
+    //分段packet: 小的FLV tag头在prefix里,payload是java层持有的direct buffer
+    char prefix[16];
+    uint32_t prefix_size = 0;
+    const char *payload = nullptr;
+    //媒体时间戳(dts,毫秒),-1表示发送时取当前时间
+    int64_t timestamp = -1;
+    std::atomic<int> ref_count{1};
 
-public:
     RtmpPacket();
 
-    void init(int size);
+    bool init(int size);
+
+    //只能通过release()释放
+    virtual ~RtmpPacket();
+
+public:
 
-    RTMPPacket *getPacket() const;
+    const RTMPPacket *getPacket() const;
 
-    void update_timestamp(uint32_t timestamp);
+    void retain();
 
-    void update_stream_id(int id);
+    /**
+     * @return 释放后剩余的引用数,为0时packet已被删除
+     */
+    int release();
 
-    RtmpPacket *clone();
+    int get_ref_count() const;
 
-    virtual ~RtmpPacket();
+    /**
+     * 设置dts和视频的composition time,只能在packet交给其他线程之前调用
+     */
+    void set_timestamps(uint32_t dts, int32_t composition_time);
+
+    bool has_timestamp() const;
+
+    uint32_t get_timestamp() const;
+
+    /**
+     * body的前一段,普通packet为空
+     */
+    const char *get_prefix() const;
+
+    uint32_t get_prefix_size() const;
+
+    /**
+     * body在prefix之后的部分
+     */
+    const char *get_data() const;
+
+    uint32_t get_data_size() const;
+
+    /**
+     * 不复制payload,payload的内存由调用者保证在packet释放之前有效
+     */
+    static RtmpPacket *create_for_video_segments(const char *header, int header_length, const char *payload, int payload_length);
 
     static RtmpPacket *create_for_sps_pps(char *sps, int sps_length, char *pps, int pps_length);
 
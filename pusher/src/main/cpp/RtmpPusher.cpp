@@ -4,6 +4,11 @@
 
 #include "RtmpPusher.h"
 #include "fcntl.h"
+#include <cerrno>
+#include <cstring>
+#include <sys/socket.h>
+#include <unistd.h>
+#include "log.h"
 
 RtmpPusher::RtmpPusher(std::string &&url) : url(std::move(url)) {}
 
@@ -13,18 +18,59 @@ const std::string &RtmpPusher::get_url() const {
 }
 
 bool RtmpPusher::connect() {
+    std::lock_guard<std::mutex> guard(mutex);
+    if (!rtmp || aborted) return false;
+    //tcp连接本身打断不了,连上之后握手和建流都可以被abort打断
     if (RTMP_Connect(rtmp, nullptr) == FALSE) {
         return false;
     }
+    set_socket(rtmp->m_sb.sb_socket);
+    if (aborted) return false;
     if (RTMP_ConnectStream(rtmp, 0) == FALSE) {
         return false;
     }
+    if (chunk_size != rtmp->m_outChunkSize && !send_chunk_size()) {
+        return false;
+    }
     return true;
 }
 
+bool RtmpPusher::send_chunk_size() {
+    RTMPPacket packet = {};
+    if (!RTMPPacket_Alloc(&packet, 4)) return false;
+    packet.m_packetType = RTMP_PACKET_TYPE_CHUNK_SIZE;
+    packet.m_nChannel = 0x02;
+    packet.m_headerType = RTMP_PACKET_SIZE_LARGE;
+    packet.m_nInfoField2 = 0;
+    packet.m_nBodySize = 4;
+    packet.m_body[0] = static_cast<char>((chunk_size >> 24) & 0x7f);
+    packet.m_body[1] = static_cast<char>(chunk_size >> 16);
+    packet.m_body[2] = static_cast<char>(chunk_size >> 8);
+    packet.m_body[3] = static_cast<char>(chunk_size);
+    bool success = RTMP_SendPacket(rtmp, &packet, FALSE);
+    RTMPPacket_Free(&packet);
+    //librtmp发送时不会记录自己发出的chunk size,之后的packet按新大小切分
+    if (success) rtmp->m_outChunkSize = chunk_size;
+    return success;
+}
+
+void RtmpPusher::set_chunk_size(int size) {
+    std::lock_guard<std::mutex> guard(mutex);
+    chunk_size = size;
+}
+
+void RtmpPusher::get_send_stats(int64_t *out) {
+    std::lock_guard<std::mutex> guard(mutex);
+    out[0] = send_calls;
+    out[1] = header_bytes;
+    out[2] = written_bytes;
+}
+
 
 bool RtmpPusher::init() {
+    std::lock_guard<std::mutex> guard(mutex);
     release();
+    if (aborted) return false;
     rtmp = RTMP_Alloc();
     if (!rtmp)return false;
     RTMP_Init(rtmp);
@@ -37,6 +83,7 @@ bool RtmpPusher::init() {
 }
 
 void RtmpPusher::release() {
+    set_socket(-1);
     if (rtmp) {
         RTMP_Close(rtmp);
         RTMP_Free(rtmp);
@@ -48,16 +95,193 @@ RtmpPusher::~RtmpPusher() {
     release();
 }
 
+void RtmpPusher::set_socket(int fd) {
+    int copy = fd >= 0 ? dup(fd) : -1;
+    std::lock_guard<std::mutex> guard(socket_mutex);
+    if (socket_fd >= 0) ::close(socket_fd);
+    socket_fd = copy;
+}
 
-bool RtmpPusher::push(RtmpPacket *packet) {
-    if (!rtmp) {
-        return false;
+void RtmpPusher::abort() {
+    aborted = true;
+    std::lock_guard<std::mutex> guard(socket_mutex);
+    //shutdown作用在socket上,阻塞在原fd上的send/recv会马上返回
+    if (socket_fd >= 0) ::shutdown(socket_fd, SHUT_RDWR);
+}
+
+
+/**
+ * 发送一批packet,返回从头开始连续发送成功的数量。packet可能同时被多个推流实例发送,这里只读不改,由java层释放
+ */
+int RtmpPusher::push_batch(RtmpPacket **packets, int count) {
+    int sent = 0;
+    std::lock_guard<std::mutex> guard(mutex);
+    if (rtmp && !aborted && RTMP_IsConnected(rtmp)) {
+        if (can_write_directly()) {
+            sent = write_batch(packets, count);
+        } else {
+            //rtmpt/rtmpe/rtmps需要经过librtmp的socket封装
+            while (sent < count) {
+                RtmpSendHeader header = {timestamp_of(packets[sent]), rtmp->m_stream_id};
+                if (!send_with_librtmp(packets[sent], header)) break;
+                sent++;
+            }
+        }
+    }
+    return sent;
+}
+
+bool RtmpPusher::can_write_directly() {
+    return (rtmp->Link.protocol & (RTMP_FEATURE_HTTP | RTMP_FEATURE_ENC | RTMP_FEATURE_SSL)) == 0;
+}
+
+/**
+ * RTMP_SendPacket会把chunk头写进body前后的内存,共享的packet不能直接交给它,只能发一份私有副本
+ */
+bool RtmpPusher::send_with_librtmp(const RtmpPacket *packet, const RtmpSendHeader &header) {
+    const RTMPPacket *src = packet->getPacket();
+    RTMPPacket copy = {};
+    if (!RTMPPacket_Alloc(&copy, src->m_nBodySize)) return false;
+    memcpy(copy.m_body, packet->get_prefix(), packet->get_prefix_size());
+    memcpy(copy.m_body + packet->get_prefix_size(), packet->get_data(), packet->get_data_size());
+    copy.m_headerType = src->m_headerType;
+    copy.m_packetType = src->m_packetType;
+    copy.m_nChannel = src->m_nChannel;
+    copy.m_hasAbsTimestamp = src->m_hasAbsTimestamp;
+    copy.m_nBodySize = src->m_nBodySize;
+    copy.m_nTimeStamp = header.timestamp;
+    copy.m_nInfoField2 = header.stream_id;
+    bool success = RTMP_SendPacket(rtmp, &copy, 1);
+    RTMPPacket_Free(&copy);
+    return success;
+}
+
+static int encode_chunk_header(char *out, bool first, const RTMPPacket *packet, const RtmpSendHeader &send_header) {
+    int channel = packet->m_nChannel;
+    uint32_t timestamp = send_header.timestamp;
+    int stream_id = send_header.stream_id;
+    int i = 0;
+    char fmt = first ? 0x00 : static_cast<char>(0xC0);
+    if (channel < 64) {
+        out[i++] = static_cast<char>(fmt | channel);
+    } else if (channel < 64 + 256) {
+        out[i++] = fmt;
+        out[i++] = static_cast<char>(channel - 64);
+    } else {
+        out[i++] = static_cast<char>(fmt | 1);
+        out[i++] = static_cast<char>((channel - 64) & 0xff);
+        out[i++] = static_cast<char>((channel - 64) >> 8);
+    }
+    bool extended = timestamp >= 0xffffff;
+    if (first) {
+        uint32_t ts = extended ? 0xffffff : timestamp;
+        out[i++] = static_cast<char>(ts >> 16);
+        out[i++] = static_cast<char>(ts >> 8);
+        out[i++] = static_cast<char>(ts);
+        out[i++] = static_cast<char>(packet->m_nBodySize >> 16);
+        out[i++] = static_cast<char>(packet->m_nBodySize >> 8);
+        out[i++] = static_cast<char>(packet->m_nBodySize);
+        out[i++] = static_cast<char>(packet->m_packetType);
+        //stream id是小端序
+        out[i++] = static_cast<char>(stream_id);
+        out[i++] = static_cast<char>(stream_id >> 8);
+        out[i++] = static_cast<char>(stream_id >> 16);
+        out[i++] = static_cast<char>(stream_id >> 24);
+    }
+    if (extended) {
+        out[i++] = static_cast<char>(timestamp >> 24);
+        out[i++] = static_cast<char>(timestamp >> 16);
+        out[i++] = static_cast<char>(timestamp >> 8);
+        out[i++] = static_cast<char>(timestamp);
+    }
+    return i;
+}
+
+/**
+ * 自己切分chunk,每个packet都用type 0头,整批通过scatter-gather一次或少数几次写入socket,
+ * 不修改packet本身,也不依赖librtmp记录的上一个packet头
+ */
+int RtmpPusher::write_batch(RtmpPacket **packets, int count) {
+    int chunk_size = rtmp->m_outChunkSize;
+    int iov_count = 0;
+    int header_count = 0;
+    int written = 0;
+    int queued = 0;
+    for (int i = 0; i < count; i++) {
+        const RTMPPacket *packet = packets[i]->getPacket();
+        RtmpSendHeader send_header = {timestamp_of(packets[i]), rtmp->m_stream_id};
+        //body可能分成prefix和data两段,一个chunk可能跨两段
+        const char *segments[2] = {packets[i]->get_prefix(), packets[i]->get_data()};
+        uint32_t segment_sizes[2] = {packets[i]->get_prefix_size(), packets[i]->get_data_size()};
+        int segment = 0;
+        uint32_t segment_offset = 0;
+        uint32_t offset = 0;
+        do {
+            if (iov_count + 3 > MAX_IOV) {
+                if (!write_iov(iov_count)) return written;
+                written = queued;
+                iov_count = 0;
+                header_count = 0;
+            }
+            char *header = chunk_headers[header_count++];
+            int header_size = encode_chunk_header(header, offset == 0, packet, send_header);
+            header_bytes += header_size;
+            iov[iov_count].iov_base = header;
+            iov[iov_count].iov_len = header_size;
+            iov_count++;
+            uint32_t size = packet->m_nBodySize - offset;
+            if (size > static_cast<uint32_t>(chunk_size)) size = chunk_size;
+            offset += size;
+            while (size > 0) {
+                while (segment_offset == segment_sizes[segment]) {
+                    segment++;
+                    segment_offset = 0;
+                }
+                uint32_t n = segment_sizes[segment] - segment_offset;
+                if (n > size) n = size;
+                iov[iov_count].iov_base = const_cast<char *>(segments[segment] + segment_offset);
+                iov[iov_count].iov_len = n;
+                iov_count++;
+                segment_offset += n;
+                size -= n;
+            }
+        } while (offset < packet->m_nBodySize);
+        queued = i + 1;
+    }
+    if (iov_count > 0) {
+        if (!write_iov(iov_count)) return written;
+    }
+    return queued;
+}
+
+bool RtmpPusher::write_iov(int iov_count) {
+    struct iovec *current = iov;
+    while (iov_count > 0) {
+        struct msghdr msg = {};
+        msg.msg_iov = current;
+        msg.msg_iovlen = iov_count;
+        ssize_t n = sendmsg(rtmp->m_sb.sb_socket, &msg, MSG_NOSIGNAL);
+        send_calls++;
+        if (n < 0) {
+            if (errno == EINTR) continue;
+            RTMP_Log(RTMP_LOGERROR, "%s, RTMP send error %d", __FUNCTION__, errno);
+            RTMP_Close(rtmp);
+            return false;
+        }
+        written_bytes += n;
+        while (n > 0) {
+            if (static_cast<size_t>(n) >= current->iov_len) {
+                n -= current->iov_len;
+                current++;
+                iov_count--;
+            } else {
+                current->iov_base = static_cast<char *>(current->iov_base) + n;
+                current->iov_len -= n;
+                n = 0;
+            }
+        }
     }
-    packet->update_stream_id(rtmp->m_stream_id);
-    packet->update_timestamp(current_timestamp());
-    int ret = RTMP_SendPacket(rtmp, packet->getPacket(), 1);
-    delete packet;
-    return ret;
+    return true;
 }
 
 uint32_t RtmpPusher::current_timestamp() {
@@ -68,6 +292,14 @@ uint32_t RtmpPusher::current_timestamp() {
     return current - start_time;
 }
 
+/**
+ * 优先使用编码器的媒体时间戳,没有时退回到发送时刻
+ */
+uint32_t RtmpPusher::timestamp_of(const RtmpPacket *packet) {
+    return packet->has_timestamp() ? packet->get_timestamp() : current_timestamp();
+}
+
 bool RtmpPusher::is_connected() {
+    std::lock_guard<std::mutex> guard(mutex);
     return rtmp != nullptr && RTMP_IsConnected(rtmp);
 }
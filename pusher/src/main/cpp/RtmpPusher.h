@@ -5,20 +5,57 @@
 #ifndef RTMP_PUSHER_RTMPPUSHER_H
 #define RTMP_PUSHER_RTMPPUSHER_H
 
+#include <sys/uio.h>
 #include "rtmp.h"
 #include "string"
+#include <mutex>
+#include <atomic>
 #include "RtmpPacket.h"
 
 class RtmpPusher {
 private:
+    //单次sendmsg最多携带的iovec数量,远小于IOV_MAX
+    static const int MAX_IOV = 512;
+    //basic header(3) + message header(11) + extended timestamp(4)
+    static const int MAX_CHUNK_HEADER_SIZE = 18;
+
     std::string url;
+    //每个实例一把锁,不同推流地址之间互不阻塞
+    std::mutex mutex;
     RTMP *rtmp = nullptr;
+    //abort不能等mutex,正在阻塞的connect/push_batch一直持有它
+    std::mutex socket_mutex;
+    //连接socket的dup,librtmp关闭自己的fd后这个fd号也不会被复用
+    int socket_fd = -1;
+    std::atomic<bool> aborted{false};
     uint32_t start_time = 0;
+    //每次连接后用Set Chunk Size通知服务器
+    int chunk_size = RTMP_DEFAULT_CHUNKSIZE;
+    int64_t send_calls = 0;
+    int64_t header_bytes = 0;
+    int64_t written_bytes = 0;
+
+    struct iovec iov[MAX_IOV];
+    char chunk_headers[MAX_IOV][MAX_CHUNK_HEADER_SIZE];
 
     uint32_t current_timestamp();
 
+    uint32_t timestamp_of(const RtmpPacket *packet);
+
     void release();
 
+    void set_socket(int fd);
+
+    bool can_write_directly();
+
+    int write_batch(RtmpPacket **packets, int count);
+
+    bool write_iov(int iov_count);
+
+    bool send_with_librtmp(const RtmpPacket *packet, const RtmpSendHeader &header);
+
+    bool send_chunk_size();
+
 public:
 
     RtmpPusher(std::string &&url);
@@ -32,10 +69,25 @@ public:
 
     virtual ~RtmpPusher();
 
-    bool push(RtmpPacket *pPacket);
+    int push_batch(RtmpPacket **packets, int count);
 
     bool is_connected();
 
+    /**
+     * 可以在其他线程调用:让阻塞中的connect/push_batch尽快失败,之后的调用都直接失败
+     */
+    void abort();
+
+    /**
+     * 下一次connect时生效
+     */
+    void set_chunk_size(int size);
+
+    /**
+     * sendmsg次数、chunk头字节数、写入字节数
+     */
+    void get_send_stats(int64_t *out);
+
 };
 
 
@@ -1,9 +1,11 @@
 #include <jni.h>
 #include <log.h>
+#include <sched.h>
 #include "android/log.h"
 #include "RtmpPusher.h"
 #include "RtmpPacket.h"
 #include "NativeLogger.h"
+#include "PacketPool.h"
 //
 // Created by zmy on 2021/9/24.
 //
@@ -14,6 +16,12 @@ void log_cb(int level, const char *fmt, va_list vl);
 
 extern "C"
 JNIEXPORT void JNICALL native_register_logger(JNIEnv *env, jclass clazz, jobject logger);
+extern "C"
+JNIEXPORT void JNICALL native_set_level(JNIEnv *env, jclass clazz, jint level);
+
+/*-----------------------------------Thread----------------------------------------*/
+extern "C"
+JNIEXPORT jboolean JNICALL native_set_affinity(JNIEnv *env, jclass clazz, jlong cpu_mask);
 
 /*-----------------------------------Pusher----------------------------------------*/
 
@@ -26,9 +34,15 @@ JNIEXPORT jboolean  JNICALL native_init(JNIEnv *env, jclass clazz, jlong handle)
 extern "C"
 JNIEXPORT jboolean  JNICALL native_connect(JNIEnv *env, jclass clazz, jlong handle);
 extern "C"
-JNIEXPORT jboolean  JNICALL native_push(JNIEnv *env, jclass clazz, jlong handle, jlong packet_handle);
+JNIEXPORT jint  JNICALL native_push_batch(JNIEnv *env, jclass clazz, jlong handle, jlongArray packets, jint count);
 extern "C"
 JNIEXPORT jboolean  JNICALL native_is_connected(JNIEnv *env, jclass clazz, jlong handle);
+extern "C"
+JNIEXPORT void  JNICALL native_set_chunk_size(JNIEnv *env, jclass clazz, jlong handle, jint size);
+extern "C"
+JNIEXPORT void  JNICALL native_get_send_stats(JNIEnv *env, jclass clazz, jlong handle, jlongArray out);
+extern "C"
+JNIEXPORT void  JNICALL native_abort(JNIEnv *env, jclass clazz, jlong handle);
 
 
 
@@ -45,15 +59,42 @@ native_create_for_audio(JNIEnv *env, jclass clazz, jobject data, jint offset, ji
                         int channels,
                         int byte_per_sample, jboolean is_config_data);
 extern "C"
-JNIEXPORT void  JNICALL
+JNIEXPORT jlong  JNICALL
+native_create_for_video_segments(JNIEnv *env, jclass clazz, jbyteArray header, jint header_len, jobject payload, jint payload_len);
+extern "C"
+JNIEXPORT jint  JNICALL
 native_release_frame(JNIEnv *env, jclass jobject, jlong handle);
 extern "C"
-JNIEXPORT jlong  JNICALL
-native_clone(JNIEnv *env, jclass jobject, jlong handle);
+JNIEXPORT void  JNICALL
+native_set_timestamps(JNIEnv *env, jclass clazz, jlong handle, jint dts, jint composition_time);
+extern "C"
+JNIEXPORT void  JNICALL
+native_retain(JNIEnv *env, jclass jobject, jlong handle);
+extern "C"
+JNIEXPORT jint  JNICALL
+native_ref_count(JNIEnv *env, jclass jobject, jlong handle);
+extern "C"
+JNIEXPORT jobject  JNICALL
+native_get_prefix(JNIEnv *env, jclass clazz, jlong handle);
+extern "C"
+JNIEXPORT jobject  JNICALL
+native_get_data(JNIEnv *env, jclass clazz, jlong handle);
+
 
 
 
 
+/*-----------------------------------PacketPool----------------------------------------*/
+extern "C"
+JNIEXPORT jint JNICALL native_stats_rows(JNIEnv *env, jclass clazz);
+extern "C"
+JNIEXPORT void JNICALL native_get_stats(JNIEnv *env, jclass clazz, jlongArray out);
+extern "C"
+JNIEXPORT void JNICALL native_reset_stats(JNIEnv *env, jclass clazz);
+extern "C"
+JNIEXPORT void JNICALL native_trim(JNIEnv *env, jclass clazz);
+extern "C"
+JNIEXPORT void JNICALL native_set_enabled(JNIEnv *env, jclass clazz, jboolean enabled);
 
 /*-----------------------------------Err----------------------------------------*/
 extern "C"
@@ -61,22 +102,39 @@ JNIEXPORT jint JNICALL native_get_errno(JNIEnv *env, jclass clazz);
 extern "C"
 JNIEXPORT jobject JNICALL native_err_describe(JNIEnv *env, jclass clazz, jint err);
 
-const char *pusher_class = "com/zmy/rtmp_pusher/lib/pusher/Pusher";
+const char *pusher_class = "com/zmy/rtmp_pusher/lib/transport/NativeTransport";
 static const JNINativeMethod pusher_native_method[] = {
         {"native_new_instance", "(Ljava/lang/String;)J", (void *) native_new_instance},
         {"native_release",      "(J)V",                  (void *) native_release},
         {"native_init",         "(J)Z",                  (void *) native_init},
         {"native_connect",      "(J)Z",                  (void *) native_connect},
-        {"native_push",         "(JJ)Z",                 (void *) native_push},
+        {"native_push_batch",   "(J[JI)I",               (void *) native_push_batch},
         {"native_is_connected", "(J)Z",                  (void *) native_is_connected},
+        {"native_set_chunk_size", "(JI)V",               (void *) native_set_chunk_size},
+        {"native_get_send_stats", "(J[J)V",              (void *) native_get_send_stats},
+        {"native_abort",        "(J)V",                  (void *) native_abort},
 };
 const char *encode_frame_class = "com/zmy/rtmp_pusher/lib/encoder/RtmpPacket";
 static const JNINativeMethod encode_frame_native_method[] = {
         {"native_create_for_sps_pps", "(Ljava/nio/ByteBuffer;IILjava/nio/ByteBuffer;II)J", (void *) native_create_for_sps_pps},
         {"native_create_for_video",   "(Ljava/nio/ByteBuffer;IIZ)J",                       (void *) native_create_for_video},
         {"native_create_for_audio",   "(Ljava/nio/ByteBuffer;IIIIIZ)J",                    (void *) native_create_for_audio},
-        {"native_release_frame",      "(J)V",                                              (void *) native_release_frame},
-        {"native_clone",              "(J)J",                                              (void *) native_clone},
+        {"native_create_for_video_segments", "([BILjava/nio/ByteBuffer;I)J",               (void *) native_create_for_video_segments},
+        {"native_release_frame",      "(J)I",                                              (void *) native_release_frame},
+        {"native_set_timestamps",     "(JII)V",                                            (void *) native_set_timestamps},
+        {"native_retain",             "(J)V",                                              (void *) native_retain},
+        {"native_ref_count",          "(J)I",                                              (void *) native_ref_count},
+        {"native_get_prefix",         "(J)Ljava/nio/ByteBuffer;",                          (void *) native_get_prefix},
+        {"native_get_data",           "(J)Ljava/nio/ByteBuffer;",                          (void *) native_get_data},
+};
+
+const char *packet_pool_class = "com/zmy/rtmp_pusher/lib/encoder/PacketPool";
+static const JNINativeMethod packet_pool_native_method[] = {
+        {"native_stats_rows",  "()I",  (void *) native_stats_rows},
+        {"native_get_stats",   "([J)V", (void *) native_get_stats},
+        {"native_reset_stats", "()V",  (void *) native_reset_stats},
+        {"native_trim",        "()V",  (void *) native_trim},
+        {"native_set_enabled", "(Z)V", (void *) native_set_enabled},
 };
 
 const char *err_class = "com/zmy/rtmp_pusher/lib/exception/Err";
@@ -87,6 +145,11 @@ static const JNINativeMethod err_native_method[] = {
 const char *log_class = "com/zmy/rtmp_pusher/lib/log/RtmpLogManager";
 static const JNINativeMethod log_native_method[] = {
         {"native_register_logger", "(Lcom/zmy/rtmp_pusher/lib/log/RtmpLogger;)V", (void *) native_register_logger},
+        {"native_set_level",       "(I)V",                                        (void *) native_set_level},
+};
+const char *affinity_class = "com/zmy/rtmp_pusher/lib/util/ThreadAffinity";
+static const JNINativeMethod affinity_native_method[] = {
+        {"native_set_affinity", "(J)Z", (void *) native_set_affinity},
 };
 
 JNIEXPORT int register_native_method(JNIEnv *env, const char *clazz_name, const JNINativeMethod *method, jint size) {
@@ -110,6 +173,10 @@ jint JNI_OnLoad(JavaVM *vm, void *reserved) {
                                sizeof(encode_frame_native_method) / sizeof(encode_frame_native_method[0])) != JNI_OK) {
         return JNI_ERR;
     }
+    if (register_native_method(env, packet_pool_class, packet_pool_native_method,
+                               sizeof(packet_pool_native_method) / sizeof(packet_pool_native_method[0])) != JNI_OK) {
+        return JNI_ERR;
+    }
     if (register_native_method(env, err_class, err_native_method,
                                sizeof(err_native_method) / sizeof(err_native_method[0])) != JNI_OK) {
         return JNI_ERR;
@@ -118,6 +185,10 @@ jint JNI_OnLoad(JavaVM *vm, void *reserved) {
                                sizeof(log_native_method) / sizeof(log_native_method[0])) != JNI_OK) {
         return JNI_ERR;
     }
+    if (register_native_method(env, affinity_class, affinity_native_method,
+                               sizeof(affinity_native_method) / sizeof(affinity_native_method[0])) != JNI_OK) {
+        return JNI_ERR;
+    }
     jvm = vm;
     RTMP_LogSetCallback(log_cb);
     return JNI_VERSION_1_6;
@@ -132,9 +203,11 @@ JNIEXPORT void JNI_OnUnload(JavaVM *vm, void *reserved) {
 }
 
 void log_cb(int level, const char *fmt, va_list vl) {
-    if (native_logger != nullptr) {
-        static char buf[2048];
-        vsnprintf(buf, 2048 - 1, fmt, vl);
+    //librtmp已经按RTMP_debuglevel过滤过,这里防止其他调用方绕过
+    if (native_logger != nullptr && level <= RTMP_debuglevel) {
+        //多个推流实例会同时打日志,不能共用静态缓冲区
+        char buf[2048];
+        vsnprintf(buf, sizeof(buf), fmt, vl);
         native_logger->print(static_cast<RTMP_LogLevel>(level), "native_pusher", buf);
     }
 
@@ -151,6 +224,45 @@ JNIEXPORT void JNICALL native_register_logger(JNIEnv *env, jclass clazz, jobject
     }
 }
 
+extern "C"
+JNIEXPORT void JNICALL native_set_level(JNIEnv *env, jclass clazz, jint level) {
+    //android.util.Log的级别换成librtmp的,低于阈值的消息在librtmp里就不再格式化
+    RTMP_LogLevel rtmp_level;
+    switch (level) {
+        case ANDROID_LOG_VERBOSE:
+            rtmp_level = RTMP_LOGALL;
+            break;
+        case ANDROID_LOG_DEBUG:
+            rtmp_level = RTMP_LOGDEBUG2;
+            break;
+        case ANDROID_LOG_INFO:
+            rtmp_level = RTMP_LOGINFO;
+            break;
+        case ANDROID_LOG_WARN:
+            rtmp_level = RTMP_LOGWARNING;
+            break;
+        case ANDROID_LOG_ERROR:
+            rtmp_level = RTMP_LOGERROR;
+            break;
+        default:
+            rtmp_level = RTMP_LOGCRIT;
+            break;
+    }
+    RTMP_LogSetLevel(rtmp_level);
+}
+
+/*-----------------------------------Thread----------------------------------------*/
+extern "C"
+JNIEXPORT jboolean JNICALL native_set_affinity(JNIEnv *env, jclass clazz, jlong cpu_mask) {
+    cpu_set_t set;
+    CPU_ZERO(&set);
+    for (int cpu = 0; cpu < 64 && cpu < CPU_SETSIZE; cpu++) {
+        if ((static_cast<uint64_t>(cpu_mask) >> cpu) & 1) CPU_SET(cpu, &set);
+    }
+    //pid 0表示调用线程
+    return sched_setaffinity(0, sizeof(set), &set) == 0;
+}
+
 /*-----------------------------------Pusher----------------------------------------*/
 extern "C"
 JNIEXPORT jlong JNICALL native_new_instance(JNIEnv *env, jclass thiz, jstring url) {
@@ -179,14 +291,45 @@ JNIEXPORT jboolean JNICALL native_connect(JNIEnv *env, jclass clazz, jlong handl
 }
 
 extern "C"
-JNIEXPORT jboolean  JNICALL native_push(JNIEnv *env, jclass clazz, jlong handle, jlong packet_handle) {
-    return ((RtmpPusher *) handle)->push((RtmpPacket *) packet_handle);
+JNIEXPORT jint  JNICALL native_push_batch(JNIEnv *env, jclass clazz, jlong handle, jlongArray packets, jint count) {
+    const int max_batch = 128;
+    jlong handles[max_batch];
+    RtmpPacket *batch[max_batch];
+    int sent = 0;
+    for (int start = 0; start < count; start += max_batch) {
+        int n = count - start < max_batch ? count - start : max_batch;
+        env->GetLongArrayRegion(packets, start, n, handles);
+        for (int i = 0; i < n; i++) {
+            batch[i] = (RtmpPacket *) handles[i];
+        }
+        //前面的批次失败后连接已关闭,后续批次返回0
+        int ret = ((RtmpPusher *) handle)->push_batch(batch, n);
+        if (sent == start) sent += ret;
+    }
+    return sent;
 }
 extern "C"
 JNIEXPORT jboolean  JNICALL native_is_connected(JNIEnv *env, jclass clazz, jlong handle) {
     return ((RtmpPusher *) handle)->is_connected();
 }
 
+extern "C"
+JNIEXPORT void  JNICALL native_set_chunk_size(JNIEnv *env, jclass clazz, jlong handle, jint size) {
+    ((RtmpPusher *) handle)->set_chunk_size(size);
+}
+
+extern "C"
+JNIEXPORT void  JNICALL native_get_send_stats(JNIEnv *env, jclass clazz, jlong handle, jlongArray out) {
+    int64_t stats[3];
+    ((RtmpPusher *) handle)->get_send_stats(stats);
+    env->SetLongArrayRegion(out, 0, 3, reinterpret_cast<const jlong *>(stats));
+}
+
+extern "C"
+JNIEXPORT void  JNICALL native_abort(JNIEnv *env, jclass clazz, jlong handle) {
+    ((RtmpPusher *) handle)->abort();
+}
+
 
 
 
@@ -216,19 +359,81 @@ native_create_for_audio(JNIEnv *env, jclass clazz, jobject data, jint offset, ji
 }
 
 extern "C"
-JNIEXPORT void  JNICALL
+JNIEXPORT jlong  JNICALL
+native_create_for_video_segments(JNIEnv *env, jclass clazz, jbyteArray header, jint header_len, jobject payload, jint payload_len) {
+    jbyte header_data[16];
+    if (header_len <= 0 || header_len > static_cast<jint>(sizeof(header_data))) return 0;
+    env->GetByteArrayRegion(header, 0, header_len, header_data);
+    auto *payload_data = (const char *) env->GetDirectBufferAddress(payload);
+    return (int64_t) RtmpPacket::create_for_video_segments((const char *) header_data, header_len, payload_data, payload_len);
+}
+
+extern "C"
+JNIEXPORT jint  JNICALL
 native_release_frame(JNIEnv *env, jclass jobject, jlong handle) {
-    delete (RtmpPacket *) handle;
+    return ((RtmpPacket *) handle)->release();
 }
 
 extern "C"
-JNIEXPORT jlong  JNICALL
-native_clone(JNIEnv *env, jclass jobject, jlong handle) {
-    auto src = (RtmpPacket *) handle;
-    return (int64_t) src->clone();
+JNIEXPORT void  JNICALL
+native_set_timestamps(JNIEnv *env, jclass clazz, jlong handle, jint dts, jint composition_time) {
+    ((RtmpPacket *) handle)->set_timestamps(static_cast<uint32_t>(dts), composition_time);
 }
 
+extern "C"
+JNIEXPORT jobject  JNICALL
+native_get_prefix(JNIEnv *env, jclass clazz, jlong handle) {
+    auto *packet = (RtmpPacket *) handle;
+    if (packet->get_prefix_size() == 0) return nullptr;
+    //只读使用,java层不会写入
+    return env->NewDirectByteBuffer((void *) packet->get_prefix(), packet->get_prefix_size());
+}
+
+extern "C"
+JNIEXPORT jobject  JNICALL
+native_get_data(JNIEnv *env, jclass clazz, jlong handle) {
+    auto *packet = (RtmpPacket *) handle;
+    if (packet->get_data_size() == 0) return nullptr;
+    return env->NewDirectByteBuffer((void *) packet->get_data(), packet->get_data_size());
+}
 
+extern "C"
+JNIEXPORT void  JNICALL
+native_retain(JNIEnv *env, jclass jobject, jlong handle) {
+    ((RtmpPacket *) handle)->retain();
+}
+
+extern "C"
+JNIEXPORT jint  JNICALL
+native_ref_count(JNIEnv *env, jclass jobject, jlong handle) {
+    return ((RtmpPacket *) handle)->get_ref_count();
+}
+
+
+
+/*-----------------------------------PacketPool----------------------------------------*/
+extern "C"
+JNIEXPORT jint JNICALL native_stats_rows(JNIEnv *env, jclass clazz) {
+    return PacketPool::CLASS_COUNT + 1;
+}
+extern "C"
+JNIEXPORT void JNICALL native_get_stats(JNIEnv *env, jclass clazz, jlongArray out) {
+    int64_t stats[(PacketPool::CLASS_COUNT + 1) * PacketPool::STATS_FIELDS];
+    PacketPool::instance().get_stats(stats);
+    env->SetLongArrayRegion(out, 0, sizeof(stats) / sizeof(stats[0]), reinterpret_cast<const jlong *>(stats));
+}
+extern "C"
+JNIEXPORT void JNICALL native_reset_stats(JNIEnv *env, jclass clazz) {
+    PacketPool::instance().reset_stats();
+}
+extern "C"
+JNIEXPORT void JNICALL native_trim(JNIEnv *env, jclass clazz) {
+    PacketPool::instance().trim();
+}
+extern "C"
+JNIEXPORT void JNICALL native_set_enabled(JNIEnv *env, jclass clazz, jboolean enabled) {
+    PacketPool::instance().set_enabled(enabled);
+}
 
 /*-----------------------------------Err----------------------------------------*/
 extern "C"
@@ -2,27 +2,46 @@ package com.zmy.rtmp_pusher.lib;
 
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.zmy.rtmp_pusher.lib.abr.AimdBitratePolicy;
+import com.zmy.rtmp_pusher.lib.abr.BitrateController;
+import com.zmy.rtmp_pusher.lib.abr.BitratePolicy;
 import com.zmy.rtmp_pusher.lib.audio_capture.AudioCapture;
 import com.zmy.rtmp_pusher.lib.audio_capture.AudioCaptureCallback;
 import com.zmy.rtmp_pusher.lib.encoder.AACEncoder;
 import com.zmy.rtmp_pusher.lib.encoder.AVCEncoder;
+import com.zmy.rtmp_pusher.lib.encoder.DirectBufferPool;
+import com.zmy.rtmp_pusher.lib.encoder.EncodedSampleListener;
 import com.zmy.rtmp_pusher.lib.encoder.EncoderCallback;
 import com.zmy.rtmp_pusher.lib.encoder.EncoderException;
 import com.zmy.rtmp_pusher.lib.encoder.IEncoder;
-import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.encoder.TimestampNormalizer;
+import com.zmy.rtmp_pusher.lib.flv.FlvFileSink;
+import com.zmy.rtmp_pusher.lib.hls.HlsEncoderSink;
+import com.zmy.rtmp_pusher.lib.hls.HlsMuxer;
 import com.zmy.rtmp_pusher.lib.log.DefaultLogger;
 import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
 import com.zmy.rtmp_pusher.lib.log.RtmpLogger;
+import com.zmy.rtmp_pusher.lib.pusher.CongestionPolicy;
+import com.zmy.rtmp_pusher.lib.pusher.FanOut;
+import com.zmy.rtmp_pusher.lib.pusher.Interleaver;
 import com.zmy.rtmp_pusher.lib.pusher.Pusher;
 import com.zmy.rtmp_pusher.lib.pusher.PusherCallback;
 import com.zmy.rtmp_pusher.lib.pusher.PusherException;
+import com.zmy.rtmp_pusher.lib.pusher.SendQueue;
 import com.zmy.rtmp_pusher.lib.queue.ByteQueue;
-import com.zmy.rtmp_pusher.lib.queue.LinkedQueue;
+import com.zmy.rtmp_pusher.lib.trace.FrameTracer;
+import com.zmy.rtmp_pusher.lib.transport.NativeTransport;
+import com.zmy.rtmp_pusher.lib.transport.Transport;
 import com.zmy.rtmp_pusher.lib.video_capture.VideoCapture;
 import com.zmy.rtmp_pusher.lib.video_capture.VideoCaptureCallback;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 
 public class RtmpPusher implements PusherCallback, AudioCaptureCallback, VideoCaptureCallback, EncoderCallback {
@@ -31,9 +50,25 @@ public class RtmpPusher implements PusherCallback, AudioCaptureCallback, VideoCa
     }
 
     private static final String TAG = RtmpPusher.class.getSimpleName();
-    private final String url;
+    private static final long BITRATE_CONTROL_INTERVAL_MS = 1000;
+    private static final int ZERO_COPY_BUFFERS_PER_CLASS = 16;
+    private final List<Destination> destinations;
     private final int cacheSize;
-    private Pusher pusher;
+    private final int videoBitrate;
+    private final BitratePolicy bitratePolicy;
+    private final boolean zeroCopyVideo;
+    private final Transport.Factory transportFactory;
+    private final int chunkSize;
+    private final long gopCacheBytes;
+    private final FlvFileSink flvFileSink;
+    private final HlsEncoderSink hlsSink;
+    private final List<EncodedSampleListener> sampleListeners;
+    private final FrameTracer frameTracer;
+    private final boolean asyncEncoders;
+    private final List<Pusher> pushers = new ArrayList<>();
+    private final FanOut fanOut = new FanOut();
+    private final Interleaver interleaver;
+    private final TimestampNormalizer timestampNormalizer;
     private final RtmpCallback callback;
 
     private final AudioCapture audioCapture;
@@ -41,23 +76,73 @@ public class RtmpPusher implements PusherCallback, AudioCaptureCallback, VideoCa
 
     private AACEncoder audioEncoder;
     private AVCEncoder videoEncoder;
+    private BitrateController bitrateController;
 
 
-    private RtmpPusher(String url, int cacheSize, AudioCapture audioCapture, VideoCapture videoCapture, RtmpCallback callback) {
-        this.url = url;
+    private RtmpPusher(List<Destination> destinations, int cacheSize, int videoBitrate, @Nullable BitratePolicy bitratePolicy, boolean zeroCopyVideo, int videoReorderDepth, int interleaveWindowMs, Transport.Factory transportFactory, int chunkSize, long gopCacheBytes, FlvFileSink flvFileSink, HlsMuxer hlsMuxer, List<EncodedSampleListener> sampleListeners, FrameTracer frameTracer, boolean asyncEncoders, AudioCapture audioCapture, VideoCapture videoCapture, RtmpCallback callback) {
+        this.destinations = destinations;
         this.cacheSize = cacheSize;
+        this.videoBitrate = videoBitrate;
+        this.bitratePolicy = bitratePolicy;
+        this.zeroCopyVideo = zeroCopyVideo;
+        this.transportFactory = transportFactory;
+        this.chunkSize = chunkSize;
+        this.gopCacheBytes = gopCacheBytes;
+        this.flvFileSink = flvFileSink;
+        this.hlsSink = hlsMuxer != null ? new HlsEncoderSink(hlsMuxer, null) : null;
+        this.sampleListeners = sampleListeners;
+        this.frameTracer = frameTracer;
+        this.asyncEncoders = asyncEncoders;
+        this.interleaver = new Interleaver(fanOut, interleaveWindowMs);
+        this.timestampNormalizer = new TimestampNormalizer(interleaver, videoReorderDepth);
         this.audioCapture = audioCapture;
         this.videoCapture = videoCapture;
         this.callback = callback;
     }
 
     public void start() throws PusherException {
-        pusher = new Pusher(url, new LinkedQueue<>(cacheSize, RtmpPacket.DELETER), this);
-        pusher.start();
+        try {
+            for (Destination destination : destinations) {
+                pushers.add(new Pusher(destination.url, createTransportFactory(), new SendQueue(cacheSize, destination.congestionPolicy), this));
+            }
+            if (flvFileSink != null) flvFileSink.start();
+            if (hlsSink != null) hlsSink.start();
+        } catch (PusherException e) {
+            release();
+            throw e;
+        } catch (IOException e) {
+            release();
+            throw new PusherException(e);
+        }
+        if (flvFileSink != null) fanOut.addOutput(flvFileSink.getQueue());
+        for (Pusher pusher : pushers) {
+            pusher.setGopCacheBytes(gopCacheBytes);
+            fanOut.addOutput(pusher.getQueue());
+            pusher.start();
+        }
         audioCapture.initialize(this);
         videoCapture.initialize(this);
     }
 
+    private Transport.Factory createTransportFactory() {
+        if (chunkSize == 0) return transportFactory;
+        return new Transport.Factory() {
+            @Override
+            public Transport create(String url) throws IOException {
+                Transport transport = transportFactory.create(url);
+                transport.setChunkSize(chunkSize);
+                return transport;
+            }
+        };
+    }
+
+    /**
+     * @return the stage ordering audio and video by DTS, mostly to read its skew metrics
+     */
+    public Interleaver getInterleaver() {
+        return interleaver;
+    }
+
     @Override
     public void onPushError(PusherException exception) {
         if (callback != null) callback.onPusherError(exception);
@@ -72,7 +157,9 @@ public class RtmpPusher implements PusherCallback, AudioCaptureCallback, VideoCa
         } else {
             capture.start(new ByteQueue(1024, 4096));
             audioEncoder = new AACEncoder(64000, this, capture.getChannelCount(), capture.getSampleFormat(), capture.getSampleRate(), capture.getQueue());
-            audioEncoder.setOutputQueue(pusher.getQueue());
+            audioEncoder.setOutputQueue(timestampNormalizer);
+            audioEncoder.setAsyncMode(asyncEncoders);
+            addSampleListeners(audioEncoder);
             try {
                 audioEncoder.init();
                 audioEncoder.start();
@@ -83,13 +170,27 @@ public class RtmpPusher implements PusherCallback, AudioCaptureCallback, VideoCa
         }
     }
 
+    private void addSampleListeners(IEncoder encoder) {
+        if (hlsSink != null) encoder.addSampleListener(hlsSink);
+        for (EncodedSampleListener listener : sampleListeners) {
+            encoder.addSampleListener(listener);
+        }
+    }
+
     public void release() {
         RtmpLogManager.d(TAG, "release");
-        if (pusher != null) pusher.release();
+        if (bitrateController != null) bitrateController.stop();
+        for (Pusher pusher : pushers) {
+            pusher.release();
+        }
+        //先让录制把队列里的数据写完
+        if (flvFileSink != null) flvFileSink.stop();
+        timestampNormalizer.close();
         if (audioCapture != null) audioCapture.release();
         if (videoCapture != null) videoCapture.release();
         if (audioEncoder != null) audioEncoder.release();
         if (videoEncoder != null) videoEncoder.release();
+        if (hlsSink != null) hlsSink.close();
     }
 
     @Override
@@ -105,12 +206,25 @@ public class RtmpPusher implements PusherCallback, AudioCaptureCallback, VideoCa
             release();
             if (callback != null) callback.onVideoCaptureError(exception);
         } else {
-            videoEncoder = new AVCEncoder(1080 * 1920 * 3, this, capture.getWidth(), capture.getHeight(), 30, 1);
-            videoEncoder.setOutputQueue(pusher.getQueue());
+            videoEncoder = new AVCEncoder(videoBitrate, this, capture.getWidth(), capture.getHeight(), 30, 1);
+            videoEncoder.setOutputQueue(timestampNormalizer);
+            videoEncoder.setAsyncMode(asyncEncoders);
+            addSampleListeners(videoEncoder);
+            for (Pusher pusher : pushers) {
+                pusher.setSyncFrameRequester(videoEncoder);
+            }
+            if (flvFileSink != null) flvFileSink.setSyncFrameRequester(videoEncoder);
+            if (zeroCopyVideo) videoEncoder.setPayloadPool(new DirectBufferPool(ZERO_COPY_BUFFERS_PER_CLASS));
+            videoEncoder.setFrameTracer(frameTracer);
             try {
                 videoEncoder.init();
                 videoEncoder.start();
                 capture.start(videoEncoder.getSurface(), videoEncoder);
+                if (bitratePolicy != null) {
+                    //码率跟随主推流地址
+                    bitrateController = new BitrateController(pushers.get(0), videoEncoder, bitratePolicy, BITRATE_CONTROL_INTERVAL_MS);
+                    bitrateController.start();
+                }
             } catch (EncoderException e) {
                 e.printStackTrace();
                 onEncodeError(videoEncoder, e);
@@ -139,9 +253,35 @@ public class RtmpPusher implements PusherCallback, AudioCaptureCallback, VideoCa
     }
 
 
+    private static class Destination {
+        private final String url;
+        private final CongestionPolicy congestionPolicy;
+
+        private Destination(String url, CongestionPolicy congestionPolicy) {
+            this.url = url;
+            this.congestionPolicy = congestionPolicy;
+        }
+    }
+
     public static class Builder {
         private String url;
+        private final List<Destination> destinations = new ArrayList<>();
         private int cacheSize;
+        private CongestionPolicy congestionPolicy = CongestionPolicy.DEFAULT;
+        private int videoBitrate = 1080 * 1920 * 3;
+        private boolean adaptiveBitrate = true;
+        private BitratePolicy bitratePolicy;
+        private boolean zeroCopyVideo = false;
+        private int videoReorderDepth = 0;
+        private int interleaveWindowMs = 300;
+        private Transport.Factory transportFactory = NativeTransport.FACTORY;
+        private int chunkSize = 0;
+        private long gopCacheBytes = 4 * 1024 * 1024;
+        private FlvFileSink flvFileSink;
+        private HlsMuxer hlsMuxer;
+        private final List<EncodedSampleListener> sampleListeners = new ArrayList<>();
+        private FrameTracer frameTracer;
+        private boolean asyncEncoders = true;
         private AudioCapture audioCapture;
         private VideoCapture videoCapture;
         private RtmpCallback callback;
@@ -151,11 +291,152 @@ public class RtmpPusher implements PusherCallback, AudioCaptureCallback, VideoCa
             return this;
         }
 
+        /**
+         * Pushes the same encoded stream to one more server, e.g. a backup ingest. Each destination
+         * has its own connection, send queue and congestion policy. Adaptive bitrate follows the
+         * {@link #url(String) primary url}.
+         */
+        public Builder destination(String url, CongestionPolicy policy) {
+            this.destinations.add(new Destination(url, policy));
+            return this;
+        }
+
         public Builder cacheSize(int size) {
             this.cacheSize = size;
             return this;
         }
 
+        public Builder congestionPolicy(CongestionPolicy policy) {
+            this.congestionPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Initial video bitrate, and the ceiling of the default adaptive bitrate policy.
+         */
+        public Builder videoBitrate(int bitrate) {
+            this.videoBitrate = bitrate;
+            return this;
+        }
+
+        public Builder adaptiveBitrate(boolean enable) {
+            this.adaptiveBitrate = enable;
+            return this;
+        }
+
+        /**
+         * Replaces the default {@link AimdBitratePolicy}, which ranges from a tenth of the video
+         * bitrate up to the video bitrate.
+         */
+        public Builder bitratePolicy(BitratePolicy policy) {
+            this.bitratePolicy = policy;
+            return this;
+        }
+
+        /**
+         * Sends video payloads straight from pooled direct buffers instead of copying them into a
+         * native packet body.
+         */
+        public Builder zeroCopyVideo(boolean enable) {
+            this.zeroCopyVideo = enable;
+            return this;
+        }
+
+        /**
+         * How many frames the video encoder may reorder, i.e. its B-frame count. Frames are held
+         * back that many frames to work out decode times, 0 when the encoder emits no B-frames.
+         */
+        public Builder videoReorderDepth(int depth) {
+            this.videoReorderDepth = depth;
+            return this;
+        }
+
+        /**
+         * How long audio may wait for video and the other way round to be sent in DTS order, 0
+         * sends packets in the order the encoders produce them.
+         */
+        public Builder interleaveWindowMs(int windowMs) {
+            this.interleaveWindowMs = windowMs;
+            return this;
+        }
+
+        /**
+         * Connection used by every destination, {@link NativeTransport} (librtmp) by default. Use
+         * {@link com.zmy.rtmp_pusher.lib.transport.NioRtmpTransport.Builder#factory()} for the
+         * pure Java client with a tunable chunk size and socket buffers.
+         */
+        public Builder transportFactory(Transport.Factory factory) {
+            this.transportFactory = factory;
+            return this;
+        }
+
+        /**
+         * Outbound RTMP chunk size, sent with Set Chunk Size after every connect and reconnect. A
+         * larger size, e.g. 4096, cuts the per-chunk headers and the writes of big key frames. 0
+         * keeps the transport's default, 128 bytes for librtmp.
+         */
+        public Builder chunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Memory each destination may hold on to for the last GOP, which is replayed after a
+         * reconnect so viewers get a picture right away. 0 disables the replay, a reconnect then
+         * asks the encoder for a sync frame instead.
+         */
+        public Builder gopCacheBytes(long bytes) {
+            this.gopCacheBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Also records the encoded stream to a local FLV file. The sink is started and stopped
+         * with the pusher.
+         */
+        public Builder flvFileSink(@Nullable FlvFileSink sink) {
+            this.flvFileSink = sink;
+            return this;
+        }
+
+        /**
+         * Also writes the encoder output as fMP4 HLS segments, e.g. for a local edge cache. The
+         * playlist is ended when the pusher is released.
+         */
+        public Builder hlsMuxer(@Nullable HlsMuxer muxer) {
+            this.hlsMuxer = muxer;
+            return this;
+        }
+
+        /**
+         * Also hands the raw output of both encoders to {@code listener}, e.g. a
+         * {@link com.zmy.rtmp_pusher.lib.replay.SessionRecorder}. It is called on the encoder
+         * threads and must not block.
+         */
+        public Builder sampleListener(@NonNull EncodedSampleListener listener) {
+            this.sampleListeners.add(listener);
+            return this;
+        }
+
+        /**
+         * Traces every video frame from its capture timestamp to the socket write, see
+         * {@link FrameTracer#exportChromeTrace(java.io.File)}. Null by default.
+         */
+        public Builder frameTracer(@Nullable FrameTracer tracer) {
+            this.frameTracer = tracer;
+            return this;
+        }
+
+        /**
+         * On API 23 and above both encoders take their MediaCodec callbacks on one shared thread
+         * instead of blocking a thread each. False keeps the blocking threads, below API 23 they
+         * are always used.
+         */
+        public Builder asyncEncoders(boolean async) {
+            this.asyncEncoders = async;
+            return this;
+        }
+
         public Builder audioCapture(AudioCapture audioCapture) {
             this.audioCapture = audioCapture;
             return this;
@@ -172,19 +453,59 @@ public class RtmpPusher implements PusherCallback, AudioCaptureCallback, VideoCa
         }
 
         public RtmpPusher build() {
-            if (url == null || !url.toLowerCase(Locale.getDefault()).startsWith("rtmp://")) {
+            if (!isValidUrl(url)) {
                 throw new IllegalStateException("invalid url");
             }
             if (cacheSize <= 0) {
                 throw new IllegalStateException("cacheSize must be more than 0");
             }
+            if (congestionPolicy == null) {
+                throw new IllegalStateException("congestionPolicy is null");
+            }
+            List<Destination> all = new ArrayList<>();
+            all.add(new Destination(url, congestionPolicy));
+            for (Destination destination : destinations) {
+                if (!isValidUrl(destination.url)) {
+                    throw new IllegalStateException("invalid destination url");
+                }
+                if (destination.congestionPolicy == null) {
+                    throw new IllegalStateException("destination congestionPolicy is null");
+                }
+                all.add(destination);
+            }
+            if (videoBitrate <= 0) {
+                throw new IllegalStateException("videoBitrate must be more than 0");
+            }
+            if (videoReorderDepth < 0) {
+                throw new IllegalStateException("videoReorderDepth must not be negative");
+            }
+            if (interleaveWindowMs < 0) {
+                throw new IllegalStateException("interleaveWindowMs must not be negative");
+            }
+            if (transportFactory == null) {
+                throw new IllegalStateException("transportFactory is null");
+            }
+            if (chunkSize < 0 || chunkSize > 0xffffff) {
+                throw new IllegalStateException("chunkSize must be in [0, 16777215]");
+            }
+            if (gopCacheBytes < 0) {
+                throw new IllegalStateException("gopCacheBytes must not be negative");
+            }
             if (audioCapture == null) {
                 throw new IllegalStateException("audioCapture is null");
             }
             if (videoCapture == null) {
                 throw new IllegalStateException("videoCapture is null");
             }
-            return new RtmpPusher(url, cacheSize, audioCapture, videoCapture, callback);
+            BitratePolicy policy = null;
+            if (adaptiveBitrate) {
+                policy = bitratePolicy != null ? bitratePolicy : new AimdBitratePolicy.Builder(Math.max(videoBitrate / 10, 1), videoBitrate).build();
+            }
+            return new RtmpPusher(Collections.unmodifiableList(all), cacheSize, videoBitrate, policy, zeroCopyVideo, videoReorderDepth, interleaveWindowMs, transportFactory, chunkSize, gopCacheBytes, flvFileSink, hlsMuxer, new ArrayList<>(sampleListeners), frameTracer, asyncEncoders, audioCapture, videoCapture, callback);
+        }
+
+        private static boolean isValidUrl(String url) {
+            return url != null && url.toLowerCase(Locale.getDefault()).startsWith("rtmp://");
         }
 
     }
@@ -0,0 +1,131 @@
+package com.zmy.rtmp_pusher.lib.abr;
+
+/**
+ * Additive-increase/multiplicative-decrease bitrate policy with hysteresis.
+ * <p>
+ * A sample counts as congested when the queue delay reaches the high watermark, the average
+ * {@code native_push} time reaches its limit, or the send queue dropped frames. The bitrate is then
+ * cut to the smaller of {@code current * decreaseFactor} and 90% of the measured throughput. The
+ * bitrate only goes up by one step after {@code stableSamples} consecutive samples with the queue
+ * delay under the low watermark. Anything in between holds the current bitrate.
+ */
+public class AimdBitratePolicy implements BitratePolicy {
+    private final int minBitrate;
+    private final int maxBitrate;
+    private final int increaseStep;
+    private final float decreaseFactor;
+    private final long lowDelayMs;
+    private final long highDelayMs;
+    private final long maxPushMs;
+    private final int stableSamples;
+
+    private int goodSamples = 0;
+
+    private AimdBitratePolicy(Builder builder) {
+        this.minBitrate = builder.minBitrate;
+        this.maxBitrate = builder.maxBitrate;
+        this.increaseStep = builder.increaseStep > 0 ? builder.increaseStep : Math.max((maxBitrate - minBitrate) / 20, 1);
+        this.decreaseFactor = builder.decreaseFactor;
+        this.lowDelayMs = builder.lowDelayMs;
+        this.highDelayMs = builder.highDelayMs;
+        this.maxPushMs = builder.maxPushMs;
+        this.stableSamples = builder.stableSamples;
+    }
+
+    @Override
+    public int nextBitrate(LinkSample sample, int currentBitrate) {
+        long target = currentBitrate;
+        boolean congested = sample.getQueueDelayMs() >= highDelayMs
+                || sample.getAveragePushMs() >= maxPushMs
+                || sample.getDroppedFrames() > 0;
+        if (congested) {
+            goodSamples = 0;
+            target = (long) (currentBitrate * decreaseFactor);
+            if (sample.getSentBitsPerSecond() > 0) {
+                target = Math.min(target, sample.getSentBitsPerSecond() * 9 / 10);
+            }
+        } else if (sample.getQueueDelayMs() <= lowDelayMs) {
+            if (++goodSamples >= stableSamples) {
+                goodSamples = 0;
+                target = (long) currentBitrate + increaseStep;
+            }
+        } else {
+            goodSamples = 0;
+        }
+        return (int) Math.max(minBitrate, Math.min(maxBitrate, target));
+    }
+
+    @Override
+    public void reset() {
+        goodSamples = 0;
+    }
+
+    public int getMinBitrate() {
+        return minBitrate;
+    }
+
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    public static class Builder {
+        private final int minBitrate;
+        private final int maxBitrate;
+        private int increaseStep = 0;
+        private float decreaseFactor = 0.7f;
+        private long lowDelayMs = 200;
+        private long highDelayMs = 700;
+        private long maxPushMs = 200;
+        private int stableSamples = 3;
+
+        public Builder(int minBitrate, int maxBitrate) {
+            this.minBitrate = minBitrate;
+            this.maxBitrate = maxBitrate;
+        }
+
+        /**
+         * @param step bits per second added per increase, defaults to 5% of the bitrate range
+         */
+        public Builder increaseStep(int step) {
+            this.increaseStep = step;
+            return this;
+        }
+
+        public Builder decreaseFactor(float factor) {
+            this.decreaseFactor = factor;
+            return this;
+        }
+
+        public Builder queueDelay(long lowMs, long highMs) {
+            this.lowDelayMs = lowMs;
+            this.highDelayMs = highMs;
+            return this;
+        }
+
+        public Builder maxPushMs(long maxPushMs) {
+            this.maxPushMs = maxPushMs;
+            return this;
+        }
+
+        public Builder stableSamples(int samples) {
+            this.stableSamples = samples;
+            return this;
+        }
+
+        public AimdBitratePolicy build() {
+            if (minBitrate <= 0 || maxBitrate < minBitrate) {
+                throw new IllegalStateException("bitrate range must satisfy 0 < min <= max");
+            }
+            if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+                throw new IllegalStateException("decreaseFactor must be in (0,1)");
+            }
+            if (lowDelayMs < 0 || highDelayMs <= lowDelayMs) {
+                throw new IllegalStateException("queue delay must satisfy 0 <= low < high");
+            }
+            if (stableSamples <= 0) {
+                throw new IllegalStateException("stableSamples must be more than 0");
+            }
+            return new AimdBitratePolicy(this);
+        }
+    }
+}
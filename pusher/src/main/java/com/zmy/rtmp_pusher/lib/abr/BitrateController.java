@@ -0,0 +1,113 @@
+package com.zmy.rtmp_pusher.lib.abr;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
+import com.zmy.rtmp_pusher.lib.util.WorkerThread;
+
+/**
+ * Samples a {@link LinkMonitor} at a fixed interval and feeds the result through a
+ * {@link BitratePolicy} into a {@link BitrateTarget}.
+ * <p>
+ * {@link #tick(long)} holds the whole control step so it can be driven by a simulated clock.
+ * {@link #start()} runs it on a background thread against the monotonic clock.
+ */
+public class BitrateController {
+    private static final String TAG = BitrateController.class.getSimpleName();
+
+    private final LinkMonitor monitor;
+    private final BitrateTarget target;
+    private final BitratePolicy policy;
+    private final long intervalMs;
+    private ControlThread controlThread;
+
+    private long lastSampleMs = -1;
+    private long lastSentBytes;
+    private long lastPushCount;
+    private long lastPushTimeNanos;
+    private long lastDroppedFrames;
+
+    public BitrateController(@NonNull LinkMonitor monitor, @NonNull BitrateTarget target, @NonNull BitratePolicy policy, long intervalMs) {
+        if (intervalMs <= 0) throw new IllegalArgumentException("intervalMs must be more than 0");
+        this.monitor = monitor;
+        this.target = target;
+        this.policy = policy;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Runs one control step.
+     *
+     * @return the sample the decision was based on, null for the first call which only records a
+     * baseline
+     */
+    public synchronized LinkSample tick(long nowMs) {
+        long sentBytes = monitor.getSentBytes();
+        long pushCount = monitor.getPushCount();
+        long pushTimeNanos = monitor.getPushTimeNanos();
+        long droppedFrames = monitor.getDroppedFrames();
+        LinkSample sample = null;
+        if (lastSampleMs >= 0 && nowMs > lastSampleMs) {
+            long elapsedMs = nowMs - lastSampleMs;
+            long pushes = pushCount - lastPushCount;
+            sample = new LinkSample(elapsedMs,
+                    (sentBytes - lastSentBytes) * 8 * 1000 / elapsedMs,
+                    monitor.getQueuedBytes(),
+                    monitor.getQueueDelayMs(),
+                    pushes > 0 ? (pushTimeNanos - lastPushTimeNanos) / pushes / 1000000 : 0,
+                    droppedFrames - lastDroppedFrames);
+            int current = target.getBitrate();
+            int next = policy.nextBitrate(sample, current);
+            if (next != current) {
+                RtmpLogManager.i(TAG, "bitrate {} -> {},{}", current, next, sample);
+                target.setBitrate(next);
+            }
+        }
+        lastSampleMs = nowMs;
+        lastSentBytes = sentBytes;
+        lastPushCount = pushCount;
+        lastPushTimeNanos = pushTimeNanos;
+        lastDroppedFrames = droppedFrames;
+        return sample;
+    }
+
+    public synchronized void start() {
+        if (controlThread != null) {
+            controlThread.exit();
+        }
+        policy.reset();
+        lastSampleMs = -1;
+        controlThread = new ControlThread();
+        controlThread.start();
+    }
+
+    public void stop() {
+        ControlThread thread;
+        synchronized (this) {
+            thread = controlThread;
+            controlThread = null;
+        }
+        if (thread != null) thread.exit();
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    class ControlThread extends WorkerThread {
+        public ControlThread() {
+            super("BitrateControlThread");
+        }
+
+        @Override
+        protected boolean doMain() {
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return true;
+            }
+            tick(System.nanoTime() / 1000000);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.zmy.rtmp_pusher.lib.abr;
+
+public interface BitratePolicy {
+    /**
+     * @return the bitrate the encoder should use from now on, in bits per second
+     */
+    int nextBitrate(LinkSample sample, int currentBitrate);
+
+    void reset();
+}
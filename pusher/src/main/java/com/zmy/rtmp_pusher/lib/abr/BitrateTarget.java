@@ -0,0 +1,7 @@
+package com.zmy.rtmp_pusher.lib.abr;
+
+public interface BitrateTarget {
+    int getBitrate();
+
+    void setBitrate(int bitrate);
+}
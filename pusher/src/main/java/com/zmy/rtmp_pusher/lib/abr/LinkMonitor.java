@@ -0,0 +1,18 @@
+package com.zmy.rtmp_pusher.lib.abr;
+
+/**
+ * Cumulative send-path counters sampled by {@link BitrateController}.
+ */
+public interface LinkMonitor {
+    long getSentBytes();
+
+    long getPushCount();
+
+    long getPushTimeNanos();
+
+    long getQueuedBytes();
+
+    long getQueueDelayMs();
+
+    long getDroppedFrames();
+}
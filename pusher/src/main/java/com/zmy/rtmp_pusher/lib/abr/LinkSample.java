@@ -0,0 +1,64 @@
+package com.zmy.rtmp_pusher.lib.abr;
+
+import androidx.annotation.NonNull;
+
+/**
+ * What the send path did during one {@link BitrateController} interval.
+ */
+public class LinkSample {
+    private final long intervalMs;
+    private final long sentBitsPerSecond;
+    private final long queuedBytes;
+    private final long queueDelayMs;
+    private final long averagePushMs;
+    private final long droppedFrames;
+
+    public LinkSample(long intervalMs, long sentBitsPerSecond, long queuedBytes, long queueDelayMs, long averagePushMs, long droppedFrames) {
+        this.intervalMs = intervalMs;
+        this.sentBitsPerSecond = sentBitsPerSecond;
+        this.queuedBytes = queuedBytes;
+        this.queueDelayMs = queueDelayMs;
+        this.averagePushMs = averagePushMs;
+        this.droppedFrames = droppedFrames;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public long getSentBitsPerSecond() {
+        return sentBitsPerSecond;
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public long getQueueDelayMs() {
+        return queueDelayMs;
+    }
+
+    public long getAveragePushMs() {
+        return averagePushMs;
+    }
+
+    /**
+     * @return frames dropped by the send queue during this interval
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LinkSample{" +
+                "intervalMs=" + intervalMs +
+                ", sentBitsPerSecond=" + sentBitsPerSecond +
+                ", queuedBytes=" + queuedBytes +
+                ", queueDelayMs=" + queueDelayMs +
+                ", averagePushMs=" + averagePushMs +
+                ", droppedFrames=" + droppedFrames +
+                '}';
+    }
+}
@@ -3,6 +3,7 @@ package com.zmy.rtmp_pusher.lib.audio_capture;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.os.Process;
 
 import androidx.annotation.NonNull;
 
@@ -21,6 +22,7 @@ public class MicAudioCapture extends AudioCapture {
     private final int format;
     private final int sampleRate;
     private final int channelConfig;
+    private int threadPriority = Process.THREAD_PRIORITY_URGENT_AUDIO;
 
     public MicAudioCapture(int format, int sampleRate, int channelConfig) {
         this.format = format;
@@ -28,6 +30,14 @@ public class MicAudioCapture extends AudioCapture {
         this.channelConfig = channelConfig;
     }
 
+    /**
+     * @param priority a {@link Process} thread priority for the recording thread, urgent audio by
+     *                 default. Call before {@link #start(ByteQueue)}.
+     */
+    public void setThreadPriority(int priority) {
+        this.threadPriority = priority;
+    }
+
     @Override
     public int getSampleRate() {
         return sampleRate;
@@ -125,7 +135,7 @@ public class MicAudioCapture extends AudioCapture {
 
     class AudioRecordThread extends WorkerThread {
         public AudioRecordThread() {
-            super("AudioCaptureThread");
+            super("AudioCaptureThread", threadPriority);
         }
 
         @Override
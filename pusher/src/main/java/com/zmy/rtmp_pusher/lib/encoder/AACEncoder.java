@@ -4,6 +4,7 @@ import android.media.AudioFormat;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.os.Process;
 
 
 import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
@@ -11,6 +12,7 @@ import com.zmy.rtmp_pusher.lib.queue.ByteQueue;
 import com.zmy.rtmp_pusher.lib.util.WorkerThread;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 
 public class AACEncoder extends IEncoder {
 
@@ -21,6 +23,18 @@ public class AACEncoder extends IEncoder {
     private EncodeWriteThread encodeWriteThread;
     private static final String MIME = "audio/mp4a-latm";
     private ByteBuffer audioSpecificConfig;
+    //pts按已送入的采样数推算,起点取System.nanoTime()和视频同一时钟
+    private long firstInputUs = -1;
+    private long inputSamples = 0;
+    //异步模式下还没填数据的输入缓冲区,只在编码线程访问
+    private final ArrayDeque<Integer> freeInputBuffers = new ArrayDeque<>();
+    private boolean inputEnded = false;
+    private final Runnable dataListener = new Runnable() {
+        @Override
+        public void run() {
+            requestInput();
+        }
+    };
 
     public AACEncoder(int bitrate, EncoderCallback callback, int channels, int sampleFormat, int sampleRate, ByteQueue inputQueue) {
         super(bitrate, callback);
@@ -39,6 +53,15 @@ public class AACEncoder extends IEncoder {
 
     @Override
     public void start() throws EncoderException {
+        firstInputUs = -1;
+        inputSamples = 0;
+        freeInputBuffers.clear();
+        inputEnded = false;
+        if (isAsyncMode()) {
+            inputQueue.setDataListener(dataListener);
+            super.start();
+            return;
+        }
         super.start();
         if (encodeWriteThread != null) {
             encodeWriteThread.exit();
@@ -59,7 +82,7 @@ public class AACEncoder extends IEncoder {
         audioSpecificConfig.put(buffer);
         audioSpecificConfig.limit(audioSpecificConfig.capacity());
         audioSpecificConfig.position(0);
-        outputQueue.enqueue(RtmpPacket.createForAudio(getAudioSpecificConfig(), 0, getAudioSpecificConfig().capacity(), sampleRate, channels, getBytesPerSample(), true));
+        outputQueue.enqueue(RtmpPacket.createForAudio(getAudioSpecificConfig(), 0, getAudioSpecificConfig().capacity(), RtmpPacket.NO_TIMESTAMP, sampleRate, channels, getBytesPerSample(), true));
     }
 
     private int getBytesPerSample() {
@@ -84,14 +107,71 @@ public class AACEncoder extends IEncoder {
         return false;
     }
 
+    @Override
+    protected int getCodecThreadPriority() {
+        return Process.THREAD_PRIORITY_AUDIO;
+    }
+
     @Override
     protected void onEncode(ByteBuffer buffer, MediaCodec.BufferInfo info) {
         if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
             return;
         }
         if (info.size > 0) {
-            outputQueue.enqueue(RtmpPacket.createForAudio(buffer, info.offset, info.size, sampleRate, channels, getBytesPerSample(), false));
+            outputQueue.enqueue(RtmpPacket.createForAudio(buffer, info.offset, info.size, info.presentationTimeUs, sampleRate, channels, getBytesPerSample(), false));
+        }
+    }
+
+    @Override
+    protected void onInputBufferAvailable(int index) {
+        if (inputEnded) return;
+        freeInputBuffers.addLast(index);
+        fillInputBuffers();
+    }
+
+    @Override
+    protected void onInputReady() {
+        fillInputBuffers();
+    }
+
+    /**
+     * Fills free input buffers with whatever PCM is queued, without waiting for more.
+     */
+    private void fillInputBuffers() {
+        while (!inputEnded && !freeInputBuffers.isEmpty()) {
+            int index = freeInputBuffers.peekFirst();
+            ByteBuffer codecBuffer = mediaCodec.getInputBuffer(index);
+            codecBuffer.limit(codecBuffer.capacity());
+            codecBuffer.position(0);
+            int bytes = inputQueue.poll(codecBuffer);
+            boolean endOfStream = inputQueue.isClosed();
+            //等下一次数据到达
+            if (bytes == 0 && !endOfStream) return;
+            freeInputBuffers.pollFirst();
+            mediaCodec.queueInputBuffer(index, 0, bytes, nextPresentationTimeUs(bytes), endOfStream ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+            if (endOfStream) {
+                inputEnded = true;
+                freeInputBuffers.clear();
+            }
+        }
+    }
+
+    private long nextPresentationTimeUs(int bytes) {
+        if (firstInputUs < 0) {
+            firstInputUs = System.nanoTime() / 1000;
+        }
+        long pts = firstInputUs + inputSamples * 1000000 / sampleRate;
+        int frameSize = channels * getBytesPerSample();
+        if (bytes > 0 && frameSize > 0) {
+            inputSamples += bytes / frameSize;
         }
+        return pts;
+    }
+
+    @Override
+    public void release() {
+        inputQueue.setDataListener(null);
+        super.release();
     }
 
     @Override
@@ -110,7 +190,7 @@ public class AACEncoder extends IEncoder {
     class EncodeWriteThread extends WorkerThread {
 
         public EncodeWriteThread() {
-            super("EncodeWriteThread");
+            super("EncodeWriteThread", AACEncoder.this.getCodecThreadPriority());
         }
 
         @Override
@@ -131,7 +211,7 @@ public class AACEncoder extends IEncoder {
                     if (inputQueue.isClosed()) {
                         flag = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
                     }
-                    mediaCodec.queueInputBuffer(index, 0, bytes, 0, flag);
+                    mediaCodec.queueInputBuffer(index, 0, bytes, nextPresentationTimeUs(bytes), flag);
                 }
                 return (flag & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
             } catch (Exception e) {
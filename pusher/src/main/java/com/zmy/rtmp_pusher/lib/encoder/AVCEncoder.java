@@ -3,20 +3,38 @@ package com.zmy.rtmp_pusher.lib.encoder;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Bundle;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import com.zmy.rtmp_pusher.lib.abr.BitrateTarget;
 import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
+import com.zmy.rtmp_pusher.lib.metrics.PipelineMetrics;
+import com.zmy.rtmp_pusher.lib.pusher.SyncFrameRequester;
+import com.zmy.rtmp_pusher.lib.trace.FrameTracer;
 
 import java.nio.ByteBuffer;
 
-public class AVCEncoder extends IEncoder implements EOFHandle {
+public class AVCEncoder extends IEncoder implements EOFHandle, BitrateTarget, SyncFrameRequester {
     private final int width;
     private final int height;
     private final int fps;
     private final int keyFrameInternal;
+    private static final String TAG = AVCEncoder.class.getSimpleName();
     private static final String MIME = "video/avc";
+    private static final long MIN_SYNC_FRAME_INTERVAL_MS = 500;
+    private static final long MAX_CAPTURE_TO_ENCODE_US = 10 * 1000000;
     private ByteBuffer sps;
     private ByteBuffer pps;
+    private DirectBufferPool payloadPool;
+    private volatile FrameTracer frameTracer;
+    private final SyncFrameRateLimiter syncFrameRateLimiter = new SyncFrameRateLimiter(new SyncFrameRequester() {
+        @Override
+        public void requestSyncFrame() {
+            requestSyncFrameNow();
+        }
+    }, MIN_SYNC_FRAME_INTERVAL_MS);
 
     public AVCEncoder(int bitrate, EncoderCallback callback, int width, int height, int fps, int keyFrameInternal) {
         super(bitrate, callback);
@@ -54,6 +72,21 @@ public class AVCEncoder extends IEncoder implements EOFHandle {
         outputQueue.enqueue(RtmpPacket.createForSpsPps(getSPS(), 0, getSPS().capacity(), getPPS(), 0, getPPS().capacity()));
     }
 
+    /**
+     * @param pool non null to build video packets in zero-copy mode, see
+     *             {@link RtmpPacket#createForVideo(ByteBuffer, int, int, long, boolean, DirectBufferPool)}
+     */
+    public void setPayloadPool(@Nullable DirectBufferPool pool) {
+        this.payloadPool = pool;
+    }
+
+    /**
+     * @param tracer non null to trace every encoded frame through the pipeline
+     */
+    public void setFrameTracer(@Nullable FrameTracer tracer) {
+        this.frameTracer = tracer;
+    }
+
     public ByteBuffer getSPS() {
         return sps;
     }
@@ -67,8 +100,67 @@ public class AVCEncoder extends IEncoder implements EOFHandle {
         if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
             return;
         }
-        if (info.size > 0 && outputQueue.getSize() < outputQueue.getMaxCapacity()) {
-            outputQueue.enqueue(RtmpPacket.createForVideo(buffer, info.offset, info.size, (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0));
+        if (info.size > 0) {
+            long captureToEncodeUs = System.nanoTime() / 1000 - info.presentationTimeUs;
+            //时间戳不是System.nanoTime()的时钟时差值没有意义,不记录
+            if (captureToEncodeUs >= 0 && captureToEncodeUs < MAX_CAPTURE_TO_ENCODE_US) {
+                PipelineMetrics.VIDEO_CAPTURE_TO_ENCODE.record(captureToEncodeUs);
+            }
+            boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+            syncFrameRateLimiter.onFrame(keyFrame);
+            FrameTracer tracer = frameTracer;
+            long traceId = tracer != null ? tracer.begin(info.presentationTimeUs, info.size, keyFrame) : 0;
+            DirectBufferPool pool = payloadPool;
+            RtmpPacket packet;
+            if (pool != null) {
+                packet = RtmpPacket.createForVideo(buffer, info.offset, info.size, info.presentationTimeUs, keyFrame, pool);
+            } else {
+                packet = RtmpPacket.createForVideo(buffer, info.offset, info.size, info.presentationTimeUs, keyFrame);
+            }
+            if (tracer != null) packet.setTrace(tracer, traceId);
+            outputQueue.enqueue(packet);
+        }
+    }
+
+    @Override
+    public synchronized int getBitrate() {
+        return bitrate;
+    }
+
+    @Override
+    public synchronized void setBitrate(int bitrate) {
+        if (this.bitrate == bitrate) return;
+        this.bitrate = bitrate;
+        if (!isReady() || mediaCodec == null) return;
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+        try {
+            mediaCodec.setParameters(params);
+        } catch (IllegalStateException e) {
+            RtmpLogManager.e(TAG, "fail to update bitrate", e);
+        }
+    }
+
+    /**
+     * Asks for a sync frame, rate limited by {@link #getSyncFrameRateLimiter()}.
+     */
+    @Override
+    public void requestSyncFrame() {
+        syncFrameRateLimiter.requestSyncFrame();
+    }
+
+    public SyncFrameRateLimiter getSyncFrameRateLimiter() {
+        return syncFrameRateLimiter;
+    }
+
+    private synchronized void requestSyncFrameNow() {
+        if (!isReady() || mediaCodec == null) return;
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            mediaCodec.setParameters(params);
+        } catch (IllegalStateException e) {
+            RtmpLogManager.e(TAG, "fail to request sync frame", e);
         }
     }
 
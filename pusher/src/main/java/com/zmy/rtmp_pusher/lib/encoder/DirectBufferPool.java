@@ -0,0 +1,82 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Recycles direct buffers in power-of-two size classes, so encoded payloads can be handed to
+ * native code without allocating a new direct buffer per frame.
+ */
+public class DirectBufferPool {
+    private static final int MIN_CLASS_SHIFT = 10;
+    private static final int MAX_CLASS_SHIFT = 24;
+
+    private final ArrayDeque<ByteBuffer>[] freeLists;
+    private final int maxCachedPerClass;
+
+    /**
+     * @param maxCachedPerClass how many idle buffers each size class keeps
+     */
+    public DirectBufferPool(int maxCachedPerClass) {
+        if (maxCachedPerClass <= 0) throw new IllegalArgumentException("maxCachedPerClass must be more than 0");
+        this.maxCachedPerClass = maxCachedPerClass;
+        //泛型数组只能这样创建
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<ByteBuffer>[] lists = new ArrayDeque[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+        freeLists = lists;
+        for (int i = 0; i < freeLists.length; i++) {
+            freeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @return a cleared buffer with {@code limit == size}
+     */
+    @NonNull
+    public ByteBuffer acquire(int size) {
+        int index = classOf(size);
+        ByteBuffer buffer = null;
+        if (index >= 0) {
+            synchronized (freeLists[index]) {
+                buffer = freeLists[index].pollFirst();
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(index >= 0 ? 1 << (index + MIN_CLASS_SHIFT) : size);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    public void recycle(@NonNull ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int index = classOf(capacity);
+        //超大的buffer和不是从这里分配的buffer不缓存
+        if (index < 0 || 1 << (index + MIN_CLASS_SHIFT) != capacity) return;
+        synchronized (freeLists[index]) {
+            if (freeLists[index].size() < maxCachedPerClass) {
+                freeLists[index].addFirst(buffer);
+            }
+        }
+    }
+
+    public void clear() {
+        for (ArrayDeque<ByteBuffer> freeList : freeLists) {
+            synchronized (freeList) {
+                freeList.clear();
+            }
+        }
+    }
+
+    private static int classOf(int size) {
+        int shift = MIN_CLASS_SHIFT;
+        while (shift <= MAX_CLASS_SHIFT) {
+            if (size <= 1 << shift) return shift - MIN_CLASS_SHIFT;
+            shift++;
+        }
+        return -1;
+    }
+}
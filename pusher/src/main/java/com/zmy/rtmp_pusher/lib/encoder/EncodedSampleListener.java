@@ -0,0 +1,17 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Gets the raw encoder output next to the RTMP packets, for outputs that need the codec's own
+ * framing, e.g. a muxer. Called on the encoder's output thread, the buffer is only valid during
+ * the call and must not be modified.
+ */
+public interface EncodedSampleListener {
+    void onOutputFormatChanged(IEncoder encoder, MediaFormat format);
+
+    void onSample(IEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info);
+}
@@ -0,0 +1,38 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * The one thread every encoder in asynchronous mode gets its {@link android.media.MediaCodec}
+ * callbacks on. It is started with the first encoder and quits with the last one.
+ */
+final class EncoderLooper {
+    private static HandlerThread thread;
+    private static Handler handler;
+    private static int users = 0;
+
+    private EncoderLooper() {
+    }
+
+    static synchronized Handler acquire() {
+        if (users++ == 0) {
+            //音频也在这个线程上,按音频的优先级
+            thread = new HandlerThread("RtmpEncoderThread", Process.THREAD_PRIORITY_AUDIO);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    static synchronized void release() {
+        if (users <= 0) return;
+        if (--users == 0) {
+            //等已经投递的回调处理完再退出
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+        }
+    }
+}
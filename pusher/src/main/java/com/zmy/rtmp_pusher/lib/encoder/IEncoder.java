@@ -2,16 +2,38 @@ package com.zmy.rtmp_pusher.lib.encoder;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 import android.view.Surface;
 
+import androidx.annotation.NonNull;
+
 import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
-import com.zmy.rtmp_pusher.lib.queue.LinkedQueue;
+import com.zmy.rtmp_pusher.lib.queue.Sink;
 import com.zmy.rtmp_pusher.lib.util.WorkerThread;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Base of the MediaCodec encoders.
+ * <p>
+ * On API 23 and above the codec runs in asynchronous mode by default: its callbacks arrive on one
+ * thread shared by all encoders, output is drained as it becomes available and input buffers are
+ * handed to {@link #onInputBufferAvailable(int)}. Below that, or after
+ * {@link #setAsyncMode(boolean) setAsyncMode(false)}, every encoder blocks on its own output
+ * thread as before.
+ */
 public abstract class IEncoder {
+    //release()时等待编码器输出EOS的最长时间
+    private static final long END_OF_STREAM_TIMEOUT_MS = 1000;
+    private static final long RELEASE_TIMEOUT_MS = 1000;
 
     protected int bitrate;
 
@@ -22,8 +44,13 @@ public abstract class IEncoder {
     protected ByteBuffer[] inputBuffers;
     private EncodeReadThread encodeReadThread;
     private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-    protected LinkedQueue<RtmpPacket> outputQueue;
+    protected Sink<RtmpPacket> outputQueue;
+    private volatile EncodedSampleListener[] sampleListeners = new EncodedSampleListener[0];
     private boolean ready = false;
+    private boolean asyncMode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    private Handler codecHandler;
+    private volatile CodecCallback codecCallback;
+    private boolean started = false;
 
     public IEncoder(int bitrate, EncoderCallback callback) {
         this.bitrate = bitrate;
@@ -40,14 +67,37 @@ public abstract class IEncoder {
         this.ready = ready;
     }
 
+    /**
+     * @param async false to drain the codec on a dedicated blocking thread even where the
+     *              asynchronous mode is available. Only read by {@link #init()}.
+     */
+    public void setAsyncMode(boolean async) {
+        this.asyncMode = async && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    public boolean isAsyncMode() {
+        return asyncMode;
+    }
+
     public void init() throws EncoderException {
         try {
             MediaFormat format = getFormat();
             mediaCodec = MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME));
+            if (asyncMode) {
+                //回调必须在configure之前设置
+                codecHandler = EncoderLooper.acquire();
+                codecCallback = new CodecCallback(codecHandler);
+                mediaCodec.setCallback(codecCallback, codecHandler);
+            }
             mediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
             if (createSurface()) surface = mediaCodec.createInputSurface();
             setReady(true);
         } catch (Exception e) {
+            if (codecHandler != null) {
+                codecHandler = null;
+                codecCallback = null;
+                EncoderLooper.release();
+            }
             throw new EncoderException(e);
         }
     }
@@ -62,13 +112,41 @@ public abstract class IEncoder {
 
     protected abstract boolean createSurface();
 
-    public void setOutputQueue(LinkedQueue<RtmpPacket> outputQueue) {
+    /**
+     * @return the {@link Process} priority of the threads that drive the codec in blocking mode
+     */
+    protected int getCodecThreadPriority() {
+        return Process.THREAD_PRIORITY_DISPLAY;
+    }
+
+    public void setOutputQueue(Sink<RtmpPacket> outputQueue) {
         this.outputQueue = outputQueue;
     }
 
+    /**
+     * Also hands the raw encoder output to {@code listener}. Add it before {@link #start()} so it
+     * doesn't miss the output format.
+     */
+    public synchronized void addSampleListener(@NonNull EncodedSampleListener listener) {
+        EncodedSampleListener[] listeners = Arrays.copyOf(sampleListeners, sampleListeners.length + 1);
+        listeners[sampleListeners.length] = listener;
+        sampleListeners = listeners;
+    }
+
+    public synchronized void removeSampleListener(@NonNull EncodedSampleListener listener) {
+        EncodedSampleListener[] listeners = new EncodedSampleListener[sampleListeners.length];
+        int count = 0;
+        for (EncodedSampleListener existing : sampleListeners) {
+            if (existing != listener) listeners[count++] = existing;
+        }
+        sampleListeners = Arrays.copyOf(listeners, count);
+    }
+
     public void start() throws EncoderException {
         try {
             mediaCodec.start();
+            started = true;
+            if (codecHandler != null) return;
             if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.LOLLIPOP) {
                 outputBuffers = mediaCodec.getOutputBuffers();
                 if (!createSurface()) {
@@ -89,13 +167,104 @@ public abstract class IEncoder {
 
     protected abstract void onEncode(ByteBuffer buffer, MediaCodec.BufferInfo info);
 
+    /**
+     * Asynchronous mode only: the codec has a free input buffer. Called on the codec thread, an
+     * encoder that has no input yet keeps the index and fills it from {@link #onInputReady()}.
+     * Encoders fed through a surface never get this.
+     */
+    protected void onInputBufferAvailable(int index) {
+    }
+
+    /**
+     * Asynchronous mode only: called on the codec thread after {@link #requestInput()}.
+     */
+    protected void onInputReady() {
+    }
+
+    /**
+     * Asynchronous mode only: has {@link #onInputReady()} called on the codec thread, once for any
+     * number of requests made before it runs. Safe to call from any thread.
+     */
+    protected final void requestInput() {
+        CodecCallback current = codecCallback;
+        if (current != null) current.requestInput();
+    }
+
     public void release() {
         setReady(false);
+        if (mediaCodec == null) return;
+        if (codecHandler != null) {
+            releaseAsync();
+            return;
+        }
         waitForCodecDone();
         mediaCodec.release();
         mediaCodec = null;
     }
 
+    /**
+     * Waits for the end of stream to be drained, then stops and releases the codec on the codec
+     * thread, so no callback runs against a released codec. If the codec thread does not get to it
+     * within {@link #RELEASE_TIMEOUT_MS}, e.g. because a listener blocks it, the codec is released
+     * on the calling thread and the callbacks still queued see it as released.
+     */
+    private void releaseAsync() {
+        final MediaCodec codec = mediaCodec;
+        final CodecCallback current = codecCallback;
+        Handler handler = codecHandler;
+        codecHandler = null;
+        codecCallback = null;
+        boolean onCodecThread = Looper.myLooper() == handler.getLooper();
+        if (started && !onCodecThread) {
+            try {
+                if (!current.endOfStream.await(END_OF_STREAM_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    RtmpLogManager.w(getName(), "no end of stream after {}ms, releasing anyway", END_OF_STREAM_TIMEOUT_MS);
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        final CountDownLatch released = new CountDownLatch(1);
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+        Runnable shutdown = new Runnable() {
+            @Override
+            public void run() {
+                //编码线程和超时后的调用线程只有一个能释放
+                if (!claimed.compareAndSet(false, true)) return;
+                current.released = true;
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    //出错后编码器可能已经不在运行状态
+                }
+                codec.release();
+                released.countDown();
+            }
+        };
+        if (onCodecThread) {
+            shutdown.run();
+        } else {
+            boolean done = false;
+            if (handler.post(shutdown)) {
+                try {
+                    done = released.await(RELEASE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (!done) {
+                RtmpLogManager.w(getName(), "codec thread did not release the codec in {}ms, releasing here", RELEASE_TIMEOUT_MS);
+                //编码线程已经在释放时这里什么都不做
+                shutdown.run();
+            }
+        }
+        synchronized (this) {
+            mediaCodec = null;
+        }
+        started = false;
+        EncoderLooper.release();
+    }
+
     protected void waitForCodecDone() {
         if (encodeReadThread != null) {
             try {
@@ -110,7 +279,7 @@ public abstract class IEncoder {
     class EncodeReadThread extends WorkerThread {
 
         public EncodeReadThread() {
-            super(IEncoder.this.getName() + "_EncodeReadThread");
+            super(IEncoder.this.getName() + "_EncodeReadThread", IEncoder.this.getCodecThreadPriority());
         }
 
         @Override
@@ -118,8 +287,7 @@ public abstract class IEncoder {
             try {
                 int index = mediaCodec.dequeueOutputBuffer(info, -1);
                 if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    RtmpLogManager.d(IEncoder.this.getName(), "onOutputFormatChanged-------" + IEncoder.this.getClass().getSimpleName());
-                    onOutputFormatChanged();
+                    handleOutputFormatChanged();
                 }
                 if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED && android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.LOLLIPOP) {
                     outputBuffers = mediaCodec.getOutputBuffers();
@@ -131,20 +299,119 @@ public abstract class IEncoder {
                     } else {
                         buffer = outputBuffers[index];
                     }
-                    onEncode(buffer, info);
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        outputQueue.close();
-                    }
-                    mediaCodec.releaseOutputBuffer(index, false);
+                    handleOutput(index, buffer, info);
                 }
                 return (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
             } catch (Exception e) {
-                e.printStackTrace();
-                if (isReady() && callback != null) {
-                    callback.onEncodeError(IEncoder.this, e);
-                }
+                onCodecError(e);
                 return true;
             }
         }
     }
+
+    private void handleOutputFormatChanged() {
+        RtmpLogManager.d(getName(), "onOutputFormatChanged-------{}", getClass().getSimpleName());
+        onOutputFormatChanged();
+        for (EncodedSampleListener listener : sampleListeners) {
+            listener.onOutputFormatChanged(this, mediaCodec.getOutputFormat());
+        }
+    }
+
+    private void handleOutput(int index, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        onEncode(buffer, info);
+        for (EncodedSampleListener listener : sampleListeners) {
+            listener.onSample(this, buffer, info);
+        }
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            outputQueue.close();
+        }
+        mediaCodec.releaseOutputBuffer(index, false);
+    }
+
+    private void onCodecError(Exception e) {
+        e.printStackTrace();
+        if (isReady() && callback != null) {
+            callback.onEncodeError(this, e);
+        }
+    }
+
+    /**
+     * Receives the callbacks of one codec on the shared encoder thread. Everything but
+     * {@link #requestInput()} runs on that thread.
+     */
+    class CodecCallback extends MediaCodec.Callback {
+        private final Handler handler;
+        private final AtomicBoolean inputRequested = new AtomicBoolean(false);
+        final CountDownLatch endOfStream = new CountDownLatch(1);
+        //置位之后codec已经释放,忽略还在排队的回调;超时时由调用releaseAsync的线程写入
+        volatile boolean released = false;
+        private final Runnable inputTask = new Runnable() {
+            @Override
+            public void run() {
+                inputRequested.set(false);
+                if (released) return;
+                try {
+                    onInputReady();
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+        };
+
+        CodecCallback(Handler handler) {
+            this.handler = handler;
+        }
+
+        void requestInput() {
+            if (inputRequested.compareAndSet(false, true)) {
+                handler.post(inputTask);
+            }
+        }
+
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            if (released) return;
+            try {
+                IEncoder.this.onInputBufferAvailable(index);
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            if (released) return;
+            try {
+                handleOutput(index, codec.getOutputBuffer(index), info);
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                endOfStream.countDown();
+            }
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            if (released) return;
+            fail(e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            if (released) return;
+            try {
+                handleOutputFormatChanged();
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Exception e) {
+            //出错后不会再有EOS,release()不必等待
+            endOfStream.countDown();
+            onCodecError(e);
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Native pool the {@link RtmpPacket} bodies are allocated from.
+ * <p>
+ * Bodies are rounded up to power-of-two size classes from 256B to 8MB and go back to a per-class
+ * free list on release, so steady-state encoding stops hitting the native heap. Bodies larger than
+ * the biggest class are reported as one extra class with a block size of 0.
+ */
+public class PacketPool {
+    private static final int FIELDS = 6;
+
+    private PacketPool() {
+    }
+
+    @NonNull
+    public static Stats[] getStats() {
+        int rows = native_stats_rows();
+        long[] values = new long[rows * FIELDS];
+        native_get_stats(values);
+        Stats[] stats = new Stats[rows];
+        for (int i = 0; i < rows; i++) {
+            stats[i] = new Stats(values, i * FIELDS);
+        }
+        return stats;
+    }
+
+    /**
+     * Clears the acquire/allocate counters and resets every high-water mark to the current usage.
+     */
+    public static void resetStats() {
+        native_reset_stats();
+    }
+
+    /**
+     * Frees every cached block.
+     */
+    public static void trim() {
+        native_trim();
+    }
+
+    /**
+     * With the pool disabled every body is malloc'ed and freed, mostly useful to compare against.
+     */
+    public static void setEnabled(boolean enabled) {
+        native_set_enabled(enabled);
+    }
+
+    private static native int native_stats_rows();
+
+    private static native void native_get_stats(long[] out);
+
+    private static native void native_reset_stats();
+
+    private static native void native_trim();
+
+    private static native void native_set_enabled(boolean enabled);
+
+    public static class Stats {
+        private final long blockSize;
+        private final long acquired;
+        private final long allocated;
+        private final long inUse;
+        private final long highWaterMark;
+        private final long cached;
+
+        private Stats(long[] values, int offset) {
+            this.blockSize = values[offset];
+            this.acquired = values[offset + 1];
+            this.allocated = values[offset + 2];
+            this.inUse = values[offset + 3];
+            this.highWaterMark = values[offset + 4];
+            this.cached = values[offset + 5];
+        }
+
+        /**
+         * @return bytes per block, 0 for the oversize class
+         */
+        public long getBlockSize() {
+            return blockSize;
+        }
+
+        public long getAcquired() {
+            return acquired;
+        }
+
+        /**
+         * @return how many acquires missed the free list and went to malloc
+         */
+        public long getAllocated() {
+            return allocated;
+        }
+
+        public long getInUse() {
+            return inUse;
+        }
+
+        public long getHighWaterMark() {
+            return highWaterMark;
+        }
+
+        public long getCached() {
+            return cached;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "blockSize=" + blockSize +
+                    ", acquired=" + acquired +
+                    ", allocated=" + allocated +
+                    ", inUse=" + inUse +
+                    ", highWaterMark=" + highWaterMark +
+                    ", cached=" + cached +
+                    '}';
+        }
+    }
+}
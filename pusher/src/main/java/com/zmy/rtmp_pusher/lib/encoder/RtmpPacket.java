@@ -1,24 +1,62 @@
 package com.zmy.rtmp_pusher.lib.encoder;
 
 
-import com.zmy.rtmp_pusher.lib.queue.LinkedQueue;
+import com.zmy.rtmp_pusher.lib.flv.FlvTag;
+import com.zmy.rtmp_pusher.lib.queue.Deleter;
+import com.zmy.rtmp_pusher.lib.trace.FrameTracer;
 
 import java.nio.ByteBuffer;
 
 public class RtmpPacket {
 
 
-    public static final LinkedQueue.Deleter<RtmpPacket> DELETER = new RtmpPacketDeleter();
+    public static final Deleter<RtmpPacket> DELETER = new RtmpPacketDeleter();
+    /**
+     * Presentation time of packets that carry no media time, like the config packets.
+     */
+    public static final long NO_TIMESTAMP = -1;
 
-    private long handle = 0;
+    private final long handle;
     private final PacketType type;
+    private final int size;
+    private final long createTimeNanos = System.nanoTime();
+    private final long presentationTimeUs;
+    private int dtsMs = -1;
+    private int compositionTimeMs = 0;
+    //零拷贝模式下native层直接引用的payload,最后一个引用释放后还给pool
+    private final ByteBuffer payload;
+    private final DirectBufferPool payloadPool;
+    private FrameTracer tracer;
+    private long traceId;
+
+    private RtmpPacket(long handle, PacketType type, int size, long presentationTimeUs) {
+        this(handle, type, size, presentationTimeUs, null, null);
+    }
 
-    private RtmpPacket(long handle, PacketType type) {
+    /**
+     * Packet without a native body, only for the JVM test double of this package that the queue
+     * tests use. It keeps its own reference count and is never sent. Not visible to subclasses
+     * outside the package.
+     */
+    RtmpPacket(PacketType type, int size, long presentationTimeUs) {
+        this.handle = 0;
+        this.type = type;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.payload = null;
+        this.payloadPool = null;
+    }
+
+    private RtmpPacket(long handle, PacketType type, int size, long presentationTimeUs, ByteBuffer payload, DirectBufferPool payloadPool) {
         if (handle == 0) {
             throw new IllegalArgumentException("fail to create RtmpPacket,check the arguments");
         }
         this.handle = handle;
         this.type = type;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.payload = payload;
+        this.payloadPool = payloadPool;
     }
 
     public long getHandle() {
@@ -29,37 +67,163 @@ public class RtmpPacket {
         return type;
     }
 
-    public synchronized void release() {
-        if (handle != 0) {
-            native_release_frame(handle);
-            handle = 0;
+    /**
+     * @return the encoded payload size in bytes, without RTMP/FLV framing
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the packet was created by the encoder
+     */
+    public long getCreateTimeNanos() {
+        return createTimeNanos;
+    }
+
+    /**
+     * @return the encoder presentation time, or {@link #NO_TIMESTAMP}
+     */
+    public long getPresentationTimeUs() {
+        return presentationTimeUs;
+    }
+
+    /**
+     * @return the RTMP timestamp assigned by {@link TimestampNormalizer}, -1 until then, in which
+     * case the pusher stamps the packet with its send time
+     */
+    public int getDtsMs() {
+        return dtsMs;
+    }
+
+    /**
+     * @return pts - dts of a video frame, non zero only with B-frames
+     */
+    public int getCompositionTimeMs() {
+        return compositionTimeMs;
+    }
+
+    /**
+     * Writes the timestamps into the native packet. Only valid before the packet is shared, the
+     * composition time of a video frame lives in its body.
+     */
+    void setTimestamps(int dtsMs, int compositionTimeMs) {
+        this.dtsMs = dtsMs;
+        this.compositionTimeMs = compositionTimeMs;
+        if (handle != 0) native_set_timestamps(handle, dtsMs, compositionTimeMs);
+    }
+
+    /**
+     * @return a view of the header segment of a zero-copy packet, null for other packets. The view
+     * points into the native packet and is only valid while a reference is held.
+     */
+    public ByteBuffer getBodyPrefix() {
+        return native_get_prefix(handle);
+    }
+
+    /**
+     * @return a view of the FLV tag body, or of what follows {@link #getBodyPrefix()}. Only valid
+     * while a reference is held.
+     */
+    public ByteBuffer getBodyData() {
+        return native_get_data(handle);
+    }
+
+    /**
+     * Attaches the frame's record in {@code tracer} and stamps it packetized. Only valid before the
+     * packet is shared.
+     */
+    void setTrace(FrameTracer tracer, long traceId) {
+        this.tracer = tracer;
+        this.traceId = traceId;
+        tracer.mark(traceId, FrameTracer.STAGE_PACKETIZED, System.nanoTime());
+    }
+
+    /**
+     * Stamps the packet's frame as having passed {@code stage}, nothing happens for packets that are
+     * not traced.
+     */
+    public void mark(int stage, long nanos) {
+        FrameTracer tracer = this.tracer;
+        if (tracer != null) tracer.mark(traceId, stage, nanos);
+    }
+
+    /**
+     * Takes another reference to the same native packet. The body is immutable once created, so
+     * config caching and fan-out share one allocation. Every {@code retain()} must be paired with
+     * one {@link #release()}.
+     */
+    public RtmpPacket retain() {
+        native_retain(handle);
+        return this;
+    }
+
+    /**
+     * Drops one reference, the native packet is freed with the last one.
+     */
+    public void release() {
+        if (native_release_frame(handle) == 0 && payloadPool != null) {
+            payloadPool.recycle(payload);
         }
     }
 
+    public int getRefCount() {
+        return native_ref_count(handle);
+    }
+
     private native static long native_create_for_sps_pps(ByteBuffer sps, int spsOffset, int spsLen, ByteBuffer pps, int ppsOffset, int ppsLen);
 
     private native static long native_create_for_video(ByteBuffer data, int offset, int dataLen, boolean keyFrame);
 
     private native static long native_create_for_audio(ByteBuffer data, int offset, int dataLen, int sampleRate, int channels, int bytesPerSample, boolean isConfigData);
 
-    private native void native_release_frame(long handle);
+    private native static long native_create_for_video_segments(byte[] header, int headerLen, ByteBuffer payload, int payloadLen);
 
-    private native long native_clone(long handle);
+    private native static int native_release_frame(long handle);
 
-    public RtmpPacket copy() {
-        return new RtmpPacket(native_clone(handle), type);
-    }
+    private native static void native_set_timestamps(long handle, int dts, int compositionTime);
+
+    private native static void native_retain(long handle);
+
+    private native static int native_ref_count(long handle);
+
+    private native static ByteBuffer native_get_prefix(long handle);
+
+    private native static ByteBuffer native_get_data(long handle);
 
 
     public static RtmpPacket createForSpsPps(ByteBuffer sps, int spsOffset, int spsLen, ByteBuffer pps, int ppsOffset, int ppsLen) {
-        return new RtmpPacket(native_create_for_sps_pps(sps, spsOffset, spsLen, pps, ppsOffset, ppsLen), PacketType.SPS_PPS);
+        return new RtmpPacket(native_create_for_sps_pps(sps, spsOffset, spsLen, pps, ppsOffset, ppsLen), PacketType.SPS_PPS, spsLen + ppsLen, NO_TIMESTAMP);
+    }
+
+    public static RtmpPacket createForVideo(ByteBuffer data, int offset, int dataLen, long presentationTimeUs, boolean keyFrame) {
+        return new RtmpPacket(native_create_for_video(data, offset, dataLen, keyFrame), keyFrame ? PacketType.VIDEO_SYNC_FRAME : PacketType.VIDEO_P_FRAME, dataLen, presentationTimeUs);
     }
 
-    public static RtmpPacket createForVideo(ByteBuffer data, int offset, int dataLen, boolean keyFrame) {
-        return new RtmpPacket(native_create_for_video(data, offset, dataLen, keyFrame), keyFrame ? PacketType.VIDEO_SYNC_FRAME : PacketType.VIDEO_P_FRAME);
+    /**
+     * Zero-copy variant of {@link #createForVideo(ByteBuffer, int, int, long, boolean)}. The NAL unit is
+     * copied once into a pooled direct buffer that the native packet sends from directly, and the
+     * FLV video tag header is sent as a separate small segment, so no native body is allocated or
+     * filled.
+     */
+    public static RtmpPacket createForVideo(ByteBuffer data, int offset, int dataLen, long presentationTimeUs, boolean keyFrame, DirectBufferPool pool) {
+        ByteBuffer payload = pool.acquire(Math.max(dataLen, 1));
+        int naluLength = FlvTag.copyNalu(data, offset, dataLen, payload);
+        if (naluLength <= 0) {
+            pool.recycle(payload);
+            throw new IllegalArgumentException("fail to create RtmpPacket,check the arguments");
+        }
+        ByteBuffer header = ByteBuffer.allocate(FlvTag.VIDEO_NALU_HEADER_SIZE);
+        FlvTag.writeVideoNaluHeader(header, keyFrame, 0, naluLength);
+        long handle = native_create_for_video_segments(header.array(), header.position(), payload, naluLength);
+        if (handle == 0) {
+            pool.recycle(payload);
+            throw new IllegalArgumentException("fail to create RtmpPacket,check the arguments");
+        }
+        return new RtmpPacket(handle, keyFrame ? PacketType.VIDEO_SYNC_FRAME : PacketType.VIDEO_P_FRAME, dataLen, presentationTimeUs, payload, pool);
     }
 
-    public static RtmpPacket createForAudio(ByteBuffer data, int offset, int dataLen, int sampleRate, int channels, int bytesPerSample, boolean isConfigData) {
+    public static RtmpPacket createForAudio(ByteBuffer data, int offset, int dataLen, long presentationTimeUs, int sampleRate, int channels, int bytesPerSample, boolean isConfigData) {
         if (sampleRate != 5500 && sampleRate != 11000 && sampleRate != 22000 && sampleRate != 44100) {
             throw new IllegalArgumentException("invalid sampleRate");
         }
@@ -69,14 +233,14 @@ public class RtmpPacket {
         if (bytesPerSample != 1 && bytesPerSample != 2) {
             throw new IllegalArgumentException("invalid bytesPerSample");
         }
-        return new RtmpPacket(native_create_for_audio(data, offset, dataLen, sampleRate, channels, bytesPerSample, isConfigData), isConfigData ? PacketType.AUDIO_SPECIFIC_CONFIG : PacketType.AUDIO);
+        return new RtmpPacket(native_create_for_audio(data, offset, dataLen, sampleRate, channels, bytesPerSample, isConfigData), isConfigData ? PacketType.AUDIO_SPECIFIC_CONFIG : PacketType.AUDIO, dataLen, presentationTimeUs);
     }
 
     public enum PacketType {
         AUDIO_SPECIFIC_CONFIG, SPS_PPS, VIDEO_SYNC_FRAME, VIDEO_P_FRAME, AUDIO
     }
 
-    private static class RtmpPacketDeleter implements LinkedQueue.Deleter<RtmpPacket> {
+    private static class RtmpPacketDeleter implements Deleter<RtmpPacket> {
         private RtmpPacketDeleter() {
         }
 
@@ -0,0 +1,91 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.pusher.SyncFrameRequester;
+
+/**
+ * Rate limits sync frame requests before they reach the encoder. It is itself a
+ * {@link SyncFrameRequester}, the one interface send queues and the pushers' reconnect path call.
+ * <p>
+ * Pushers ask after a reconnect and send queues ask once the congestion behind a dropped GOP has
+ * cleared, often several outputs at once. At most one request per {@code minIntervalMs} reaches the
+ * encoder, so requests from several outputs share one key frame. It does not decide whether a link
+ * can take a key frame, that is up to the caller. A request arriving too soon is deferred to the
+ * first frame after the interval and dropped if the encoder emits a sync frame on its own in the
+ * meantime.
+ */
+public class SyncFrameRateLimiter implements SyncFrameRequester {
+    private final SyncFrameRequester encoder;
+    private final long minIntervalNanos;
+    private boolean issuedOnce = false;
+    private long lastIssueNanos = 0;
+    private boolean deferred = false;
+
+    private volatile long requests = 0;
+    private volatile long issued = 0;
+
+    public SyncFrameRateLimiter(@NonNull SyncFrameRequester encoder, long minIntervalMs) {
+        if (minIntervalMs < 0) throw new IllegalArgumentException("minIntervalMs must not be negative");
+        this.encoder = encoder;
+        this.minIntervalNanos = minIntervalMs * 1000000;
+    }
+
+    @Override
+    public void requestSyncFrame() {
+        request(System.nanoTime());
+    }
+
+    /**
+     * Called by the encoder for every frame it outputs.
+     */
+    public void onFrame(boolean syncFrame) {
+        onFrame(syncFrame, System.nanoTime());
+    }
+
+    /**
+     * @return true if the request was passed on to the encoder right away
+     */
+    synchronized boolean request(long nowNanos) {
+        requests++;
+        if (issuedOnce && nowNanos - lastIssueNanos < minIntervalNanos) {
+            deferred = true;
+            return false;
+        }
+        issue(nowNanos);
+        return true;
+    }
+
+    synchronized void onFrame(boolean syncFrame, long nowNanos) {
+        if (syncFrame) {
+            //编码器自己出了关键帧,推迟的请求已经满足
+            deferred = false;
+            return;
+        }
+        if (deferred && nowNanos - lastIssueNanos >= minIntervalNanos) {
+            issue(nowNanos);
+        }
+    }
+
+    private void issue(long nowNanos) {
+        deferred = false;
+        issuedOnce = true;
+        lastIssueNanos = nowNanos;
+        issued++;
+        encoder.requestSyncFrame();
+    }
+
+    /**
+     * @return requests received from pushers and queues
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return requests that reached the encoder
+     */
+    public long getIssued() {
+        return issued;
+    }
+}
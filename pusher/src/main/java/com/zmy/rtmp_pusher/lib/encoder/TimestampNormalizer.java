@@ -0,0 +1,190 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.queue.Sink;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stamps encoder output with RTMP timestamps taken from the encoder presentation times.
+ * <p>
+ * Audio and video are rebased onto one shared zero, the earliest presentation time seen on either
+ * track, so they stay in sync on the wire. Each track's timestamps never go backwards. When the
+ * video encoder emits B-frames the decode time of a frame is the smallest presentation time still
+ * waiting in a window of {@code videoReorderDepth} frames, moved back by the reorder delay so it
+ * never passes the frame's own presentation time, and the difference is sent as the composition
+ * time. A depth of 0 treats video as pts == dts, which holds for Baseline profile.
+ * <p>
+ * Packets without a presentation time are passed through unstamped and the pusher falls back to
+ * its send clock for them.
+ */
+public class TimestampNormalizer implements Sink<RtmpPacket> {
+    private final Sink<RtmpPacket> output;
+    private final AtomicLong baseUs = new AtomicLong(Long.MIN_VALUE);
+    private final Stream audio = new Stream(0);
+    private final Stream video;
+    private volatile boolean canWrite = true;
+
+    public TimestampNormalizer(@NonNull Sink<RtmpPacket> output, int videoReorderDepth) {
+        if (videoReorderDepth < 0) throw new IllegalArgumentException("videoReorderDepth must not be negative");
+        this.output = output;
+        this.video = new Stream(videoReorderDepth);
+    }
+
+    @Override
+    public void enqueue(RtmpPacket packet) {
+        if (!canWrite) {
+            packet.release();
+            return;
+        }
+        switch (packet.getType()) {
+            case AUDIO_SPECIFIC_CONFIG:
+                audio.sendConfig(packet);
+                break;
+            case SPS_PPS:
+                video.sendConfig(packet);
+                break;
+            case AUDIO:
+                audio.offer(packet);
+                break;
+            default:
+                video.offer(packet);
+                break;
+        }
+    }
+
+    private long toMs(long presentationTimeUs) {
+        //第一个带时间戳的packet决定两路共同的零点,早于零点的由Track钳到0
+        baseUs.compareAndSet(Long.MIN_VALUE, presentationTimeUs);
+        return (presentationTimeUs - baseUs.get()) / 1000;
+    }
+
+    private void clear() {
+        audio.drop();
+        video.drop();
+    }
+
+    @Override
+    public synchronized void close() {
+        canWrite = false;
+        clear();
+        output.close();
+    }
+
+    /**
+     * Sends the frames still held back for reordering, then flushes the output.
+     */
+    @Override
+    public synchronized void flush() {
+        canWrite = false;
+        audio.drain();
+        video.drain();
+        output.flush();
+    }
+
+    private class Stream {
+        private final ArrayDeque<RtmpPacket> pending = new ArrayDeque<>();
+        private final Track track;
+
+        Stream(int reorderDepth) {
+            this.track = new Track(reorderDepth);
+        }
+
+        synchronized void sendConfig(RtmpPacket packet) {
+            packet.setTimestamps(track.getLastDtsMs(), 0);
+            output.enqueue(packet);
+        }
+
+        synchronized void offer(RtmpPacket packet) {
+            if (packet.getPresentationTimeUs() < 0) {
+                output.enqueue(packet);
+                return;
+            }
+            pending.addLast(packet);
+            track.offer(toMs(packet.getPresentationTimeUs()));
+            while (track.isReady()) {
+                send();
+            }
+        }
+
+        synchronized void drain() {
+            while (!pending.isEmpty()) {
+                send();
+            }
+        }
+
+        synchronized void drop() {
+            while (!pending.isEmpty()) {
+                pending.pollFirst().release();
+                track.pollDtsMs();
+            }
+        }
+
+        private void send() {
+            RtmpPacket packet = pending.pollFirst();
+            int dts = track.pollDtsMs();
+            packet.setTimestamps(dts, Track.compositionTimeMs(toMs(packet.getPresentationTimeUs()), dts));
+            output.enqueue(packet);
+        }
+    }
+
+    /**
+     * Timestamp arithmetic of one track, on milliseconds relative to the shared zero.
+     */
+    static class Track {
+        private final long[] window;
+        private final int reorderDepth;
+        private int size = 0;
+        private int lastDtsMs = 0;
+        //重排序延迟,取第一个满窗口的跨度
+        private long delayMs = -1;
+
+        Track(int reorderDepth) {
+            this.reorderDepth = reorderDepth;
+            this.window = new long[reorderDepth + 1];
+        }
+
+        void offer(long ptsMs) {
+            if (size == window.length) throw new IllegalStateException("poll before offering more");
+            //窗口很小,插入排序即可
+            int i = size++;
+            while (i > 0 && window[i - 1] > ptsMs) {
+                window[i] = window[i - 1];
+                i--;
+            }
+            window[i] = ptsMs;
+        }
+
+        /**
+         * @return true once the window holds enough frames to know the next decode time
+         */
+        boolean isReady() {
+            return size > reorderDepth;
+        }
+
+        /**
+         * Removes the smallest pending presentation time and returns it, minus the reorder delay, as
+         * the next decode time, clamped so it never goes below 0 or below the previous one.
+         */
+        int pollDtsMs() {
+            if (size == 0) throw new IllegalStateException("window is empty");
+            if (delayMs < 0) delayMs = window[size - 1] - window[0];
+            long min = window[0];
+            System.arraycopy(window, 1, window, 0, --size);
+            long dts = Math.max(min - delayMs, lastDtsMs);
+            lastDtsMs = (int) Math.min(dts, Integer.MAX_VALUE);
+            return lastDtsMs;
+        }
+
+        int getLastDtsMs() {
+            return lastDtsMs;
+        }
+
+        static int compositionTimeMs(long ptsMs, int dtsMs) {
+            //FLV的composition time是24位有符号数,pts早于dts时不合法
+            return (int) Math.min(Math.max(ptsMs - dtsMs, 0), 0x7fffff);
+        }
+    }
+}
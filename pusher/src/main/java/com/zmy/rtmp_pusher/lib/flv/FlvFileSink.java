@@ -0,0 +1,302 @@
+package com.zmy.rtmp_pusher.lib.flv;
+
+import androidx.annotation.Nullable;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
+import com.zmy.rtmp_pusher.lib.pusher.CongestionPolicy;
+import com.zmy.rtmp_pusher.lib.pusher.SendQueue;
+import com.zmy.rtmp_pusher.lib.pusher.SyncFrameRequester;
+import com.zmy.rtmp_pusher.lib.util.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records the encoded stream to a local FLV file, next to the pushers.
+ * <p>
+ * It is one more output of {@link com.zmy.rtmp_pusher.lib.pusher.FanOut}: the RTMP message bodies
+ * are FLV tag data already, so packets are written as they are, without another encode. The sink
+ * has its own {@link SendQueue} and writer thread, a slow disk only makes the sink drop its own
+ * GOPs and never holds back the encoder or the network.
+ */
+public class FlvFileSink {
+    private static final String TAG = FlvFileSink.class.getSimpleName();
+    private static final int MAX_BATCH_SIZE = 32;
+
+    private final File file;
+    private final int bufferSize;
+    private final long forceIntervalMs;
+    private final long stopTimeoutMs;
+    private final SendQueue queue;
+    private final Callback callback;
+    private RandomAccessFile randomAccessFile;
+    private volatile FlvWriter writer;
+    private WriteThread writeThread;
+
+    private FlvFileSink(File file, int queueSize, CongestionPolicy congestionPolicy, int bufferSize, long forceIntervalMs, long stopTimeoutMs, Callback callback) {
+        this.file = file;
+        this.bufferSize = bufferSize;
+        this.forceIntervalMs = forceIntervalMs;
+        this.stopTimeoutMs = stopTimeoutMs;
+        this.queue = new SendQueue(queueSize, congestionPolicy);
+        this.callback = callback;
+    }
+
+    /**
+     * @return the queue to add to the {@link com.zmy.rtmp_pusher.lib.pusher.FanOut}
+     */
+    public SendQueue getQueue() {
+        return queue;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Asked for a sync frame when the sink drops the rest of a GOP because the disk fell behind.
+     */
+    public void setSyncFrameRequester(SyncFrameRequester requester) {
+        queue.setSyncFrameRequester(requester);
+    }
+
+    /**
+     * Creates or truncates the file, writes the FLV header and starts the writer thread.
+     */
+    public synchronized void start() throws IOException {
+        if (writeThread != null) throw new IllegalStateException("already started");
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+            writer = new FlvWriter(channel, bufferSize);
+            writer.writeHeader(true, true);
+        } catch (IOException e) {
+            closeFile();
+            throw e;
+        }
+        writeThread = new WriteThread();
+        writeThread.start();
+    }
+
+    /**
+     * Writes what is still queued, syncs and closes the file. Gives up on the queue after the stop
+     * timeout if the disk is stuck.
+     */
+    public synchronized void stop() {
+        if (writeThread != null) {
+            //不再写入,写线程写完剩下的就退出
+            queue.flush();
+            if (!writeThread.awaitExit(stopTimeoutMs)) {
+                queue.close();
+                if (!writeThread.exit(stopTimeoutMs)) {
+                    RtmpLogManager.w(TAG, "writer still running, closing the file anyway");
+                }
+            }
+            writeThread = null;
+        }
+        queue.close();
+        closeFile();
+    }
+
+    private void closeFile() {
+        if (randomAccessFile == null) return;
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            RtmpLogManager.e(TAG, "fail to close " + file, e);
+        }
+        randomAccessFile = null;
+    }
+
+    public long getWrittenBytes() {
+        FlvWriter writer = this.writer;
+        return writer == null ? 0 : writer.getWrittenBytes();
+    }
+
+    public long getDroppedFrames() {
+        return queue.getDroppedVideoFrames() + queue.getDroppedAudioFrames();
+    }
+
+    private void onError(IOException e) {
+        RtmpLogManager.e(TAG, "fail to write " + file, e);
+        if (callback != null) callback.onRecordError(this, e);
+    }
+
+    public interface Callback {
+        /**
+         * Called on the writer thread, nothing more is written to the file afterwards.
+         */
+        void onRecordError(FlvFileSink sink, IOException exception);
+    }
+
+    class WriteThread extends WorkerThread {
+        private final RtmpPacket[] batch = new RtmpPacket[MAX_BATCH_SIZE];
+        private long lastForceNanos = System.nanoTime();
+        private boolean failed = false;
+        //文件必须以配置包开头,视频从关键帧开始
+        private boolean hasAudioConfig = false;
+        private boolean hasVideoConfig = false;
+        private boolean hasSyncFrame = false;
+        private int baseDtsMs = -1;
+        private int lastTimestampMs = 0;
+
+        WriteThread() {
+            super("FlvFileSinkThread");
+        }
+
+        @Override
+        protected boolean doMain() {
+            int count = queue.drainTo(batch, batch.length);
+            if (count == 0) return true;
+            for (int i = 0; i < count; i++) {
+                RtmpPacket packet = batch[i];
+                batch[i] = null;
+                try {
+                    if (!failed && accept(packet)) write(packet);
+                } catch (IOException e) {
+                    failed = true;
+                    onError(e);
+                } finally {
+                    packet.release();
+                }
+            }
+            if (!failed && System.nanoTime() - lastForceNanos >= forceIntervalMs * 1000000) {
+                lastForceNanos = System.nanoTime();
+                try {
+                    writer.force();
+                } catch (IOException e) {
+                    failed = true;
+                    onError(e);
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected void doOnExit() {
+            if (failed) return;
+            try {
+                writer.close();
+            } catch (IOException e) {
+                onError(e);
+            }
+        }
+
+        private boolean accept(RtmpPacket packet) {
+            switch (packet.getType()) {
+                case AUDIO_SPECIFIC_CONFIG:
+                    hasAudioConfig = true;
+                    return true;
+                case SPS_PPS:
+                    hasVideoConfig = true;
+                    return true;
+                case AUDIO:
+                    return hasAudioConfig;
+                case VIDEO_SYNC_FRAME:
+                    hasSyncFrame = hasVideoConfig;
+                    return hasSyncFrame;
+                default:
+                    return hasSyncFrame;
+            }
+        }
+
+        private void write(RtmpPacket packet) throws IOException {
+            boolean audio = packet.getType() == RtmpPacket.PacketType.AUDIO || packet.getType() == RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG;
+            writer.writeTag(audio ? FlvTag.TYPE_AUDIO : FlvTag.TYPE_VIDEO, timestampOf(packet), packet.getBodyPrefix(), packet.getBodyData());
+        }
+
+        /**
+         * The file starts at 0 even when recording starts in the middle of the stream.
+         */
+        private int timestampOf(RtmpPacket packet) {
+            int dts = packet.getDtsMs();
+            if (dts < 0) return lastTimestampMs;
+            if (baseDtsMs < 0) baseDtsMs = dts;
+            lastTimestampMs = Math.max(dts - baseDtsMs, 0);
+            return lastTimestampMs;
+        }
+    }
+
+    public static class Builder {
+        private File file;
+        private int queueSize = 256;
+        private CongestionPolicy congestionPolicy = CongestionPolicy.DEFAULT;
+        private int bufferSize = 1024 * 1024;
+        private long forceIntervalMs = 2000;
+        private long stopTimeoutMs = 3000;
+        private Callback callback;
+
+        public Builder file(File file) {
+            this.file = file;
+            return this;
+        }
+
+        public Builder queueSize(int size) {
+            this.queueSize = size;
+            return this;
+        }
+
+        /**
+         * When the sink's queue counts as backed up and starts dropping GOPs, e.g. while the disk
+         * stalls.
+         */
+        public Builder congestionPolicy(CongestionPolicy policy) {
+            this.congestionPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Size of the write buffer and so of most writes, at least 8192, rounded down to a multiple
+         * of 4096.
+         */
+        public Builder bufferSize(int bytes) {
+            this.bufferSize = bytes;
+            return this;
+        }
+
+        /**
+         * How often written data is synced to the storage device, which bounds what a crash or power
+         * loss can take from the recording.
+         */
+        public Builder forceIntervalMs(long intervalMs) {
+            this.forceIntervalMs = intervalMs;
+            return this;
+        }
+
+        public Builder stopTimeoutMs(long timeoutMs) {
+            this.stopTimeoutMs = timeoutMs;
+            return this;
+        }
+
+        public Builder callback(@Nullable Callback callback) {
+            this.callback = callback;
+            return this;
+        }
+
+        public FlvFileSink build() {
+            if (file == null) {
+                throw new IllegalStateException("file is null");
+            }
+            if (queueSize <= 0) {
+                throw new IllegalStateException("queueSize must be more than 0");
+            }
+            if (congestionPolicy == null) {
+                throw new IllegalStateException("congestionPolicy is null");
+            }
+            if (bufferSize < FlvWriter.MIN_BUFFER_SIZE) {
+                throw new IllegalStateException("bufferSize must be at least " + FlvWriter.MIN_BUFFER_SIZE);
+            }
+            if (forceIntervalMs <= 0) {
+                throw new IllegalStateException("forceIntervalMs must be more than 0");
+            }
+            if (stopTimeoutMs <= 0) {
+                throw new IllegalStateException("stopTimeoutMs must be more than 0");
+            }
+            return new FlvFileSink(file, queueSize, congestionPolicy, bufferSize, forceIntervalMs, stopTimeoutMs, callback);
+        }
+    }
+}
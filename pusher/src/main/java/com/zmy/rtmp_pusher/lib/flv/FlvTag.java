@@ -0,0 +1,89 @@
+package com.zmy.rtmp_pusher.lib.flv;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FLV framing helpers. The layouts match what the native side builds for RTMP bodies, an RTMP
+ * audio/video message body is exactly the data of an FLV tag.
+ */
+public final class FlvTag {
+    public static final int TYPE_AUDIO = 8;
+    public static final int TYPE_VIDEO = 9;
+    public static final int TYPE_SCRIPT = 18;
+
+    public static final int FILE_HEADER_SIZE = 9;
+    public static final int TAG_HEADER_SIZE = 11;
+    public static final int PREVIOUS_TAG_SIZE = 4;
+    /**
+     * frame type/codec id, AVCPacketType, composition time and one 4 byte NALU length
+     */
+    public static final int VIDEO_NALU_HEADER_SIZE = 9;
+
+    private FlvTag() {
+    }
+
+    /**
+     * Same rule as the native packet builder: 4 for {@code 00 00 00 01}, 3 for {@code 00 00 01}
+     * and 0 when the data has no start code.
+     *
+     * @return -1 if the data is too short
+     */
+    public static int startCodeLength(ByteBuffer data, int offset, int length) {
+        if (length < 3) return -1;
+        byte third = data.get(offset + 2);
+        if (third == 0) return 4;
+        if (third == 1) return 3;
+        return 0;
+    }
+
+    /**
+     * Copies the NAL unit in {@code data[offset, offset + length)} without its start code.
+     *
+     * @return the NAL unit length, -1 if there is nothing to copy
+     */
+    public static int copyNalu(ByteBuffer data, int offset, int length, ByteBuffer out) {
+        int startCode = startCodeLength(data, offset, length);
+        if (startCode < 0 || length - startCode <= 0) return -1;
+        ByteBuffer src = data.duplicate();
+        src.limit(offset + length);
+        src.position(offset + startCode);
+        out.put(src);
+        return length - startCode;
+    }
+
+    public static void writeVideoNaluHeader(ByteBuffer out, boolean keyFrame, int compositionTime, int naluLength) {
+        //frame type(4bit): 1关键帧 2非关键帧, codec id(4bit): 7 avc
+        out.put((byte) (keyFrame ? 0x17 : 0x27));
+        //AVCPacketType 1: NALU
+        out.put((byte) 0x01);
+        writeInt24(out, compositionTime);
+        out.putInt(naluLength);
+    }
+
+    public static void writeFileHeader(ByteBuffer out, boolean hasAudio, boolean hasVideo) {
+        out.put((byte) 'F').put((byte) 'L').put((byte) 'V');
+        out.put((byte) 0x01);
+        out.put((byte) ((hasAudio ? 0x04 : 0) | (hasVideo ? 0x01 : 0)));
+        out.putInt(FILE_HEADER_SIZE);
+        out.putInt(0);
+    }
+
+    public static void writeTagHeader(ByteBuffer out, int type, int dataSize, int timestamp) {
+        out.put((byte) type);
+        writeInt24(out, dataSize);
+        writeInt24(out, timestamp);
+        out.put((byte) (timestamp >>> 24));
+        //stream id
+        writeInt24(out, 0);
+    }
+
+    public static void writePreviousTagSize(ByteBuffer out, int dataSize) {
+        out.putInt(TAG_HEADER_SIZE + dataSize);
+    }
+
+    private static void writeInt24(ByteBuffer out, int value) {
+        out.put((byte) (value >>> 16));
+        out.put((byte) (value >>> 8));
+        out.put((byte) value);
+    }
+}
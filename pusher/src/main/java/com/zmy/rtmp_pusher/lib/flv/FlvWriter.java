@@ -0,0 +1,133 @@
+package com.zmy.rtmp_pusher.lib.flv;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes FLV tags to a {@link FileChannel} through one large direct buffer.
+ * <p>
+ * The file is only ever written in whole multiples of {@link #ALIGNMENT} bytes, so every write
+ * starts and ends on a page boundary and the page cache never has to read back a partial page.
+ * Only {@link #close()} writes the unaligned tail. Not thread safe.
+ */
+class FlvWriter {
+    static final int ALIGNMENT = 4096;
+    /**
+     * After the whole pages are written less than one page is left, so at least one more page has to
+     * be free for a tag header or a previous tag size that does not fit at the end.
+     */
+    static final int MIN_BUFFER_SIZE = 2 * ALIGNMENT;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private volatile long writeCalls = 0;
+    private volatile long writtenBytes = 0;
+    private volatile long tagBytes = 0;
+
+    /**
+     * @param bufferSize at least {@link #MIN_BUFFER_SIZE}, rounded down to a multiple of
+     *                   {@link #ALIGNMENT}
+     */
+    FlvWriter(@NonNull FileChannel channel, int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE) throw new IllegalArgumentException("bufferSize must be at least " + MIN_BUFFER_SIZE);
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize / ALIGNMENT * ALIGNMENT);
+    }
+
+    void writeHeader(boolean hasAudio, boolean hasVideo) throws IOException {
+        reserve(FlvTag.FILE_HEADER_SIZE + FlvTag.PREVIOUS_TAG_SIZE);
+        FlvTag.writeFileHeader(buffer, hasAudio, hasVideo);
+        tagBytes += FlvTag.FILE_HEADER_SIZE + FlvTag.PREVIOUS_TAG_SIZE;
+    }
+
+    /**
+     * Writes one tag whose data is {@code prefix} followed by {@code data}, e.g. an RTMP message
+     * body. The positions of both buffers are left untouched.
+     */
+    void writeTag(int type, int timestampMs, @Nullable ByteBuffer prefix, @Nullable ByteBuffer data) throws IOException {
+        int dataSize = (prefix != null ? prefix.remaining() : 0) + (data != null ? data.remaining() : 0);
+        reserve(FlvTag.TAG_HEADER_SIZE);
+        FlvTag.writeTagHeader(buffer, type, dataSize, timestampMs);
+        if (prefix != null) put(prefix.duplicate());
+        if (data != null) put(data.duplicate());
+        reserve(FlvTag.PREVIOUS_TAG_SIZE);
+        FlvTag.writePreviousTagSize(buffer, dataSize);
+        tagBytes += FlvTag.TAG_HEADER_SIZE + dataSize + FlvTag.PREVIOUS_TAG_SIZE;
+    }
+
+    private void put(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (!buffer.hasRemaining()) writeAligned();
+            int count = Math.min(src.remaining(), buffer.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + count);
+            buffer.put(src);
+            src.limit(limit);
+        }
+    }
+
+    private void reserve(int bytes) throws IOException {
+        //缓冲区至少两页,写出整页后剩下不到一页,空间一定够
+        if (buffer.remaining() < bytes) writeAligned();
+    }
+
+    /**
+     * Writes the whole pages in the buffer and keeps the remainder for the next write.
+     */
+    void writeAligned() throws IOException {
+        int aligned = buffer.position() / ALIGNMENT * ALIGNMENT;
+        if (aligned == 0) return;
+        buffer.flip();
+        int end = buffer.limit();
+        buffer.limit(aligned);
+        write();
+        buffer.limit(end);
+        buffer.compact();
+    }
+
+    private void write() throws IOException {
+        while (buffer.hasRemaining()) {
+            writtenBytes += channel.write(buffer);
+            writeCalls++;
+        }
+    }
+
+    /**
+     * Writes the whole pages and flushes them to the storage device, so a crash loses at most the
+     * last partial page.
+     */
+    void force() throws IOException {
+        writeAligned();
+        //元数据(文件长度)交给文件系统,只同步数据
+        channel.force(false);
+    }
+
+    /**
+     * Writes everything left and syncs. The channel is not closed.
+     */
+    void close() throws IOException {
+        buffer.flip();
+        write();
+        buffer.clear();
+        channel.force(true);
+    }
+
+    long getWriteCalls() {
+        return writeCalls;
+    }
+
+    long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * @return bytes of tags accepted so far, written or still buffered
+     */
+    long getTagBytes() {
+        return tagBytes;
+    }
+}
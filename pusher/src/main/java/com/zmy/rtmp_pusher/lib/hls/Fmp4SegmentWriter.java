@@ -0,0 +1,269 @@
+package com.zmy.rtmp_pusher.lib.hls;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams the fragments of one fMP4 media segment into a file.
+ * <p>
+ * A moof can only be written once all of its samples are known, but the samples should go to disk
+ * as they arrive. So every fragment starts with a hole of {@code reserveBytes} for the moof,
+ * followed by the mdat the sample data is streamed into. Only the sample table is kept in memory.
+ * When the fragment is finished the moof is written into the hole and the rest of it becomes a
+ * free box. A fragment whose moof would outgrow the hole is finished early and the next one starts
+ * right behind it, so a segment may hold several fragments. Not thread safe.
+ */
+class Fmp4SegmentWriter {
+    private final int reserveBytes;
+    private final ByteBuffer writeBuffer;
+    private final ByteBuffer moofBuffer;
+    private final ByteBuffer mdatSize = ByteBuffer.allocate(4);
+
+    //样本表,每个样本在trun里至少占AUDIO_TRUN_ENTRY_SIZE字节
+    private final boolean[] sampleIsVideo;
+    private final int[] sampleSize;
+    private final int[] sampleDuration;
+    private final int[] sampleFlags;
+    private final int[] sampleCompositionOffset;
+    private int sampleCount = 0;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    //writeBuffer的内容在文件中的起始位置
+    private long flushedPosition = 0;
+    private int sequenceNumber = 0;
+
+    private boolean inFragment = false;
+    private long fragmentStart;
+    private long mdatStart;
+    private int moofSize;
+    private long videoBaseDecodeTime;
+    private long audioBaseDecodeTime;
+    private int videoSamples;
+    private int audioSamples;
+    private int lastVideoIndex;
+    private int lastAudioIndex;
+
+    Fmp4SegmentWriter(int reserveBytes, int writeBufferSize) {
+        this.reserveBytes = reserveBytes;
+        this.writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
+        this.moofBuffer = ByteBuffer.allocate(reserveBytes);
+        int maxSamples = reserveBytes / Mp4Boxes.AUDIO_TRUN_ENTRY_SIZE;
+        sampleIsVideo = new boolean[maxSamples];
+        sampleSize = new int[maxSamples];
+        sampleDuration = new int[maxSamples];
+        sampleFlags = new int[maxSamples];
+        sampleCompositionOffset = new int[maxSamples];
+    }
+
+    /**
+     * Creates the segment file, reserving {@code preallocateBytes} up front so it doesn't grow one
+     * write at a time. It is cut to its real length on {@link #close()}.
+     */
+    void open(@NonNull File target, long preallocateBytes) throws IOException {
+        if (file != null) throw new IllegalStateException("segment already open");
+        file = new RandomAccessFile(target, "rw");
+        try {
+            file.setLength(preallocateBytes);
+        } catch (IOException e) {
+            file.close();
+            file = null;
+            throw e;
+        }
+        channel = file.getChannel();
+        flushedPosition = 0;
+        writeBuffer.clear();
+    }
+
+    boolean isOpen() {
+        return file != null;
+    }
+
+    /**
+     * Starts a sample and returns how it has to be framed: the caller streams exactly
+     * {@code size} bytes with {@link #writeSampleData(ByteBuffer, int, int)} and
+     * {@link #writeSampleInt(int)} afterwards.
+     *
+     * @param baseDecodeTime decode time of the sample, used when it starts the track's run in a new
+     *                       fragment
+     * @return the sample index, to set its duration later with {@link #setDuration(int, int)}
+     */
+    int beginSample(boolean isVideo, int size, int duration, boolean sync, int compositionOffset, long baseDecodeTime) throws IOException {
+        if (!inFragment) beginFragment();
+        int grown = moofSize + (isVideo ? Mp4Boxes.VIDEO_TRUN_ENTRY_SIZE : Mp4Boxes.AUDIO_TRUN_ENTRY_SIZE);
+        if (sampleCount == 0 || sampleIsVideo[sampleCount - 1] != isVideo) grown += Mp4Boxes.TRUN_HEADER_SIZE;
+        if ((isVideo ? videoSamples : audioSamples) == 0) grown += Mp4Boxes.TRAF_HEADER_SIZE;
+        if (!fits(grown) && sampleCount > 0) {
+            finishFragment();
+            beginFragment();
+            return beginSample(isVideo, size, duration, sync, compositionOffset, baseDecodeTime);
+        }
+        if (!fits(grown)) throw new IllegalStateException("reserveBytes is too small for one sample");
+        if (isVideo) {
+            if (videoSamples++ == 0) videoBaseDecodeTime = baseDecodeTime;
+            lastVideoIndex = sampleCount;
+        } else {
+            if (audioSamples++ == 0) audioBaseDecodeTime = baseDecodeTime;
+            lastAudioIndex = sampleCount;
+        }
+        moofSize = grown;
+        int index = sampleCount++;
+        sampleIsVideo[index] = isVideo;
+        sampleSize[index] = size;
+        sampleDuration[index] = duration;
+        sampleFlags[index] = sync ? Mp4Boxes.SAMPLE_FLAGS_SYNC : Mp4Boxes.SAMPLE_FLAGS_NON_SYNC;
+        sampleCompositionOffset[index] = compositionOffset;
+        return index;
+    }
+
+    /**
+     * @return the index of the track's last sample in the open fragment, -1 if it has none
+     */
+    int lastSampleIndex(boolean isVideo) {
+        if (!inFragment) return -1;
+        if (isVideo) return videoSamples > 0 ? lastVideoIndex : -1;
+        return audioSamples > 0 ? lastAudioIndex : -1;
+    }
+
+    void setDuration(int index, int duration) {
+        sampleDuration[index] = duration;
+    }
+
+    private boolean fits(int size) {
+        //剩余空间要么正好用完,要么放得下一个free box
+        return size == reserveBytes || size <= reserveBytes - Mp4Boxes.BOX_HEADER_SIZE;
+    }
+
+    void writeSampleInt(int value) throws IOException {
+        if (writeBuffer.remaining() < 4) flush();
+        writeBuffer.putInt(value);
+    }
+
+    /**
+     * Copies {@code src[from, to)} into the mdat. The position and limit of {@code src} are
+     * restored afterwards.
+     */
+    void writeSampleData(ByteBuffer src, int from, int to) throws IOException {
+        int position = src.position();
+        int limit = src.limit();
+        try {
+            src.limit(to);
+            src.position(from);
+            while (src.hasRemaining()) {
+                if (!writeBuffer.hasRemaining()) flush();
+                int count = Math.min(src.remaining(), writeBuffer.remaining());
+                src.limit(src.position() + count);
+                writeBuffer.put(src);
+                src.limit(to);
+            }
+        } finally {
+            src.limit(limit);
+            src.position(position);
+        }
+    }
+
+    private void beginFragment() throws IOException {
+        flush();
+        fragmentStart = flushedPosition;
+        //moof的位置先空着
+        flushedPosition += reserveBytes;
+        mdatStart = flushedPosition;
+        writeBuffer.putInt(0);
+        Mp4Boxes.putType(writeBuffer, "mdat");
+        moofSize = Mp4Boxes.BOX_HEADER_SIZE + Mp4Boxes.MFHD_SIZE;
+        sampleCount = 0;
+        videoSamples = 0;
+        audioSamples = 0;
+        inFragment = true;
+    }
+
+    /**
+     * Writes the moof of the open fragment into its reserved hole and the mdat size.
+     */
+    void finishFragment() throws IOException {
+        if (!inFragment) return;
+        inFragment = false;
+        flush();
+        long mdatPayloadStart = mdatStart + Mp4Boxes.BOX_HEADER_SIZE;
+        mdatSize.clear();
+        mdatSize.putInt((int) (flushedPosition - mdatStart)).flip();
+        writeFully(mdatSize, mdatStart);
+
+        moofBuffer.clear();
+        int moof = Mp4Boxes.begin(moofBuffer, "moof");
+        Mp4Boxes.writeMfhd(moofBuffer, ++sequenceNumber);
+        if (videoSamples > 0) writeTraf(true, videoBaseDecodeTime, mdatPayloadStart);
+        if (audioSamples > 0) writeTraf(false, audioBaseDecodeTime, mdatPayloadStart);
+        Mp4Boxes.end(moofBuffer, moof);
+        if (moofBuffer.position() != moofSize) throw new IllegalStateException("moof size mismatch");
+        Mp4Boxes.writeFree(moofBuffer, reserveBytes - moofSize);
+        moofBuffer.flip();
+        writeFully(moofBuffer, fragmentStart);
+    }
+
+    private void writeTraf(boolean isVideo, long baseDecodeTime, long mdatPayloadStart) {
+        int traf = Mp4Boxes.beginTraf(moofBuffer, isVideo ? HlsMuxer.VIDEO_TRACK_ID : HlsMuxer.AUDIO_TRACK_ID, baseDecodeTime);
+        long offset = mdatPayloadStart;
+        int i = 0;
+        while (i < sampleCount) {
+            int runEnd = i + 1;
+            while (runEnd < sampleCount && sampleIsVideo[runEnd] == sampleIsVideo[i]) runEnd++;
+            if (sampleIsVideo[i] == isVideo) {
+                Mp4Boxes.writeTrunHeader(moofBuffer, isVideo, runEnd - i, (int) (offset - fragmentStart));
+                for (int j = i; j < runEnd; j++) {
+                    moofBuffer.putInt(sampleDuration[j]);
+                    moofBuffer.putInt(sampleSize[j]);
+                    if (isVideo) {
+                        moofBuffer.putInt(sampleFlags[j]);
+                        moofBuffer.putInt(sampleCompositionOffset[j]);
+                    }
+                }
+            }
+            for (int j = i; j < runEnd; j++) {
+                offset += sampleSize[j];
+            }
+            i = runEnd;
+        }
+        Mp4Boxes.end(moofBuffer, traf);
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        long position = flushedPosition;
+        while (writeBuffer.hasRemaining()) {
+            position += channel.write(writeBuffer, position);
+        }
+        flushedPosition = position;
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Finishes the last fragment, cuts the file to its real length and closes it.
+     *
+     * @return the segment size
+     */
+    long close() throws IOException {
+        if (file == null) return 0;
+        try {
+            finishFragment();
+            flush();
+            channel.truncate(flushedPosition);
+            return flushedPosition;
+        } finally {
+            file.close();
+            file = null;
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.zmy.rtmp_pusher.lib.hls;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zmy.rtmp_pusher.lib.encoder.AVCEncoder;
+import com.zmy.rtmp_pusher.lib.encoder.EncodedSampleListener;
+import com.zmy.rtmp_pusher.lib.encoder.IEncoder;
+import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
+import com.zmy.rtmp_pusher.lib.queue.ArrayChannel;
+import com.zmy.rtmp_pusher.lib.queue.Deleter;
+import com.zmy.rtmp_pusher.lib.util.WorkerThread;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Feeds an {@link HlsMuxer} from the {@link AVCEncoder} and
+ * {@link com.zmy.rtmp_pusher.lib.encoder.AACEncoder} output. Register the same sink on both encoders
+ * with {@link IEncoder#addSampleListener(EncodedSampleListener)}.
+ * <p>
+ * Samples are copied into a bounded queue and muxed on the sink's own thread, so segment writes
+ * never hold up the encoder callbacks. When the queue is full samples are dropped, video up to the
+ * next key frame so a segment never misses a reference frame. The formats are only stored by the
+ * muxer and are set right away.
+ * <p>
+ * MediaCodec gives no decode times, so video is muxed with DTS equal to PTS, which holds for the
+ * encoder's default configuration without B-frames. After the first write error the muxer is left
+ * alone, the RTMP output keeps going.
+ */
+public class HlsEncoderSink implements EncodedSampleListener {
+    private static final String TAG = HlsEncoderSink.class.getSimpleName();
+    private static final String MIME_AVC = "video/avc";
+    private static final String MIME_AAC = "audio/mp4a-latm";
+    private static final int DEFAULT_QUEUE_SIZE = 128;
+    private static final int MAX_BATCH_SIZE = 16;
+    private static final long STOP_TIMEOUT_MS = 3000;
+
+    private final HlsMuxer muxer;
+    private final Callback callback;
+    private final ArrayChannel<Sample> queue;
+    //空闲的Sample,复用它们的缓冲区
+    private final ArrayDeque<Sample> freeSamples = new ArrayDeque<>();
+    private volatile boolean failed = false;
+    private MuxThread muxThread;
+    //只在视频编码器的回调线程访问
+    private boolean dropUntilKeyFrame = false;
+    private volatile long droppedSamples = 0;
+
+    public HlsEncoderSink(@NonNull HlsMuxer muxer, @Nullable Callback callback) {
+        this(muxer, DEFAULT_QUEUE_SIZE, callback);
+    }
+
+    /**
+     * @param queueSize samples waiting for the mux thread, rounded up to a power of two
+     */
+    public HlsEncoderSink(@NonNull HlsMuxer muxer, int queueSize, @Nullable Callback callback) {
+        this.muxer = muxer;
+        this.callback = callback;
+        this.queue = new ArrayChannel<>(queueSize, new Deleter<Sample>() {
+            @Override
+            public void delete(Sample sample) {
+                recycle(sample);
+            }
+        });
+    }
+
+    public HlsMuxer getMuxer() {
+        return muxer;
+    }
+
+    /**
+     * Starts the mux thread, call it before the encoders start.
+     */
+    public synchronized void start() {
+        if (muxThread != null) throw new IllegalStateException("already started");
+        muxThread = new MuxThread();
+        muxThread.start();
+    }
+
+    @Override
+    public void onOutputFormatChanged(IEncoder encoder, MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (MIME_AVC.equals(mime)) {
+            muxer.setVideoFormat(format.getByteBuffer("csd-0"), format.getByteBuffer("csd-1"),
+                    format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT));
+        } else if (MIME_AAC.equals(mime)) {
+            muxer.setAudioFormat(format.getByteBuffer("csd-0"),
+                    format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+        } else {
+            RtmpLogManager.w(TAG, "unsupported format " + mime);
+        }
+    }
+
+    @Override
+    public void onSample(IEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        //配置数据已经从MediaFormat里拿到了
+        if (failed || info.size <= 0 || (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) return;
+        boolean video = encoder instanceof AVCEncoder;
+        boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (video) {
+            if (keyFrame) dropUntilKeyFrame = false;
+            if (dropUntilKeyFrame) {
+                droppedSamples++;
+                return;
+            }
+        }
+        Sample sample = obtain(info.size);
+        ByteBuffer src = buffer.duplicate();
+        src.limit(info.offset + info.size);
+        src.position(info.offset);
+        sample.data.put(src);
+        sample.data.flip();
+        sample.video = video;
+        sample.keyFrame = keyFrame;
+        sample.presentationTimeUs = info.presentationTimeUs;
+        if (!queue.offer(sample)) {
+            //写文件跟不上,视频丢到下一个关键帧
+            recycle(sample);
+            if (video) dropUntilKeyFrame = true;
+            droppedSamples++;
+        }
+    }
+
+    private Sample obtain(int size) {
+        Sample sample;
+        synchronized (freeSamples) {
+            sample = freeSamples.pollFirst();
+        }
+        if (sample == null) sample = new Sample();
+        if (sample.data == null || sample.data.capacity() < size) {
+            sample.data = ByteBuffer.allocate(size);
+        }
+        sample.data.clear();
+        return sample;
+    }
+
+    private void recycle(Sample sample) {
+        synchronized (freeSamples) {
+            freeSamples.addLast(sample);
+        }
+    }
+
+    /**
+     * @return samples not muxed because the mux thread fell behind
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * Muxes what is still queued, finishes the last segment and ends the playlist. Call it once both
+     * encoders are released.
+     */
+    public synchronized void close() {
+        if (muxThread != null) {
+            //不再写入,mux线程处理完剩下的就退出
+            queue.flush();
+            if (!muxThread.awaitExit(STOP_TIMEOUT_MS)) {
+                queue.close();
+                if (!muxThread.exit(STOP_TIMEOUT_MS)) {
+                    RtmpLogManager.w(TAG, "mux thread still running, closing the muxer anyway");
+                }
+            }
+            muxThread = null;
+        }
+        queue.close();
+        try {
+            muxer.close();
+        } catch (IOException e) {
+            RtmpLogManager.e(TAG, "fail to close hls", e);
+            if (callback != null) callback.onHlsError(this, e);
+        }
+    }
+
+    private void write(Sample sample) {
+        try {
+            if (sample.video) {
+                muxer.writeVideo(sample.data, 0, sample.data.limit(), sample.presentationTimeUs, sample.presentationTimeUs, sample.keyFrame);
+            } else {
+                muxer.writeAudio(sample.data, 0, sample.data.limit(), sample.presentationTimeUs);
+            }
+        } catch (IOException e) {
+            failed = true;
+            RtmpLogManager.e(TAG, "fail to write hls", e);
+            if (callback != null) callback.onHlsError(this, e);
+        }
+    }
+
+    private static class Sample {
+        ByteBuffer data;
+        boolean video;
+        boolean keyFrame;
+        long presentationTimeUs;
+    }
+
+    class MuxThread extends WorkerThread {
+        private final Sample[] batch = new Sample[MAX_BATCH_SIZE];
+
+        MuxThread() {
+            super("HlsMuxThread");
+        }
+
+        @Override
+        protected boolean doMain() {
+            int count = queue.drainTo(batch, batch.length);
+            if (count == 0) return true;
+            for (int i = 0; i < count; i++) {
+                Sample sample = batch[i];
+                batch[i] = null;
+                if (!failed) write(sample);
+                recycle(sample);
+            }
+            return false;
+        }
+    }
+
+    public interface Callback {
+        /**
+         * Called on the mux thread, nothing more is muxed afterwards.
+         */
+        void onHlsError(HlsEncoderSink sink, IOException exception);
+    }
+}
@@ -0,0 +1,433 @@
+package com.zmy.rtmp_pusher.lib.hls;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes H.264/AAC access units as an HLS stream of fragmented MP4 segments: an init segment, media
+ * segments cut on video sync frames once they reach the target duration, and a rolling playlist.
+ * <p>
+ * The playlist's EXT-X-TARGETDURATION is fixed up front, from the larger of the target duration and
+ * the encoder's key frame interval, since HLS doesn't allow it to change. A segment that would run
+ * past it because a sync frame came late is cut on the frame that reaches it.
+ * <p>
+ * Samples are streamed into preallocated segment files as they arrive, see
+ * {@link Fmp4SegmentWriter}, so memory use doesn't grow with the segment duration. Video comes in
+ * Annex-B as a {@link android.media.MediaCodec} encoder emits it and is stored with 4 byte NALU
+ * lengths, audio is raw AAC frames. Both tracks keep the timestamps they come with, so they stay in
+ * sync without a shared clock. Thread safe, the audio and video encoders can write from their own
+ * threads.
+ */
+public class HlsMuxer {
+    static final int VIDEO_TRACK_ID = 1;
+    static final int AUDIO_TRACK_ID = 2;
+    static final int VIDEO_TIMESCALE = 90000;
+    private static final String TAG = HlsMuxer.class.getSimpleName();
+    private static final String INIT_SEGMENT = "init.mp4";
+    private static final int DEFAULT_VIDEO_DURATION = VIDEO_TIMESCALE / 30;
+    private static final int AAC_FRAME_SAMPLES = 1024;
+
+    private final File directory;
+    private final long targetDurationUs;
+    private final long keyFrameIntervalUs;
+    //EXT-X-TARGETDURATION,分片不能超过它
+    private final long maxSegmentUs;
+    private final boolean hasVideo;
+    private final boolean hasAudio;
+    private final long segmentPreallocateBytes;
+    private final Fmp4SegmentWriter writer;
+    private final File playlistFile;
+    private final HlsPlaylist playlist;
+
+    private ByteBuffer sps;
+    private ByteBuffer pps;
+    private int width;
+    private int height;
+    private ByteBuffer audioSpecificConfig;
+    private int sampleRate;
+    private int channelCount;
+
+    private final Track video = new Track(true, VIDEO_TIMESCALE, DEFAULT_VIDEO_DURATION);
+    private Track audio;
+    private boolean initWritten = false;
+    private boolean closed = false;
+    private int segmentIndex = 0;
+    private String segmentName;
+    private long segmentStartUs;
+    private long segmentCount = 0;
+
+    private HlsMuxer(File directory, String playlistName, long targetDurationUs, long keyFrameIntervalUs, int playlistSize,
+                     boolean hasVideo, boolean hasAudio, long segmentPreallocateBytes, int fragmentReserveBytes, int writeBufferSize) {
+        this.directory = directory;
+        this.targetDurationUs = targetDurationUs;
+        this.keyFrameIntervalUs = keyFrameIntervalUs;
+        int targetDurationSeconds = (int) ((Math.max(targetDurationUs, keyFrameIntervalUs) + 999999) / 1000000);
+        this.maxSegmentUs = targetDurationSeconds * 1000000L;
+        this.hasVideo = hasVideo;
+        this.hasAudio = hasAudio;
+        this.segmentPreallocateBytes = segmentPreallocateBytes;
+        this.writer = new Fmp4SegmentWriter(fragmentReserveBytes, writeBufferSize);
+        this.playlistFile = new File(directory, playlistName);
+        this.playlist = new HlsPlaylist(playlistFile, INIT_SEGMENT, playlistSize, targetDurationSeconds);
+    }
+
+    /**
+     * @param sps the sequence parameter set, with or without start code
+     * @param pps the picture parameter set, with or without start code
+     */
+    public synchronized void setVideoFormat(@NonNull ByteBuffer sps, @NonNull ByteBuffer pps, int width, int height) {
+        if (initWritten) {
+            //fMP4的init分片只写一次,编码参数不能中途变化
+            RtmpLogManager.w(TAG, "video format changed after the init segment, ignored");
+            return;
+        }
+        this.sps = stripStartCode(sps);
+        this.pps = stripStartCode(pps);
+        this.width = width;
+        this.height = height;
+    }
+
+    public synchronized void setAudioFormat(@NonNull ByteBuffer audioSpecificConfig, int sampleRate, int channelCount) {
+        if (initWritten) {
+            RtmpLogManager.w(TAG, "audio format changed after the init segment, ignored");
+            return;
+        }
+        this.audioSpecificConfig = stripStartCode(audioSpecificConfig);
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.audio = new Track(false, sampleRate, AAC_FRAME_SAMPLES);
+    }
+
+    /**
+     * Writes one Annex-B access unit. Frames before the first sync frame, and before the formats of
+     * all tracks are known, are dropped. SPS, PPS and access unit delimiter NALUs are left out,
+     * the parameter sets are in the init segment.
+     *
+     * @param dtsUs decode time, the same as {@code ptsUs} when the encoder emits no B-frames
+     */
+    public synchronized void writeVideo(@NonNull ByteBuffer data, int offset, int size, long ptsUs, long dtsUs, boolean keyFrame) throws IOException {
+        if (!hasVideo) throw new IllegalStateException("muxer has no video track");
+        if (!prepare(true, keyFrame, dtsUs)) return;
+        int sampleSize = writeNalus(data, offset, size, false);
+        if (sampleSize == 0) return;
+        long dts = video.advance(writer, dtsUs);
+        long elapsedUs = dtsUs - segmentStartUs;
+        if (keyFrame && (elapsedUs >= targetDurationUs || elapsedUs + keyFrameIntervalUs > maxSegmentUs)) {
+            //下一个关键帧来的时候分片会超长,在这个关键帧切
+            cutSegment(dtsUs);
+        } else if (elapsedUs >= maxSegmentUs) {
+            //关键帧迟到了,不切的话分片会超过EXT-X-TARGETDURATION
+            RtmpLogManager.w(TAG, "no sync frame for {}ms, cutting the segment on a P frame", elapsedUs / 1000);
+            cutSegment(dtsUs);
+        }
+        long pts = toTimescale(ptsUs, VIDEO_TIMESCALE);
+        writer.beginSample(true, sampleSize, video.lastDuration, keyFrame, (int) (pts - dts), dts);
+        writeNalus(data, offset, size, true);
+    }
+
+    /**
+     * Writes one raw AAC frame, without ADTS header.
+     */
+    public synchronized void writeAudio(@NonNull ByteBuffer data, int offset, int size, long ptsUs) throws IOException {
+        if (!hasAudio) throw new IllegalStateException("muxer has no audio track");
+        if (!prepare(false, true, ptsUs) || size <= 0) return;
+        long dts = audio.advance(writer, ptsUs);
+        if (!hasVideo && ptsUs - segmentStartUs >= targetDurationUs) {
+            //纯音频时每一帧都可以切分片
+            cutSegment(ptsUs);
+        }
+        writer.beginSample(false, size, audio.lastDuration, true, 0, dts);
+        writer.writeSampleData(data, offset, offset + size);
+    }
+
+    /**
+     * @return false if the sample has to be dropped
+     */
+    private boolean prepare(boolean isVideo, boolean keyFrame, long timeUs) throws IOException {
+        if (closed) return false;
+        if (writer.isOpen()) return true;
+        if (hasVideo && sps == null || hasAudio && audioSpecificConfig == null) return false;
+        //每个分片都从视频关键帧开始
+        if (hasVideo && !(isVideo && keyFrame)) return false;
+        if (!initWritten) writeInitSegment();
+        openSegment(timeUs);
+        return true;
+    }
+
+    private void writeInitSegment() throws IOException {
+        int size = 2048 + (sps != null ? sps.remaining() + pps.remaining() : 0) + (audioSpecificConfig != null ? audioSpecificConfig.remaining() : 0);
+        ByteBuffer out = ByteBuffer.allocate(size);
+        Mp4Boxes.writeFtyp(out);
+        Mp4Boxes.writeMoov(out, hasVideo ? new ByteBuffer[]{sps, pps} : null, width, height, VIDEO_TIMESCALE,
+                hasAudio ? audioSpecificConfig : null, sampleRate, channelCount);
+        FileOutputStream stream = new FileOutputStream(new File(directory, INIT_SEGMENT));
+        try {
+            stream.write(out.array(), 0, out.position());
+        } finally {
+            stream.close();
+        }
+        initWritten = true;
+    }
+
+    private void openSegment(long startUs) throws IOException {
+        segmentName = "segment" + segmentIndex++ + ".m4s";
+        segmentStartUs = startUs;
+        writer.open(new File(directory, segmentName), segmentPreallocateBytes);
+    }
+
+    private void cutSegment(long nowUs) throws IOException {
+        closeSegment(nowUs - segmentStartUs, false);
+        openSegment(nowUs);
+    }
+
+    private void closeSegment(long durationUs, boolean ended) throws IOException {
+        writer.close();
+        segmentCount++;
+        String retired = playlist.add(segmentName, durationUs / 1000000.0);
+        if (retired != null && !new File(directory, retired).delete()) {
+            RtmpLogManager.w(TAG, "fail to delete " + retired);
+        }
+        playlist.write(ended);
+    }
+
+    /**
+     * Scans the Annex-B NAL units in {@code data[offset, offset + size)}.
+     *
+     * @param write false to only work out the sample size, true to also write the units with 4
+     *              byte lengths
+     * @return the sample size
+     */
+    private int writeNalus(ByteBuffer data, int offset, int size, boolean write) throws IOException {
+        int end = offset + size;
+        int first = findStartCode(data, offset, end);
+        int start = first < end && (first == offset || first == offset + 1 && data.get(offset) == 0) ? first + 3 : offset;
+        int total = 0;
+        while (start < end) {
+            int next = findStartCode(data, start, end);
+            int naluEnd = next;
+            //去掉4字节起始码的首个0和trailing_zero_8bits
+            while (next < end && naluEnd > start && data.get(naluEnd - 1) == 0) naluEnd--;
+            int type = data.get(start) & 0x1f;
+            if (naluEnd > start && type != 7 && type != 8 && type != 9) {
+                total += 4 + naluEnd - start;
+                if (write) {
+                    writer.writeSampleInt(naluEnd - start);
+                    writer.writeSampleData(data, start, naluEnd);
+                }
+            }
+            start = next < end ? next + 3 : end;
+        }
+        return total;
+    }
+
+    /**
+     * @return the index of the next {@code 00 00 01} in {@code data[from, end)}, {@code end} if there
+     * is none
+     */
+    private static int findStartCode(ByteBuffer data, int from, int end) {
+        for (int i = from; i + 2 < end; i++) {
+            if (data.get(i + 2) > 1) {
+                //第三个字节大于1时,从i+1和i+2开始也不可能是起始码
+                i += 2;
+            } else if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static ByteBuffer stripStartCode(ByteBuffer buffer) {
+        ByteBuffer src = buffer.duplicate();
+        int offset = src.position();
+        int end = src.limit();
+        int first = findStartCode(src, offset, end);
+        if (first < end && (first == offset || first == offset + 1 && src.get(offset) == 0)) {
+            src.position(first + 3);
+        }
+        ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+        copy.put(src).flip();
+        return copy;
+    }
+
+    static long toTimescale(long timeUs, int timescale) {
+        return timeUs * timescale / 1000000;
+    }
+
+    /**
+     * Writes the last segment and ends the playlist. Samples written afterwards are dropped.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (!writer.isOpen()) return;
+        Track track = hasVideo ? video : audio;
+        long endUs = (track.lastDts + track.lastDuration) * 1000000 / track.timescale;
+        closeSegment(Math.max(endUs - segmentStartUs, 0), true);
+    }
+
+    /**
+     * @return the segments finished so far, including the ones already rolled out of the playlist
+     */
+    public synchronized long getSegmentCount() {
+        return segmentCount;
+    }
+
+    public File getPlaylistFile() {
+        return playlistFile;
+    }
+
+    private static class Track {
+        private final boolean isVideo;
+        private final int timescale;
+        private long lastDts = -1;
+        private int lastDuration;
+
+        private Track(boolean isVideo, int timescale, int defaultDuration) {
+            this.isVideo = isVideo;
+            this.timescale = timescale;
+            this.lastDuration = defaultDuration;
+        }
+
+        /**
+         * Converts the decode time and sets the duration of the previous sample while it is
+         * still in the open fragment.
+         *
+         * @return the decode time in the track's timescale, always after the previous one
+         */
+        private long advance(Fmp4SegmentWriter writer, long dtsUs) {
+            long dts = toTimescale(dtsUs, timescale);
+            if (lastDts >= 0) {
+                if (dts <= lastDts) dts = lastDts + 1;
+                lastDuration = (int) (dts - lastDts);
+                int index = writer.lastSampleIndex(isVideo);
+                if (index >= 0) writer.setDuration(index, lastDuration);
+            }
+            lastDts = dts;
+            return dts;
+        }
+    }
+
+    public static class Builder {
+        private File directory;
+        private String playlistName = "index.m3u8";
+        private long targetDurationMs = 2000;
+        private long keyFrameIntervalMs = 0;
+        private int playlistSize = 6;
+        private boolean video = true;
+        private boolean audio = true;
+        private long segmentPreallocateBytes = 4 * 1024 * 1024;
+        private int fragmentReserveBytes = 32 * 1024;
+        private int writeBufferSize = 256 * 1024;
+
+        /**
+         * Where the playlist, the init segment and the media segments are written, it has to exist.
+         */
+        public Builder directory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder playlistName(String name) {
+            this.playlistName = name;
+            return this;
+        }
+
+        /**
+         * Segments are cut at the first video sync frame after this duration.
+         */
+        public Builder targetDurationMs(long durationMs) {
+            this.targetDurationMs = durationMs;
+            return this;
+        }
+
+        /**
+         * The encoder's key frame interval, 0 if unknown. The playlist's target duration is the
+         * larger of this and {@link #targetDurationMs(long)}, rounded up to whole seconds, and a
+         * segment is cut early when the next sync frame would come too late for it.
+         */
+        public Builder keyFrameIntervalMs(long intervalMs) {
+            this.keyFrameIntervalMs = intervalMs;
+            return this;
+        }
+
+        /**
+         * Segments listed in the playlist. Older ones are deleted once they have been out of the
+         * playlist for as long again, so clients still fetching them don't fail.
+         */
+        public Builder playlistSize(int size) {
+            this.playlistSize = size;
+            return this;
+        }
+
+        public Builder video(boolean enable) {
+            this.video = enable;
+            return this;
+        }
+
+        public Builder audio(boolean enable) {
+            this.audio = enable;
+            return this;
+        }
+
+        /**
+         * Length each segment file is created with, about one segment at the video bitrate.
+         * Files are cut to their real length when the segment is finished.
+         */
+        public Builder segmentPreallocateBytes(long bytes) {
+            this.segmentPreallocateBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Space reserved for the moof in front of each fragment. A fragment is finished early when
+         * its sample table outgrows it.
+         */
+        public Builder fragmentReserveBytes(int bytes) {
+            this.fragmentReserveBytes = bytes;
+            return this;
+        }
+
+        public Builder writeBufferSize(int bytes) {
+            this.writeBufferSize = bytes;
+            return this;
+        }
+
+        public HlsMuxer build() {
+            if (directory == null || !directory.isDirectory()) {
+                throw new IllegalStateException("directory does not exist");
+            }
+            if (playlistName == null || playlistName.isEmpty()) {
+                throw new IllegalStateException("playlistName is empty");
+            }
+            if (targetDurationMs <= 0) {
+                throw new IllegalStateException("targetDurationMs must be more than 0");
+            }
+            if (keyFrameIntervalMs < 0) {
+                throw new IllegalStateException("keyFrameIntervalMs must not be negative");
+            }
+            if (playlistSize <= 0) {
+                throw new IllegalStateException("playlistSize must be more than 0");
+            }
+            if (!video && !audio) {
+                throw new IllegalStateException("need at least one track");
+            }
+            if (segmentPreallocateBytes < 0) {
+                throw new IllegalStateException("segmentPreallocateBytes must not be negative");
+            }
+            if (fragmentReserveBytes < 1024) {
+                throw new IllegalStateException("fragmentReserveBytes must be at least 1024");
+            }
+            if (writeBufferSize < 4) {
+                throw new IllegalStateException("writeBufferSize must be at least 4");
+            }
+            return new HlsMuxer(directory, playlistName, targetDurationMs * 1000, keyFrameIntervalMs * 1000, playlistSize,
+                    video, audio, segmentPreallocateBytes, fragmentReserveBytes, writeBufferSize);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.zmy.rtmp_pusher.lib.hls;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Rolling HLS media playlist over fMP4 segments. Not thread safe.
+ */
+class HlsPlaylist {
+    private final File file;
+    private final File tmpFile;
+    private final String initSegment;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    //已经移出播放列表但客户端可能还在下载的分片
+    private final ArrayDeque<Segment> retired = new ArrayDeque<>();
+    private long mediaSequence = 0;
+    //播放过程中不允许变化,由HlsMuxer保证分片不超过它
+    private final int targetDuration;
+
+    HlsPlaylist(@NonNull File file, @NonNull String initSegment, int maxSegments, int targetDuration) {
+        this.file = file;
+        this.tmpFile = new File(file.getPath() + ".tmp");
+        this.initSegment = initSegment;
+        this.maxSegments = maxSegments;
+        this.targetDuration = targetDuration;
+    }
+
+    /**
+     * @return a segment that left the playlist a whole playlist length ago and can be deleted now,
+     * null if there is none
+     */
+    @Nullable
+    String add(@NonNull String name, double durationSeconds) {
+        segments.addLast(new Segment(name, durationSeconds));
+        if (segments.size() <= maxSegments) return null;
+        retired.addLast(segments.pollFirst());
+        mediaSequence++;
+        if (retired.size() <= maxSegments) return null;
+        return retired.pollFirst().name;
+    }
+
+    int size() {
+        return segments.size();
+    }
+
+    /**
+     * Replaces the playlist file atomically, so a client never reads half of it.
+     *
+     * @param ended appends EXT-X-ENDLIST, the stream is over
+     */
+    void write(boolean ended) throws IOException {
+        StringBuilder builder = new StringBuilder(256 + segments.size() * 48);
+        builder.append("#EXTM3U\n");
+        builder.append("#EXT-X-VERSION:7\n");
+        builder.append("#EXT-X-TARGETDURATION:").append(targetDuration).append('\n');
+        builder.append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append('\n');
+        builder.append("#EXT-X-MAP:URI=\"").append(initSegment).append("\"\n");
+        for (Segment segment : segments) {
+            builder.append(String.format(Locale.US, "#EXTINF:%.3f,\n", segment.durationSeconds));
+            builder.append(segment.name).append('\n');
+        }
+        if (ended) builder.append("#EXT-X-ENDLIST\n");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), Charset.forName("UTF-8"));
+        try {
+            writer.write(builder.toString());
+        } finally {
+            writer.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("fail to replace " + file);
+        }
+    }
+
+    private static class Segment {
+        private final String name;
+        private final double durationSeconds;
+
+        private Segment(String name, double durationSeconds) {
+            this.name = name;
+            this.durationSeconds = durationSeconds;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.zmy.rtmp_pusher.lib.hls;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ISO BMFF boxes for fragmented MP4 (ISO/IEC 14496-12), just the ones an HLS init segment and
+ * media fragments need. Boxes are written into a big endian {@link ByteBuffer}.
+ */
+final class Mp4Boxes {
+    static final int BOX_HEADER_SIZE = 8;
+    static final int MFHD_SIZE = 16;
+    static final int TRAF_HEADER_SIZE = BOX_HEADER_SIZE + 16 + 20;
+    static final int TRUN_HEADER_SIZE = 20;
+    static final int VIDEO_TRUN_ENTRY_SIZE = 16;
+    static final int AUDIO_TRUN_ENTRY_SIZE = 8;
+
+    static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    //data-offset, sample-duration, sample-size, sample-flags, sample-composition-time-offset
+    private static final int VIDEO_TRUN_FLAGS = 0x000f01;
+    //data-offset, sample-duration, sample-size
+    private static final int AUDIO_TRUN_FLAGS = 0x000301;
+    private static final int[] MATRIX = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+
+    private Mp4Boxes() {
+    }
+
+    static int begin(ByteBuffer out, String type) {
+        int start = out.position();
+        out.putInt(0);
+        putType(out, type);
+        return start;
+    }
+
+    static int beginFull(ByteBuffer out, String type, int version, int flags) {
+        int start = begin(out, type);
+        out.putInt((version << 24) | flags);
+        return start;
+    }
+
+    static void end(ByteBuffer out, int start) {
+        out.putInt(start, out.position() - start);
+    }
+
+    static void putType(ByteBuffer out, String type) {
+        for (int i = 0; i < 4; i++) {
+            out.put((byte) type.charAt(i));
+        }
+    }
+
+    static void writeFtyp(ByteBuffer out) {
+        int ftyp = begin(out, "ftyp");
+        putType(out, "iso6");
+        out.putInt(0);
+        putType(out, "iso6");
+        putType(out, "mp41");
+        end(out, ftyp);
+    }
+
+    /**
+     * @param video null without a video track, else {@code {sps, pps}} without start codes
+     * @param audioSpecificConfig null without an audio track
+     */
+    static void writeMoov(ByteBuffer out, @Nullable ByteBuffer[] video, int width, int height, int videoTimescale,
+                          @Nullable ByteBuffer audioSpecificConfig, int sampleRate, int channelCount) {
+        int moov = begin(out, "moov");
+        int mvhd = beginFull(out, "mvhd", 0, 0);
+        out.putInt(0).putInt(0);
+        out.putInt(1000);
+        out.putInt(0);
+        out.putInt(0x00010000);
+        out.putShort((short) 0x0100);
+        out.putShort((short) 0).putLong(0);
+        putMatrix(out);
+        out.put(new byte[24]);
+        out.putInt(3);
+        end(out, mvhd);
+        if (video != null) {
+            writeTrak(out, HlsMuxer.VIDEO_TRACK_ID, true, width, height, videoTimescale, video, null, 0);
+        }
+        if (audioSpecificConfig != null) {
+            writeTrak(out, HlsMuxer.AUDIO_TRACK_ID, false, 0, 0, sampleRate, null, audioSpecificConfig, channelCount);
+        }
+        int mvex = begin(out, "mvex");
+        if (video != null) writeTrex(out, HlsMuxer.VIDEO_TRACK_ID);
+        if (audioSpecificConfig != null) writeTrex(out, HlsMuxer.AUDIO_TRACK_ID);
+        end(out, mvex);
+        end(out, moov);
+    }
+
+    private static void writeTrak(ByteBuffer out, int trackId, boolean isVideo, int width, int height, int timescale,
+                                  ByteBuffer[] video, ByteBuffer audioSpecificConfig, int channelCount) {
+        int trak = begin(out, "trak");
+        //enabled | in movie
+        int tkhd = beginFull(out, "tkhd", 0, 3);
+        out.putInt(0).putInt(0);
+        out.putInt(trackId);
+        out.putInt(0);
+        out.putInt(0);
+        out.putLong(0);
+        out.putShort((short) 0).putShort((short) 0);
+        out.putShort((short) (isVideo ? 0 : 0x0100));
+        out.putShort((short) 0);
+        putMatrix(out);
+        out.putInt(width << 16);
+        out.putInt(height << 16);
+        end(out, tkhd);
+
+        int mdia = begin(out, "mdia");
+        int mdhd = beginFull(out, "mdhd", 0, 0);
+        out.putInt(0).putInt(0);
+        out.putInt(timescale);
+        out.putInt(0);
+        //und
+        out.putShort((short) 0x55c4);
+        out.putShort((short) 0);
+        end(out, mdhd);
+        int hdlr = beginFull(out, "hdlr", 0, 0);
+        out.putInt(0);
+        putType(out, isVideo ? "vide" : "soun");
+        out.putInt(0).putInt(0).putInt(0);
+        putString(out, isVideo ? "VideoHandler" : "SoundHandler");
+        end(out, hdlr);
+
+        int minf = begin(out, "minf");
+        if (isVideo) {
+            int vmhd = beginFull(out, "vmhd", 0, 1);
+            out.putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+            end(out, vmhd);
+        } else {
+            int smhd = beginFull(out, "smhd", 0, 0);
+            out.putShort((short) 0).putShort((short) 0);
+            end(out, smhd);
+        }
+        int dinf = begin(out, "dinf");
+        int dref = beginFull(out, "dref", 0, 0);
+        out.putInt(1);
+        //数据在同一个文件里
+        int url = beginFull(out, "url ", 0, 1);
+        end(out, url);
+        end(out, dref);
+        end(out, dinf);
+
+        int stbl = begin(out, "stbl");
+        int stsd = beginFull(out, "stsd", 0, 0);
+        out.putInt(1);
+        if (isVideo) {
+            writeAvc1(out, width, height, video[0], video[1]);
+        } else {
+            writeMp4a(out, timescale, channelCount, audioSpecificConfig);
+        }
+        end(out, stsd);
+        //分片MP4的样本都在moof里,这些表都为空
+        writeEmptyTable(out, "stts");
+        writeEmptyTable(out, "stsc");
+        int stsz = beginFull(out, "stsz", 0, 0);
+        out.putInt(0).putInt(0);
+        end(out, stsz);
+        writeEmptyTable(out, "stco");
+        end(out, stbl);
+        end(out, minf);
+        end(out, mdia);
+        end(out, trak);
+    }
+
+    private static void writeAvc1(ByteBuffer out, int width, int height, ByteBuffer sps, ByteBuffer pps) {
+        int avc1 = begin(out, "avc1");
+        out.put(new byte[6]);
+        out.putShort((short) 1);
+        out.putShort((short) 0).putShort((short) 0);
+        out.put(new byte[12]);
+        out.putShort((short) width).putShort((short) height);
+        //72 dpi
+        out.putInt(0x00480000).putInt(0x00480000);
+        out.putInt(0);
+        out.putShort((short) 1);
+        out.put(new byte[32]);
+        out.putShort((short) 0x0018);
+        out.putShort((short) -1);
+        int avcC = begin(out, "avcC");
+        out.put((byte) 1);
+        out.put(sps.get(sps.position() + 1));
+        out.put(sps.get(sps.position() + 2));
+        out.put(sps.get(sps.position() + 3));
+        //4字节NALU长度
+        out.put((byte) 0xff);
+        out.put((byte) 0xe1);
+        out.putShort((short) sps.remaining());
+        out.put(sps.duplicate());
+        out.put((byte) 1);
+        out.putShort((short) pps.remaining());
+        out.put(pps.duplicate());
+        end(out, avcC);
+        end(out, avc1);
+    }
+
+    private static void writeMp4a(ByteBuffer out, int sampleRate, int channelCount, ByteBuffer audioSpecificConfig) {
+        int mp4a = begin(out, "mp4a");
+        out.put(new byte[6]);
+        out.putShort((short) 1);
+        out.putLong(0);
+        out.putShort((short) channelCount);
+        out.putShort((short) 16);
+        out.putShort((short) 0).putShort((short) 0);
+        out.putInt(sampleRate << 16);
+        int asc = audioSpecificConfig.remaining();
+        int esds = beginFull(out, "esds", 0, 0);
+        //ES_Descriptor
+        out.put((byte) 0x03).put((byte) (3 + 2 + 13 + 2 + asc + 3));
+        out.putShort((short) HlsMuxer.AUDIO_TRACK_ID);
+        out.put((byte) 0);
+        //DecoderConfigDescriptor: MPEG-4 audio, audio stream
+        out.put((byte) 0x04).put((byte) (13 + 2 + asc));
+        out.put((byte) 0x40);
+        out.put((byte) 0x15);
+        out.put((byte) 0).putShort((short) 0);
+        out.putInt(0).putInt(0);
+        //DecoderSpecificInfo
+        out.put((byte) 0x05).put((byte) asc);
+        out.put(audioSpecificConfig.duplicate());
+        //SLConfigDescriptor
+        out.put((byte) 0x06).put((byte) 1).put((byte) 0x02);
+        end(out, esds);
+        end(out, mp4a);
+    }
+
+    private static void writeEmptyTable(ByteBuffer out, String type) {
+        int box = beginFull(out, type, 0, 0);
+        out.putInt(0);
+        end(out, box);
+    }
+
+    private static void writeTrex(ByteBuffer out, int trackId) {
+        int trex = beginFull(out, "trex", 0, 0);
+        out.putInt(trackId);
+        out.putInt(1);
+        out.putInt(0).putInt(0).putInt(0);
+        end(out, trex);
+    }
+
+    static void writeMfhd(ByteBuffer out, int sequenceNumber) {
+        int mfhd = beginFull(out, "mfhd", 0, 0);
+        out.putInt(sequenceNumber);
+        end(out, mfhd);
+    }
+
+    /**
+     * Writes the traf box header, tfhd and tfdt. The caller appends the truns and ends the box.
+     *
+     * @return the start of the traf box
+     */
+    static int beginTraf(ByteBuffer out, int trackId, long baseMediaDecodeTime) {
+        int traf = begin(out, "traf");
+        int tfhd = beginFull(out, "tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+        out.putInt(trackId);
+        end(out, tfhd);
+        int tfdt = beginFull(out, "tfdt", 1, 0);
+        out.putLong(baseMediaDecodeTime);
+        end(out, tfdt);
+        return traf;
+    }
+
+    /**
+     * Writes a trun header. Video runs are version 1 so composition offsets may be negative.
+     */
+    static void writeTrunHeader(ByteBuffer out, boolean isVideo, int sampleCount, int dataOffset) {
+        int entrySize = isVideo ? VIDEO_TRUN_ENTRY_SIZE : AUDIO_TRUN_ENTRY_SIZE;
+        out.putInt(TRUN_HEADER_SIZE + sampleCount * entrySize);
+        putType(out, "trun");
+        out.putInt(isVideo ? (1 << 24) | VIDEO_TRUN_FLAGS : AUDIO_TRUN_FLAGS);
+        out.putInt(sampleCount);
+        out.putInt(dataOffset);
+    }
+
+    /**
+     * Fills {@code size} bytes with a free box, {@code size} is 0 or at least {@link #BOX_HEADER_SIZE}.
+     */
+    static void writeFree(ByteBuffer out, int size) {
+        if (size == 0) return;
+        out.putInt(size);
+        putType(out, "free");
+        for (int i = BOX_HEADER_SIZE; i < size; i++) {
+            out.put((byte) 0);
+        }
+    }
+
+    private static void putMatrix(ByteBuffer out) {
+        for (int value : MATRIX) {
+            out.putInt(value);
+        }
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            out.put((byte) value.charAt(i));
+        }
+        out.put((byte) 0);
+    }
+}
@@ -0,0 +1,176 @@
+package com.zmy.rtmp_pusher.lib.log;
+
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.util.WorkerThread;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands messages to another {@link RtmpLogger} on a background thread, so logging never blocks
+ * the push or encode threads on {@code logcat} or a file.
+ * <p>
+ * Callers copy the level, tag, format and arguments into a record of a preallocated ring and
+ * return; formatting and printing happen on the log thread. Claiming a record is one CAS, so any
+ * number of threads can log at once. When the ring is full the message is dropped and counted
+ * instead of waiting, see {@link #getDroppedMessages()}. Object arguments are formatted later,
+ * pass immutable values.
+ */
+public class AsyncLogger extends RtmpLogger {
+    private final RtmpLogger delegate;
+    private final int mask;
+    //sequence[i]==position表示空闲可写,position+1表示已写好待消费
+    private final AtomicLongArray sequences;
+    private final Record[] records;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private long head = 0;
+    private volatile boolean sleeping = false;
+    private final LogThread logThread;
+
+    /**
+     * @param capacity records in the ring, rounded up to a power of two
+     */
+    public AsyncLogger(@NonNull RtmpLogger delegate, int capacity) {
+        super(delegate.getThreshold());
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be more than 0");
+        this.delegate = delegate;
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        records = new Record[size];
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+            records[i] = new Record();
+        }
+        logThread = new LogThread();
+        logThread.start();
+    }
+
+    @Override
+    public boolean isLoggable(int level) {
+        return delegate.isLoggable(level);
+    }
+
+    @Override
+    public void print(int level, String tag, String msg) {
+        log(level, tag, msg, 0, 0, null, null, null, 0, 0, 0);
+    }
+
+    @Override
+    void log(int level, String tag, String format, int argCount, int longMask,
+             Object o0, Object o1, Object o2, long l0, long l1, long l2) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long sequence = sequences.get((int) (position & mask));
+            if (sequence < position) {
+                //日志线程还没处理到这里,丢掉而不是等待
+                droppedMessages.incrementAndGet();
+                return;
+            }
+            if (sequence == position && tail.compareAndSet(position, position + 1)) break;
+        }
+        int index = (int) (position & mask);
+        Record record = records[index];
+        record.level = level;
+        record.tag = tag;
+        record.format = format;
+        record.argCount = argCount;
+        record.longMask = longMask;
+        record.o0 = o0;
+        record.o1 = o1;
+        record.o2 = o2;
+        record.l0 = l0;
+        record.l1 = l1;
+        record.l2 = l2;
+        sequences.set(index, position + 1);
+        if (sleeping) LockSupport.unpark(logThread);
+    }
+
+    /**
+     * @return messages dropped because the ring was full
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Prints what is still queued and stops the log thread. Messages logged afterwards are
+     * dropped once the ring is full.
+     */
+    public void close() {
+        logThread.exit();
+        drain();
+    }
+
+    /**
+     * @return false if there was nothing to print
+     */
+    private boolean drain() {
+        boolean printed = false;
+        StringBuilder builder = logThread.builder;
+        while (true) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) return printed;
+            Record record = records[index];
+            builder.setLength(0);
+            LogFormat.appendTo(builder, record.format, record.argCount, record.longMask,
+                    record.o0, record.o1, record.o2, record.l0, record.l1, record.l2);
+            int level = record.level;
+            String tag = record.tag;
+            //不再持有参数的引用
+            record.tag = null;
+            record.format = null;
+            record.o0 = null;
+            record.o1 = null;
+            record.o2 = null;
+            sequences.set(index, head + mask + 1);
+            head++;
+            delegate.print(level, tag, builder.toString());
+            printed = true;
+        }
+    }
+
+    private static class Record {
+        int level;
+        String tag;
+        String format;
+        int argCount;
+        int longMask;
+        Object o0;
+        Object o1;
+        Object o2;
+        long l0;
+        long l1;
+        long l2;
+    }
+
+    class LogThread extends WorkerThread {
+        final StringBuilder builder = new StringBuilder(256);
+
+        public LogThread() {
+            super("RtmpLogThread", Process.THREAD_PRIORITY_BACKGROUND);
+            setDaemon(true);
+        }
+
+        @Override
+        protected boolean doMain() {
+            if (drain()) return false;
+            sleeping = true;
+            //再检查一次,避免错过设置sleeping之前写入的消息
+            if (sequences.get((int) (head & mask)) != head + 1) {
+                LockSupport.parkNanos(this, 100000000L);
+            }
+            sleeping = false;
+            //exit()的中断已经设置了退出标记,这里只清掉中断状态
+            Thread.interrupted();
+            return false;
+        }
+    }
+}
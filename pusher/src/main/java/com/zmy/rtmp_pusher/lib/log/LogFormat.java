@@ -0,0 +1,29 @@
+package com.zmy.rtmp_pusher.lib.log;
+
+/**
+ * Fills the {@code {}} placeholders of a message with up to three arguments. Placeholders without
+ * an argument are kept as they are.
+ */
+final class LogFormat {
+    static final int MAX_ARGS = 3;
+
+    private LogFormat() {
+    }
+
+    static void appendTo(StringBuilder builder, String format, int argCount, int longMask,
+                         Object o0, Object o1, Object o2, long l0, long l1, long l2) {
+        int start = 0;
+        for (int arg = 0; arg < argCount; arg++) {
+            int placeholder = format.indexOf("{}", start);
+            if (placeholder < 0) break;
+            builder.append(format, start, placeholder);
+            if ((longMask & (1 << arg)) != 0) {
+                builder.append(arg == 0 ? l0 : arg == 1 ? l1 : l2);
+            } else {
+                builder.append(arg == 0 ? o0 : arg == 1 ? o1 : o2);
+            }
+            start = placeholder + 2;
+        }
+        builder.append(format, start, format.length());
+    }
+}
@@ -4,37 +4,116 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+/**
+ * Logging of the library and of the native pusher.
+ * <p>
+ * The parameterized methods fill {@code {}} placeholders in order and only format when the
+ * logger takes the level, so a discarded message costs a level check. {@code long} arguments are
+ * not boxed, with an {@link AsyncLogger} even the formatting happens off the calling thread.
+ */
 public class RtmpLogManager {
-    static RtmpLogger logger = new DefaultLogger(Log.VERBOSE);
+    static volatile RtmpLogger logger = new DefaultLogger(Log.INFO);
 
     public static RtmpLogger getLogger() {
         return logger;
     }
 
+    /**
+     * Also sets the level the native pusher logs at, messages below the logger's threshold are
+     * not even formatted there.
+     */
     public static void registerLogger(@Nullable RtmpLogger logger) {
         RtmpLogManager.logger = logger;
         native_register_logger(logger);
+        native_set_level(logger != null ? logger.getThreshold() : Log.ASSERT);
+    }
+
+    public static boolean isLoggable(@RtmpLogger.LogLevel int level) {
+        RtmpLogger current = logger;
+        return current != null && current.isLoggable(level);
     }
 
     public static void d(String tag, String msg) {
-        if (logger != null) logger.print(Log.DEBUG, tag, msg);
+        print(Log.DEBUG, tag, msg);
+    }
+
+    public static void d(String tag, String format, Object arg) {
+        log(Log.DEBUG, tag, format, 1, 0, arg, null, null, 0, 0, 0);
+    }
+
+    public static void d(String tag, String format, long arg) {
+        log(Log.DEBUG, tag, format, 1, 0x1, null, null, null, arg, 0, 0);
+    }
+
+    public static void d(String tag, String format, Object arg0, Object arg1) {
+        log(Log.DEBUG, tag, format, 2, 0, arg0, arg1, null, 0, 0, 0);
+    }
+
+    public static void d(String tag, String format, Object arg0, long arg1) {
+        log(Log.DEBUG, tag, format, 2, 0x2, arg0, null, null, 0, arg1, 0);
+    }
+
+    public static void d(String tag, String format, long arg0, long arg1) {
+        log(Log.DEBUG, tag, format, 2, 0x3, null, null, null, arg0, arg1, 0);
+    }
+
+    public static void d(String tag, String format, Object arg0, Object arg1, Object arg2) {
+        log(Log.DEBUG, tag, format, 3, 0, arg0, arg1, arg2, 0, 0, 0);
     }
 
     public static void w(String tag, String msg) {
-        if (logger != null) logger.print(Log.WARN, tag, msg);
+        print(Log.WARN, tag, msg);
+    }
+
+    public static void w(String tag, String format, Object arg) {
+        log(Log.WARN, tag, format, 1, 0, arg, null, null, 0, 0, 0);
+    }
+
+    public static void w(String tag, String format, Object arg0, long arg1) {
+        log(Log.WARN, tag, format, 2, 0x2, arg0, null, null, 0, arg1, 0);
+    }
+
+    public static void w(String tag, String format, long arg0, long arg1) {
+        log(Log.WARN, tag, format, 2, 0x3, null, null, null, arg0, arg1, 0);
     }
 
     public static void i(String tag, String msg) {
-        if (logger != null) logger.print(Log.INFO, tag, msg);
+        print(Log.INFO, tag, msg);
+    }
+
+    public static void i(String tag, String format, Object arg) {
+        log(Log.INFO, tag, format, 1, 0, arg, null, null, 0, 0, 0);
+    }
+
+    public static void i(String tag, String format, long arg0, long arg1, Object arg2) {
+        log(Log.INFO, tag, format, 3, 0x3, null, null, arg2, arg0, arg1, 0);
     }
 
     public static void e(String tag, String msg) {
-        if (logger != null) logger.print(Log.ERROR, tag, msg);
+        print(Log.ERROR, tag, msg);
     }
 
     public static void e(String tag, String msg, Exception exception) {
-        if (logger != null) logger.print(Log.ERROR, tag, msg + "\n" + Log.getStackTraceString(exception));
+        RtmpLogger current = logger;
+        if (current != null && current.isLoggable(Log.ERROR)) {
+            current.print(Log.ERROR, tag, msg + "\n" + Log.getStackTraceString(exception));
+        }
+    }
+
+    private static void print(int level, String tag, String msg) {
+        RtmpLogger current = logger;
+        if (current != null && current.isLoggable(level)) current.print(level, tag, msg);
+    }
+
+    private static void log(int level, String tag, String format, int argCount, int longMask,
+                            Object o0, Object o1, Object o2, long l0, long l1, long l2) {
+        RtmpLogger current = logger;
+        if (current != null && current.isLoggable(level)) {
+            current.log(level, tag, format, argCount, longMask, o0, o1, o2, l0, l1, l2);
+        }
     }
 
     private static native void native_register_logger(RtmpLogger logger);
+
+    private static native void native_set_level(int level);
 }
@@ -20,11 +20,36 @@ public abstract class RtmpLogger {
     }
 
     @LogLevel
-    private int threshold;
+    private final int threshold;
 
     public RtmpLogger(@LogLevel int threshold) {
         this.threshold = threshold;
     }
 
+    @LogLevel
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return false if a message of {@code level} would be discarded, callers check this before
+     * building the message
+     */
+    public boolean isLoggable(@LogLevel int level) {
+        return level >= threshold;
+    }
+
     public abstract void print(@LogLevel int level, String tag, String msg);
+
+    /**
+     * Formats a parameterized message and prints it. {@link AsyncLogger} overrides it to defer
+     * the formatting to its own thread. {@code longMask} has bit i set when argument i is in
+     * {@code l0..l2} instead of {@code o0..o2}.
+     */
+    void log(int level, String tag, String format, int argCount, int longMask,
+             Object o0, Object o1, Object o2, long l0, long l1, long l2) {
+        StringBuilder builder = new StringBuilder(format.length() + 32);
+        LogFormat.appendTo(builder, format, argCount, longMask, o0, o1, o2, l0, l1, l2);
+        print(level, tag, builder.toString());
+    }
 }
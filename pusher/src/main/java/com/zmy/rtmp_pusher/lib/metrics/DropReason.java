@@ -0,0 +1,45 @@
+package com.zmy.rtmp_pusher.lib.metrics;
+
+/**
+ * Why the send path threw a packet away, each one has its own counter in {@link PipelineMetrics}.
+ */
+public enum DropReason {
+    /**
+     * The send queue was full.
+     */
+    CHANNEL_FULL("channel_full"),
+    /**
+     * Rest of a GOP whose earlier frames were already dropped.
+     */
+    WAITING_FOR_SYNC_FRAME("waiting_for_sync_frame"),
+    /**
+     * Refused at the send queue's high watermark.
+     */
+    CONGESTED("congested"),
+    /**
+     * Skipped on the way out because a newer sync frame was already queued.
+     */
+    STALE_GOP("stale_gop"),
+    /**
+     * The connection has not got the ASC or SPS/PPS yet.
+     */
+    NO_CONFIG("no_config"),
+    /**
+     * A P frame on a connection that has not got a sync frame yet.
+     */
+    NO_SYNC_FRAME("no_sync_frame"),
+    /**
+     * Taken from the queue while the pusher was disconnected or released.
+     */
+    DISCONNECTED("disconnected");
+
+    private final String metricName;
+
+    DropReason(String metricName) {
+        this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+}
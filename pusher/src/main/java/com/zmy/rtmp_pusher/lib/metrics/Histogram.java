@@ -0,0 +1,81 @@
+package com.zmy.rtmp_pusher.lib.metrics;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values into fixed buckets, for latencies where a percentile within a bucket's width is
+ * good enough. Bucket {@code i} holds the values up to {@code bounds[i]}, one more bucket holds
+ * everything above the last bound. Recording never allocates or locks.
+ */
+public class Histogram {
+    /**
+     * 1-2-5 steps from 50us to 10s, for latencies in microseconds.
+     */
+    public static final long[] LATENCY_BOUNDS_US = {
+            50, 100, 200, 500,
+            1000, 2000, 5000,
+            10000, 20000, 50000,
+            100000, 200000, 500000,
+            1000000, 2000000, 5000000, 10000000
+    };
+
+    private final String name;
+    private final long[] bounds;
+    private final AtomicLongArray counts;
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param bounds inclusive upper bounds of the buckets, ascending
+     */
+    public Histogram(String name, @NonNull long[] bounds) {
+        if (bounds.length == 0) throw new IllegalArgumentException("bounds must not be empty");
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) throw new IllegalArgumentException("bounds must be ascending");
+        }
+        this.name = name;
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        //没有正好等于边界的值时,返回的是-(插入位置)-1
+        if (index < 0) index = -index - 1;
+        counts.incrementAndGet(index);
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Copies the buckets. Values recorded meanwhile may show up in the buckets but not yet in the
+     * sum, or the other way round.
+     */
+    @NonNull
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new HistogramSnapshot(name, bounds, copy, sum.get(), max.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        sum.set(0);
+        max.set(Long.MIN_VALUE);
+    }
+}
@@ -0,0 +1,86 @@
+package com.zmy.rtmp_pusher.lib.metrics;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * The buckets of a {@link Histogram} at one point in time.
+ */
+public class HistogramSnapshot {
+    private final String name;
+    private final long[] bounds;
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(String name, long[] bounds, long[] counts, long sum, long max) {
+        this.name = name;
+        this.bounds = bounds;
+        this.counts = counts;
+        long count = 0;
+        for (long bucket : counts) {
+            count += bucket;
+        }
+        this.count = count;
+        this.sum = sum;
+        this.max = count > 0 ? max : 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * @return the bucket counts, the last one is for values above every bound
+     */
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the upper bound of the bucket the percentile falls in, the max for the overflow
+     * bucket, 0 when nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return i < bounds.length ? Math.min(bounds[i], max) : max;
+            }
+        }
+        return max;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s{count=%d, mean=%d, p50=%d, p90=%d, p99=%d, max=%d}",
+                name, count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), max);
+    }
+}
@@ -0,0 +1,68 @@
+package com.zmy.rtmp_pusher.lib.metrics;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named counters and histograms. Look a metric up once, keep the reference and record on it,
+ * the lookup itself takes a lock.
+ */
+public class MetricsRegistry {
+    private final Map<String, StripedCounter> counters = new LinkedHashMap<>();
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    /**
+     * @return the counter called {@code name}, created on first use
+     */
+    @NonNull
+    public synchronized StripedCounter counter(@NonNull String name) {
+        StripedCounter counter = counters.get(name);
+        if (counter == null) {
+            if (histograms.containsKey(name)) throw new IllegalArgumentException(name + " is a histogram");
+            counter = new StripedCounter(name);
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * @return the histogram called {@code name}, created with {@code bounds} on first use
+     */
+    @NonNull
+    public synchronized Histogram histogram(@NonNull String name, @NonNull long[] bounds) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            if (counters.containsKey(name)) throw new IllegalArgumentException(name + " is a counter");
+            histogram = new Histogram(name, bounds);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Reads every metric. Meant to be polled, e.g. once a second, not called per packet.
+     */
+    @NonNull
+    public synchronized MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new LinkedHashMap<>();
+        for (StripedCounter counter : counters.values()) {
+            counterValues.put(counter.getName(), counter.sum());
+        }
+        Map<String, HistogramSnapshot> histogramValues = new LinkedHashMap<>();
+        for (Histogram histogram : histograms.values()) {
+            histogramValues.put(histogram.getName(), histogram.snapshot());
+        }
+        return new MetricsSnapshot(System.nanoTime(), counterValues, histogramValues);
+    }
+
+    public synchronized void reset() {
+        for (StripedCounter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
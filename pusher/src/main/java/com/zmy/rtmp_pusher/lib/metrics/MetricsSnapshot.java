@@ -0,0 +1,73 @@
+package com.zmy.rtmp_pusher.lib.metrics;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Every metric of a {@link MetricsRegistry} at one point in time. Rates come from two snapshots,
+ * see {@link #getRatePerSecond(MetricsSnapshot, String)}.
+ */
+public class MetricsSnapshot {
+    private final long timeNanos;
+    private final Map<String, Long> counters;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    MetricsSnapshot(long timeNanos, Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+        this.timeNanos = timeNanos;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the snapshot was taken
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    /**
+     * @return the counter's value, 0 if there is no such counter
+     */
+    public long getCounter(@NonNull String name) {
+        Long value = counters.get(name);
+        return value != null ? value : 0;
+    }
+
+    @Nullable
+    public HistogramSnapshot getHistogram(@NonNull String name) {
+        return histograms.get(name);
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * @return how fast the counter grew per second since {@code earlier}
+     */
+    public long getRatePerSecond(@NonNull MetricsSnapshot earlier, @NonNull String name) {
+        long elapsedNanos = timeNanos - earlier.timeNanos;
+        if (elapsedNanos <= 0) return 0;
+        return (getCounter(name) - earlier.getCounter(name)) * 1000000000L / elapsedNanos;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            builder.append(counter.getKey()).append('=').append(counter.getValue()).append('\n');
+        }
+        for (HistogramSnapshot histogram : histograms.values()) {
+            builder.append(histogram).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.zmy.rtmp_pusher.lib.metrics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The process wide metrics of the capture, encode and push pipeline. Every pusher and send queue
+ * records into the same metrics, like {@link com.zmy.rtmp_pusher.lib.encoder.PacketPool} keeps
+ * process wide stats. Poll {@link #snapshot()} to read them.
+ * <p>
+ * Latencies are in microseconds and measured on {@link System#nanoTime()}.
+ */
+public final class PipelineMetrics {
+    public static final String VIDEO_CAPTURE_TO_ENCODE_US = "video.capture_to_encode_us";
+    public static final String ENCODE_TO_ENQUEUE_US = "send_queue.encode_to_enqueue_us";
+    public static final String SEND_QUEUE_DELAY_US = "send_queue.delay_us";
+    public static final String PUSH_US = "push.send_us";
+    public static final String VIDEO_SENT_BYTES = "push.video_bytes";
+    public static final String AUDIO_SENT_BYTES = "push.audio_bytes";
+    public static final String SENT_PACKETS = "push.packets";
+    public static final String RECONNECTS = "push.reconnects";
+    public static final String CONNECT_FAILURES = "push.connect_failures";
+    public static final String DROP_PREFIX = "drop.";
+
+    private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    /**
+     * Timestamp of a video frame on the encoder's input surface to the frame leaving the encoder.
+     * The surface timestamp is on the {@link System#nanoTime()} clock unless the capture sets
+     * another one with {@code eglPresentationTimeANDROID}, frames on another clock are not recorded.
+     * There is no audio counterpart: the audio presentation times are counted from the samples fed
+     * in, not stamped at capture.
+     */
+    public static final Histogram VIDEO_CAPTURE_TO_ENCODE = REGISTRY.histogram(VIDEO_CAPTURE_TO_ENCODE_US, Histogram.LATENCY_BOUNDS_US);
+    /**
+     * Packet creation to its arrival at a send queue, i.e. the time spent in timestamp
+     * normalization and interleaving.
+     */
+    public static final Histogram ENCODE_TO_ENQUEUE = REGISTRY.histogram(ENCODE_TO_ENQUEUE_US, Histogram.LATENCY_BOUNDS_US);
+    /**
+     * Packet creation to the push thread taking it from its send queue.
+     */
+    public static final Histogram SEND_QUEUE_DELAY = REGISTRY.histogram(SEND_QUEUE_DELAY_US, Histogram.LATENCY_BOUNDS_US);
+    /**
+     * One {@link com.zmy.rtmp_pusher.lib.transport.Transport#send} call, a batch of packets.
+     */
+    public static final Histogram PUSH = REGISTRY.histogram(PUSH_US, Histogram.LATENCY_BOUNDS_US);
+    public static final StripedCounter VIDEO_BYTES = REGISTRY.counter(VIDEO_SENT_BYTES);
+    public static final StripedCounter AUDIO_BYTES = REGISTRY.counter(AUDIO_SENT_BYTES);
+    public static final StripedCounter PACKETS = REGISTRY.counter(SENT_PACKETS);
+    public static final StripedCounter RECONNECT_COUNT = REGISTRY.counter(RECONNECTS);
+    public static final StripedCounter CONNECT_FAILURE_COUNT = REGISTRY.counter(CONNECT_FAILURES);
+
+    private static final StripedCounter[] DROPS = new StripedCounter[DropReason.values().length];
+
+    static {
+        for (DropReason reason : DropReason.values()) {
+            DROPS[reason.ordinal()] = REGISTRY.counter(DROP_PREFIX + reason.getMetricName());
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    public static void recordDrop(@NonNull DropReason reason) {
+        DROPS[reason.ordinal()].increment();
+    }
+
+    @NonNull
+    public static MetricsRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    @NonNull
+    public static MetricsSnapshot snapshot() {
+        return REGISTRY.snapshot();
+    }
+}
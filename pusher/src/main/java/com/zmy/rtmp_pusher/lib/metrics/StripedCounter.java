@@ -0,0 +1,59 @@
+package com.zmy.rtmp_pusher.lib.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to without fighting over one cache line, in the spirit of
+ * {@code LongAdder}, which needs API 24.
+ * <p>
+ * Every thread adds to the stripe picked by its thread id, the stripes sit a cache line apart.
+ * {@link #sum()} adds them up and is not an atomic snapshot while writers are running. Adding
+ * never allocates.
+ */
+public class StripedCounter {
+    //8个long=64字节,每个stripe独占一条cache line
+    private static final int PADDING = 8;
+    private static final int MAX_STRIPES = 16;
+    static final int STRIPES = stripeCount();
+
+    private final String name;
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public StripedCounter(String name) {
+        this.name = name;
+    }
+
+    private static int stripeCount() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = Integer.highestOneBit(Math.max(processors, 1));
+        if (stripes < processors) stripes <<= 1;
+        return Math.min(stripes, MAX_STRIPES);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void add(long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.addAndGet(stripe * PADDING, delta);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+}
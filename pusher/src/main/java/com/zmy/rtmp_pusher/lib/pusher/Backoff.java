@@ -0,0 +1,48 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import java.util.Random;
+
+/**
+ * Reconnect delays growing exponentially with "equal jitter": each delay is drawn from the upper
+ * half of the current step, so pushers dropped by the same outage don't all come back at the same
+ * moment. The first attempt after {@link #reset()} is immediate.
+ */
+public class Backoff {
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final Random random;
+    private int attempts = 0;
+
+    public Backoff(long initialDelayMs, long maxDelayMs) {
+        this(initialDelayMs, maxDelayMs, new Random());
+    }
+
+    Backoff(long initialDelayMs, long maxDelayMs, Random random) {
+        if (initialDelayMs <= 0) throw new IllegalArgumentException("initialDelayMs must be more than 0");
+        if (maxDelayMs < initialDelayMs) throw new IllegalArgumentException("maxDelayMs must not be less than initialDelayMs");
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.random = random;
+    }
+
+    /**
+     * @return how long to wait before the next attempt
+     */
+    public long nextDelayMs() {
+        int attempt = attempts++;
+        if (attempt == 0) return 0;
+        //避免移位溢出
+        long step = initialDelayMs << Math.min(attempt - 1, 30);
+        if (step <= 0 || step > maxDelayMs) step = maxDelayMs;
+        long half = step / 2;
+        return step - half + (long) (random.nextDouble() * (half + 1));
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void reset() {
+        attempts = 0;
+    }
+}
@@ -0,0 +1,77 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+/**
+ * Watermarks used by {@link SendQueue} to decide when the uplink is congested.
+ * <p>
+ * The queue becomes congested once either high watermark is reached and stays congested until
+ * both values fall back under their low watermarks. Time is measured as how long the packet at the
+ * head of the queue has been waiting since the encoder produced it.
+ */
+public class CongestionPolicy {
+    public static final CongestionPolicy DEFAULT = new Builder().build();
+
+    private final long highWatermarkBytes;
+    private final long lowWatermarkBytes;
+    private final long highWatermarkMs;
+    private final long lowWatermarkMs;
+
+    private CongestionPolicy(long highWatermarkBytes, long lowWatermarkBytes, long highWatermarkMs, long lowWatermarkMs) {
+        this.highWatermarkBytes = highWatermarkBytes;
+        this.lowWatermarkBytes = lowWatermarkBytes;
+        this.highWatermarkMs = highWatermarkMs;
+        this.lowWatermarkMs = lowWatermarkMs;
+    }
+
+    public long getHighWatermarkBytes() {
+        return highWatermarkBytes;
+    }
+
+    public long getLowWatermarkBytes() {
+        return lowWatermarkBytes;
+    }
+
+    public long getHighWatermarkMs() {
+        return highWatermarkMs;
+    }
+
+    public long getLowWatermarkMs() {
+        return lowWatermarkMs;
+    }
+
+    boolean isAboveHighWatermark(long bytes, long delayMs) {
+        return bytes >= highWatermarkBytes || delayMs >= highWatermarkMs;
+    }
+
+    boolean isBelowLowWatermark(long bytes, long delayMs) {
+        return bytes <= lowWatermarkBytes && delayMs <= lowWatermarkMs;
+    }
+
+    public static class Builder {
+        private long highWatermarkBytes = 2 * 1024 * 1024;
+        private long lowWatermarkBytes = 512 * 1024;
+        private long highWatermarkMs = 1500;
+        private long lowWatermarkMs = 300;
+
+        public Builder bytes(long lowWatermark, long highWatermark) {
+            this.lowWatermarkBytes = lowWatermark;
+            this.highWatermarkBytes = highWatermark;
+            return this;
+        }
+
+        public Builder millis(long lowWatermark, long highWatermark) {
+            this.lowWatermarkMs = lowWatermark;
+            this.highWatermarkMs = highWatermark;
+            return this;
+        }
+
+        public CongestionPolicy build() {
+            if (lowWatermarkBytes < 0 || highWatermarkBytes <= lowWatermarkBytes) {
+                throw new IllegalStateException("byte watermarks must satisfy 0 <= low < high");
+            }
+            if (lowWatermarkMs < 0 || highWatermarkMs <= lowWatermarkMs) {
+                throw new IllegalStateException("time watermarks must satisfy 0 <= low < high");
+            }
+            return new CongestionPolicy(highWatermarkBytes, lowWatermarkBytes, highWatermarkMs, lowWatermarkMs);
+        }
+    }
+}
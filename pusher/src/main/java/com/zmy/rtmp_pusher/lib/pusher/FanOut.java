@@ -0,0 +1,132 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.queue.Queue;
+import com.zmy.rtmp_pusher.lib.queue.Sink;
+
+import java.util.Arrays;
+
+/**
+ * Encoder output that hands every packet to several destination queues without copying it.
+ * <p>
+ * Each output gets its own reference via {@link RtmpPacket#retain()} and releases it once sent or
+ * dropped. Outputs are expected to be {@link SendQueue}s, which never block, config packets
+ * included, so a slow destination sheds its own frames instead of holding back the encoder and the
+ * others. The
+ * latest config packets are kept so an output added later still starts with them.
+ */
+public class FanOut implements Sink<RtmpPacket> {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private volatile Queue<RtmpPacket, RtmpPacket[]>[] outputs = new Queue[0];
+    private RtmpPacket audioSpecificConfig;
+    private RtmpPacket videoSpsPps;
+    private volatile boolean canWrite = true;
+
+    public synchronized void addOutput(@NonNull Queue<RtmpPacket, RtmpPacket[]> output) {
+        for (Queue<RtmpPacket, RtmpPacket[]> queue : outputs) {
+            if (queue == output) return;
+        }
+        if (audioSpecificConfig != null) output.enqueue(audioSpecificConfig.retain());
+        if (videoSpsPps != null) output.enqueue(videoSpsPps.retain());
+        Queue<RtmpPacket, RtmpPacket[]>[] newOutputs = Arrays.copyOf(outputs, outputs.length + 1);
+        newOutputs[outputs.length] = output;
+        outputs = newOutputs;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public synchronized void removeOutput(@NonNull Queue<RtmpPacket, RtmpPacket[]> output) {
+        Queue<RtmpPacket, RtmpPacket[]>[] newOutputs = new Queue[outputs.length];
+        int count = 0;
+        for (Queue<RtmpPacket, RtmpPacket[]> queue : outputs) {
+            if (queue != output) newOutputs[count++] = queue;
+        }
+        outputs = Arrays.copyOf(newOutputs, count);
+    }
+
+    public int getOutputCount() {
+        return outputs.length;
+    }
+
+    @Override
+    public void enqueue(RtmpPacket packet) {
+        if (!canWrite) {
+            packet.release();
+            return;
+        }
+        if (packet.getType() == RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG || packet.getType() == RtmpPacket.PacketType.SPS_PPS) {
+            synchronized (this) {
+                if (packet.getType() == RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG) {
+                    if (audioSpecificConfig != null) audioSpecificConfig.release();
+                    audioSpecificConfig = packet.retain();
+                } else {
+                    if (videoSpsPps != null) videoSpsPps.release();
+                    videoSpsPps = packet.retain();
+                }
+                //和addOutput互斥,新加入的输出不会漏掉或重复收到配置包
+                send(packet);
+            }
+            return;
+        }
+        send(packet);
+    }
+
+    private void send(RtmpPacket packet) {
+        for (Queue<RtmpPacket, RtmpPacket[]> output : outputs) {
+            output.enqueue(packet.retain());
+        }
+        packet.release();
+    }
+
+    /**
+     * @return the smallest capacity among the outputs
+     */
+    public int getCapacity() {
+        int capacity = Integer.MAX_VALUE;
+        for (Queue<RtmpPacket, RtmpPacket[]> output : outputs) {
+            capacity = Math.min(capacity, output.getCapacity());
+        }
+        return capacity == Integer.MAX_VALUE ? 0 : capacity;
+    }
+
+    /**
+     * @return the size of the most backed up output
+     */
+    public int getSize() {
+        int size = 0;
+        for (Queue<RtmpPacket, RtmpPacket[]> output : outputs) {
+            size = Math.max(size, output.getSize());
+        }
+        return size;
+    }
+
+    private synchronized void clear() {
+        if (audioSpecificConfig != null) {
+            audioSpecificConfig.release();
+            audioSpecificConfig = null;
+        }
+        if (videoSpsPps != null) {
+            videoSpsPps.release();
+            videoSpsPps = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        canWrite = false;
+        for (Queue<RtmpPacket, RtmpPacket[]> output : outputs) {
+            output.close();
+        }
+        clear();
+    }
+
+    @Override
+    public synchronized void flush() {
+        canWrite = false;
+        for (Queue<RtmpPacket, RtmpPacket[]> output : outputs) {
+            output.flush();
+        }
+        clear();
+    }
+}
@@ -0,0 +1,77 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * References to the media packets since the last video sync frame, replayed after a reconnect so
+ * the new connection starts with a decodable picture instead of waiting for the next sync frame.
+ * A GOP that outgrows the limits is dropped and caching starts over at the next sync frame.
+ * Not thread safe.
+ */
+class GopCache implements Iterable<RtmpPacket> {
+    private final int maxPackets;
+    private final long maxBytes;
+    private final ArrayDeque<RtmpPacket> packets = new ArrayDeque<>();
+    private long bytes = 0;
+    private boolean hasSyncFrame = false;
+
+    /**
+     * @param maxBytes 0 disables the cache
+     */
+    GopCache(int maxPackets, long maxBytes) {
+        this.maxPackets = maxPackets;
+        this.maxBytes = maxBytes;
+    }
+
+    void add(RtmpPacket packet) {
+        switch (packet.getType()) {
+            case VIDEO_SYNC_FRAME:
+                clear();
+                hasSyncFrame = true;
+                break;
+            case VIDEO_P_FRAME:
+            case AUDIO:
+                if (!hasSyncFrame) return;
+                break;
+            default:
+                //配置包由Pusher单独保存
+                return;
+        }
+        if (packets.size() >= maxPackets || bytes + packet.getSize() > maxBytes) {
+            clear();
+            return;
+        }
+        packets.addLast(packet.retain());
+        bytes += packet.getSize();
+    }
+
+    /**
+     * @return true when the cache starts with a sync frame and can be replayed
+     */
+    boolean hasSyncFrame() {
+        return hasSyncFrame;
+    }
+
+    int size() {
+        return packets.size();
+    }
+
+    @NonNull
+    @Override
+    public Iterator<RtmpPacket> iterator() {
+        return packets.iterator();
+    }
+
+    void clear() {
+        while (!packets.isEmpty()) {
+            packets.pollFirst().release();
+        }
+        bytes = 0;
+        hasSyncFrame = false;
+    }
+}
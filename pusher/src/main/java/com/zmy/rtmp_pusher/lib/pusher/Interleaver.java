@@ -0,0 +1,219 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.queue.Sink;
+
+import java.util.ArrayDeque;
+
+/**
+ * Merges the audio and video packets by DTS before they reach the pushers.
+ * <p>
+ * A packet is held until the other track has a packet to compare it with. So that a stalled track
+ * cannot hold the other one back, a track is also released on its own once it has queued
+ * {@code windowMs} of media or its oldest packet has waited {@code windowMs} since it was encoded.
+ * A packet from the stalled track arriving after that goes out as soon as it comes in and is counted
+ * as late. Packets have to be stamped by {@link com.zmy.rtmp_pusher.lib.encoder.TimestampNormalizer}
+ * first, unstamped ones are passed through.
+ * <p>
+ * The window is only checked when a packet comes in, there is no timer. If both tracks stop, what
+ * is held stays here until the next packet or {@link #flush()}. While streaming, one track keeps
+ * producing and a held packet waits at most {@code windowMs} plus that track's frame interval.
+ * <p>
+ * Released packets are written to the output outside the lock, by one thread at a time and in
+ * release order, so an output that blocks doesn't keep the other track's encoder out.
+ */
+public class Interleaver implements Sink<RtmpPacket> {
+    private final Sink<RtmpPacket> output;
+    private final int windowMs;
+    private final ArrayDeque<RtmpPacket> audio = new ArrayDeque<>();
+    private final ArrayDeque<RtmpPacket> video = new ArrayDeque<>();
+    //已经按DTS排好、等着送到输出的包
+    private final ArrayDeque<RtmpPacket> ready = new ArrayDeque<>();
+    //只由当前的发送线程使用
+    private final ArrayDeque<RtmpPacket> sendBatch = new ArrayDeque<>();
+    private boolean sending = false;
+    private int lastAudioDtsMs = -1;
+    private int lastVideoDtsMs = -1;
+    private int lastSentDtsMs = -1;
+    private volatile boolean canWrite = true;
+
+    private volatile int maxSkewMs = 0;
+    private volatile long latePackets = 0;
+    private volatile long forcedPackets = 0;
+
+    /**
+     * @param windowMs how long one track may wait for the other, 0 passes packets straight through
+     */
+    public Interleaver(@NonNull Sink<RtmpPacket> output, int windowMs) {
+        if (windowMs < 0) throw new IllegalArgumentException("windowMs must not be negative");
+        this.output = output;
+        this.windowMs = windowMs;
+    }
+
+    @Override
+    public void enqueue(RtmpPacket packet) {
+        if (!canWrite) {
+            packet.release();
+            return;
+        }
+        int dts = packet.getDtsMs();
+        if (windowMs == 0 || dts < 0) {
+            output.enqueue(packet);
+            return;
+        }
+        synchronized (this) {
+            if (isAudio(packet)) {
+                if (lastVideoDtsMs >= 0) updateSkew(dts - lastVideoDtsMs);
+                lastAudioDtsMs = dts;
+                audio.addLast(packet);
+            } else {
+                if (lastAudioDtsMs >= 0) updateSkew(dts - lastAudioDtsMs);
+                lastVideoDtsMs = dts;
+                video.addLast(packet);
+            }
+            drain(false);
+            //输出可能阻塞,不在锁内写;同一时刻只有一个线程写,保证输出按出列的顺序
+            if (sending || ready.isEmpty()) return;
+            sending = true;
+        }
+        sendReady();
+    }
+
+    private void sendReady() {
+        while (true) {
+            synchronized (this) {
+                while (!ready.isEmpty()) sendBatch.addLast(ready.pollFirst());
+                if (sendBatch.isEmpty()) {
+                    sending = false;
+                    notifyAll();
+                    return;
+                }
+            }
+            while (!sendBatch.isEmpty()) output.enqueue(sendBatch.pollFirst());
+        }
+    }
+
+    private void updateSkew(int skew) {
+        skew = Math.abs(skew);
+        if (skew > maxSkewMs) maxSkewMs = skew;
+    }
+
+    private static boolean isAudio(RtmpPacket packet) {
+        return packet.getType() == RtmpPacket.PacketType.AUDIO || packet.getType() == RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG;
+    }
+
+    private void drain(boolean all) {
+        while (true) {
+            RtmpPacket a = audio.peekFirst();
+            RtmpPacket v = video.peekFirst();
+            if (a != null && v != null) {
+                //dts相同时音频在前
+                send(a.getDtsMs() <= v.getDtsMs() ? audio : video);
+            } else if (a == null && v == null) {
+                return;
+            } else {
+                ArrayDeque<RtmpPacket> track = a != null ? audio : video;
+                if (!all && !isExpired(track)) return;
+                forcedPackets++;
+                send(track);
+            }
+        }
+    }
+
+    //只在enqueue里调用,没有新包进来就不会检查
+    private boolean isExpired(ArrayDeque<RtmpPacket> track) {
+        RtmpPacket first = track.peekFirst();
+        RtmpPacket last = track.peekLast();
+        if (last.getDtsMs() - first.getDtsMs() >= windowMs) return true;
+        return System.nanoTime() - first.getCreateTimeNanos() >= windowMs * 1000000L;
+    }
+
+    private void send(ArrayDeque<RtmpPacket> track) {
+        RtmpPacket packet = track.pollFirst();
+        int dts = packet.getDtsMs();
+        if (dts < lastSentDtsMs) {
+            latePackets++;
+            updateSkew(lastSentDtsMs - dts);
+        } else {
+            lastSentDtsMs = dts;
+        }
+        ready.addLast(packet);
+    }
+
+    /**
+     * @return the largest DTS distance seen between the two tracks, either between packets arriving
+     * on different tracks or between a late packet and what was already sent
+     */
+    public int getMaxSkewMs() {
+        return maxSkewMs;
+    }
+
+    /**
+     * @return packets sent behind a packet with a later DTS, because their track had stalled
+     */
+    public long getLatePackets() {
+        return latePackets;
+    }
+
+    /**
+     * @return packets released by the window while the other track had nothing queued
+     */
+    public long getForcedPackets() {
+        return forcedPackets;
+    }
+
+    public synchronized void resetStats() {
+        maxSkewMs = 0;
+        latePackets = 0;
+        forcedPackets = 0;
+    }
+
+    /**
+     * @return packets held here, waiting for the other track or to be written to the output
+     */
+    public synchronized int getHeldPackets() {
+        return audio.size() + video.size() + ready.size();
+    }
+
+    private synchronized void clear() {
+        while (!audio.isEmpty()) audio.pollFirst().release();
+        while (!video.isEmpty()) video.pollFirst().release();
+        while (!ready.isEmpty()) ready.pollFirst().release();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            canWrite = false;
+            clear();
+        }
+        output.close();
+    }
+
+    /**
+     * Sends everything still held, in DTS order, then flushes the output.
+     */
+    @Override
+    public void flush() {
+        boolean claimed;
+        synchronized (this) {
+            canWrite = false;
+            drain(true);
+            //等正在写的线程写完,输出才能结束
+            while (sending) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            claimed = !sending;
+            if (claimed) sending = true;
+        }
+        if (claimed) sendReady();
+        output.flush();
+    }
+}
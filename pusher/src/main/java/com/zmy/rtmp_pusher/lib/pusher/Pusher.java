@@ -1,121 +1,238 @@
 package com.zmy.rtmp_pusher.lib.pusher;
 
+import android.os.Process;
+
 import androidx.annotation.NonNull;
 
+import com.zmy.rtmp_pusher.lib.abr.LinkMonitor;
 import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
-import com.zmy.rtmp_pusher.lib.exception.Err;
 import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
-import com.zmy.rtmp_pusher.lib.queue.LinkedQueue;
+import com.zmy.rtmp_pusher.lib.metrics.DropReason;
+import com.zmy.rtmp_pusher.lib.metrics.PipelineMetrics;
+import com.zmy.rtmp_pusher.lib.queue.ArrayChannel;
+import com.zmy.rtmp_pusher.lib.trace.FrameTracer;
+import com.zmy.rtmp_pusher.lib.transport.NativeTransport;
+import com.zmy.rtmp_pusher.lib.transport.Transport;
 import com.zmy.rtmp_pusher.lib.util.WorkerThread;
 
+import java.io.IOException;
 import java.util.Locale;
 
-public class Pusher {
+public class Pusher implements LinkMonitor {
     private static final String TAG = Pusher.class.getSimpleName();
+    private static final int MAX_BATCH_SIZE = 32;
+    private static final long RECONNECT_INITIAL_DELAY_MS = 300;
+    private static final long RECONNECT_MAX_DELAY_MS = 10000;
+    private static final int GOP_CACHE_MAX_PACKETS = 1024;
+    private static final long DEFAULT_GOP_CACHE_BYTES = 4 * 1024 * 1024;
+    //release()等推流线程结束的最长时间。transport先被abort,通常很快返回;
+    //abort打断不了的调用(比如native的tcp连接)超时后不再等,由推流线程退出时释放transport
+    static final long STOP_TIMEOUT_MS = 3000;
     private final PusherCallback callback;
-    private long handle;
-    private final String url;
-    private final LinkedQueue<RtmpPacket> inputQueue;
+    private final Transport transport;
+    //release()不拿锁就能让推流线程看到
+    private volatile boolean released = false;
+    private boolean resourcesReleased = false;
+    private final Backoff backoff = new Backoff(RECONNECT_INITIAL_DELAY_MS, RECONNECT_MAX_DELAY_MS);
+    private GopCache gopCache = new GopCache(GOP_CACHE_MAX_PACKETS, DEFAULT_GOP_CACHE_BYTES);
+    private volatile SyncFrameRequester syncFrameRequester;
+    private final ArrayChannel<RtmpPacket> inputQueue;
     private PushThread pushThread;
 
+    private volatile long sentBytes = 0;
+    private volatile long pushCount = 0;
+    private volatile long pushTimeNanos = 0;
+
 
-    public Pusher(String url, LinkedQueue<RtmpPacket> inputQueue, @NonNull PusherCallback callback) throws PusherException {
+    public Pusher(String url, ArrayChannel<RtmpPacket> inputQueue, @NonNull PusherCallback callback) throws PusherException {
+        this(url, NativeTransport.FACTORY, inputQueue, callback);
+    }
+
+    public Pusher(String url, @NonNull Transport.Factory transportFactory, ArrayChannel<RtmpPacket> inputQueue, @NonNull PusherCallback callback) throws PusherException {
         assertUrl(url);
         if (inputQueue == null) throw new PusherException(new IllegalStateException("input queue must be non null"));
-        this.url = url;
         this.inputQueue = inputQueue;
         this.callback = callback;
-        handle = native_new_instance(this.url);
-        if (handle == 0) {
-            throw new PusherException(new RuntimeException("fail to alloc native pusher"));
+        try {
+            this.transport = transportFactory.create(url);
+        } catch (IOException e) {
+            throw new PusherException(e);
         }
     }
 
-    public LinkedQueue<RtmpPacket> getQueue() {
+    public ArrayChannel<RtmpPacket> getQueue() {
         return inputQueue;
     }
 
-    public synchronized void initialize() throws PusherException {
-        init();
-        connect();
+    /**
+     * Connects the transport, called by the push thread. Not under the Pusher monitor, so
+     * {@link #release()} can abort a connect that hangs.
+     */
+    public void initialize() throws PusherException {
+        if (released) throw new PusherException(new IllegalStateException("pusher is released"));
+        try {
+            transport.connect();
+        } catch (IOException e) {
+            throw new PusherException(e);
+        }
     }
 
-    public void start() {
-        if (pushThread != null) {
-            pushThread.exit();
+    /**
+     * Limits the last GOP kept for replay after a reconnect, 0 disables the replay. Call before
+     * {@link #start()}.
+     */
+    public void setGopCacheBytes(long maxBytes) {
+        gopCache.clear();
+        gopCache = new GopCache(GOP_CACHE_MAX_PACKETS, maxBytes);
+    }
+
+    /**
+     * Asked for a sync frame when a (re)connect has no cached GOP to start with, and by the
+     * {@link SendQueue} in front of this pusher when it drops the rest of a GOP.
+     */
+    public void setSyncFrameRequester(SyncFrameRequester requester) {
+        this.syncFrameRequester = requester;
+        if (inputQueue instanceof SendQueue) {
+            ((SendQueue) inputQueue).setSyncFrameRequester(requester);
         }
+    }
+
+    public void start() {
+        if (pushThread != null) throw new IllegalStateException("already started");
         pushThread = new PushThread();
         pushThread.start();
     }
 
-    private synchronized void releaseInternal() {
-        RtmpLogManager.d(TAG, "releaseInternal");
-        if (handle != 0) {
-            native_release(handle);
-            handle = 0;
-        }
+    private synchronized boolean markReleased() {
+        if (released) return false;
+        released = true;
+        return true;
     }
 
+    /**
+     * Aborts the transport, then waits at most {@link #STOP_TIMEOUT_MS} for the push thread. If it
+     * is still stuck in the transport after that, it frees the transport itself when it exits.
+     */
     public void release() {
-        releaseInternal();
+        if (!markReleased()) return;
+        RtmpLogManager.d(TAG, "release");
+        //不持有Pusher锁,阻塞在connect/send里的推流线程会失败返回
+        transport.abort();
         getQueue().close();
-        if (pushThread != null) {
-            pushThread.exit();
-            pushThread = null;
+        if (pushThread != null && !pushThread.exit(STOP_TIMEOUT_MS)) {
+            RtmpLogManager.w(TAG, "push thread did not stop in {}ms", STOP_TIMEOUT_MS);
+            return;
         }
-        if (audioSpecificConfig != null) audioSpecificConfig.release();
-        if (videoSpsPps != null) videoSpsPps.release();
+        releaseResources();
     }
 
-    private void assertUrl(String url) throws PusherException {
-        if (url == null || !url.toLowerCase(Locale.getDefault()).startsWith("rtmp://")) {
-            throw new PusherException(new IllegalStateException("invalid url"));
-        }
+    /**
+     * Frees the transport and the packets kept for replay, once the push thread no longer uses
+     * them: from {@link #release()} after the thread stopped, or from the thread itself when it
+     * exits after {@link #release()} gave up waiting.
+     */
+    private synchronized void releaseResources() {
+        if (resourcesReleased) return;
+        resourcesReleased = true;
+        transport.close();
+        releaseConfigs();
     }
 
-    private synchronized void init() throws PusherException {
-        if (handle == 0) throw new PusherException(new IllegalStateException("handle is 0"));
-        if (!native_init(handle)) {
-            throw new PusherException(new RuntimeException("fail to init pusher"));
+    private void releaseConfigs() {
+        gopCache.clear();
+        //引用计数在native层,重复release会释放别人的引用
+        if (audioSpecificConfig != null) {
+            audioSpecificConfig.release();
+            audioSpecificConfig = null;
+        }
+        if (videoSpsPps != null) {
+            videoSpsPps.release();
+            videoSpsPps = null;
         }
     }
 
-    private synchronized void connect() throws PusherException {
-        if (handle == 0) throw new PusherException(new IllegalStateException("handle is 0"));
-        if (!native_connect(handle)) {
-            throw new PusherException(new RuntimeException("fail to connect to server,errno=" + Err.errno() + ",desc=" + Err.errDescribe(Err.errno())));
+    private void assertUrl(String url) throws PusherException {
+        if (url == null || !url.toLowerCase(Locale.getDefault()).startsWith("rtmp://")) {
+            throw new PusherException(new IllegalStateException("invalid url"));
         }
     }
 
-    private synchronized void push(long packet) throws PusherException {
-        if (handle == 0) throw new PusherException(new IllegalStateException("handle is 0"));
-        if (packet == 0) throw new PusherException(new IllegalArgumentException("packet can not be 0"));
-        if (!native_push(handle, packet)) {
-            throw new PusherException(new RuntimeException("fail to push,errno=" + Err.errno() + ",desc=" + Err.errDescribe(Err.errno())));
+    /**
+     * Sends packets[0, count) with a single transport call. The packets stay owned by the caller.
+     */
+    private void push(RtmpPacket[] packets, int count) throws PusherException {
+        if (released) throw new PusherException(new IllegalStateException("pusher is released"));
+        if (count == 0) return;
+        long start = System.nanoTime();
+        try {
+            transport.send(packets, count);
+        } catch (IOException e) {
+            throw new PusherException(e);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            pushTimeNanos += elapsed;
+            pushCount++;
+            PipelineMetrics.PUSH.record(elapsed / 1000);
         }
+        long sent = System.nanoTime();
+        long videoBytes = 0;
+        long audioBytes = 0;
+        for (int i = 0; i < count; i++) {
+            packets[i].mark(FrameTracer.STAGE_SENT, sent);
+            if (packets[i].getType() == RtmpPacket.PacketType.AUDIO) {
+                audioBytes += packets[i].getSize();
+            } else {
+                videoBytes += packets[i].getSize();
+            }
+        }
+        sentBytes += videoBytes + audioBytes;
+        PipelineMetrics.VIDEO_BYTES.add(videoBytes);
+        PipelineMetrics.AUDIO_BYTES.add(audioBytes);
+        PipelineMetrics.PACKETS.add(count);
     }
 
+    @Override
+    public long getSentBytes() {
+        return sentBytes;
+    }
 
-    private synchronized boolean isConnected() {
-        return handle != 0 && native_is_connected(handle);
+    @Override
+    public long getPushCount() {
+        return pushCount;
     }
 
-    private static synchronized native long native_new_instance(String url);
+    @Override
+    public long getPushTimeNanos() {
+        return pushTimeNanos;
+    }
 
-    private static synchronized native boolean native_init(long handle);
+    @Override
+    public long getQueuedBytes() {
+        return inputQueue instanceof SendQueue ? ((SendQueue) inputQueue).getQueuedBytes() : 0;
+    }
 
-    private static synchronized native boolean native_connect(long handle);
+    @Override
+    public long getQueueDelayMs() {
+        return inputQueue instanceof SendQueue ? ((SendQueue) inputQueue).getQueueDelayMs() : 0;
+    }
 
-    private static synchronized native boolean native_push(long handle, long packetHandle);
+    @Override
+    public long getDroppedFrames() {
+        if (!(inputQueue instanceof SendQueue)) return 0;
+        SendQueue queue = (SendQueue) inputQueue;
+        return queue.getDroppedVideoFrames() + queue.getDroppedAudioFrames();
+    }
 
-    private static synchronized native void native_release(long handle);
 
-    private static synchronized native boolean native_is_connected(long handle);
+    private boolean isConnected() {
+        return !released && transport.isConnected();
+    }
 
     public String getUrl() {
-        return url;
+        return transport.getUrl();
     }
 
+    //以下只在推流线程访问,推流线程结束后由releaseResources()清理
     private RtmpPacket audioSpecificConfig;
     private RtmpPacket videoSpsPps;
     private boolean needPushASC = false;
@@ -123,108 +240,178 @@ public class Pusher {
     private boolean needPushSyncFrame = false;
 
     class PushThread extends WorkerThread {
-        RtmpPacket[] frame = new RtmpPacket[1];
+        private final RtmpPacket[] batch = new RtmpPacket[MAX_BATCH_SIZE];
+        //每个packet前面最多补发asc和sps/pps
+        private final RtmpPacket[] pending = new RtmpPacket[MAX_BATCH_SIZE * 3];
+        private int pendingCount = 0;
+        private boolean connectedOnce = false;
 
         public PushThread() {
-            super("PusherThread");
+            super("PusherThread", Process.THREAD_PRIORITY_DISPLAY);
         }
 
         @Override
         protected boolean doMain() {
-            int count = inputQueue.dequeue(frame);
-            if (count != 1) return true;
-
-            RtmpPacket target = frame[0];
-            if (target.getType() == RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG) {
-                audioSpecificConfig = target.copy();
+            int count = inputQueue.drainTo(batch, batch.length);
+            if (count == 0) return true;
+
+            for (int i = 0; i < count; i++) {
+                RtmpPacket target = batch[i];
+                if (target.getType() == RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG) {
+                    if (audioSpecificConfig != null) audioSpecificConfig.release();
+                    audioSpecificConfig = target.retain();
+                }
+                if (target.getType() == RtmpPacket.PacketType.SPS_PPS) {
+                    if (videoSpsPps != null) videoSpsPps.release();
+                    videoSpsPps = target.retain();
+                }
+            }
+            boolean reconnected = false;
+            if (!isConnected()) {
+                //退避等待和连接都不持有Pusher锁,release可以随时打断
+                reconnected = reconnect();
             }
-            if (target.getType() == RtmpPacket.PacketType.SPS_PPS) {
-                videoSpsPps = target.copy();
+            if (reconnected && !released) {
+                replay();
             }
-            synchronized (Pusher.this) {
-                if (!isConnected()) {
-                    waitUntilConnected();
-                    RtmpLogManager.d(TAG, "connect success");
+            for (int i = 0; i < count; i++) {
+                RtmpPacket target = batch[i];
+                batch[i] = null;
+                if (released || !reconnected && !isConnected()) {
+                    PipelineMetrics.recordDrop(DropReason.DISCONNECTED);
+                    target.release();
+                    continue;
                 }
-                if (handle == 0) return true;
+                gopCache.add(target);
+                prepare(target);
+            }
+            flush();
+            return released;
+        }
 
-                if (needPushASC && audioSpecificConfig != null) {
-                    try {
-                        push(audioSpecificConfig.copy().getHandle());
-                        needPushASC = false;
-                        RtmpLogManager.d(TAG, "push asc");
-                    } catch (PusherException e) {
-                        e.printStackTrace();
-                        callback.onPushError(e);
-                    }
-                }
-                if (needPushSpsPps && videoSpsPps != null) {
+        @Override
+        protected void doOnExit() {
+            //release()等超时后不再管transport,由这里释放
+            if (released) releaseResources();
+        }
+
+        /**
+         * @return false when the pusher was released before it could connect
+         */
+        private boolean reconnect() {
+            backoff.reset();
+            while (!released) {
+                long delay = backoff.nextDelayMs();
+                if (delay > 0) {
                     try {
-                        push(videoSpsPps.copy().getHandle());
-                        needPushSpsPps = false;
-                        RtmpLogManager.d(TAG, "push sps/pps");
-                    } catch (PusherException e) {
-                        e.printStackTrace();
-                        callback.onPushError(e);
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        return false;
                     }
                 }
-                if (needPushASC && target.getType() == RtmpPacket.PacketType.AUDIO) {
-                    target.release();
-                    RtmpLogManager.d(TAG, "drop audio,must push asc first");
-                    return false;
-                }
-                if (needPushSpsPps && (target.getType() == RtmpPacket.PacketType.VIDEO_P_FRAME || target.getType() == RtmpPacket.PacketType.VIDEO_SYNC_FRAME)) {
-                    target.release();
-                    RtmpLogManager.d(TAG, "drop video ,must push asc SPS/PPS first");
-                    return false;
-                }
-                if (needPushSyncFrame && target.getType() == RtmpPacket.PacketType.VIDEO_P_FRAME) {
-                    target.release();
-                    RtmpLogManager.d(TAG, "drop video p frame ,must push video sync frame first");
-                    return false;
+                try {
+                    initialize();
+                    RtmpLogManager.d(TAG, "connect success after {} attempts", backoff.getAttempts());
+                    if (connectedOnce) PipelineMetrics.RECONNECT_COUNT.increment();
+                    connectedOnce = true;
+                    return true;
+                } catch (PusherException e) {
+                    PipelineMetrics.CONNECT_FAILURE_COUNT.increment();
+                    callback.onPushError(e);
                 }
-                if (target.getType() != RtmpPacket.PacketType.SPS_PPS && target.getType() != RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG) {
-                    try {
-                        push(target.getHandle());
-                        if (target.getType() == RtmpPacket.PacketType.VIDEO_SYNC_FRAME) {
-                            RtmpLogManager.d(TAG, "push sync frame");
-                            needPushSyncFrame = false;
-                        }
-                        if (target.getType() == RtmpPacket.PacketType.VIDEO_P_FRAME) {
-                            RtmpLogManager.d(TAG, "push P frame");
-                        }
-                        if(target.getType()==RtmpPacket.PacketType.AUDIO){
-                            RtmpLogManager.d(TAG, "push audio");
-                        }
-                    } catch (PusherException e) {
-                        e.printStackTrace();
-                        callback.onPushError(e);
-                    }
-                }
-
             }
             return false;
         }
-    }
 
-    private void waitUntilConnected() {
-        while (handle != 0) {
+        /**
+         * Starts a new connection with the configs and the cached GOP, so it shows a picture right
+         * away instead of dropping P frames until the encoder's next sync frame.
+         */
+        private void replay() {
+            needPushASC = true;
+            needPushSpsPps = true;
+            needPushSyncFrame = true;
+            if (audioSpecificConfig != null) {
+                append(audioSpecificConfig.retain());
+                needPushASC = false;
+            }
+            if (videoSpsPps != null) {
+                append(videoSpsPps.retain());
+                needPushSpsPps = false;
+            }
+            if (!needPushSpsPps && gopCache.hasSyncFrame()) {
+                for (RtmpPacket packet : gopCache) {
+                    if (needPushASC && packet.getType() == RtmpPacket.PacketType.AUDIO) continue;
+                    append(packet.retain());
+                }
+                needPushSyncFrame = false;
+                RtmpLogManager.d(TAG, "replay {} cached packets", gopCache.size());
+            } else {
+                SyncFrameRequester requester = syncFrameRequester;
+                if (requester != null) requester.requestSyncFrame();
+            }
+        }
+
+        private void append(RtmpPacket packet) {
+            if (pendingCount == pending.length) flush();
+            pending[pendingCount++] = packet;
+        }
+
+        private void flush() {
+            int count = pendingCount;
+            pendingCount = 0;
+            if (count == 0) return;
             try {
-                initialize();
-                needPushASC = true;
-                needPushSpsPps = true;
-                needPushSyncFrame = true;
-                break;
+                push(pending, count);
             } catch (PusherException e) {
+                e.printStackTrace();
                 callback.onPushError(e);
+            } finally {
+                for (int i = 0; i < count; i++) {
+                    pending[i].release();
+                    pending[i] = null;
+                }
             }
-            try {
-                Pusher.this.wait(300);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        }
+
+        private void prepare(RtmpPacket target) {
+            if (needPushASC && audioSpecificConfig != null) {
+                append(audioSpecificConfig.retain());
+                needPushASC = false;
+                RtmpLogManager.d(TAG, "push asc");
+            }
+            if (needPushSpsPps && videoSpsPps != null) {
+                append(videoSpsPps.retain());
+                needPushSpsPps = false;
+                RtmpLogManager.d(TAG, "push sps/pps");
+            }
+            if (needPushASC && target.getType() == RtmpPacket.PacketType.AUDIO) {
+                PipelineMetrics.recordDrop(DropReason.NO_CONFIG);
+                target.release();
+                RtmpLogManager.d(TAG, "drop audio,must push asc first");
+                return;
+            }
+            if (needPushSpsPps && (target.getType() == RtmpPacket.PacketType.VIDEO_P_FRAME || target.getType() == RtmpPacket.PacketType.VIDEO_SYNC_FRAME)) {
+                PipelineMetrics.recordDrop(DropReason.NO_CONFIG);
+                target.release();
+                RtmpLogManager.d(TAG, "drop video ,must push asc SPS/PPS first");
+                return;
             }
+            if (needPushSyncFrame && target.getType() == RtmpPacket.PacketType.VIDEO_P_FRAME) {
+                PipelineMetrics.recordDrop(DropReason.NO_SYNC_FRAME);
+                target.release();
+                RtmpLogManager.d(TAG, "drop video p frame ,must push video sync frame first");
+                return;
+            }
+            if (target.getType() != RtmpPacket.PacketType.SPS_PPS && target.getType() != RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG) {
+                if (target.getType() == RtmpPacket.PacketType.VIDEO_SYNC_FRAME) {
+                    needPushSyncFrame = false;
+                }
+                append(target);
+                return;
+            }
+            target.release();
         }
     }
 
-
 }
@@ -0,0 +1,292 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
+import com.zmy.rtmp_pusher.lib.metrics.DropReason;
+import com.zmy.rtmp_pusher.lib.metrics.PipelineMetrics;
+import com.zmy.rtmp_pusher.lib.queue.ArrayChannel;
+import com.zmy.rtmp_pusher.lib.trace.FrameTracer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Packet queue in front of {@link Pusher} that sheds video instead of growing without bound.
+ * <ul>
+ * <li>{@code SPS_PPS} and {@code AUDIO_SPECIFIC_CONFIG} are never dropped and never block either. When
+ * the channel is full the latest one of each is held back, and media is dropped until it is
+ * queued.</li>
+ * <li>Audio never blocks the encoder. It is only dropped when the channel itself is full.</li>
+ * <li>Under congestion, new P frames are refused and the rest of the GOP is dropped until the next
+ * sync frame.</li>
+ * <li>When the sender falls behind and a newer sync frame is already queued, older GOPs are skipped
+ * on the way out so the stream jumps straight to the newest one.</li>
+ * </ul>
+ * Video is always dropped from a P frame up to the next sync frame, so the decoder never sees a
+ * reference gap. The sync frame that ends the drop is only requested once the queue has room and is
+ * no longer congested, otherwise it would just restart the drop.
+ */
+public class SendQueue extends ArrayChannel<RtmpPacket> {
+    private static final String TAG = SendQueue.class.getSimpleName();
+
+    private final CongestionPolicy policy;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicInteger queuedSyncFrames = new AtomicInteger();
+    private volatile boolean congested = false;
+    private volatile long lastResidencyMs = 0;
+    private volatile long busySinceNanos = 0;
+    private volatile SyncFrameRequester syncFrameRequester;
+
+    private final AtomicLong droppedVideoFrames = new AtomicLong();
+    private final AtomicLong droppedAudioFrames = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    //通道满时没能入队的配置包,只留最新的
+    private final AtomicReference<RtmpPacket> pendingSpsPps = new AtomicReference<>();
+    private final AtomicReference<RtmpPacket> pendingAudioSpecificConfig = new AtomicReference<>();
+
+    //视频包依次进入doEnqueue:经过Interleaver时同一时刻只有一个线程在写,直通时只在视频编码线程
+    private boolean dropUntilSyncFrame = false;
+    private boolean syncFrameRequested = false;
+    //只在发送线程访问
+    private boolean skipUntilSyncFrame = false;
+
+    public SendQueue(int maxCapacity, @NonNull CongestionPolicy policy) {
+        super(maxCapacity, RtmpPacket.DELETER);
+        this.policy = policy;
+    }
+
+    @Override
+    protected void doEnqueue(RtmpPacket packet) {
+        long now = System.nanoTime();
+        PipelineMetrics.ENCODE_TO_ENQUEUE.record((now - packet.getCreateTimeNanos()) / 1000);
+        packet.mark(FrameTracer.STAGE_ENQUEUED, now);
+        RtmpPacket.PacketType type = packet.getType();
+        if (type == RtmpPacket.PacketType.SPS_PPS || type == RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG) {
+            //不阻塞上游,一个卡住的输出不能拖住FanOut的其他输出
+            if (!flushPendingConfigs() || !tryQueue(packet)) {
+                keepPendingConfig(packet);
+            }
+            return;
+        }
+        if (!flushPendingConfigs()) {
+            //解码器还没拿到新的配置,媒体包发了也没用
+            if (type != RtmpPacket.PacketType.AUDIO) startDroppingGop();
+            drop(packet, DropReason.CHANNEL_FULL);
+            return;
+        }
+        switch (type) {
+            case AUDIO:
+                if (!tryQueue(packet)) {
+                    drop(packet, DropReason.CHANNEL_FULL);
+                }
+                return;
+            case VIDEO_SYNC_FRAME:
+                dropUntilSyncFrame = false;
+                if (!tryQueue(packet)) {
+                    startDroppingGop();
+                    drop(packet, DropReason.CHANNEL_FULL);
+                }
+                return;
+            case VIDEO_P_FRAME:
+                if (dropUntilSyncFrame) {
+                    requestSyncFrameIfRecovered();
+                    drop(packet, DropReason.WAITING_FOR_SYNC_FRAME);
+                    return;
+                }
+                if (updateCongestion()) {
+                    startDroppingGop();
+                    drop(packet, DropReason.CONGESTED);
+                    return;
+                }
+                if (!tryQueue(packet)) {
+                    startDroppingGop();
+                    drop(packet, DropReason.CHANNEL_FULL);
+                }
+        }
+    }
+
+    private void keepPendingConfig(RtmpPacket packet) {
+        AtomicReference<RtmpPacket> pending = packet.getType() == RtmpPacket.PacketType.SPS_PPS ? pendingSpsPps : pendingAudioSpecificConfig;
+        RtmpPacket old = pending.getAndSet(packet);
+        if (old != null) old.release();
+        if (!canWrite) releasePendingConfigs();
+    }
+
+    /**
+     * @return true if no config packet is held back any more
+     */
+    private boolean flushPendingConfigs() {
+        return flushPendingConfig(pendingSpsPps) && flushPendingConfig(pendingAudioSpecificConfig);
+    }
+
+    private boolean flushPendingConfig(AtomicReference<RtmpPacket> pending) {
+        RtmpPacket packet = pending.getAndSet(null);
+        if (packet == null || tryQueue(packet)) return true;
+        //放回去,期间来了更新的就用新的
+        if (!pending.compareAndSet(null, packet)) packet.release();
+        return false;
+    }
+
+    private void releasePendingConfigs() {
+        RtmpPacket packet = pendingSpsPps.getAndSet(null);
+        if (packet != null) packet.release();
+        packet = pendingAudioSpecificConfig.getAndSet(null);
+        if (packet != null) packet.release();
+    }
+
+    private void startDroppingGop() {
+        dropUntilSyncFrame = true;
+        syncFrameRequested = false;
+    }
+
+    private void requestSyncFrameIfRecovered() {
+        //拥塞时要来的关键帧照样入队,下一个P帧又会开始丢GOP,所以等拥塞解除再要
+        if (syncFrameRequested || updateCongestion() || getSize() >= getCapacity()) return;
+        syncFrameRequested = true;
+        SyncFrameRequester requester = syncFrameRequester;
+        if (requester != null) requester.requestSyncFrame();
+    }
+
+    /**
+     * @param requester asked for a sync frame once per dropped GOP, as soon as the queue has room
+     *                  again and is no longer congested
+     */
+    public void setSyncFrameRequester(SyncFrameRequester requester) {
+        this.syncFrameRequester = requester;
+    }
+
+    private boolean tryQueue(RtmpPacket packet) {
+        onQueued(packet);
+        if (offer(packet)) return true;
+        onDequeued(packet);
+        return false;
+    }
+
+    private void onQueued(RtmpPacket packet) {
+        queuedBytes.addAndGet(packet.getSize());
+        if (packet.getType() == RtmpPacket.PacketType.VIDEO_SYNC_FRAME) {
+            queuedSyncFrames.incrementAndGet();
+        }
+    }
+
+    private void onDequeued(RtmpPacket packet) {
+        queuedBytes.addAndGet(-packet.getSize());
+        if (packet.getType() == RtmpPacket.PacketType.VIDEO_SYNC_FRAME) {
+            queuedSyncFrames.decrementAndGet();
+        }
+    }
+
+    @Override
+    public int drainTo(RtmpPacket[] output, int max) {
+        while (true) {
+            busySinceNanos = 0;
+            int count = super.drainTo(output, max);
+            if (count == 0) return 0;
+            long now = System.nanoTime();
+            busySinceNanos = now;
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                RtmpPacket packet = output[i];
+                output[i] = null;
+                onDequeued(packet);
+                long residencyNanos = now - packet.getCreateTimeNanos();
+                lastResidencyMs = residencyNanos / 1000000;
+                PipelineMetrics.SEND_QUEUE_DELAY.record(residencyNanos / 1000);
+                packet.mark(FrameTracer.STAGE_DEQUEUED, now);
+                if (shouldSkip(packet)) {
+                    drop(packet, DropReason.STALE_GOP);
+                } else {
+                    output[kept++] = packet;
+                }
+            }
+            if (kept > 0) return kept;
+        }
+    }
+
+    private boolean shouldSkip(RtmpPacket packet) {
+        switch (packet.getType()) {
+            case VIDEO_SYNC_FRAME:
+                skipUntilSyncFrame = updateCongestion() && queuedSyncFrames.get() > 0;
+                return skipUntilSyncFrame;
+            case VIDEO_P_FRAME:
+                if (!skipUntilSyncFrame && updateCongestion() && queuedSyncFrames.get() > 0) {
+                    skipUntilSyncFrame = true;
+                }
+                return skipUntilSyncFrame;
+            default:
+                return false;
+        }
+    }
+
+    private boolean updateCongestion() {
+        long bytes = queuedBytes.get();
+        long delayMs = getQueueDelayMs();
+        if (congested) {
+            if (policy.isBelowLowWatermark(bytes, delayMs)) {
+                congested = false;
+                RtmpLogManager.d(TAG, "congestion cleared,bytes={},delay={}ms", bytes, delayMs);
+            }
+        } else if (policy.isAboveHighWatermark(bytes, delayMs)) {
+            congested = true;
+            RtmpLogManager.w(TAG, "congested,bytes={},delay={}ms", bytes, delayMs);
+        }
+        return congested;
+    }
+
+    private void drop(RtmpPacket packet, DropReason reason) {
+        if (packet.getType() == RtmpPacket.PacketType.AUDIO) {
+            droppedAudioFrames.incrementAndGet();
+        } else {
+            droppedVideoFrames.incrementAndGet();
+        }
+        droppedBytes.addAndGet(packet.getSize());
+        PipelineMetrics.recordDrop(reason);
+        RtmpLogManager.d(TAG, "drop {},{}", packet.getType(), reason);
+        packet.release();
+    }
+
+    /**
+     * @return how long the next packet to be sent has been waiting, 0 if nothing is queued
+     */
+    public long getQueueDelayMs() {
+        if (getSize() == 0) return 0;
+        long busySince = busySinceNanos;
+        long stalledMs = busySince == 0 ? 0 : (System.nanoTime() - busySince) / 1000000;
+        return Math.max(lastResidencyMs, stalledMs);
+    }
+
+    public long getQueuedBytes() {
+        return Math.max(queuedBytes.get(), 0);
+    }
+
+    public boolean isCongested() {
+        return congested;
+    }
+
+    public long getDroppedVideoFrames() {
+        return droppedVideoFrames.get();
+    }
+
+    public long getDroppedAudioFrames() {
+        return droppedAudioFrames.get();
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    public CongestionPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        releasePendingConfigs();
+        queuedBytes.set(0);
+        queuedSyncFrames.set(0);
+    }
+}
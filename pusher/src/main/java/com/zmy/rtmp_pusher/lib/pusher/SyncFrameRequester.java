@@ -0,0 +1,11 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+/**
+ * Asks the video encoder for a sync frame as soon as possible: by a {@link Pusher} after a
+ * reconnect with nothing to replay, and by a {@link SendQueue} when it drops the rest of a GOP.
+ * {@link com.zmy.rtmp_pusher.lib.encoder.AVCEncoder} implements it, rate limited by a
+ * {@link com.zmy.rtmp_pusher.lib.encoder.SyncFrameRateLimiter}.
+ */
+public interface SyncFrameRequester {
+    void requestSyncFrame();
+}
@@ -0,0 +1,245 @@
+package com.zmy.rtmp_pusher.lib.queue;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer/single-consumer channel over a power-of-two array.
+ * <p>
+ * Producers claim a slot with one CAS on the write cursor and publish it through the slot's
+ * sequence number, so no list nodes are allocated and producers never share a monitor with the
+ * consumer. The consumer takes whole bursts with {@link #drainTo(Object[], int)}. Waiters are only
+ * woken when somebody is actually parked: the consumer at most once per published element while it
+ * is asleep, blocked producers at most once per drained batch.
+ */
+public class ArrayChannel<T> extends Queue<T, T[]> {
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final Cursor writeCursor = new Cursor();
+    private final Cursor readCursor = new Cursor();
+    private final Deleter<T> deleter;
+
+    private final Object consumerLock = new Object();
+    private final Object producerLock = new Object();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+    private volatile Thread waitingConsumer;
+
+    /**
+     * @param maxCapacity rounded up to the next power of two, at least 2
+     */
+    public ArrayChannel(int maxCapacity, @Nullable Deleter<T> deleter) {
+        super(roundUpToPowerOfTwo(maxCapacity));
+        this.deleter = deleter;
+        slots = new AtomicReferenceArray<>(this.maxCapacity);
+        sequences = new AtomicLongArray(this.maxCapacity);
+        for (int i = 0; i < this.maxCapacity; i++) {
+            sequences.set(i, i);
+        }
+        mask = this.maxCapacity - 1;
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        if (value <= 0)
+            throw new IllegalArgumentException("maxCapacity must be more than 0");
+        if (value > 1 << 30)
+            throw new IllegalArgumentException("maxCapacity is too large");
+        //只有一个槽时,写入后的序号和下一次写的位置相同,满了也会被当成空位
+        if (value < 2) return 2;
+        int result = Integer.highestOneBit(value);
+        return result < value ? result << 1 : result;
+    }
+
+    /**
+     * Non-blocking enqueue.
+     *
+     * @return false if the channel is full or closed for writing, the caller still owns data then
+     */
+    public boolean offer(T data) {
+        if (data == null) throw new IllegalArgumentException("data is null");
+        if (!canWrite) return false;
+        while (true) {
+            long write = writeCursor.get();
+            int index = (int) (write & mask);
+            long diff = sequences.get(index) - write;
+            if (diff == 0) {
+                if (writeCursor.compareAndSet(write, write + 1)) {
+                    slots.lazySet(index, data);
+                    sequences.set(index, write + 1);
+                    break;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+        if (!canRead) {
+            //close()可能已经清空过队列,这里补一次,避免元素泄漏
+            synchronized (consumerLock) {
+                clear();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doEnqueue(T data) {
+        while (canWrite) {
+            if (offer(data)) return;
+            synchronized (producerLock) {
+                waitingProducers.incrementAndGet();
+                try {
+                    while (canWrite && getSize() >= maxCapacity) {
+                        producerLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    waitingProducers.decrementAndGet();
+                }
+            }
+        }
+        if (deleter != null) deleter.delete(data);
+    }
+
+    @Override
+    protected int doDequeue(T[] output) {
+        return drainTo(output, output.length);
+    }
+
+    /**
+     * Blocks until at least one element is available, then moves up to {@code max} elements into
+     * {@code output} without blocking again. Only one thread may drain.
+     *
+     * @return the number of elements written to {@code output}, 0 once the channel is closed or
+     * has been flushed and emptied
+     */
+    public int drainTo(T[] output, int max) {
+        if (output == null || max <= 0 || max > output.length)
+            throw new IllegalArgumentException("illegal output array");
+        while (canRead) {
+            int count;
+            synchronized (consumerLock) {
+                count = poll(output, max);
+            }
+            if (count > 0) {
+                signalProducers();
+                return count;
+            }
+            if (!canWrite) {
+                //写端已关闭,再确认一次没有残留的数据
+                synchronized (consumerLock) {
+                    count = poll(output, max);
+                }
+                if (count > 0) {
+                    signalProducers();
+                    return count;
+                }
+                canRead = false;
+                return 0;
+            }
+            awaitData();
+        }
+        return 0;
+    }
+
+    private int poll(T[] output, int max) {
+        long read = readCursor.get();
+        int count = 0;
+        while (count < max) {
+            int index = (int) (read & mask);
+            if (sequences.get(index) != read + 1) break;
+            output[count++] = slots.get(index);
+            slots.lazySet(index, null);
+            sequences.set(index, read + maxCapacity);
+            read++;
+        }
+        readCursor.set(read);
+        return count;
+    }
+
+    private void awaitData() {
+        waitingConsumer = Thread.currentThread();
+        long read = readCursor.get();
+        if (canRead && canWrite && sequences.get((int) (read & mask)) != read + 1) {
+            LockSupport.park(this);
+        }
+        waitingConsumer = null;
+        Thread.interrupted();
+    }
+
+    private void signalProducers() {
+        if (waitingProducers.get() > 0) {
+            synchronized (producerLock) {
+                producerLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    protected int resize(int newSize) {
+        return maxCapacity;
+    }
+
+    @Override
+    public int getCapacity() {
+        return maxCapacity;
+    }
+
+    @Override
+    public int getSize() {
+        return (int) Math.max(writeCursor.get() - readCursor.get(), 0);
+    }
+
+    public Deleter<T> getDeleter() {
+        return deleter;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+        synchronized (producerLock) {
+            producerLock.notifyAll();
+        }
+        synchronized (consumerLock) {
+            clear();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        super.flush();
+        Thread consumer = waitingConsumer;
+        if (consumer != null) LockSupport.unpark(consumer);
+        synchronized (producerLock) {
+            producerLock.notifyAll();
+        }
+    }
+
+    /**
+     * Drops every published element, handing each one to the {@link Deleter}. Must be called from
+     * the draining thread or after {@link #close()}.
+     */
+    @Override
+    public void clear() {
+        long read = readCursor.get();
+        while (true) {
+            int index = (int) (read & mask);
+            if (sequences.get(index) != read + 1) break;
+            T data = slots.get(index);
+            slots.lazySet(index, null);
+            sequences.set(index, read + maxCapacity);
+            read++;
+            if (deleter != null) deleter.delete(data);
+        }
+        readCursor.set(read);
+        signalProducers();
+    }
+}
@@ -1,68 +1,67 @@
 package com.zmy.rtmp_pusher.lib.queue;
 
 
-import androidx.annotation.NonNull;
-
 import java.nio.ByteBuffer;
-
-
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer/single-consumer byte ring backed by one direct buffer.
+ * <p>
+ * Exactly one thread may call {@link #enqueue(Object)} and exactly one thread may call
+ * {@link #dequeue(Object)}. Neither side takes a monitor: the cursors are published through
+ * volatile writes and a side only parks when the ring is full (producer) or empty (consumer).
+ * A consumer driven by events instead reads with {@link #poll(ByteBuffer)} and is told about new
+ * data by {@link #setDataListener(Runnable)}.
+ */
 public class ByteQueue extends Queue<ByteBuffer, ByteBuffer> {
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final int MAX_RING_CAPACITY = 1 << 30;
 
-    private ByteBuffer buffer;
+    private final ByteBuffer buffer;
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+    private final int mask;
 
+    private final Cursor writeCursor = new Cursor();
+    private final Cursor readCursor = new Cursor();
 
-    private int readCursor = 0;
-    private int writeCursor = 0;
+    private volatile Thread waitingWriter;
+    private volatile Thread waitingReader;
+    private volatile Runnable dataListener;
 
-    private int totalDequeueBytes = 0;
-    private int totalEnqueueBytes = 0;
-    private int initialCapacity = 0;
+    private final int initialCapacity;
 
     public ByteQueue() {
-        this(2, Integer.MAX_VALUE);
+        this(DEFAULT_CAPACITY, DEFAULT_CAPACITY);
     }
 
     public ByteQueue(int initialCapacity, int maxCapacity) {
         super(maxCapacity);
         if (maxCapacity < initialCapacity || initialCapacity <= 0)
             throw new IllegalArgumentException("initialCapacity must be less than maxCapacity ,and must be more than 0 ");
+        if (maxCapacity > MAX_RING_CAPACITY)
+            throw new IllegalArgumentException("maxCapacity must be no more than " + MAX_RING_CAPACITY);
         this.initialCapacity = initialCapacity;
-        buffer = ByteBuffer.allocateDirect(this.initialCapacity);
-    }
-
-    public synchronized int getCapacity() {
-        return buffer.capacity();
+        //环形缓冲区按2的幂分配,游标用掩码取模
+        int ringCapacity = Integer.highestOneBit(maxCapacity);
+        if (ringCapacity < maxCapacity) ringCapacity <<= 1;
+        buffer = ByteBuffer.allocateDirect(ringCapacity);
+        writeView = buffer.duplicate();
+        readView = buffer.duplicate();
+        mask = ringCapacity - 1;
+    }
+
+    /**
+     * @return the number of bytes the queue can hold before {@link #enqueue(Object)} blocks
+     */
+    @Override
+    public int getCapacity() {
+        return maxCapacity;
     }
 
     @Override
     public int getSize() {
-        return Math.max(totalEnqueueBytes - totalDequeueBytes, 0);
-    }
-
-    private int getWriteableSize() {
-        return buffer.capacity() - getSize();
-    }
-
-    private Area getReadableArea() {
-        if (getSize() == 0) return null;
-        Area area;
-        if (writeCursor > readCursor) {
-            area = new Area(readCursor, writeCursor - readCursor);
-        } else {
-            area = new Area(readCursor, buffer.capacity() - readCursor);
-        }
-        return area;
-    }
-
-    private Area getWriteableArea() {
-        if (getSize() == buffer.capacity()) return null;
-        Area area;
-        if (writeCursor >= readCursor) {
-            area = new Area(writeCursor, buffer.capacity() - writeCursor);
-        } else {
-            area = new Area(writeCursor, readCursor - writeCursor);
-        }
-        return area;
+        return (int) Math.max(writeCursor.get() - readCursor.get(), 0);
     }
 
     @Override
@@ -72,151 +71,158 @@ public class ByteQueue extends Queue<ByteBuffer, ByteBuffer> {
         int srcLimit = src.limit();
         while (src.remaining() > 0) {
             if (!canWrite) return;
-            while (getWriteableSize() == 0 && resize(computeNewCapacity(getSize() + src.remaining())) == getSize()) {
-                block();
-                if (!canWrite) return;
+            long write = writeCursor.get();
+            long free = maxCapacity - (write - writeCursor.cache);
+            if (free <= 0) {
+                writeCursor.cache = readCursor.get();
+                free = maxCapacity - (write - writeCursor.cache);
+                if (free <= 0) {
+                    awaitSpace(write);
+                    continue;
+                }
             }
-            Area area = getWriteableArea();
-            if (area == null) throw new IllegalStateException("no space to store data");
-            int writeBytes = Math.min(area.getSize(), src.remaining());
-            buffer.limit(area.getEnd());
-            buffer.position(area.getStart());
+            int offset = (int) (write & mask);
+            int writeBytes = (int) Math.min(Math.min(free, src.remaining()), buffer.capacity() - offset);
+            writeView.limit(offset + writeBytes);
+            writeView.position(offset);
             src.limit(src.position() + writeBytes);
-            buffer.put(src);
-            writeCursor = (writeCursor + writeBytes) % buffer.capacity();
-            totalEnqueueBytes += writeBytes;
+            writeView.put(src);
             src.limit(srcLimit);
-            wakeUp();
+            writeCursor.set(write + writeBytes);
+            wakeUp(waitingReader);
         }
+        notifyData();
     }
 
-    private int computeNewCapacity(int expectedNewCapacity) {
-        return Math.max(getCapacity() * 2, expectedNewCapacity);
+    /**
+     * @param listener run on the producer thread after every {@link #enqueue(Object)} and on
+     *                 {@link #close()}, must not block. Null to remove it.
+     */
+    public void setDataListener(Runnable listener) {
+        this.dataListener = listener;
     }
 
-    private boolean isFlushing() {
-        return !canWrite && canRead;
+    private void notifyData() {
+        Runnable listener = dataListener;
+        if (listener != null) listener.run();
     }
 
     @Override
     protected int doDequeue(ByteBuffer output) {
+        return read(output, true);
+    }
+
+    /**
+     * Like {@link #dequeue(Object)}, but returns 0 instead of waiting when the queue is empty.
+     * Check {@link #isClosed()} to tell an empty queue from a finished one.
+     */
+    public int poll(ByteBuffer output) {
+        return read(output, false);
+    }
+
+    private int read(ByteBuffer output, boolean wait) {
         if (output == null || output.remaining() <= 0) throw new IllegalArgumentException("illegal output buffer");
         if (!canRead) return 0;
-        while (getSize() == 0) {
+        long read = readCursor.get();
+        long available = readCursor.cache - read;
+        if (available <= 0) {
+            readCursor.cache = writeCursor.get();
+            available = readCursor.cache - read;
+        }
+        while (available <= 0) {
             if (!canWrite) {
-                canRead = false;
-                return 0;
+                //写端已关闭,写游标不会再变化
+                readCursor.cache = writeCursor.get();
+                available = readCursor.cache - read;
+                if (available <= 0) {
+                    canRead = false;
+                    return 0;
+                }
+                break;
             }
-            block();
+            if (!wait) return 0;
+            awaitData(read);
             if (!canRead) return 0;
+            readCursor.cache = writeCursor.get();
+            available = readCursor.cache - read;
         }
-        int maxSize = output.remaining();
-        int readSize = Math.min(maxSize, getSize());
         int start = output.position();
-        int totalReadSize = 0;
-        while (readSize > 0) {
-            if (!canRead) return totalReadSize;
-            Area area = getReadableArea();
-            if (area == null || area.getSize() <= 0 || getSize() <= 0) {
-                break;
-            }
-            int currentRead = Math.min(area.getSize(), output.remaining());
-            totalDequeueBytes += currentRead;
-            readCursor = (readCursor + currentRead) % buffer.capacity();
-            readSize -= currentRead;
-            buffer.limit(area.getStart() + currentRead);
-            buffer.position(area.getStart());
-            output.put(buffer);
-            totalReadSize += currentRead;
-            wakeUp();
+        int readSize = (int) Math.min(available, output.remaining());
+        int offset = (int) (read & mask);
+        int firstPart = Math.min(readSize, buffer.capacity() - offset);
+        readView.limit(offset + firstPart);
+        readView.position(offset);
+        output.put(readView);
+        if (readSize > firstPart) {
+            readView.limit(readSize - firstPart);
+            readView.position(0);
+            output.put(readView);
         }
-        output.limit(start + totalReadSize);
+        readCursor.set(read + readSize);
+        wakeUp(waitingWriter);
+        output.limit(start + readSize);
         output.position(start);
-        if (getSize() == 0 && !canWrite) {
+        if (!canWrite && writeCursor.get() == read + readSize) {
             canRead = false;
         }
-        return totalReadSize;
+        return readSize;
+    }
+
+    private void awaitSpace(long write) {
+        waitingWriter = Thread.currentThread();
+        if (canWrite && write - readCursor.get() >= maxCapacity) {
+            LockSupport.park(this);
+        }
+        waitingWriter = null;
+        Thread.interrupted();
+    }
+
+    private void awaitData(long read) {
+        waitingReader = Thread.currentThread();
+        if (canRead && canWrite && writeCursor.get() == read) {
+            LockSupport.park(this);
+        }
+        waitingReader = null;
+        Thread.interrupted();
+    }
+
+    private static void wakeUp(Thread waiter) {
+        if (waiter != null) LockSupport.unpark(waiter);
     }
 
     @Override
     protected int resize(int expectedCapacity) {
-        if (buffer.capacity() < maxCapacity) {
-            int newCapacity = Math.min(maxCapacity, expectedCapacity);//计算新的容量
-            ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
-            int migrateSize = getSize();
-            int newWriteCursor = migrateSize;
-            do {
-                Area area = getReadableArea();
-                if (area == null || area.getSize() == 0) break;
-                buffer.limit(area.getEnd());
-                buffer.position(area.getStart());
-                newBuffer.put(buffer);
-                migrateSize -= area.getSize();
-                readCursor = (readCursor + area.getSize()) % buffer.capacity();
-            } while (migrateSize > 0);
-            writeCursor = newWriteCursor;
-            readCursor = 0;
-            buffer = newBuffer;
-        }
-        return buffer.capacity();
+        return getCapacity();
     }
 
     @Override
     public void close() {
         super.close();
-        wakeUp();
+        wakeUp(waitingWriter);
+        wakeUp(waitingReader);
+        notifyData();
     }
 
     @Override
-    public synchronized void flush() {
+    public void flush() {
         super.flush();
-        wakeUp();
+        wakeUp(waitingWriter);
+        wakeUp(waitingReader);
     }
 
+    /**
+     * Discards everything currently buffered. Must be called from the consumer thread, or while
+     * neither side is running.
+     */
     @Override
-    public synchronized void clear() {
-        writeCursor=0;
-        readCursor=0;
-        totalDequeueBytes=0;
-        totalEnqueueBytes=0;
+    public void clear() {
+        long write = writeCursor.get();
+        readCursor.cache = write;
+        readCursor.set(write);
+        wakeUp(waitingWriter);
     }
 
     public int getInitialCapacity() {
         return initialCapacity;
     }
-
-    private static class Area {
-        private final int start;
-        private final int size;
-
-        public Area(int start, int size) {
-            this.start = start;
-            if (size <= 0)
-                throw new IllegalArgumentException("body_size must be more than 0");
-            this.size = size;
-        }
-
-        public int getStart() {
-            return start;
-        }
-
-        public int getEnd() {
-            return start + size;
-        }
-
-
-        public int getSize() {
-            return size;
-        }
-
-        @NonNull
-        @Override
-        public String toString() {
-            return "Area{" +
-                    "start=" + start +
-                    ", body_size=" + size +
-                    ", end=" + getEnd() +
-                    '}';
-        }
-    }
 }
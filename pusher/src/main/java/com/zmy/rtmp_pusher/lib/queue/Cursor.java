@@ -0,0 +1,17 @@
+package com.zmy.rtmp_pusher.lib.queue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ring buffer cursor that is written by exactly one thread.
+ * <p>
+ * {@link #cache} holds the owner's last observed value of the opposite cursor so the hot path only
+ * touches the other side's cache line when it runs out of room. The trailing fields pad the object
+ * to a cache line so the producer and consumer cursors never share one.
+ */
+final class Cursor extends AtomicLong {
+    private static final long serialVersionUID = 1L;
+    long cache;
+    @SuppressWarnings("unused")
+    long p1, p2, p3, p4, p5, p6;
+}
@@ -0,0 +1,5 @@
+package com.zmy.rtmp_pusher.lib.queue;
+
+public interface Deleter<T> {
+    void delete(T t);
+}
@@ -14,7 +14,7 @@ public class LinkedQueue<T> extends Queue<T, T[]> {
     }
 
     @Override
-    protected int doDequeue(T[] output) {
+    protected synchronized int doDequeue(T[] output) {
         if (!canRead) {
             return 0;
         }
@@ -32,7 +32,7 @@ public class LinkedQueue<T> extends Queue<T, T[]> {
     }
 
     @Override
-    protected void doEnqueue(T data) {
+    protected synchronized void doEnqueue(T data) {
         if (!canWrite) return;
         while (list.size() >= maxCapacity) {
             block();
@@ -83,8 +83,4 @@ public class LinkedQueue<T> extends Queue<T, T[]> {
         }
     }
 
-    public interface Deleter<T> {
-        void delete(T t);
-    }
-
 }
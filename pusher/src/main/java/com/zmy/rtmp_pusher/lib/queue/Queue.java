@@ -1,9 +1,9 @@
 package com.zmy.rtmp_pusher.lib.queue;
 
-public abstract class Queue<T, O> {
+public abstract class Queue<T, O> implements Sink<T> {
     protected int maxCapacity;
-    protected boolean canWrite = true;
-    protected boolean canRead = true;
+    protected volatile boolean canWrite = true;
+    protected volatile boolean canRead = true;
 
     public Queue(int maxCapacity) {
         if (maxCapacity <= 0)
@@ -11,11 +11,12 @@ public abstract class Queue<T, O> {
         this.maxCapacity = maxCapacity;
     }
 
-    public final synchronized void enqueue(T data) {
+    @Override
+    public final void enqueue(T data) {
         doEnqueue(data);
     }
 
-    public final synchronized int dequeue(O o) {
+    public final int dequeue(O o) {
         return doDequeue(o);
     }
 
@@ -45,6 +46,7 @@ public abstract class Queue<T, O> {
         notifyAll();
     }
 
+    @Override
     public synchronized void close() {
         canRead = false;
         canWrite = false;
@@ -54,6 +56,7 @@ public abstract class Queue<T, O> {
         return !canRead && !canWrite;
     }
 
+    @Override
     public synchronized void flush() {
         canWrite = false;
     }
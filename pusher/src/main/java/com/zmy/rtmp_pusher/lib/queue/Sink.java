@@ -0,0 +1,19 @@
+package com.zmy.rtmp_pusher.lib.queue;
+
+/**
+ * Write side of a {@link Queue}. Stages that only pass data on to another sink, and have nothing to
+ * dequeue, implement it directly.
+ */
+public interface Sink<T> {
+    void enqueue(T data);
+
+    /**
+     * Stops accepting data, what was accepted is still passed on.
+     */
+    void flush();
+
+    /**
+     * Stops accepting data and discards what was not passed on yet.
+     */
+    void close();
+}
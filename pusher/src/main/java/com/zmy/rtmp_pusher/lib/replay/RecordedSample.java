@@ -0,0 +1,74 @@
+package com.zmy.rtmp_pusher.lib.replay;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One record of a session file, reused by {@link SessionReader#next(RecordedSample)}.
+ */
+public class RecordedSample {
+    public static final int KIND_VIDEO_FORMAT = 1;
+    public static final int KIND_AUDIO_FORMAT = 2;
+    public static final int KIND_VIDEO = 3;
+    public static final int KIND_AUDIO = 4;
+
+    int kind;
+    boolean keyFrame;
+    long presentationTimeUs;
+    //direct buffer,可以直接交给native创建RtmpPacket
+    ByteBuffer data = ByteBuffer.allocateDirect(64 * 1024);
+
+    int width;
+    int height;
+    ByteBuffer sps;
+    ByteBuffer pps;
+    ByteBuffer audioSpecificConfig;
+    int sampleRate;
+    int channelCount;
+
+    public int getKind() {
+        return kind;
+    }
+
+    public boolean isKeyFrame() {
+        return keyFrame;
+    }
+
+    public long getPresentationTimeUs() {
+        return presentationTimeUs;
+    }
+
+    /**
+     * @return the access unit of a media sample, valid until the next read
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public ByteBuffer getSps() {
+        return sps;
+    }
+
+    public ByteBuffer getPps() {
+        return pps;
+    }
+
+    public ByteBuffer getAudioSpecificConfig() {
+        return audioSpecificConfig;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+}
@@ -0,0 +1,143 @@
+package com.zmy.rtmp_pusher.lib.replay;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.zmy.rtmp_pusher.lib.abr.LinkMonitor;
+import com.zmy.rtmp_pusher.lib.queue.Queue;
+import com.zmy.rtmp_pusher.lib.util.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Samples a {@link LinkMonitor} at a fixed interval during a replay and keeps the series, so a run
+ * shows how throughput, queue depth and drops developed over time and not only the totals.
+ */
+public class ReplayStats {
+    private final LinkMonitor monitor;
+    private final Queue<?, ?> queue;
+    private final long intervalMs;
+    private final List<Interval> intervals = new ArrayList<>();
+    private SampleThread sampleThread;
+
+    private long startMs = -1;
+    private long lastSampleMs;
+    private long lastSentBytes;
+
+    /**
+     * @param queue the pusher's input queue, to report its depth in packets
+     */
+    public ReplayStats(@NonNull LinkMonitor monitor, @Nullable Queue<?, ?> queue, long intervalMs) {
+        if (intervalMs <= 0) throw new IllegalArgumentException("intervalMs must be more than 0");
+        this.monitor = monitor;
+        this.queue = queue;
+        this.intervalMs = intervalMs;
+    }
+
+    synchronized void sample(long nowMs) {
+        long sentBytes = monitor.getSentBytes();
+        if (startMs < 0) {
+            startMs = nowMs;
+        } else {
+            long elapsedMs = Math.max(nowMs - lastSampleMs, 1);
+            intervals.add(new Interval(nowMs - startMs, (sentBytes - lastSentBytes) * 8 / elapsedMs,
+                    queue != null ? queue.getSize() : 0, monitor.getQueuedBytes(), monitor.getQueueDelayMs(),
+                    monitor.getDroppedFrames()));
+        }
+        lastSampleMs = nowMs;
+        lastSentBytes = sentBytes;
+    }
+
+    public synchronized void start() {
+        if (sampleThread != null) sampleThread.exit();
+        intervals.clear();
+        startMs = -1;
+        sample(System.nanoTime() / 1000000);
+        sampleThread = new SampleThread();
+        sampleThread.start();
+    }
+
+    /**
+     * Stops sampling and takes a last sample for the time since the previous one.
+     */
+    public void stop() {
+        SampleThread thread;
+        synchronized (this) {
+            thread = sampleThread;
+            sampleThread = null;
+        }
+        if (thread != null) {
+            thread.exit();
+            sample(System.nanoTime() / 1000000);
+        }
+    }
+
+    public synchronized List<Interval> getIntervals() {
+        return new ArrayList<>(intervals);
+    }
+
+    /**
+     * @param transport adds the send latency percentiles when not null
+     * @return a table of the intervals followed by the totals
+     */
+    public synchronized String report(@Nullable TimingTransport transport) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("    timeMs    kbps  queue  queuedBytes  delayMs  dropped\n");
+        long maxQueue = 0;
+        long maxQueuedBytes = 0;
+        for (Interval interval : intervals) {
+            builder.append(String.format(Locale.US, "%10d %7d %6d %12d %8d %8d\n", interval.timeMs, interval.kbps,
+                    interval.queueSize, interval.queuedBytes, interval.queueDelayMs, interval.droppedFrames));
+            maxQueue = Math.max(maxQueue, interval.queueSize);
+            maxQueuedBytes = Math.max(maxQueuedBytes, interval.queuedBytes);
+        }
+        long durationMs = Math.max(lastSampleMs - startMs, 1);
+        builder.append(String.format(Locale.US, "sent %d bytes in %dms, %d kbps, max queue %d packets/%d bytes, dropped %d frames",
+                monitor.getSentBytes(), durationMs, monitor.getSentBytes() * 8 / durationMs, maxQueue, maxQueuedBytes,
+                monitor.getDroppedFrames()));
+        if (transport != null) {
+            builder.append(String.format(Locale.US, "\n%d sends, latency p50 %dus p90 %dus p99 %dus max %dus",
+                    transport.getSends(), transport.getSendLatencyNanos(50) / 1000, transport.getSendLatencyNanos(90) / 1000,
+                    transport.getSendLatencyNanos(99) / 1000, transport.getSendLatencyNanos(100) / 1000));
+        }
+        return builder.toString();
+    }
+
+    public static class Interval {
+        public final long timeMs;
+        public final long kbps;
+        public final int queueSize;
+        public final long queuedBytes;
+        public final long queueDelayMs;
+        //累计值
+        public final long droppedFrames;
+
+        Interval(long timeMs, long kbps, int queueSize, long queuedBytes, long queueDelayMs, long droppedFrames) {
+            this.timeMs = timeMs;
+            this.kbps = kbps;
+            this.queueSize = queueSize;
+            this.queuedBytes = queuedBytes;
+            this.queueDelayMs = queueDelayMs;
+            this.droppedFrames = droppedFrames;
+        }
+    }
+
+    class SampleThread extends WorkerThread {
+        public SampleThread() {
+            super("ReplayStatsThread");
+        }
+
+        @Override
+        protected boolean doMain() {
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return true;
+            }
+            sample(System.nanoTime() / 1000000);
+            return false;
+        }
+    }
+}
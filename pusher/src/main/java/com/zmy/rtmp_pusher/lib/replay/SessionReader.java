@@ -0,0 +1,116 @@
+package com.zmy.rtmp_pusher.lib.replay;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a session file written by {@link SessionWriter}. Not thread safe.
+ */
+public class SessionReader {
+    private final DataInputStream in;
+    private byte[] scratch = new byte[64 * 1024];
+    private long lastVideoPtsUs = 0;
+    private long lastAudioPtsUs = 0;
+
+    public SessionReader(@NonNull File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        if (in.readInt() != SessionWriter.MAGIC) {
+            in.close();
+            throw new IOException("not a session file: " + file);
+        }
+    }
+
+    /**
+     * Reads the next record into {@code sample}.
+     *
+     * @return false at the end of the file
+     */
+    public boolean next(@NonNull RecordedSample sample) throws IOException {
+        int kind = in.read();
+        if (kind < 0) return false;
+        int flags = in.readUnsignedByte();
+        long zigzag = readVarint();
+        long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+        int size = (int) readVarint();
+        if (scratch.length < size) scratch = new byte[Math.max(size, scratch.length * 2)];
+        in.readFully(scratch, 0, size);
+        if (sample.data.capacity() < size) sample.data = ByteBuffer.allocateDirect(Math.max(size, sample.data.capacity() * 2));
+        sample.data.clear();
+        sample.data.put(scratch, 0, size).flip();
+        sample.kind = kind;
+        sample.keyFrame = (flags & SessionWriter.FLAG_KEY_FRAME) != 0;
+        switch (kind) {
+            case RecordedSample.KIND_VIDEO:
+                lastVideoPtsUs += delta;
+                sample.presentationTimeUs = lastVideoPtsUs;
+                break;
+            case RecordedSample.KIND_AUDIO:
+                lastAudioPtsUs += delta;
+                sample.presentationTimeUs = lastAudioPtsUs;
+                break;
+            case RecordedSample.KIND_VIDEO_FORMAT:
+                sample.presentationTimeUs = 0;
+                readVideoFormat(sample);
+                break;
+            case RecordedSample.KIND_AUDIO_FORMAT:
+                sample.presentationTimeUs = 0;
+                sample.sampleRate = getVarint(sample.data);
+                sample.channelCount = getVarint(sample.data);
+                //剩下的是AudioSpecificConfig
+                sample.audioSpecificConfig = sample.data.slice();
+                break;
+            default:
+                throw new IOException("unknown record kind " + kind);
+        }
+        return true;
+    }
+
+    private static void readVideoFormat(RecordedSample sample) {
+        ByteBuffer data = sample.data;
+        sample.width = getVarint(data);
+        sample.height = getVarint(data);
+        int spsLength = getVarint(data);
+        sample.sps = slice(data, spsLength);
+        int ppsLength = getVarint(data);
+        sample.pps = slice(data, ppsLength);
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int length) {
+        ByteBuffer slice = data.slice();
+        slice.limit(length);
+        data.position(data.position() + length);
+        return slice;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("truncated record");
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static int getVarint(ByteBuffer data) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = data.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        return value;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
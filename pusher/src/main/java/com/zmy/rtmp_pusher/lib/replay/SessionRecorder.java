@@ -0,0 +1,93 @@
+package com.zmy.rtmp_pusher.lib.replay;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.encoder.AVCEncoder;
+import com.zmy.rtmp_pusher.lib.encoder.EncodedSampleListener;
+import com.zmy.rtmp_pusher.lib.encoder.IEncoder;
+import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records the output of both encoders to a session file that {@link SessionReplayer} can push
+ * again later. Register it with
+ * {@link com.zmy.rtmp_pusher.lib.RtmpPusher.Builder#sampleListener(EncodedSampleListener)}.
+ * <p>
+ * After the first write error nothing more is recorded, the stream itself is not affected.
+ */
+public class SessionRecorder implements EncodedSampleListener {
+    private static final String TAG = SessionRecorder.class.getSimpleName();
+    private static final String MIME_AVC = "video/avc";
+    private static final String MIME_AAC = "audio/mp4a-latm";
+
+    private final SessionWriter writer;
+    private boolean failed = false;
+    private boolean closed = false;
+
+    public SessionRecorder(@NonNull File file) throws IOException {
+        this.writer = new SessionWriter(file);
+    }
+
+    @Override
+    public synchronized void onOutputFormatChanged(IEncoder encoder, MediaFormat format) {
+        if (failed || closed) return;
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        try {
+            if (MIME_AVC.equals(mime)) {
+                writer.writeVideoFormat(format.getByteBuffer("csd-0"), format.getByteBuffer("csd-1"),
+                        format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT));
+            } else if (MIME_AAC.equals(mime)) {
+                writer.writeAudioFormat(format.getByteBuffer("csd-0"),
+                        format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+            } else {
+                RtmpLogManager.w(TAG, "unsupported format " + mime);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public synchronized void onSample(IEncoder encoder, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        //两个编码器线程都会调用,配置数据已经从MediaFormat里拿到了
+        if (failed || closed || info.size <= 0 || (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) return;
+        try {
+            if (encoder instanceof AVCEncoder) {
+                boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                writer.writeVideo(buffer, info.offset, info.size, info.presentationTimeUs, keyFrame);
+            } else {
+                writer.writeAudio(buffer, info.offset, info.size, info.presentationTimeUs);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        RtmpLogManager.e(TAG, "fail to record session", e);
+    }
+
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    public synchronized long getRecords() {
+        return writer.getRecords();
+    }
+
+    /**
+     * Closes the file, call it once both encoders are released.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        writer.close();
+    }
+}
@@ -0,0 +1,131 @@
+package com.zmy.rtmp_pusher.lib.replay;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.queue.Sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Pushes a session recorded by {@link SessionRecorder} into a packet queue, building the packets
+ * the same way the encoders do. Put it in front of whatever the encoders feed, usually a
+ * {@link com.zmy.rtmp_pusher.lib.encoder.TimestampNormalizer}, to load the send path with a real
+ * stream without camera or codec.
+ * <p>
+ * The samples keep their recorded timestamps, only the pace changes: at {@code speed} 1 they are
+ * enqueued in real time, at 4 four times as fast, at 0 as fast as the queue takes them.
+ */
+public class SessionReplayer {
+    //AACEncoder只接受8位和16位PCM,FLV里AAC总是标成16位
+    private static final int AAC_BYTES_PER_SAMPLE = 2;
+
+    private final File file;
+    private final Sink<RtmpPacket> output;
+    private final float speed;
+
+    private volatile long packets = 0;
+    private volatile long bytes = 0;
+    private volatile long maxLagMs = 0;
+    private volatile boolean stopped = false;
+
+    public SessionReplayer(@NonNull File file, @NonNull Sink<RtmpPacket> output, float speed) {
+        if (speed < 0) throw new IllegalArgumentException("speed must not be negative");
+        this.file = file;
+        this.output = output;
+        this.speed = speed;
+    }
+
+    /**
+     * Replays the whole file on the calling thread, returns when it is done or {@link #stop()} was
+     * called. The output queue is left open.
+     *
+     * @return the number of packets enqueued
+     */
+    public long replay() throws IOException, InterruptedException {
+        SessionReader reader = new SessionReader(file);
+        try {
+            RecordedSample sample = new RecordedSample();
+            int sampleRate = 0;
+            int channelCount = 0;
+            long firstPtsUs = -1;
+            long startNanos = System.nanoTime();
+            while (!stopped && reader.next(sample)) {
+                ByteBuffer data = sample.getData();
+                RtmpPacket packet;
+                switch (sample.getKind()) {
+                    case RecordedSample.KIND_VIDEO_FORMAT:
+                        ByteBuffer sps = sample.getSps();
+                        ByteBuffer pps = sample.getPps();
+                        packet = RtmpPacket.createForSpsPps(sps, 0, sps.remaining(), pps, 0, pps.remaining());
+                        break;
+                    case RecordedSample.KIND_AUDIO_FORMAT:
+                        sampleRate = sample.getSampleRate();
+                        channelCount = sample.getChannelCount();
+                        ByteBuffer config = sample.getAudioSpecificConfig();
+                        packet = RtmpPacket.createForAudio(config, 0, config.remaining(), RtmpPacket.NO_TIMESTAMP,
+                                sampleRate, channelCount, AAC_BYTES_PER_SAMPLE, true);
+                        break;
+                    case RecordedSample.KIND_VIDEO:
+                        if (firstPtsUs < 0) firstPtsUs = sample.getPresentationTimeUs();
+                        pace(sample.getPresentationTimeUs() - firstPtsUs, startNanos);
+                        packet = RtmpPacket.createForVideo(data, 0, data.remaining(), sample.getPresentationTimeUs(), sample.isKeyFrame());
+                        break;
+                    case RecordedSample.KIND_AUDIO:
+                        if (sampleRate == 0) throw new IOException("audio before its format");
+                        if (firstPtsUs < 0) firstPtsUs = sample.getPresentationTimeUs();
+                        pace(sample.getPresentationTimeUs() - firstPtsUs, startNanos);
+                        packet = RtmpPacket.createForAudio(data, 0, data.remaining(), sample.getPresentationTimeUs(),
+                                sampleRate, channelCount, AAC_BYTES_PER_SAMPLE, false);
+                        break;
+                    default:
+                        continue;
+                }
+                bytes += packet.getSize();
+                output.enqueue(packet);
+                packets++;
+            }
+            return packets;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void pace(long mediaUs, long startNanos) throws InterruptedException {
+        if (speed == 0) return;
+        long dueNanos = startNanos + (long) (mediaUs * 1000 / speed);
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        } else {
+            //入队被阻塞或者线程调度不及时,记录落后了多少
+            long lagMs = -waitNanos / 1000000;
+            if (lagMs > maxLagMs) maxLagMs = lagMs;
+        }
+    }
+
+    /**
+     * Makes {@link #replay()} return after the current sample.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return how far enqueueing fell behind the requested pace at worst, e.g. because the queue
+     * blocked
+     */
+    public long getMaxLagMs() {
+        return maxLagMs;
+    }
+}
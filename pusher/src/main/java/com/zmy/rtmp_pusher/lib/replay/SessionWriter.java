@@ -0,0 +1,109 @@
+package com.zmy.rtmp_pusher.lib.replay;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes encoded access units to a compact session file, read back by {@link SessionReader}.
+ * <p>
+ * Every record is {@code kind(1) flags(1) ptsDelta(varint) size(varint) payload}. Timestamps are
+ * zigzag encoded deltas to the previous sample of the same track, so a record costs 4 to 6 bytes
+ * on top of its payload. Not thread safe.
+ */
+public class SessionWriter {
+    static final int MAGIC = 0x52505331;
+    static final int FLAG_KEY_FRAME = 1;
+
+    private final DataOutputStream out;
+    private final ByteBuffer formatBuffer = ByteBuffer.allocate(1024);
+    private byte[] scratch = new byte[64 * 1024];
+    private long lastVideoPtsUs = 0;
+    private long lastAudioPtsUs = 0;
+    private long records = 0;
+
+    public SessionWriter(@NonNull File file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+    }
+
+    /**
+     * @param sps sequence parameter set as the encoder emits it, with its start code
+     * @param pps picture parameter set as the encoder emits it, with its start code
+     */
+    public void writeVideoFormat(@NonNull ByteBuffer sps, @NonNull ByteBuffer pps, int width, int height) throws IOException {
+        formatBuffer.clear();
+        putVarint(formatBuffer, width);
+        putVarint(formatBuffer, height);
+        putVarint(formatBuffer, sps.remaining());
+        formatBuffer.put(sps.duplicate());
+        putVarint(formatBuffer, pps.remaining());
+        formatBuffer.put(pps.duplicate());
+        formatBuffer.flip();
+        writeRecord(RecordedSample.KIND_VIDEO_FORMAT, 0, 0, formatBuffer, 0, formatBuffer.limit());
+    }
+
+    public void writeAudioFormat(@NonNull ByteBuffer audioSpecificConfig, int sampleRate, int channelCount) throws IOException {
+        formatBuffer.clear();
+        putVarint(formatBuffer, sampleRate);
+        putVarint(formatBuffer, channelCount);
+        formatBuffer.put(audioSpecificConfig.duplicate());
+        formatBuffer.flip();
+        writeRecord(RecordedSample.KIND_AUDIO_FORMAT, 0, 0, formatBuffer, 0, formatBuffer.limit());
+    }
+
+    public void writeVideo(@NonNull ByteBuffer data, int offset, int size, long presentationTimeUs, boolean keyFrame) throws IOException {
+        long delta = presentationTimeUs - lastVideoPtsUs;
+        lastVideoPtsUs = presentationTimeUs;
+        writeRecord(RecordedSample.KIND_VIDEO, keyFrame ? FLAG_KEY_FRAME : 0, delta, data, offset, size);
+    }
+
+    public void writeAudio(@NonNull ByteBuffer data, int offset, int size, long presentationTimeUs) throws IOException {
+        long delta = presentationTimeUs - lastAudioPtsUs;
+        lastAudioPtsUs = presentationTimeUs;
+        writeRecord(RecordedSample.KIND_AUDIO, 0, delta, data, offset, size);
+    }
+
+    private void writeRecord(int kind, int flags, long ptsDelta, ByteBuffer data, int offset, int size) throws IOException {
+        out.writeByte(kind);
+        out.writeByte(flags);
+        writeVarint((ptsDelta << 1) ^ (ptsDelta >> 63));
+        writeVarint(size);
+        if (scratch.length < size) scratch = new byte[Math.max(size, scratch.length * 2)];
+        //复制一份视图读取,不改变调用方buffer的position
+        ByteBuffer src = data.duplicate();
+        src.limit(offset + size).position(offset);
+        src.get(scratch, 0, size);
+        out.write(scratch, 0, size);
+        records++;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
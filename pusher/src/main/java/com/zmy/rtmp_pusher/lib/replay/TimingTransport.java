@@ -0,0 +1,137 @@
+package com.zmy.rtmp_pusher.lib.replay;
+
+import androidx.annotation.NonNull;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.transport.Transport;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Wraps a {@link Transport} and measures how long every {@link #send(RtmpPacket[], int)} takes.
+ * The last {@code capacity} durations are kept in a ring for the percentiles.
+ */
+public class TimingTransport implements Transport {
+    private final Transport transport;
+    private final long[] sendNanos;
+    //只在发送线程写,读的时候加锁拷贝
+    private int next = 0;
+    private long sends = 0;
+    private long sentPackets = 0;
+
+    public TimingTransport(@NonNull Transport transport, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.transport = transport;
+        this.sendNanos = new long[capacity];
+    }
+
+    @Override
+    public String getUrl() {
+        return transport.getUrl();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        transport.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return transport.isConnected();
+    }
+
+    @Override
+    public void send(RtmpPacket[] packets, int count) throws IOException {
+        long start = System.nanoTime();
+        transport.send(packets, count);
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            sendNanos[next] = elapsed;
+            next = (next + 1) % sendNanos.length;
+            sends++;
+            sentPackets += count;
+        }
+    }
+
+    @Override
+    public void setChunkSize(int chunkSize) {
+        transport.setChunkSize(chunkSize);
+    }
+
+    @Override
+    public long getWriteCalls() {
+        return transport.getWriteCalls();
+    }
+
+    @Override
+    public long getHeaderBytes() {
+        return transport.getHeaderBytes();
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return transport.getWrittenBytes();
+    }
+
+    @Override
+    public void abort() {
+        transport.abort();
+    }
+
+    @Override
+    public void close() {
+        transport.close();
+    }
+
+    public synchronized long getSends() {
+        return sends;
+    }
+
+    public synchronized long getSentPackets() {
+        return sentPackets;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the send duration at {@code percentile} over the kept sends, 0 if there were none
+     */
+    public long getSendLatencyNanos(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            int size = (int) Math.min(sends, sendNanos.length);
+            if (size == 0) return 0;
+            sorted = Arrays.copyOf(sendNanos, size);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * Creates {@link TimingTransport}s around the transports of another factory and remembers the
+     * last one, so a test can read its numbers after handing the factory to a
+     * {@link com.zmy.rtmp_pusher.lib.pusher.Pusher}.
+     */
+    public static class Factory implements Transport.Factory {
+        private final Transport.Factory factory;
+        private final int capacity;
+        private volatile TimingTransport last;
+
+        public Factory(@NonNull Transport.Factory factory, int capacity) {
+            this.factory = factory;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public Transport create(String url) throws IOException {
+            TimingTransport transport = new TimingTransport(factory.create(url), capacity);
+            last = transport;
+            return transport;
+        }
+
+        public TimingTransport getLast() {
+            return last;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.zmy.rtmp_pusher.lib.trace;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Follows video frames from the camera to the socket and keeps when each of them passed every
+ * stage, for the last {@code capacity} frames.
+ * <p>
+ * The encoder opens a record per frame with {@link #begin(long, int, boolean)}. The capture time
+ * is the frame's presentation time, which MediaCodec takes over from the camera's buffer timestamp
+ * on the surface input path. The packet then carries the record's id and every stage stamps it
+ * with {@link #mark(long, int, long)}. With several outputs the first one to reach a stage wins.
+ * Recording takes no locks and never allocates, a frame whose record was already reused is just
+ * not stamped anymore.
+ * <p>
+ * {@link #writeChromeTrace(Writer)} exports the records as Chrome trace events, to be opened in
+ * {@code chrome://tracing} or Perfetto. Every stage is a row, every frame a slice in each row.
+ */
+public class FrameTracer {
+    public static final int STAGE_CAPTURED = 0;
+    /**
+     * The encoder handed the frame out.
+     */
+    public static final int STAGE_ENCODED = 1;
+    /**
+     * The native packet was built.
+     */
+    public static final int STAGE_PACKETIZED = 2;
+    /**
+     * Through timestamp normalization and interleaving, into a send queue.
+     */
+    public static final int STAGE_ENQUEUED = 3;
+    /**
+     * Taken by a push thread.
+     */
+    public static final int STAGE_DEQUEUED = 4;
+    /**
+     * The transport's send returned.
+     */
+    public static final int STAGE_SENT = 5;
+    static final int STAGES = 6;
+
+    //每一段的名字,对应stage i-1到i
+    private static final String[] SPANS = {"frame", "encode", "packetize", "interleave", "send queue", "send"};
+
+    private final int mask;
+    private final AtomicLong nextId = new AtomicLong();
+    //每条记录当前属于哪一帧,-1表示还没用过
+    private final AtomicLongArray ids;
+    private final AtomicLongArray stamps;
+    private final long[] presentationTimeUs;
+    private final int[] sizes;
+    private final boolean[] keyFrames;
+
+    /**
+     * @param capacity frames kept, rounded up to a power of two
+     */
+    public FrameTracer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be more than 0");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        mask = size - 1;
+        ids = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            ids.set(i, -1);
+        }
+        stamps = new AtomicLongArray(size * STAGES);
+        presentationTimeUs = new long[size];
+        sizes = new int[size];
+        keyFrames = new boolean[size];
+    }
+
+    /**
+     * Opens the record of a frame leaving the encoder, stamped captured at its presentation time
+     * and encoded now.
+     *
+     * @return the id the later stages pass to {@link #mark(long, int, long)}
+     */
+    public long begin(long presentationTimeUs, int size, boolean keyFrame) {
+        long id = nextId.getAndIncrement();
+        int index = (int) (id & mask);
+        //先作废旧记录,再清空
+        ids.set(index, -1);
+        for (int stage = 0; stage < STAGES; stage++) {
+            stamps.set(index * STAGES + stage, 0);
+        }
+        this.presentationTimeUs[index] = presentationTimeUs;
+        sizes[index] = size;
+        keyFrames[index] = keyFrame;
+        stamps.set(index * STAGES + STAGE_CAPTURED, presentationTimeUs * 1000);
+        stamps.set(index * STAGES + STAGE_ENCODED, System.nanoTime());
+        ids.set(index, id);
+        return id;
+    }
+
+    /**
+     * @param nanos {@link System#nanoTime()} when the frame passed {@code stage}
+     */
+    public void mark(long id, int stage, long nanos) {
+        int index = (int) (id & mask);
+        if (ids.get(index) != id) return;
+        stamps.compareAndSet(index * STAGES + stage, 0, nanos);
+    }
+
+    /**
+     * @return how many frames were traced since the tracer was created
+     */
+    public long getFrameCount() {
+        return nextId.get();
+    }
+
+    /**
+     * Writes the kept frames as a Chrome trace-event JSON object. Frames still on their way only
+     * show the stages they passed.
+     */
+    public void writeChromeTrace(@NonNull Writer writer) throws IOException {
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        for (int stage = 0; stage < STAGES; stage++) {
+            if (stage > 0) writer.write(',');
+            writer.write(String.format(Locale.US,
+                    "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                    stage, SPANS[stage]));
+        }
+        long last = nextId.get() - 1;
+        long first = Math.max(0, last - mask);
+        for (long id = first; id <= last; id++) {
+            writeFrame(writer, id);
+        }
+        writer.write("]}");
+        writer.flush();
+    }
+
+    private void writeFrame(Writer writer, long id) throws IOException {
+        int index = (int) (id & mask);
+        if (ids.get(index) != id) return;
+        long[] frame = new long[STAGES];
+        for (int stage = 0; stage < STAGES; stage++) {
+            frame[stage] = stamps.get(index * STAGES + stage);
+        }
+        long ptsUs = presentationTimeUs[index];
+        int size = sizes[index];
+        boolean keyFrame = keyFrames[index];
+        //读的过程中被新的帧覆盖了
+        if (ids.get(index) != id) return;
+
+        String args = String.format(Locale.US, "{\"frame\":%d,\"ptsUs\":%d,\"size\":%d,\"keyFrame\":%b}", id, ptsUs, size, keyFrame);
+        int lastStage = STAGE_CAPTURED;
+        for (int stage = STAGE_ENCODED; stage < STAGES; stage++) {
+            if (frame[stage] == 0) break;
+            writeSlice(writer, SPANS[stage], stage, frame[stage - 1], frame[stage], args);
+            lastStage = stage;
+        }
+        //整条链路的耗时单独一行
+        if (lastStage > STAGE_CAPTURED) {
+            writeSlice(writer, keyFrame ? "key frame" : "frame", STAGE_CAPTURED, frame[STAGE_CAPTURED], frame[lastStage], args);
+        }
+    }
+
+    private static void writeSlice(Writer writer, String name, int tid, long startNanos, long endNanos, String args) throws IOException {
+        //相机时间戳和System.nanoTime()不是同一个时钟时,不输出负的时长
+        long durationNanos = Math.max(endNanos - startNanos, 0);
+        writer.write(String.format(Locale.US,
+                ",{\"name\":\"%s\",\"cat\":\"video\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f,\"args\":%s}",
+                name, tid, startNanos / 1000.0, durationNanos / 1000.0, args));
+    }
+
+    /**
+     * Writes {@link #writeChromeTrace(Writer)} to {@code file}.
+     */
+    public void exportChromeTrace(@NonNull File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")));
+        try {
+            writeChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
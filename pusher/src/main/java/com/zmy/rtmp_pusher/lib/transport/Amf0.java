@@ -0,0 +1,152 @@
+package com.zmy.rtmp_pusher.lib.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The part of AMF0 the RTMP commands of a publisher need.
+ */
+class Amf0 {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int NUMBER = 0x00;
+    private static final int BOOLEAN = 0x01;
+    private static final int STRING = 0x02;
+    private static final int OBJECT = 0x03;
+    private static final int NULL = 0x05;
+    private static final int UNDEFINED = 0x06;
+    private static final int ECMA_ARRAY = 0x08;
+    private static final int OBJECT_END = 0x09;
+    private static final int STRICT_ARRAY = 0x0a;
+    private static final int LONG_STRING = 0x0c;
+
+    private Amf0() {
+    }
+
+    static class Writer {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+        Writer writeString(String value) {
+            buffer.write(STRING);
+            writeRawString(value);
+            return this;
+        }
+
+        Writer writeNumber(double value) {
+            buffer.write(NUMBER);
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 7; i >= 0; i--) {
+                buffer.write((int) (bits >>> (i * 8)));
+            }
+            return this;
+        }
+
+        Writer writeNull() {
+            buffer.write(NULL);
+            return this;
+        }
+
+        Writer beginObject() {
+            buffer.write(OBJECT);
+            return this;
+        }
+
+        Writer writeProperty(String name, String value) {
+            writeRawString(name);
+            return writeString(value);
+        }
+
+        Writer writeProperty(String name, double value) {
+            writeRawString(name);
+            return writeNumber(value);
+        }
+
+        Writer endObject() {
+            buffer.write(0);
+            buffer.write(0);
+            buffer.write(OBJECT_END);
+            return this;
+        }
+
+        private void writeRawString(String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            buffer.write(bytes.length >> 8);
+            buffer.write(bytes.length);
+            buffer.write(bytes, 0, bytes.length);
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+
+    /**
+     * @return every value of the message, objects as {@link Map}s, numbers as {@link Double}s
+     */
+    static List<Object> readAll(byte[] message) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(message);
+        List<Object> values = new ArrayList<>();
+        try {
+            while (in.hasRemaining()) {
+                values.add(readValue(in));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated amf0 message");
+        }
+        return values;
+    }
+
+    private static Object readValue(ByteBuffer in) throws IOException {
+        int marker = in.get() & 0xff;
+        switch (marker) {
+            case NUMBER:
+                return in.getDouble();
+            case BOOLEAN:
+                return in.get() != 0;
+            case STRING:
+                return readRawString(in, in.getShort() & 0xffff);
+            case LONG_STRING:
+                return readRawString(in, in.getInt());
+            case OBJECT:
+                return readProperties(in);
+            case ECMA_ARRAY:
+                in.getInt();
+                return readProperties(in);
+            case STRICT_ARRAY: {
+                int count = in.getInt();
+                List<Object> list = new ArrayList<>();
+                for (int i = 0; i < count; i++) list.add(readValue(in));
+                return list;
+            }
+            case NULL:
+            case UNDEFINED:
+                return null;
+            default:
+                throw new IOException("unsupported amf0 marker " + marker);
+        }
+    }
+
+    private static Map<String, Object> readProperties(ByteBuffer in) throws IOException {
+        Map<String, Object> properties = new HashMap<>();
+        while (true) {
+            String name = readRawString(in, in.getShort() & 0xffff);
+            if (name.isEmpty() && in.get(in.position()) == OBJECT_END) {
+                in.get();
+                return properties;
+            }
+            properties.put(name, readValue(in));
+        }
+    }
+
+    private static String readRawString(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,134 @@
+package com.zmy.rtmp_pusher.lib.transport;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.exception.Err;
+
+import java.io.IOException;
+
+/**
+ * Transport on top of librtmp. Supports every protocol librtmp does (rtmp, rtmpt, rtmpe, rtmps),
+ * plain rtmp is sent with the native scatter-gather writer.
+ */
+public class NativeTransport implements Transport {
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public Transport create(String url) throws IOException {
+            return new NativeTransport(url);
+        }
+    };
+
+    private final String url;
+    //每次批量发送的handle,复用避免分配
+    private long[] handles = new long[64];
+    private final long[] stats = new long[3];
+    //abort()在其他线程读
+    private volatile long handle;
+
+    public NativeTransport(String url) throws IOException {
+        this.url = url;
+        handle = native_new_instance(url);
+        if (handle == 0) {
+            throw new IOException("fail to alloc native pusher");
+        }
+    }
+
+    @Override
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (handle == 0) throw new IOException("transport is closed");
+        if (!native_init(handle)) {
+            throw new IOException("fail to init pusher");
+        }
+        if (!native_connect(handle)) {
+            throw new IOException("fail to connect to server,errno=" + Err.errno() + ",desc=" + Err.errDescribe(Err.errno()));
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return handle != 0 && native_is_connected(handle);
+    }
+
+    @Override
+    public void send(RtmpPacket[] packets, int count) throws IOException {
+        if (handle == 0) throw new IOException("transport is closed");
+        if (count == 0) return;
+        if (handles.length < count) handles = new long[count];
+        for (int i = 0; i < count; i++) {
+            handles[i] = packets[i].getHandle();
+        }
+        int sent = native_push_batch(handle, handles, count);
+        if (sent < count) {
+            throw new IOException("fail to push " + (count - sent) + "/" + count + " packets,errno=" + Err.errno() + ",desc=" + Err.errDescribe(Err.errno()));
+        }
+    }
+
+    @Override
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1 || chunkSize > 0xffffff) throw new IllegalArgumentException("chunkSize must be in [1, 16777215]");
+        if (handle != 0) native_set_chunk_size(handle, chunkSize);
+    }
+
+    /**
+     * Only counts the direct writer used for plain rtmp, not what goes through librtmp.
+     */
+    @Override
+    public long getWriteCalls() {
+        return readStats()[0];
+    }
+
+    @Override
+    public long getHeaderBytes() {
+        return readStats()[1];
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return readStats()[2];
+    }
+
+    private long[] readStats() {
+        if (handle != 0) native_get_send_stats(handle, stats);
+        return stats;
+    }
+
+    /**
+     * Shuts the socket down once it is connected. A TCP connect in progress can not be
+     * interrupted, it fails by its own timeout.
+     */
+    @Override
+    public void abort() {
+        long handle = this.handle;
+        if (handle != 0) native_abort(handle);
+    }
+
+    @Override
+    public void close() {
+        if (handle != 0) {
+            native_release(handle);
+            handle = 0;
+        }
+    }
+
+    private static native long native_new_instance(String url);
+
+    private static native boolean native_init(long handle);
+
+    private static native boolean native_connect(long handle);
+
+    private static native int native_push_batch(long handle, long[] packets, int count);
+
+    private static native void native_release(long handle);
+
+    private static native boolean native_is_connected(long handle);
+
+    private static native void native_set_chunk_size(long handle, int size);
+
+    private static native void native_get_send_stats(long handle, long[] out);
+
+    private static native void native_abort(long handle);
+}
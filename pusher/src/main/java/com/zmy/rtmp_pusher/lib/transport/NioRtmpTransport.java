@@ -0,0 +1,650 @@
+package com.zmy.rtmp_pusher.lib.transport;
+
+import androidx.annotation.Nullable;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Pure Java RTMP publisher on a non-blocking {@link SocketChannel}.
+ * <p>
+ * Messages are chunked straight into one direct write buffer, which is written out when it fills
+ * up and once per {@link #send(RtmpPacket[], int) batch}. Writes never block the thread in the
+ * kernel, a full socket buffer is waited for with a selector up to the timeout. Only plain rtmp://
+ * is supported, use {@link NativeTransport} for rtmpt/rtmpe/rtmps.
+ */
+public class NioRtmpTransport implements Transport {
+    public static final int DEFAULT_CHUNK_SIZE = 128;
+    public static final int TYPE_AUDIO = 8;
+    public static final int TYPE_VIDEO = 9;
+
+    private static final int DEFAULT_PORT = 1935;
+    private static final int HANDSHAKE_SIZE = 1536;
+    private static final int MAX_HEADER_SIZE = 18;
+    private static final int CSID_CONTROL = 2;
+    private static final int CSID_COMMAND = 3;
+    private static final int CSID_MEDIA = 4;
+    private static final int TYPE_SET_CHUNK_SIZE = 1;
+    private static final int TYPE_ACKNOWLEDGEMENT = 3;
+    private static final int TYPE_USER_CONTROL = 4;
+    private static final int TYPE_WINDOW_ACK_SIZE = 5;
+    private static final int TYPE_COMMAND_AMF0 = 20;
+    private static final int PING_REQUEST = 6;
+    private static final int PING_RESPONSE = 7;
+
+    private final String url;
+    private final String host;
+    private final int port;
+    private final String app;
+    private final String streamName;
+    private int chunkSize;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int timeoutMs;
+    private final ByteBuffer writeBuffer;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+
+    private SocketChannel channel;
+    //abort()在其他线程唤醒它
+    private volatile Selector selector;
+    private volatile boolean aborted = false;
+    private SelectionKey key;
+    private boolean connected = false;
+    private int outChunkSize;
+    private int inChunkSize;
+    private int streamId;
+    private long startNanos;
+    private final Map<Integer, InboundStream> inboundStreams = new HashMap<>();
+    private long receivedBytes;
+    private long acknowledgedBytes;
+    private long windowAckSize;
+
+    private volatile long writeCalls = 0;
+    private volatile long writtenBytes = 0;
+    private volatile long headerBytes = 0;
+
+    private NioRtmpTransport(Builder builder) throws IOException {
+        this.url = builder.url;
+        this.chunkSize = builder.chunkSize;
+        this.sendBufferSize = builder.sendBufferSize;
+        this.receiveBufferSize = builder.receiveBufferSize;
+        this.timeoutMs = builder.timeoutMs;
+        this.writeBuffer = ByteBuffer.allocateDirect(builder.writeBufferSize);
+        //rtmp://host[:port]/app[/instance]/stream
+        String rest = url.substring("rtmp://".length());
+        int slash = rest.indexOf('/');
+        int last = rest.lastIndexOf('/');
+        if (slash <= 0 || last == slash || last == rest.length() - 1) {
+            throw new IOException("invalid url " + url);
+        }
+        String authority = rest.substring(0, slash);
+        int colon = authority.lastIndexOf(':');
+        try {
+            this.host = colon > 0 ? authority.substring(0, colon) : authority;
+            this.port = colon > 0 ? Integer.parseInt(authority.substring(colon + 1)) : DEFAULT_PORT;
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid port in " + url);
+        }
+        this.app = rest.substring(slash + 1, last);
+        this.streamName = rest.substring(last + 1);
+    }
+
+    @Override
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        close();
+        if (aborted) throw new IOException("transport is aborted");
+        try {
+            open();
+            handshake();
+            if (chunkSize != DEFAULT_CHUNK_SIZE) {
+                writeControl(TYPE_SET_CHUNK_SIZE, chunkSize & 0x7fffffff);
+                outChunkSize = chunkSize;
+            }
+            sendCommand(0, new Amf0.Writer().writeString("connect").writeNumber(1).beginObject()
+                    .writeProperty("app", app)
+                    .writeProperty("type", "nonprivate")
+                    .writeProperty("flashVer", "FMLE/3.0 (compatible; FMSc/1.0)")
+                    .writeProperty("tcUrl", "rtmp://" + host + ":" + port + "/" + app)
+                    .endObject());
+            expectResult(awaitCommand("_result", "_error"), "connect");
+            sendCommand(0, new Amf0.Writer().writeString("createStream").writeNumber(2).writeNull());
+            List<Object> result = awaitCommand("_result", "_error");
+            expectResult(result, "createStream");
+            if (result.size() < 4 || !(result.get(3) instanceof Double)) {
+                throw new IOException("createStream returned no stream id");
+            }
+            streamId = ((Double) result.get(3)).intValue();
+            sendCommand(streamId, new Amf0.Writer().writeString("publish").writeNumber(0).writeNull()
+                    .writeString(streamName).writeString("live"));
+            String code = statusCode(awaitCommand("onStatus"));
+            if (!"NetStream.Publish.Start".equals(code)) {
+                throw new IOException("fail to publish " + streamName + ",status=" + code);
+            }
+            startNanos = System.nanoTime();
+            connected = true;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void open() throws IOException {
+        outChunkSize = DEFAULT_CHUNK_SIZE;
+        inChunkSize = DEFAULT_CHUNK_SIZE;
+        inboundStreams.clear();
+        receivedBytes = 0;
+        acknowledgedBytes = 0;
+        windowAckSize = 0;
+        writeBuffer.clear();
+        readBuffer.clear();
+        selector = Selector.open();
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        if (sendBufferSize > 0) channel.socket().setSendBufferSize(sendBufferSize);
+        if (receiveBufferSize > 0) channel.socket().setReceiveBufferSize(receiveBufferSize);
+        key = channel.register(selector, 0);
+        if (!channel.connect(new InetSocketAddress(host, port))) {
+            long deadline = deadline();
+            while (!channel.finishConnect()) {
+                await(SelectionKey.OP_CONNECT, deadline);
+            }
+        }
+    }
+
+    private void handshake() throws IOException {
+        byte[] c1 = new byte[HANDSHAKE_SIZE];
+        new Random().nextBytes(c1);
+        int time = (int) (System.nanoTime() / 1000000);
+        for (int i = 0; i < 4; i++) {
+            c1[i] = (byte) (time >>> ((3 - i) * 8));
+            c1[4 + i] = 0;
+        }
+        writeBuffer.put((byte) 3).put(c1);
+        flush();
+        long deadline = deadline();
+        byte[] s0s1 = readExactly(1 + HANDSHAKE_SIZE, deadline);
+        if (s0s1[0] != 3) throw new IOException("unsupported rtmp version " + s0s1[0]);
+        readExactly(HANDSHAKE_SIZE, deadline);
+        //C2回显S1
+        writeBuffer.put(s0s1, 1, HANDSHAKE_SIZE);
+        flush();
+    }
+
+    private byte[] readExactly(int size, long deadline) throws IOException {
+        byte[] out = new byte[size];
+        int filled = 0;
+        while (filled < size) {
+            readBuffer.flip();
+            int n = Math.min(readBuffer.remaining(), size - filled);
+            readBuffer.get(out, filled, n);
+            readBuffer.compact();
+            filled += n;
+            if (filled < size && fill() == 0) await(SelectionKey.OP_READ, deadline);
+        }
+        return out;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected && channel != null && channel.isOpen();
+    }
+
+    @Override
+    public void send(RtmpPacket[] packets, int count) throws IOException {
+        if (!isConnected()) throw new IOException("not connected");
+        try {
+            readMessages(null);
+            for (int i = 0; i < count; i++) {
+                RtmpPacket packet = packets[i];
+                int type = packet.getType() == RtmpPacket.PacketType.AUDIO || packet.getType() == RtmpPacket.PacketType.AUDIO_SPECIFIC_CONFIG ? TYPE_AUDIO : TYPE_VIDEO;
+                int timestamp = packet.getDtsMs() >= 0 ? packet.getDtsMs() : currentTimestamp();
+                writeMessage(CSID_MEDIA, type, timestamp, streamId, packet.getBodyPrefix(), packet.getBodyData());
+            }
+            flush();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues one media message, without going through {@link RtmpPacket}. It is written once the
+     * write buffer fills up or on {@link #flush()}.
+     *
+     * @param type {@link #TYPE_AUDIO} or {@link #TYPE_VIDEO}
+     * @param prefix optional first part of the body, sent before {@code data}
+     */
+    public void writeMediaMessage(int type, int timestampMs, @Nullable ByteBuffer prefix, @Nullable ByteBuffer data) throws IOException {
+        if (!isConnected()) throw new IOException("not connected");
+        writeMessage(CSID_MEDIA, type, timestampMs, streamId, prefix, data);
+    }
+
+    /**
+     * Writes out everything queued, waiting for the socket while its buffer is full.
+     */
+    public void flush() throws IOException {
+        writeBuffer.flip();
+        long deadline = 0;
+        while (writeBuffer.hasRemaining()) {
+            int written = channel.write(writeBuffer);
+            writeCalls++;
+            writtenBytes += written;
+            if (written == 0) {
+                if (deadline == 0) deadline = deadline();
+                await(SelectionKey.OP_WRITE, deadline);
+            }
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * @return {@link SocketChannel#write(ByteBuffer)} calls, i.e. send syscalls, so far
+     */
+    @Override
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    @Override
+    public long getHeaderBytes() {
+        return headerBytes;
+    }
+
+    @Override
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1 || chunkSize > 0xffffff) throw new IllegalArgumentException("chunkSize must be in [1, 16777215]");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the chunk size messages are framed with on the current connection
+     */
+    public int getChunkSize() {
+        return outChunkSize;
+    }
+
+    private void writeMessage(int csid, int type, int timestamp, int messageStreamId, ByteBuffer prefix, ByteBuffer data) throws IOException {
+        int length = (prefix != null ? prefix.remaining() : 0) + (data != null ? data.remaining() : 0);
+        boolean extended = (timestamp & 0xffffffffL) >= 0xffffff;
+        reserve(MAX_HEADER_SIZE);
+        int headerStart = writeBuffer.position();
+        writeBuffer.put((byte) csid);
+        putUInt24(extended ? 0xffffff : timestamp);
+        putUInt24(length);
+        writeBuffer.put((byte) type);
+        writeBuffer.putInt(Integer.reverseBytes(messageStreamId));
+        if (extended) writeBuffer.putInt(timestamp);
+        headerBytes += writeBuffer.position() - headerStart;
+        int chunkRemaining = outChunkSize;
+        ByteBuffer[] segments = {prefix, data};
+        for (ByteBuffer segment : segments) {
+            if (segment == null) continue;
+            int end = segment.limit();
+            while (segment.hasRemaining()) {
+                if (chunkRemaining == 0) {
+                    //后续chunk用fmt3头,扩展时间戳每个chunk都要带
+                    reserve(5);
+                    writeBuffer.put((byte) (0xc0 | csid));
+                    if (extended) writeBuffer.putInt(timestamp);
+                    headerBytes += extended ? 5 : 1;
+                    chunkRemaining = outChunkSize;
+                }
+                if (!writeBuffer.hasRemaining()) flush();
+                int n = Math.min(Math.min(segment.remaining(), chunkRemaining), writeBuffer.remaining());
+                segment.limit(segment.position() + n);
+                writeBuffer.put(segment);
+                segment.limit(end);
+                chunkRemaining -= n;
+            }
+        }
+    }
+
+    private void reserve(int size) throws IOException {
+        if (writeBuffer.remaining() < size) flush();
+    }
+
+    private void putUInt24(int value) {
+        writeBuffer.put((byte) (value >>> 16)).put((byte) (value >>> 8)).put((byte) value);
+    }
+
+    private void writeControl(int type, int value) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(4).putInt(value);
+        payload.flip();
+        writeMessage(CSID_CONTROL, type, 0, 0, null, payload);
+        flush();
+    }
+
+    private void sendCommand(int messageStreamId, Amf0.Writer writer) throws IOException {
+        writeMessage(CSID_COMMAND, TYPE_COMMAND_AMF0, 0, messageStreamId, null, ByteBuffer.wrap(writer.toByteArray()));
+        flush();
+    }
+
+    private int currentTimestamp() {
+        return (int) ((System.nanoTime() - startNanos) / 1000000);
+    }
+
+    private long deadline() {
+        return System.nanoTime() + timeoutMs * 1000000L;
+    }
+
+    private void await(int op, long deadline) throws IOException {
+        long remainingMs = (deadline - System.nanoTime()) / 1000000;
+        if (remainingMs <= 0) throw new IOException("timeout after " + timeoutMs + "ms");
+        //先于select检查,abort在这之后调用也会让select立即返回
+        if (aborted) throw new IOException("transport is aborted");
+        key.interestOps(op);
+        selector.select(remainingMs);
+        selector.selectedKeys().clear();
+        key.interestOps(0);
+        if (aborted) throw new IOException("transport is aborted");
+    }
+
+    /**
+     * @return bytes read without blocking, throws on end of stream
+     */
+    private int fill() throws IOException {
+        int n = channel.read(readBuffer);
+        if (n < 0) throw new IOException("connection closed by server");
+        receivedBytes += n;
+        return n;
+    }
+
+    private List<Object> awaitCommand(String... names) throws IOException {
+        long deadline = deadline();
+        while (true) {
+            List<Object> command = readMessages(names);
+            if (command != null) return command;
+            await(SelectionKey.OP_READ, deadline);
+        }
+    }
+
+    /**
+     * Handles whatever the server has sent so far without blocking.
+     *
+     * @param names commands to return, null to handle everything
+     * @return the first command named in {@code names}, null if none has arrived yet
+     */
+    private List<Object> readMessages(String[] names) throws IOException {
+        fill();
+        readBuffer.flip();
+        try {
+            while (true) {
+                InboundStream stream = readChunk();
+                if (stream == null) return null;
+                if (stream.filled < stream.length) continue;
+                List<Object> command = onMessage(stream.type, stream.message);
+                stream.message = null;
+                if (command != null && names != null) {
+                    for (String name : names) {
+                        if (name.equals(command.get(0))) return command;
+                    }
+                }
+            }
+        } finally {
+            readBuffer.compact();
+            if (windowAckSize > 0 && receivedBytes - acknowledgedBytes >= windowAckSize) {
+                acknowledgedBytes = receivedBytes;
+                writeControl(TYPE_ACKNOWLEDGEMENT, (int) receivedBytes);
+            }
+        }
+    }
+
+    /**
+     * Consumes one chunk from the read buffer.
+     *
+     * @return its stream, null when the buffer does not hold a whole chunk yet
+     */
+    private InboundStream readChunk() {
+        int start = readBuffer.position();
+        if (readBuffer.remaining() < 1) return null;
+        int first = readBuffer.get() & 0xff;
+        int fmt = first >> 6;
+        int csid = first & 0x3f;
+        int[] headerSizes = {11, 7, 3, 0};
+        int basicExtra = csid == 0 ? 1 : csid == 1 ? 2 : 0;
+        if (readBuffer.remaining() < basicExtra + headerSizes[fmt]) {
+            readBuffer.position(start);
+            return null;
+        }
+        if (csid == 0) {
+            csid = 64 + (readBuffer.get() & 0xff);
+        } else if (csid == 1) {
+            csid = 64 + (readBuffer.get() & 0xff) + ((readBuffer.get() & 0xff) << 8);
+        }
+        InboundStream stream = inboundStreams.get(csid);
+        int timestamp = 0;
+        int length = stream != null ? stream.length : 0;
+        int type = stream != null ? stream.type : 0;
+        if (fmt <= 2) {
+            timestamp = getUInt24();
+            if (fmt <= 1) {
+                length = getUInt24();
+                type = readBuffer.get() & 0xff;
+                if (fmt == 0) readBuffer.getInt();
+            }
+        }
+        boolean extended = fmt <= 2 ? timestamp == 0xffffff : stream != null && stream.extended;
+        if (extended) {
+            if (readBuffer.remaining() < 4) {
+                readBuffer.position(start);
+                return null;
+            }
+            readBuffer.getInt();
+        }
+        int filled = stream != null && stream.message != null ? stream.filled : 0;
+        int size = Math.min(inChunkSize, length - filled);
+        if (readBuffer.remaining() < size) {
+            readBuffer.position(start);
+            return null;
+        }
+        if (stream == null) {
+            stream = new InboundStream();
+            inboundStreams.put(csid, stream);
+        }
+        if (fmt <= 2) stream.extended = extended;
+        stream.length = length;
+        stream.type = type;
+        if (stream.message == null) {
+            stream.message = new byte[length];
+            stream.filled = 0;
+        }
+        readBuffer.get(stream.message, stream.filled, size);
+        stream.filled += size;
+        return stream;
+    }
+
+    private int getUInt24() {
+        return ((readBuffer.get() & 0xff) << 16) | ((readBuffer.get() & 0xff) << 8) | (readBuffer.get() & 0xff);
+    }
+
+    /**
+     * @return the decoded command for command messages, null otherwise
+     */
+    private List<Object> onMessage(int type, byte[] message) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(message);
+        switch (type) {
+            case TYPE_SET_CHUNK_SIZE:
+                inChunkSize = in.getInt() & 0x7fffffff;
+                return null;
+            case TYPE_WINDOW_ACK_SIZE:
+                windowAckSize = in.getInt() & 0xffffffffL;
+                return null;
+            case TYPE_USER_CONTROL:
+                if (message.length >= 6 && in.getShort() == PING_REQUEST) {
+                    ByteBuffer pong = ByteBuffer.allocate(6).putShort((short) PING_RESPONSE).putInt(in.getInt());
+                    pong.flip();
+                    writeMessage(CSID_CONTROL, TYPE_USER_CONTROL, 0, 0, null, pong);
+                }
+                return null;
+            case TYPE_COMMAND_AMF0:
+                List<Object> command = Amf0.readAll(message);
+                return command.isEmpty() || !(command.get(0) instanceof String) ? null : command;
+            default:
+                return null;
+        }
+    }
+
+    private static void expectResult(List<Object> result, String command) throws IOException {
+        if (!"_result".equals(result.get(0))) {
+            throw new IOException(command + " failed,status=" + statusCode(result));
+        }
+    }
+
+    private static String statusCode(List<Object> command) {
+        for (Object value : command) {
+            if (value instanceof Map) {
+                Object code = ((Map<?, ?>) value).get("code");
+                if (code != null) return code.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wakes up the selector the owning thread waits on. The socket is non-blocking, so every wait
+     * goes through {@link #await(int, long)}, which then fails.
+     */
+    @Override
+    public void abort() {
+        aborted = true;
+        Selector selector = this.selector;
+        if (selector != null) selector.wakeup();
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+        try {
+            if (selector != null) selector.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {
+        }
+        selector = null;
+        channel = null;
+        key = null;
+    }
+
+    private static class InboundStream {
+        int length;
+        int type;
+        boolean extended;
+        byte[] message;
+        int filled;
+    }
+
+    public static class Builder {
+        private String url;
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private int sendBufferSize = 0;
+        private int receiveBufferSize = 0;
+        private int timeoutMs = 5000;
+        private int writeBufferSize = 64 * 1024;
+
+        public Builder url(String url) {
+            this.url = url;
+            return this;
+        }
+
+        /**
+         * Outbound chunk size announced with Set Chunk Size right after the handshake.
+         */
+        public Builder chunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * SO_SNDBUF, 0 keeps the system default.
+         */
+        public Builder sendBufferSize(int size) {
+            this.sendBufferSize = size;
+            return this;
+        }
+
+        /**
+         * SO_RCVBUF, 0 keeps the system default.
+         */
+        public Builder receiveBufferSize(int size) {
+            this.receiveBufferSize = size;
+            return this;
+        }
+
+        /**
+         * Applies to connecting, each handshake/command round trip and each stalled write.
+         */
+        public Builder timeoutMs(int timeoutMs) {
+            this.timeoutMs = timeoutMs;
+            return this;
+        }
+
+        /**
+         * Size of the direct buffer messages are chunked into before they are written.
+         */
+        public Builder writeBufferSize(int size) {
+            this.writeBufferSize = size;
+            return this;
+        }
+
+        public NioRtmpTransport build() throws IOException {
+            if (url == null || !url.toLowerCase(Locale.getDefault()).startsWith("rtmp://")) {
+                throw new IllegalStateException("NioRtmpTransport only supports rtmp:// urls");
+            }
+            if (chunkSize < 1 || chunkSize > 0xffffff) {
+                throw new IllegalStateException("chunkSize must be in [1, 16777215]");
+            }
+            if (sendBufferSize < 0 || receiveBufferSize < 0) {
+                throw new IllegalStateException("socket buffer size must not be negative");
+            }
+            if (timeoutMs <= 0) {
+                throw new IllegalStateException("timeoutMs must be more than 0");
+            }
+            if (writeBufferSize < 1 + HANDSHAKE_SIZE) {
+                throw new IllegalStateException("writeBufferSize must hold the handshake");
+            }
+            return new NioRtmpTransport(this);
+        }
+
+        /**
+         * @return a factory creating transports with the current configuration for any url
+         */
+        public Factory factory() {
+            final Builder template = copy();
+            return new Factory() {
+                @Override
+                public Transport create(String url) throws IOException {
+                    return template.copy().url(url).build();
+                }
+            };
+        }
+
+        private Builder copy() {
+            return new Builder().url(url).chunkSize(chunkSize).sendBufferSize(sendBufferSize)
+                    .receiveBufferSize(receiveBufferSize).timeoutMs(timeoutMs).writeBufferSize(writeBufferSize);
+        }
+    }
+}
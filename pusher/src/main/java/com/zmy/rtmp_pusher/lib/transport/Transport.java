@@ -0,0 +1,66 @@
+package com.zmy.rtmp_pusher.lib.transport;
+
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+
+import java.io.IOException;
+
+/**
+ * One RTMP publishing connection under {@link com.zmy.rtmp_pusher.lib.pusher.Pusher}.
+ * <p>
+ * Implementations don't need to be thread safe, the pusher serializes every call except
+ * {@link #abort()}. After a failed
+ * {@link #connect()} or {@link #send(RtmpPacket[], int)} the pusher calls {@link #connect()} again
+ * to reconnect, so it has to start over from a clean state.
+ */
+public interface Transport {
+
+    String getUrl();
+
+    /**
+     * Connects, handshakes and publishes the stream, blocking until the server accepted it.
+     */
+    void connect() throws IOException;
+
+    boolean isConnected();
+
+    /**
+     * Sends packets[0, count). The packets stay owned by the caller.
+     *
+     * @throws IOException when not all of them could be written, the connection is unusable then
+     */
+    void send(RtmpPacket[] packets, int count) throws IOException;
+
+    /**
+     * Outbound chunk size announced with Set Chunk Size, applied from the next {@link #connect()}
+     * on, so it survives reconnects.
+     */
+    void setChunkSize(int chunkSize);
+
+    /**
+     * @return socket write calls since the transport was created
+     */
+    long getWriteCalls();
+
+    /**
+     * @return bytes of RTMP chunk headers written, the framing overhead on top of the bodies
+     */
+    long getHeaderBytes();
+
+    long getWrittenBytes();
+
+    /**
+     * Makes a {@link #connect()} or {@link #send(RtmpPacket[], int)} blocked on another thread fail
+     * soon, and every later one fail right away. May be called from any thread, the transport still
+     * has to be {@link #close() closed} once the blocked call returned.
+     */
+    void abort();
+
+    /**
+     * Closes the connection, the transport can not be used anymore.
+     */
+    void close();
+
+    interface Factory {
+        Transport create(String url) throws IOException;
+    }
+}
@@ -0,0 +1,28 @@
+package com.zmy.rtmp_pusher.lib.util;
+
+/**
+ * Pins threads to CPUs through {@code sched_setaffinity}, e.g. to keep capture and encoding on
+ * the big cores of a big.LITTLE device.
+ */
+public final class ThreadAffinity {
+    private ThreadAffinity() {
+    }
+
+    /**
+     * Restricts the calling thread to the CPUs set in {@code cpuMask}, bit i for CPU i. Only a
+     * hint: the kernel may refuse, and CPUs that are offline or not in the mask of the process are
+     * ignored.
+     *
+     * @return false if the affinity was not changed, also when the native library is not loaded
+     */
+    public static boolean apply(long cpuMask) {
+        if (cpuMask == 0) return false;
+        try {
+            return native_set_affinity(cpuMask);
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    private static native boolean native_set_affinity(long cpuMask);
+}
@@ -1,34 +1,72 @@
 package com.zmy.rtmp_pusher.lib.util;
 
 
+import android.os.Process;
+
 import androidx.annotation.NonNull;
 
 import com.zmy.rtmp_pusher.lib.log.RtmpLogManager;
 
+/**
+ * Calls {@link #doMain()} in a loop until it returns true or the thread is asked to exit.
+ * <p>
+ * The thread can run at an Android thread priority, e.g.
+ * {@link Process#THREAD_PRIORITY_URGENT_AUDIO} for capture, and be pinned to some CPUs with
+ * {@link #setCpuAffinity(long)}. Both are applied by the thread itself when it starts.
+ */
 public abstract class WorkerThread extends Thread {
-    private boolean exitFlag = false;
+    private volatile boolean exitFlag = false;
+    private final int threadPriority;
+    private volatile long cpuAffinity = 0;
 
     public WorkerThread(@NonNull String name) {
+        this(name, Process.THREAD_PRIORITY_DEFAULT);
+    }
+
+    /**
+     * @param threadPriority a {@link Process} thread priority, from
+     *                       {@link Process#THREAD_PRIORITY_URGENT_AUDIO} to
+     *                       {@link Process#THREAD_PRIORITY_LOWEST}
+     */
+    public WorkerThread(@NonNull String name, int threadPriority) {
         super(name);
+        this.threadPriority = threadPriority;
+    }
+
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    /**
+     * @param cpuMask bit i set to run on CPU i, 0 to leave it to the scheduler. Only a hint, see
+     *                {@link ThreadAffinity#apply(long)}. Call before {@link #start()}.
+     */
+    public void setCpuAffinity(long cpuMask) {
+        this.cpuAffinity = cpuMask;
     }
 
     @Override
     public void run() {
         super.run();
-        doOnStart();
-        while (true) {
-            synchronized (this) {
-                if (exitFlag) {
-                    break;
-                }
+        if (threadPriority != Process.THREAD_PRIORITY_DEFAULT) {
+            try {
+                Process.setThreadPriority(threadPriority);
+            } catch (SecurityException | IllegalArgumentException e) {
+                RtmpLogManager.w(getName(), "fail to set priority {}", threadPriority);
             }
+        }
+        long cpuMask = cpuAffinity;
+        if (cpuMask != 0 && !ThreadAffinity.apply(cpuMask)) {
+            RtmpLogManager.w(getName(), "fail to set cpu affinity {}", Long.toHexString(cpuMask));
+        }
+        doOnStart();
+        //退出标记是volatile,每轮只读一次,不再加锁
+        while (!exitFlag) {
             if (doMain()) {
                 break;
             }
         }
-        synchronized (this) {
-            exitFlag = true;
-        }
+        exitFlag = true;
         doOnExit();
         RtmpLogManager.d(Thread.currentThread().getName(), " exit");
     }
@@ -41,14 +79,44 @@ public abstract class WorkerThread extends Thread {
     protected void doOnExit() {
     }
 
-    private synchronized void setExitFlag() {
+    /**
+     * Asks the thread to exit after the current {@link #doMain()} and interrupts it, without
+     * waiting.
+     */
+    public void requestExit() {
         exitFlag = true;
+        if (getId() != Thread.currentThread().getId()) this.interrupt();
+    }
+
+    /**
+     * Waits for the thread to end by itself.
+     *
+     * @param timeoutMs 0 to wait forever
+     * @return false if it was still running at the timeout
+     */
+    public boolean awaitExit(long timeoutMs) {
+        if (getId() == Thread.currentThread().getId()) return false;
+        try {
+            this.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !isAlive();
+    }
+
+    /**
+     * {@link #requestExit()} and {@link #awaitExit(long)}.
+     *
+     * @return false if the thread was still running at the timeout
+     */
+    public boolean exit(long timeoutMs) {
+        requestExit();
+        return awaitExit(timeoutMs);
     }
 
     public void exit() {
-        setExitFlag();
+        requestExit();
         if (getId() == Thread.currentThread().getId()) return;
-        this.interrupt();
         try {
             this.join();
         } catch (InterruptedException e) {
@@ -0,0 +1,429 @@
+package com.zmy.rtmp_pusher.lib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal RTMP ingest stand-in for tests. It completes the simple handshake, answers
+ * {@code connect}, {@code createStream} and {@code publish}, and counts the audio/video messages it
+ * receives.
+ * <p>
+ * A silent server accepts connections and never answers, which is what a stalled ingest looks like
+ * to the client.
+ */
+public class LocalRtmpServer {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int HANDSHAKE_SIZE = 1536;
+    private static final int TYPE_SET_CHUNK_SIZE = 1;
+    private static final int TYPE_WINDOW_ACK_SIZE = 5;
+    private static final int TYPE_SET_PEER_BANDWIDTH = 6;
+    private static final int TYPE_AUDIO = 8;
+    private static final int TYPE_VIDEO = 9;
+    private static final int TYPE_COMMAND_AMF0 = 20;
+    private static final int STREAM_ID = 1;
+
+    private final boolean silent;
+    private final ServerSocket serverSocket;
+    private final List<Socket> clients = new ArrayList<>();
+    private final Thread acceptThread;
+
+    private final AtomicLong mediaMessages = new AtomicLong();
+    private final AtomicLong mediaBytes = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong publishedStreams = new AtomicLong();
+    private volatile int lastChunkSize = 128;
+
+    public LocalRtmpServer() throws IOException {
+        this(false);
+    }
+
+    public LocalRtmpServer(boolean silent) throws IOException {
+        this.silent = silent;
+        serverSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        acceptThread = new Thread("LocalRtmpServer-" + getPort()) {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getUrl(String stream) {
+        return "rtmp://127.0.0.1:" + getPort() + "/live/" + stream;
+    }
+
+    public long getMediaMessages() {
+        return mediaMessages.get();
+    }
+
+    public long getMediaBytes() {
+        return mediaBytes.get();
+    }
+
+    /**
+     * @return chunks received from all clients, including protocol control and command messages
+     */
+    public long getChunks() {
+        return chunks.get();
+    }
+
+    public long getPublishedStreams() {
+        return publishedStreams.get();
+    }
+
+    /**
+     * @return the chunk size most recently announced by a client with Set Chunk Size
+     */
+    public int getLastChunkSize() {
+        return lastChunkSize;
+    }
+
+    /**
+     * @return true once at least {@code count} audio/video messages arrived
+     */
+    public boolean awaitMediaMessages(long count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mediaMessages.get() < count) {
+            if (System.currentTimeMillis() >= deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (clients) {
+            for (Socket client : clients) {
+                try {
+                    client.close();
+                } catch (IOException ignored) {
+                }
+            }
+            clients.clear();
+        }
+        try {
+            acceptThread.join(1000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            synchronized (clients) {
+                clients.add(socket);
+            }
+            if (silent) continue;
+            Thread thread = new Thread("LocalRtmpServer-client") {
+                @Override
+                public void run() {
+                    try {
+                        new Session(socket).run();
+                    } catch (IOException ignored) {
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static class ChunkStream {
+        int timestamp;
+        int timestampDelta;
+        int length;
+        int type;
+        int streamId;
+        boolean extendedTimestamp;
+        ByteArrayOutputStream message;
+    }
+
+    private class Session {
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final Map<Integer, ChunkStream> chunkStreams = new HashMap<>();
+        private int inChunkSize = 128;
+
+        Session(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(socket.getInputStream());
+            this.out = socket.getOutputStream();
+        }
+
+        void run() throws IOException {
+            handshake();
+            while (true) {
+                readChunk();
+            }
+        }
+
+        private void handshake() throws IOException {
+            byte[] c0c1 = new byte[1 + HANDSHAKE_SIZE];
+            in.readFully(c0c1);
+            byte[] s0s1s2 = new byte[1 + HANDSHAKE_SIZE * 2];
+            s0s1s2[0] = 3;
+            System.arraycopy(c0c1, 1, s0s1s2, 1 + HANDSHAKE_SIZE, HANDSHAKE_SIZE);
+            out.write(s0s1s2);
+            out.flush();
+            in.readFully(new byte[HANDSHAKE_SIZE]);
+        }
+
+        private void readChunk() throws IOException {
+            int first = in.readUnsignedByte();
+            int fmt = first >> 6;
+            int csid = first & 0x3f;
+            if (csid == 0) {
+                csid = 64 + in.readUnsignedByte();
+            } else if (csid == 1) {
+                csid = 64 + in.readUnsignedByte() + (in.readUnsignedByte() << 8);
+            }
+            chunks.incrementAndGet();
+            ChunkStream stream = chunkStreams.get(csid);
+            if (stream == null) {
+                stream = new ChunkStream();
+                chunkStreams.put(csid, stream);
+            }
+            if (fmt <= 2) {
+                int timestamp = readUInt24();
+                if (fmt <= 1) {
+                    stream.length = readUInt24();
+                    stream.type = in.readUnsignedByte();
+                    if (fmt == 0) {
+                        stream.streamId = Integer.reverseBytes(in.readInt());
+                    }
+                }
+                stream.extendedTimestamp = timestamp == 0xffffff;
+                if (stream.extendedTimestamp) {
+                    timestamp = in.readInt();
+                }
+                if (fmt == 0) {
+                    stream.timestamp = timestamp;
+                    stream.timestampDelta = 0;
+                } else {
+                    stream.timestampDelta = timestamp;
+                }
+            } else if (stream.extendedTimestamp) {
+                in.readInt();
+            }
+            if (stream.message == null) {
+                stream.message = new ByteArrayOutputStream(stream.length);
+                if (fmt != 0) {
+                    stream.timestamp += stream.timestampDelta;
+                }
+            }
+            int size = Math.min(inChunkSize, stream.length - stream.message.size());
+            byte[] data = new byte[size];
+            in.readFully(data);
+            stream.message.write(data);
+            if (stream.message.size() >= stream.length) {
+                byte[] message = stream.message.toByteArray();
+                stream.message = null;
+                onMessage(stream.type, message);
+            }
+        }
+
+        private int readUInt24() throws IOException {
+            return (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        }
+
+        private void onMessage(int type, byte[] message) throws IOException {
+            switch (type) {
+                case TYPE_SET_CHUNK_SIZE:
+                    inChunkSize = ((message[0] & 0x7f) << 24) | ((message[1] & 0xff) << 16) | ((message[2] & 0xff) << 8) | (message[3] & 0xff);
+                    lastChunkSize = inChunkSize;
+                    break;
+                case TYPE_AUDIO:
+                case TYPE_VIDEO:
+                    mediaBytes.addAndGet(message.length);
+                    mediaMessages.incrementAndGet();
+                    break;
+                case TYPE_COMMAND_AMF0:
+                    onCommand(message);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void onCommand(byte[] message) throws IOException {
+            Amf0Reader reader = new Amf0Reader(message);
+            String name = reader.readString();
+            double transactionId = reader.readNumber();
+            if ("connect".equals(name)) {
+                sendControl(TYPE_WINDOW_ACK_SIZE, intBytes(2500000, 4));
+                byte[] bandwidth = new byte[5];
+                System.arraycopy(intBytes(2500000, 4), 0, bandwidth, 0, 4);
+                bandwidth[4] = 2;
+                sendControl(TYPE_SET_PEER_BANDWIDTH, bandwidth);
+                Amf0Writer writer = new Amf0Writer();
+                writer.writeString("_result");
+                writer.writeNumber(transactionId);
+                writer.beginObject();
+                writer.writeProperty("fmsVer", "FMS/3,0,1,123");
+                writer.endObject();
+                writer.beginObject();
+                writer.writeProperty("level", "status");
+                writer.writeProperty("code", "NetConnection.Connect.Success");
+                writer.endObject();
+                sendCommand(0, writer.toByteArray());
+            } else if ("createStream".equals(name)) {
+                Amf0Writer writer = new Amf0Writer();
+                writer.writeString("_result");
+                writer.writeNumber(transactionId);
+                writer.writeNull();
+                writer.writeNumber(STREAM_ID);
+                sendCommand(0, writer.toByteArray());
+            } else if ("publish".equals(name)) {
+                publishedStreams.incrementAndGet();
+                Amf0Writer writer = new Amf0Writer();
+                writer.writeString("onStatus");
+                writer.writeNumber(0);
+                writer.writeNull();
+                writer.beginObject();
+                writer.writeProperty("level", "status");
+                writer.writeProperty("code", "NetStream.Publish.Start");
+                writer.endObject();
+                sendCommand(STREAM_ID, writer.toByteArray());
+            }
+        }
+
+        private void sendControl(int type, byte[] payload) throws IOException {
+            send(2, type, 0, payload);
+        }
+
+        private void sendCommand(int streamId, byte[] payload) throws IOException {
+            send(3, TYPE_COMMAND_AMF0, streamId, payload);
+        }
+
+        private void send(int csid, int type, int streamId, byte[] payload) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            buffer.write(csid);
+            buffer.write(0);
+            buffer.write(0);
+            buffer.write(0);
+            buffer.write(intBytes(payload.length, 3));
+            buffer.write(type);
+            buffer.write(intBytes(Integer.reverseBytes(streamId), 4));
+            for (int offset = 0; offset < payload.length; offset += 128) {
+                if (offset > 0) buffer.write(0xc0 | csid);
+                buffer.write(payload, offset, Math.min(128, payload.length - offset));
+            }
+            out.write(buffer.toByteArray());
+            out.flush();
+        }
+    }
+
+    private static byte[] intBytes(int value, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (value >>> ((length - 1 - i) * 8));
+        }
+        return bytes;
+    }
+
+    private static class Amf0Reader {
+        private final DataInputStream in;
+
+        Amf0Reader(byte[] data) {
+            this.in = new DataInputStream(new ByteArrayInputStream(data));
+        }
+
+        String readString() throws IOException {
+            expect(0x02);
+            byte[] bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            return new String(bytes, ASCII);
+        }
+
+        double readNumber() throws IOException {
+            expect(0x00);
+            return in.readDouble();
+        }
+
+        private void expect(int marker) throws IOException {
+            int actual = in.read();
+            if (actual < 0) throw new EOFException();
+            if (actual != marker) throw new IOException("unexpected amf0 marker " + actual);
+        }
+    }
+
+    private static class Amf0Writer {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        void writeString(String value) {
+            buffer.write(0x02);
+            writeRawString(value);
+        }
+
+        void writeNumber(double value) {
+            buffer.write(0x00);
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 7; i >= 0; i--) {
+                buffer.write((int) (bits >>> (i * 8)));
+            }
+        }
+
+        void writeNull() {
+            buffer.write(0x05);
+        }
+
+        void beginObject() {
+            buffer.write(0x03);
+        }
+
+        void writeProperty(String name, String value) {
+            writeRawString(name);
+            writeString(value);
+        }
+
+        void endObject() {
+            buffer.write(0);
+            buffer.write(0);
+            buffer.write(0x09);
+        }
+
+        private void writeRawString(String value) {
+            byte[] bytes = value.getBytes(ASCII);
+            buffer.write(bytes.length >> 8);
+            buffer.write(bytes.length);
+            buffer.write(bytes, 0, bytes.length);
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+}
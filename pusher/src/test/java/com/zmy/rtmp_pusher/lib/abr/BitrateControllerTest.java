@@ -0,0 +1,185 @@
+package com.zmy.rtmp_pusher.lib.abr;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class BitrateControllerTest extends TestCase {
+    private static final int MIN_BITRATE = 600 * 1000;
+    private static final int MAX_BITRATE = 6000 * 1000;
+    private static final long INTERVAL_MS = 1000;
+    private static final long STEP_MS = 50;
+
+    /**
+     * Encoder plus uplink: the encoder produces {@code bitrate} into a FIFO that drains at the link
+     * capacity, and everything older than {@code dropDelayMs} is thrown away like the send queue does.
+     */
+    static class SimulatedLink implements LinkMonitor, BitrateTarget {
+        private static final int FPS = 30;
+        private final long dropDelayMs;
+        private int bitrate;
+        private long capacityBps;
+        private double queuedBytes;
+        private double sentBytes;
+        private long pushCount;
+        private long pushTimeNanos;
+        private long droppedFrames;
+        private double framesCarry;
+        private int bitrateChanges;
+
+        SimulatedLink(int bitrate, long capacityBps, long dropDelayMs) {
+            this.bitrate = bitrate;
+            this.capacityBps = capacityBps;
+            this.dropDelayMs = dropDelayMs;
+        }
+
+        void step(long ms) {
+            double produced = bitrate / 8.0 * ms / 1000;
+            double budget = capacityBps / 8.0 * ms / 1000;
+            queuedBytes += produced;
+            double sent = Math.min(queuedBytes, budget);
+            queuedBytes -= sent;
+            sentBytes += sent;
+            framesCarry += FPS * ms / 1000.0;
+            long frames = (long) framesCarry;
+            framesCarry -= frames;
+            pushCount += frames;
+            pushTimeNanos += (long) (ms * 1000000L * Math.min(1.0, (produced + queuedBytes) / budget));
+            if (getQueueDelayMs() > dropDelayMs) {
+                droppedFrames += Math.max(1, (long) (queuedBytes / (bitrate / 8.0 / FPS)));
+                queuedBytes = 0;
+            }
+        }
+
+        void setCapacity(long capacityBps) {
+            this.capacityBps = capacityBps;
+        }
+
+        @Override
+        public int getBitrate() {
+            return bitrate;
+        }
+
+        @Override
+        public void setBitrate(int bitrate) {
+            assertTrue(bitrate >= MIN_BITRATE && bitrate <= MAX_BITRATE);
+            this.bitrate = bitrate;
+            bitrateChanges++;
+        }
+
+        @Override
+        public long getSentBytes() {
+            return (long) sentBytes;
+        }
+
+        @Override
+        public long getPushCount() {
+            return pushCount;
+        }
+
+        @Override
+        public long getPushTimeNanos() {
+            return pushTimeNanos;
+        }
+
+        @Override
+        public long getQueuedBytes() {
+            return (long) queuedBytes;
+        }
+
+        @Override
+        public long getQueueDelayMs() {
+            return (long) (queuedBytes * 8 * 1000 / capacityBps);
+        }
+
+        @Override
+        public long getDroppedFrames() {
+            return droppedFrames;
+        }
+    }
+
+    private long now = 0;
+
+    private BitrateController createController(SimulatedLink link) {
+        BitratePolicy policy = new AimdBitratePolicy.Builder(MIN_BITRATE, MAX_BITRATE).build();
+        BitrateController controller = new BitrateController(link, link, policy, INTERVAL_MS);
+        controller.tick(now);
+        return controller;
+    }
+
+    /**
+     * @return the highest queue delay seen during the run
+     */
+    private long run(SimulatedLink link, BitrateController controller, long durationMs) {
+        long maxDelay = 0;
+        long end = now + durationMs;
+        while (now < end) {
+            for (long t = 0; t < INTERVAL_MS; t += STEP_MS) {
+                link.step(STEP_MS);
+                maxDelay = Math.max(maxDelay, link.getQueueDelayMs());
+            }
+            now += INTERVAL_MS;
+            controller.tick(now);
+        }
+        return maxDelay;
+    }
+
+    @Test
+    public void testKeepsBitrateOnFastLink() {
+        SimulatedLink link = new SimulatedLink(MAX_BITRATE, 10 * 1000 * 1000, 3000);
+        BitrateController controller = createController(link);
+        run(link, controller, 30000);
+        assertEquals(link.getBitrate(), MAX_BITRATE);
+        assertEquals(link.bitrateChanges, 0);
+    }
+
+    @Test
+    public void testBacksOffWhenLinkDrops() {
+        SimulatedLink link = new SimulatedLink(MAX_BITRATE, 10 * 1000 * 1000, 3000);
+        BitrateController controller = createController(link);
+        run(link, controller, 10000);
+        link.setCapacity(2 * 1000 * 1000);
+        run(link, controller, 10000);
+        assertTrue("bitrate=" + link.getBitrate(), link.getBitrate() <= 2 * 1000 * 1000);
+        long maxDelay = run(link, controller, 60000);
+        assertTrue("maxDelay=" + maxDelay, maxDelay < 1500);
+    }
+
+    @Test
+    public void testUsesMostOfStableLink() {
+        SimulatedLink link = new SimulatedLink(MAX_BITRATE, 3 * 1000 * 1000, 3000);
+        BitrateController controller = createController(link);
+        run(link, controller, 30000);
+        int changes = link.bitrateChanges;
+        long samples = 0;
+        long sum = 0;
+        for (int i = 0; i < 120; i++) {
+            run(link, controller, INTERVAL_MS);
+            sum += link.getBitrate();
+            samples++;
+        }
+        long average = sum / samples;
+        assertTrue("average=" + average, average >= 3 * 1000 * 1000 * 7 / 10);
+        assertTrue("changes=" + (link.bitrateChanges - changes), link.bitrateChanges - changes <= 40);
+        assertEquals(link.getDroppedFrames(), 0);
+    }
+
+    @Test
+    public void testRecoversWhenLinkReturns() {
+        SimulatedLink link = new SimulatedLink(MAX_BITRATE, 1500 * 1000, 3000);
+        BitrateController controller = createController(link);
+        run(link, controller, 30000);
+        assertTrue(link.getBitrate() <= 1500 * 1000);
+        link.setCapacity(20 * 1000 * 1000);
+        run(link, controller, 120000);
+        assertEquals(link.getBitrate(), MAX_BITRATE);
+    }
+
+    @Test
+    public void testNeverGoesUnderFloor() {
+        SimulatedLink link = new SimulatedLink(MAX_BITRATE, 200 * 1000, 3000);
+        BitrateController controller = createController(link);
+        run(link, controller, 60000);
+        assertEquals(link.getBitrate(), MIN_BITRATE);
+    }
+}
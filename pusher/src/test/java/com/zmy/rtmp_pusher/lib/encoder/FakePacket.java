@@ -0,0 +1,40 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link RtmpPacket} without native body for the JVM tests of the queues. It counts its
+ * references in Java and fails on a release without a matching reference.
+ */
+public class FakePacket extends RtmpPacket {
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private FakePacket(PacketType type, int size, long presentationTimeUs) {
+        super(type, size, presentationTimeUs);
+    }
+
+    /**
+     * @param dtsMs as stamped by {@link TimestampNormalizer}, -1 for none
+     */
+    public static FakePacket create(PacketType type, int size, int dtsMs) {
+        FakePacket packet = new FakePacket(type, size, dtsMs < 0 ? NO_TIMESTAMP : dtsMs * 1000L);
+        if (dtsMs >= 0) packet.setTimestamps(dtsMs, 0);
+        return packet;
+    }
+
+    @Override
+    public RtmpPacket retain() {
+        if (refCount.getAndIncrement() <= 0) throw new IllegalStateException("retain after the last release");
+        return this;
+    }
+
+    @Override
+    public void release() {
+        if (refCount.decrementAndGet() < 0) throw new IllegalStateException("released more often than retained");
+    }
+
+    @Override
+    public int getRefCount() {
+        return refCount.get();
+    }
+}
@@ -0,0 +1,59 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import com.zmy.rtmp_pusher.lib.pusher.SyncFrameRequester;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class SyncFrameRateLimiterTest extends TestCase {
+    private static final long MS = 1000000;
+
+    private int encoderRequests = 0;
+
+    private SyncFrameRateLimiter newLimiter() {
+        return new SyncFrameRateLimiter(new SyncFrameRequester() {
+            @Override
+            public void requestSyncFrame() {
+                encoderRequests++;
+            }
+        }, 500);
+    }
+
+    @Test
+    public void testBurstIsCollapsedIntoOneRequest() {
+        SyncFrameRateLimiter limiter = newLimiter();
+        assertTrue(limiter.request(0));
+        for (int i = 1; i < 10; i++) {
+            assertFalse(limiter.request(i * MS));
+        }
+        assertEquals(1, encoderRequests);
+        assertEquals(10, limiter.getRequests());
+        assertEquals(1, limiter.getIssued());
+    }
+
+    @Test
+    public void testDeferredRequestIsIssuedOnFirstFrameAfterInterval() {
+        SyncFrameRateLimiter limiter = newLimiter();
+        limiter.request(0);
+        limiter.request(100 * MS);
+        limiter.onFrame(false, 400 * MS);
+        assertEquals(1, encoderRequests);
+        limiter.onFrame(false, 500 * MS);
+        assertEquals(2, encoderRequests);
+        limiter.onFrame(false, 1100 * MS);
+        assertEquals(2, encoderRequests);
+    }
+
+    @Test
+    public void testSyncFrameSatisfiesDeferredRequest() {
+        SyncFrameRateLimiter limiter = newLimiter();
+        limiter.request(0);
+        limiter.request(100 * MS);
+        limiter.onFrame(true, 200 * MS);
+        limiter.onFrame(false, 600 * MS);
+        assertEquals(1, encoderRequests);
+        assertTrue(limiter.request(700 * MS));
+        assertEquals(2, encoderRequests);
+    }
+}
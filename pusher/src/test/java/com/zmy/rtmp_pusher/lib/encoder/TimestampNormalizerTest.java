@@ -0,0 +1,56 @@
+package com.zmy.rtmp_pusher.lib.encoder;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class TimestampNormalizerTest extends TestCase {
+
+    @Test
+    public void testWithoutReorderDtsIsPts() {
+        TimestampNormalizer.Track track = new TimestampNormalizer.Track(0);
+        long[] pts = {0, 23, 46, 69};
+        for (long p : pts) {
+            track.offer(p);
+            assertTrue(track.isReady());
+            int dts = track.pollDtsMs();
+            assertEquals(p, dts);
+            assertEquals(0, TimestampNormalizer.Track.compositionTimeMs(p, dts));
+        }
+    }
+
+    /**
+     * IPBB GOP in decode order, two B-frames between the references.
+     */
+    @Test
+    public void testBFramesGetCompositionTime() {
+        long[] decodeOrder = {0, 99, 33, 66, 198, 132, 165, 297, 231, 264};
+        TimestampNormalizer.Track track = new TimestampNormalizer.Track(2);
+        int[] dts = new int[decodeOrder.length];
+        int emitted = 0;
+        for (long p : decodeOrder) {
+            track.offer(p);
+            while (track.isReady()) dts[emitted++] = track.pollDtsMs();
+        }
+        while (emitted < decodeOrder.length) dts[emitted++] = track.pollDtsMs();
+
+        for (int i = 0; i < decodeOrder.length; i++) {
+            if (i > 0) assertTrue("dts went backwards at " + i, dts[i] >= dts[i - 1]);
+            assertTrue("dts after pts at " + i, dts[i] <= decodeOrder[i]);
+            assertEquals(decodeOrder[i], dts[i] + TimestampNormalizer.Track.compositionTimeMs(decodeOrder[i], dts[i]));
+        }
+        assertEquals(297 - 99, dts[decodeOrder.length - 1]);
+    }
+
+    @Test
+    public void testDtsNeverGoesBackwards() {
+        TimestampNormalizer.Track track = new TimestampNormalizer.Track(0);
+        track.offer(100);
+        assertEquals(100, track.pollDtsMs());
+        //编码器时间戳回退时钳到上一个dts
+        track.offer(80);
+        assertEquals(100, track.pollDtsMs());
+        track.offer(-5);
+        assertEquals(100, track.pollDtsMs());
+    }
+}
@@ -0,0 +1,84 @@
+package com.zmy.rtmp_pusher.lib.flv;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class FlvTagTest extends TestCase {
+
+    /**
+     * Frames the tags the way the zero-copy video path does (separate NALU header, payload copied
+     * once without its start code) and compares them with tags laid out like the native
+     * {@code RtmpPacket::create_for_video} body. The native packets themselves are compared on a
+     * device by {@code ZeroCopyPacketTest}.
+     */
+    @Test
+    public void testVideoTagsMatchGoldenFile() throws IOException {
+        byte[] key = new byte[205];
+        key[3] = 1;
+        key[4] = 0x65;
+        for (int i = 0; i < 200; i++) key[5 + i] = (byte) (i * 7);
+        byte[] p1 = new byte[54];
+        p1[2] = 1;
+        p1[3] = 0x41;
+        for (int i = 0; i < 50; i++) p1[4 + i] = (byte) (i * 13 + 5);
+        byte[] p2 = new byte[23];
+        p2[0] = 0x41;
+        p2[1] = (byte) 0x9a;
+        p2[2] = 0x22;
+        for (int i = 0; i < 20; i++) p2[3 + i] = (byte) (i * 3);
+
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        FlvTag.writeFileHeader(out, false, true);
+        writeVideoTag(out, key, true, 0);
+        writeVideoTag(out, p1, false, 33);
+        writeVideoTag(out, p2, false, 66);
+
+        byte[] actual = Arrays.copyOf(out.array(), out.position());
+        assertTrue(Arrays.equals(readResource("/flv/avc_nalu_tags.flv"), actual));
+    }
+
+    @Test
+    public void testStartCodeLength() {
+        assertEquals(FlvTag.startCodeLength(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x65}), 0, 5), 4);
+        assertEquals(FlvTag.startCodeLength(ByteBuffer.wrap(new byte[]{0, 0, 1, 0x65}), 0, 4), 3);
+        assertEquals(FlvTag.startCodeLength(ByteBuffer.wrap(new byte[]{0x65, 1, 2}), 0, 3), 0);
+        assertEquals(FlvTag.startCodeLength(ByteBuffer.wrap(new byte[]{0, 0}), 0, 2), -1);
+        assertEquals(FlvTag.copyNalu(ByteBuffer.wrap(new byte[]{0, 0, 0, 1}), 0, 4, ByteBuffer.allocate(4)), -1);
+    }
+
+    private static void writeVideoTag(ByteBuffer out, byte[] frame, boolean keyFrame, int timestamp) {
+        //MediaCodec的输出buffer带offset
+        ByteBuffer data = ByteBuffer.allocateDirect(frame.length + 7);
+        data.position(7);
+        data.put(frame);
+        ByteBuffer payload = ByteBuffer.allocateDirect(frame.length);
+        int naluLength = FlvTag.copyNalu(data, 7, frame.length, payload);
+        payload.flip();
+
+        int dataSize = FlvTag.VIDEO_NALU_HEADER_SIZE + naluLength;
+        FlvTag.writeTagHeader(out, FlvTag.TYPE_VIDEO, dataSize, timestamp);
+        FlvTag.writeVideoNaluHeader(out, keyFrame, 0, naluLength);
+        out.put(payload);
+        FlvTag.writePreviousTagSize(out, dataSize);
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = FlvTagTest.class.getResourceAsStream(name);
+        assertNotNull(in);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,83 @@
+package com.zmy.rtmp_pusher.lib.flv;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public class FlvWriterTest extends TestCase {
+
+    @Test
+    public void testWritesWholePagesUntilClose() throws IOException {
+        File file = File.createTempFile("flv_writer", ".flv");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FlvWriter writer = new FlvWriter(raf.getChannel(), 3 * FlvWriter.ALIGNMENT + 100);
+            writer.writeHeader(true, true);
+            ByteBuffer prefix = ByteBuffer.wrap(new byte[]{0x17, 0x01, 0, 0, 0});
+            ByteBuffer data = ByteBuffer.allocateDirect(5000);
+            for (int i = 0; i < 20; i++) {
+                writer.writeTag(FlvTag.TYPE_VIDEO, i * 33, prefix, data);
+                assertEquals(0, writer.getWrittenBytes() % FlvWriter.ALIGNMENT);
+            }
+            writer.force();
+            assertEquals(0, writer.getWrittenBytes() % FlvWriter.ALIGNMENT);
+            assertEquals(0, prefix.position());
+            assertEquals(0, data.position());
+            writer.close();
+            assertEquals(writer.getTagBytes(), writer.getWrittenBytes());
+            assertEquals(13 + 20 * (11 + 5005 + 4), raf.length());
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        file.delete();
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        assertEquals('F', in.get(0));
+        assertEquals(0x05, in.get(4));
+        int position = 13;
+        for (int i = 0; i < 20; i++) {
+            assertEquals(FlvTag.TYPE_VIDEO, in.get(position));
+            int dataSize = (in.getInt(position) & 0xffffff);
+            assertEquals(5005, dataSize);
+            assertEquals(i * 33, in.getInt(position + 4) >>> 8);
+            assertEquals(0x17, in.get(position + 11));
+            assertEquals(11 + dataSize, in.getInt(position + 11 + dataSize));
+            position += 11 + dataSize + 4;
+        }
+        assertEquals(bytes.length, position);
+    }
+
+    @Test
+    public void testTagsAcrossPagesWithMinimumBuffer() throws IOException {
+        File file = File.createTempFile("flv_writer", ".flv");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            try {
+                new FlvWriter(raf.getChannel(), FlvWriter.MIN_BUFFER_SIZE - 1);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            FlvWriter writer = new FlvWriter(raf.getChannel(), FlvWriter.MIN_BUFFER_SIZE);
+            writer.writeHeader(false, true);
+            //每个tag 4085字节,头和previous tag size会落在页尾
+            ByteBuffer data = ByteBuffer.allocate(4070);
+            for (int i = 0; i < 50; i++) {
+                writer.writeTag(FlvTag.TYPE_VIDEO, i, null, data);
+                assertEquals(0, writer.getWrittenBytes() % FlvWriter.ALIGNMENT);
+            }
+            writer.close();
+            assertEquals(13 + 50 * (11 + 4070 + 4), raf.length());
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        file.delete();
+        int position = 13;
+        for (int i = 0; i < 50; i++) {
+            assertEquals(4070, in.getInt(position) & 0xffffff);
+            assertEquals(i, in.getInt(position + 4) >>> 8);
+            assertEquals(11 + 4070, in.getInt(position + 11 + 4070));
+            position += 11 + 4070 + 4;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.zmy.rtmp_pusher.lib.hls;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class HlsMuxerTest extends TestCase {
+    private static final long BASE_US = 1000000000L;
+    private static final int FPS = 30;
+    private static final int SAMPLE_RATE = 44100;
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1e, 0x11, 0x22};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final byte[] ASC = {0x12, 0x10};
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("hls").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Seven seconds of 30fps video with a sync frame every second and 44.1kHz AAC, cut into two
+     * second segments with a small moof reservation so segments hold several fragments.
+     */
+    @Test
+    public void testSegmentsAndPlaylist() throws IOException {
+        HlsMuxer muxer = new HlsMuxer.Builder()
+                .directory(directory)
+                .targetDurationMs(2000)
+                .playlistSize(1)
+                .segmentPreallocateBytes(1024 * 1024)
+                .fragmentReserveBytes(2048)
+                .writeBufferSize(1000)
+                .build();
+        muxer.setVideoFormat(ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS), 640, 480);
+        muxer.setAudioFormat(ByteBuffer.wrap(ASC), SAMPLE_RATE, 2);
+        int videoFrames = 7 * FPS;
+        int audioFrames = (int) (7L * SAMPLE_RATE / 1024);
+        int v = 0;
+        int a = 0;
+        while (v < videoFrames || a < audioFrames) {
+            long videoUs = BASE_US + v * 1000000L / FPS;
+            long audioUs = BASE_US + a * 1024 * 1000000L / SAMPLE_RATE;
+            if (v < videoFrames && (a >= audioFrames || videoUs <= audioUs)) {
+                byte[] frame = videoFrame(v);
+                //数据放在buffer中间,验证offset
+                ByteBuffer buffer = ByteBuffer.allocateDirect(frame.length + 7);
+                buffer.position(7);
+                buffer.put(frame);
+                buffer.position(3);
+                muxer.writeVideo(buffer, 7, frame.length, videoUs, videoUs, v % FPS == 0);
+                assertEquals(3, buffer.position());
+                v++;
+            } else {
+                byte[] frame = new byte[100 + a % 50];
+                Arrays.fill(frame, (byte) a);
+                muxer.writeAudio(ByteBuffer.wrap(frame), 0, frame.length, audioUs);
+                a++;
+            }
+        }
+        muxer.close();
+        assertEquals(4, muxer.getSegmentCount());
+
+        List<String> playlist = Files.readAllLines(muxer.getPlaylistFile().toPath(), Charset.forName("UTF-8"));
+        assertEquals("#EXTM3U", playlist.get(0));
+        assertTrue(playlist.contains("#EXT-X-TARGETDURATION:2"));
+        assertTrue(playlist.contains("#EXT-X-MEDIA-SEQUENCE:3"));
+        assertTrue(playlist.contains("#EXT-X-MAP:URI=\"init.mp4\""));
+        assertTrue(playlist.contains("#EXTINF:1.000,"));
+        assertTrue(playlist.contains("segment3.m4s"));
+        assertEquals("#EXT-X-ENDLIST", playlist.get(playlist.size() - 1));
+        //移出播放列表超过一个列表长度的分片才删除
+        assertFalse(new File(directory, "segment0.m4s").exists());
+        assertFalse(new File(directory, "segment1.m4s").exists());
+        assertTrue(new File(directory, "segment2.m4s").exists());
+
+        ByteBuffer init = read("init.mp4");
+        assertEquals("ftyp", type(init, 0));
+        assertEquals("moov", type(init, init.getInt(0)));
+        assertEquals(init.limit(), init.getInt(0) + init.getInt(init.getInt(0)));
+
+        int[] segment2 = checkSegment(read("segment2.m4s"), 2 * FPS);
+        assertTrue(segment2[1] > 1);
+        //分片的最后一帧时长是估计的,差值不超过一个tick,下一个分片的tfdt会纠正
+        assertEquals(2 * 90000, segment2[0], segment2[1]);
+        assertTrue(segment2[2] > 80);
+        int[] segment3 = checkSegment(read("segment3.m4s"), FPS);
+        //最后一帧的时长按前一帧估计
+        assertEquals(90000, segment3[0], segment3[1]);
+    }
+
+    /**
+     * Sync frames come every four seconds although the encoder was set up for one every three. The
+     * target duration stays at three seconds and no segment runs past it.
+     */
+    @Test
+    public void testTargetDurationFixedWhenSyncFramesLate() throws IOException {
+        HlsMuxer muxer = new HlsMuxer.Builder()
+                .directory(directory)
+                .targetDurationMs(2000)
+                .keyFrameIntervalMs(3000)
+                .playlistSize(10)
+                .audio(false)
+                .segmentPreallocateBytes(64 * 1024)
+                .build();
+        muxer.setVideoFormat(ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS), 640, 480);
+        for (int v = 0; v < 10 * FPS; v++) {
+            long videoUs = BASE_US + v * 1000000L / FPS;
+            byte[] frame = videoFrame(v);
+            muxer.writeVideo(ByteBuffer.wrap(frame), 0, frame.length, videoUs, videoUs, v % (4 * FPS) == 0);
+        }
+        muxer.close();
+        //在3秒处强制切分,4秒的关键帧来时剩下的间隔放不下下一个GOP
+        assertEquals(5, muxer.getSegmentCount());
+
+        List<String> playlist = Files.readAllLines(muxer.getPlaylistFile().toPath(), Charset.forName("UTF-8"));
+        assertTrue(playlist.contains("#EXT-X-TARGETDURATION:3"));
+        int segments = 0;
+        for (String line : playlist) {
+            if (!line.startsWith("#EXTINF:")) continue;
+            double duration = Double.parseDouble(line.substring("#EXTINF:".length(), line.length() - 1));
+            assertTrue(Math.round(duration) <= 3);
+            segments++;
+        }
+        assertEquals(5, segments);
+    }
+
+    /**
+     * A sync frame with in-band parameter sets and an access unit delimiter, P frames with an SEI,
+     * three byte start codes and a trailing zero byte.
+     */
+    private static byte[] videoFrame(int index) {
+        ByteBuffer out = ByteBuffer.allocate(512);
+        if (index % FPS == 0) {
+            out.put(new byte[]{0, 0, 0, 1, 0x09, (byte) 0xf0});
+            out.put(SPS).put(PPS);
+            out.put(new byte[]{0, 0, 0, 1, 0x65});
+            for (int i = 0; i < 200; i++) out.put((byte) (i + 2));
+        } else {
+            out.put(new byte[]{0, 0, 1, 0x06, 0x05, 0x01, 0x02, 0});
+            out.put(new byte[]{0, 0, 1, 0x41});
+            for (int i = 0; i < 40 + index % 7; i++) out.put((byte) (index + 2));
+        }
+        out.flip();
+        byte[] frame = new byte[out.remaining()];
+        out.get(frame);
+        return frame;
+    }
+
+    /**
+     * Walks the moof/free/mdat boxes and checks every sample points into its mdat.
+     *
+     * @return {video duration, fragments, audio samples}
+     */
+    private static int[] checkSegment(ByteBuffer segment, int videoSamples) {
+        int videoDuration = 0;
+        int fragments = 0;
+        int audioSamples = 0;
+        int videoCount = 0;
+        int position = 0;
+        while (position < segment.limit()) {
+            assertEquals("moof", type(segment, position));
+            int moof = position;
+            int moofEnd = moof + segment.getInt(moof);
+            position = moofEnd;
+            if (type(segment, position).equals("free")) position += segment.getInt(position);
+            assertEquals("mdat", type(segment, position));
+            int mdatPayload = position + 8;
+            int mdatEnd = position + segment.getInt(position);
+            fragments++;
+            int child = moof + 8 + 16;
+            while (child < moofEnd) {
+                assertEquals("traf", type(segment, child));
+                int trafEnd = child + segment.getInt(child);
+                int trackId = segment.getInt(child + 8 + 12);
+                boolean isVideo = trackId == 1;
+                assertEquals("tfdt", type(segment, child + 8 + 16));
+                int trun = child + 8 + 16 + 20;
+                boolean first = true;
+                while (trun < trafEnd) {
+                    assertEquals("trun", type(segment, trun));
+                    int count = segment.getInt(trun + 12);
+                    int dataOffset = moof + segment.getInt(trun + 16);
+                    int entry = trun + 20;
+                    for (int i = 0; i < count; i++) {
+                        int duration = segment.getInt(entry);
+                        int size = segment.getInt(entry + 4);
+                        assertTrue(dataOffset >= mdatPayload && dataOffset + size <= mdatEnd);
+                        if (isVideo) {
+                            int flags = segment.getInt(entry + 8);
+                            int naluType = segment.get(dataOffset + 4) & 0x1f;
+                            if (videoCount == 0) {
+                                assertEquals(0x02000000, flags);
+                                assertEquals(5, naluType);
+                                assertEquals(201, segment.getInt(dataOffset));
+                                assertEquals(205, size);
+                            } else if (naluType != 5) {
+                                //SEI和slice两个NALU
+                                assertEquals(6, naluType);
+                                assertEquals(4, segment.getInt(dataOffset));
+                            }
+                            assertEquals(0, segment.getInt(entry + 12));
+                            videoDuration += duration;
+                            videoCount++;
+                            entry += 16;
+                        } else {
+                            assertEquals(1024, duration);
+                            assertTrue(size >= 100 && size < 150);
+                            assertEquals(segment.get(dataOffset), segment.get(dataOffset + size - 1));
+                            audioSamples++;
+                            entry += 8;
+                        }
+                        dataOffset += size;
+                        first = false;
+                    }
+                    trun = entry;
+                }
+                assertFalse(first);
+                child = trafEnd;
+            }
+            position = mdatEnd;
+        }
+        assertEquals(videoSamples, videoCount);
+        return new int[]{videoDuration, fragments, audioSamples};
+    }
+
+    private static String type(ByteBuffer buffer, int position) {
+        byte[] type = new byte[4];
+        for (int i = 0; i < 4; i++) type[i] = buffer.get(position + 4 + i);
+        return new String(type, Charset.forName("US-ASCII"));
+    }
+
+    private ByteBuffer read(String name) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(new File(directory, name).toPath()));
+    }
+}
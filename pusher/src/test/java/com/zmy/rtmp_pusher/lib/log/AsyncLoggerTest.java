@@ -0,0 +1,104 @@
+package com.zmy.rtmp_pusher.lib.log;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class AsyncLoggerTest extends TestCase {
+
+    private static class CapturingLogger extends RtmpLogger {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        volatile CountDownLatch blocker;
+
+        CapturingLogger(int threshold) {
+            super(threshold);
+        }
+
+        @Override
+        public void print(int level, String tag, String msg) {
+            CountDownLatch latch = blocker;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            messages.add(level + "/" + tag + ": " + msg);
+        }
+    }
+
+    @Test
+    public void testSkipsFormattingBelowThreshold() {
+        RtmpLogger previous = RtmpLogManager.logger;
+        CapturingLogger capturing = new CapturingLogger(Log.INFO);
+        RtmpLogManager.logger = capturing;
+        try {
+            RtmpLogManager.d("tag", "dropped {}", new Object() {
+                @Override
+                public String toString() {
+                    throw new AssertionError("formatted below the threshold");
+                }
+            });
+            RtmpLogManager.i("tag", "bitrate {} -> {},{}", 100, 200L, "ok");
+            RtmpLogManager.w("tag", "{} and {} but not {}", 1, 2);
+            assertEquals(2, capturing.messages.size());
+            assertEquals(Log.INFO + "/tag: bitrate 100 -> 200,ok", capturing.messages.get(0));
+            assertEquals(Log.WARN + "/tag: 1 and 2 but not {}", capturing.messages.get(1));
+        } finally {
+            RtmpLogManager.logger = previous;
+        }
+    }
+
+    @Test
+    public void testPrintsEveryMessageFromManyThreads() throws InterruptedException {
+        CapturingLogger capturing = new CapturingLogger(Log.VERBOSE);
+        final AsyncLogger logger = new AsyncLogger(capturing, 4096);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        logger.log(Log.DEBUG, "t", "{}-{}", 2, 0x3, null, null, null, thread, j, 0);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        logger.close();
+        assertEquals(0, logger.getDroppedMessages());
+        Set<String> unique = new HashSet<>(capturing.messages);
+        assertEquals(2000, unique.size());
+        assertTrue(unique.contains(Log.DEBUG + "/t: 3-499"));
+    }
+
+    @Test
+    public void testDropsWhenRingIsFull() throws InterruptedException {
+        CapturingLogger capturing = new CapturingLogger(Log.VERBOSE);
+        capturing.blocker = new CountDownLatch(1);
+        AsyncLogger logger = new AsyncLogger(capturing, 8);
+        for (int i = 0; i < 20; i++) {
+            logger.print(Log.INFO, "t", "message " + i);
+        }
+        //日志线程可能已经取走了第一条,卡在print里
+        assertTrue(logger.getDroppedMessages() >= 11);
+        capturing.blocker.countDown();
+        logger.close();
+        assertEquals(20, capturing.messages.size() + logger.getDroppedMessages());
+        assertEquals(Log.INFO + "/t: message 0", capturing.messages.get(0));
+    }
+}
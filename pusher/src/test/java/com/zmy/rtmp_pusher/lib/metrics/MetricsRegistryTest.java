@@ -0,0 +1,98 @@
+package com.zmy.rtmp_pusher.lib.metrics;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+public class MetricsRegistryTest extends TestCase {
+
+    @Test
+    public void testCounterSumsAcrossThreads() throws InterruptedException {
+        final StripedCounter counter = new MetricsRegistry().counter("count");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, counter.sum());
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        Histogram histogram = new Histogram("latency", new long[]{10, 100, 1000});
+        for (int i = 1; i <= 90; i++) {
+            histogram.record(i % 10 + 1);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(90, snapshot.getCounts()[0]);
+        assertEquals(9, snapshot.getCounts()[1]);
+        assertEquals(0, snapshot.getCounts()[2]);
+        assertEquals(1, snapshot.getCounts()[3]);
+        assertEquals(10, snapshot.getPercentile(50));
+        assertEquals(10, snapshot.getPercentile(90));
+        assertEquals(100, snapshot.getPercentile(99));
+        //溢出桶取最大值
+        assertEquals(5000, snapshot.getPercentile(100));
+        assertEquals(5000, snapshot.getMax());
+        assertEquals(0, new Histogram("empty", new long[]{1}).snapshot().getPercentile(50));
+    }
+
+    @Test
+    public void testSnapshotRate() {
+        MetricsRegistry registry = new MetricsRegistry();
+        StripedCounter bytes = registry.counter("bytes");
+        assertSame(bytes, registry.counter("bytes"));
+        MetricsSnapshot earlier = new MetricsSnapshot(0, Collections.singletonMap("bytes", 1000L),
+                Collections.<String, HistogramSnapshot>emptyMap());
+        MetricsSnapshot later = new MetricsSnapshot(500000000L, Collections.singletonMap("bytes", 6000L),
+                Collections.<String, HistogramSnapshot>emptyMap());
+        assertEquals(10000, later.getRatePerSecond(earlier, "bytes"));
+        assertEquals(0, later.getCounter("missing"));
+        try {
+            registry.histogram("bytes", Histogram.LATENCY_BOUNDS_US);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testRecordingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        StripedCounter counter = new StripedCounter("count");
+        Histogram histogram = new Histogram("latency", Histogram.LATENCY_BOUNDS_US);
+        record(counter, histogram, 100000);
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        record(counter, histogram, 100000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        //getThreadAllocatedBytes自身会分配少量对象
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void record(StripedCounter counter, Histogram histogram, int count) {
+        for (int i = 0; i < count; i++) {
+            counter.add(i);
+            histogram.record(i * 37L);
+        }
+    }
+}
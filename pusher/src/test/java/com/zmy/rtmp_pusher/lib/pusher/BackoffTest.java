@@ -0,0 +1,47 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class BackoffTest extends TestCase {
+
+    @Test
+    public void testFirstAttemptIsImmediate() {
+        Backoff backoff = new Backoff(300, 10000, new Random(1));
+        assertEquals(0, backoff.nextDelayMs());
+        assertTrue(backoff.nextDelayMs() > 0);
+        backoff.reset();
+        assertEquals(0, backoff.nextDelayMs());
+    }
+
+    @Test
+    public void testDelaysGrowWithJitterUpToTheCap() {
+        Backoff backoff = new Backoff(300, 10000, new Random(42));
+        backoff.nextDelayMs();
+        long step = 300;
+        for (int i = 0; i < 40; i++) {
+            long delay = backoff.nextDelayMs();
+            assertTrue("attempt " + i + " waited " + delay, delay >= (step + 1) / 2 && delay <= step);
+            step = Math.min(step * 2, 10000);
+        }
+    }
+
+    @Test
+    public void testJitterSpreadsPushers() {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int seed = 0; seed < 50; seed++) {
+            Backoff backoff = new Backoff(1000, 60000, new Random(seed));
+            backoff.nextDelayMs();
+            backoff.nextDelayMs();
+            long delay = backoff.nextDelayMs();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        //第三次尝试在[1000, 2000]之间分散开
+        assertTrue(max - min > 500);
+    }
+}
@@ -0,0 +1,173 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import com.zmy.rtmp_pusher.lib.encoder.FakePacket;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket.PacketType;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class FanOutTest extends TestCase {
+    private static SendQueue output(int capacity) {
+        return new SendQueue(capacity, new CongestionPolicy.Builder().build());
+    }
+
+    private static FakePacket packet(PacketType type) {
+        return FakePacket.create(type, 10, -1);
+    }
+
+    private static void releaseAll(SendQueue queue) {
+        RtmpPacket[] batch = new RtmpPacket[16];
+        int count = queue.drainTo(batch, batch.length);
+        for (int i = 0; i < count; i++) {
+            batch[i].release();
+        }
+    }
+
+    @Test
+    public void testOneReferencePerOutput() {
+        FanOut fanOut = new FanOut();
+        SendQueue fast = output(16);
+        SendQueue full = output(2);
+        fanOut.addOutput(fast);
+        fanOut.addOutput(full);
+        full.enqueue(packet(PacketType.AUDIO));
+        full.enqueue(packet(PacketType.AUDIO));
+
+        //full放不下,只有fast留着一个引用
+        FakePacket audio = packet(PacketType.AUDIO);
+        fanOut.enqueue(audio);
+        assertEquals(1, audio.getRefCount());
+        assertEquals(1, full.getDroppedAudioFrames());
+
+        FakePacket sync = packet(PacketType.VIDEO_SYNC_FRAME);
+        fanOut.enqueue(sync);
+        assertEquals(1, sync.getRefCount());
+        releaseAll(full);
+
+        FakePacket shared = packet(PacketType.VIDEO_SYNC_FRAME);
+        fanOut.enqueue(shared);
+        assertEquals(2, shared.getRefCount());
+
+        releaseAll(fast);
+        releaseAll(full);
+        assertEquals(0, audio.getRefCount());
+        assertEquals(0, sync.getRefCount());
+        assertEquals(0, shared.getRefCount());
+    }
+
+    @Test
+    public void testFullOutputDoesNotBlockConfigs() {
+        FanOut fanOut = new FanOut();
+        SendQueue fast = output(16);
+        SendQueue full = output(2);
+        fanOut.addOutput(fast);
+        fanOut.addOutput(full);
+        full.enqueue(packet(PacketType.AUDIO));
+        full.enqueue(packet(PacketType.AUDIO));
+
+        FakePacket spsPps = packet(PacketType.SPS_PPS);
+        fanOut.enqueue(spsPps);
+        //fast和full各一个引用,加上FanOut缓存的一个
+        assertEquals(3, spsPps.getRefCount());
+        assertEquals(1, fast.getSize());
+
+        releaseAll(full);
+        FakePacket sync = packet(PacketType.VIDEO_SYNC_FRAME);
+        fanOut.enqueue(sync);
+        RtmpPacket[] batch = new RtmpPacket[16];
+        assertEquals(2, full.drainTo(batch, batch.length));
+        assertSame(spsPps, batch[0]);
+        assertSame(sync, batch[1]);
+        batch[0].release();
+        batch[1].release();
+
+        releaseAll(fast);
+        fanOut.close();
+        assertEquals(0, spsPps.getRefCount());
+        assertEquals(0, sync.getRefCount());
+    }
+
+    @Test
+    public void testLateOutputStartsWithConfigs() {
+        FanOut fanOut = new FanOut();
+        SendQueue first = output(16);
+        fanOut.addOutput(first);
+        FakePacket asc = packet(PacketType.AUDIO_SPECIFIC_CONFIG);
+        FakePacket spsPps = packet(PacketType.SPS_PPS);
+        fanOut.enqueue(asc);
+        fanOut.enqueue(spsPps);
+        fanOut.enqueue(packet(PacketType.VIDEO_SYNC_FRAME));
+
+        SendQueue late = output(16);
+        fanOut.addOutput(late);
+        FakePacket audio = packet(PacketType.AUDIO);
+        fanOut.enqueue(audio);
+
+        RtmpPacket[] batch = new RtmpPacket[16];
+        assertEquals(3, late.drainTo(batch, batch.length));
+        assertSame(asc, batch[0]);
+        assertSame(spsPps, batch[1]);
+        assertSame(audio, batch[2]);
+        for (int i = 0; i < 3; i++) {
+            batch[i].release();
+        }
+        //加两次不会重复收到配置包
+        fanOut.addOutput(late);
+        assertEquals(2, fanOut.getOutputCount());
+        assertEquals(0, late.getSize());
+
+        releaseAll(first);
+        fanOut.close();
+        assertEquals(0, asc.getRefCount());
+        assertEquals(0, spsPps.getRefCount());
+    }
+
+    @Test
+    public void testCloseDropsEverything() {
+        FanOut fanOut = new FanOut();
+        SendQueue output = output(16);
+        fanOut.addOutput(output);
+        FakePacket spsPps = packet(PacketType.SPS_PPS);
+        FakePacket sync = packet(PacketType.VIDEO_SYNC_FRAME);
+        fanOut.enqueue(spsPps);
+        fanOut.enqueue(sync);
+
+        fanOut.close();
+        assertTrue(output.isClosed());
+        assertEquals(0, spsPps.getRefCount());
+        assertEquals(0, sync.getRefCount());
+
+        FakePacket late = packet(PacketType.AUDIO);
+        fanOut.enqueue(late);
+        assertEquals(0, late.getRefCount());
+    }
+
+    @Test
+    public void testFlushKeepsQueuedPackets() {
+        FanOut fanOut = new FanOut();
+        SendQueue output = output(16);
+        fanOut.addOutput(output);
+        FakePacket spsPps = packet(PacketType.SPS_PPS);
+        FakePacket sync = packet(PacketType.VIDEO_SYNC_FRAME);
+        fanOut.enqueue(spsPps);
+        fanOut.enqueue(sync);
+
+        fanOut.flush();
+        FakePacket late = packet(PacketType.AUDIO);
+        fanOut.enqueue(late);
+        assertEquals(0, late.getRefCount());
+
+        //已经排队的还能读完,之后读端结束
+        RtmpPacket[] batch = new RtmpPacket[16];
+        assertEquals(2, output.drainTo(batch, batch.length));
+        assertSame(spsPps, batch[0]);
+        assertSame(sync, batch[1]);
+        batch[0].release();
+        batch[1].release();
+        assertEquals(0, output.drainTo(batch, batch.length));
+        assertEquals(0, spsPps.getRefCount());
+        assertEquals(0, sync.getRefCount());
+    }
+}
@@ -0,0 +1,174 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import com.zmy.rtmp_pusher.lib.encoder.FakePacket;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket.PacketType;
+import com.zmy.rtmp_pusher.lib.queue.Sink;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class InterleaverTest extends TestCase {
+    //窗口按DTS跨度触发,测试里不会等到按时间过期
+    private static final int WINDOW_MS = 100;
+
+    private static SendQueue output() {
+        return new SendQueue(64, new CongestionPolicy.Builder().build());
+    }
+
+    private static FakePacket audio(int dtsMs) {
+        return FakePacket.create(PacketType.AUDIO, 10, dtsMs);
+    }
+
+    private static FakePacket video(int dtsMs) {
+        return FakePacket.create(dtsMs == 0 ? PacketType.VIDEO_SYNC_FRAME : PacketType.VIDEO_P_FRAME, 10, dtsMs);
+    }
+
+    private static int[] sentDts(SendQueue output) {
+        RtmpPacket[] batch = new RtmpPacket[64];
+        int count = output.getSize() == 0 ? 0 : output.drainTo(batch, batch.length);
+        int[] dts = new int[count];
+        for (int i = 0; i < count; i++) {
+            dts[i] = batch[i].getDtsMs();
+            batch[i].release();
+        }
+        return dts;
+    }
+
+    private static void assertDts(int[] expected, int[] actual) {
+        assertEquals(java.util.Arrays.toString(expected), java.util.Arrays.toString(actual));
+    }
+
+    @Test
+    public void testOutputInDtsOrder() {
+        SendQueue output = output();
+        Interleaver interleaver = new Interleaver(output, 1000);
+        interleaver.enqueue(video(0));
+        interleaver.enqueue(video(33));
+        interleaver.enqueue(audio(0));
+        interleaver.enqueue(audio(23));
+        interleaver.enqueue(audio(46));
+        interleaver.enqueue(video(66));
+        //最新的包要等另一条轨道
+        assertDts(new int[]{0, 0, 23, 33, 46}, sentDts(output));
+        assertEquals(0, interleaver.getForcedPackets());
+
+        interleaver.flush();
+        assertDts(new int[]{66}, sentDts(output));
+        assertEquals(0, interleaver.getLatePackets());
+    }
+
+    @Test
+    public void testOutputWrittenOutsideLock() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        Sink<RtmpPacket> output = new Sink<RtmpPacket>() {
+            @Override
+            public void enqueue(RtmpPacket packet) {
+                entered.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                written.add(packet.getDtsMs());
+                packet.release();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final Interleaver interleaver = new Interleaver(output, 1000);
+        interleaver.enqueue(video(10));
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                interleaver.enqueue(audio(0));
+            }
+        };
+        writer.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        //写线程卡在输出里,其他线程照样能进来,放出的包排在它后面
+        interleaver.enqueue(audio(20));
+        assertEquals(2, interleaver.getHeldPackets());
+        unblock.countDown();
+        writer.join();
+        assertEquals("[0, 10]", written.toString());
+        assertEquals(1, interleaver.getHeldPackets());
+        interleaver.close();
+    }
+
+    @Test
+    public void testStalledTrackReleasedByWindow() {
+        SendQueue output = output();
+        Interleaver interleaver = new Interleaver(output, WINDOW_MS);
+        interleaver.enqueue(video(0));
+        interleaver.enqueue(video(50));
+        assertDts(new int[0], sentDts(output));
+        interleaver.enqueue(video(100));
+        assertDts(new int[]{0}, sentDts(output));
+        assertEquals(1, interleaver.getForcedPackets());
+        assertEquals(2, interleaver.getHeldPackets());
+    }
+
+    @Test
+    public void testLatePacketCounted() {
+        SendQueue output = output();
+        Interleaver interleaver = new Interleaver(output, WINDOW_MS);
+        for (int dts = 0; dts <= 200; dts += 50) {
+            interleaver.enqueue(video(dts));
+        }
+        assertDts(new int[]{0, 50, 100}, sentDts(output));
+
+        //音频卡住之后才来,已经发出去的视频比它新
+        interleaver.enqueue(audio(20));
+        assertDts(new int[]{20}, sentDts(output));
+        assertEquals(1, interleaver.getLatePackets());
+        assertEquals(180, interleaver.getMaxSkewMs());
+    }
+
+    @Test
+    public void testMaxSkewGauge() {
+        SendQueue output = output();
+        Interleaver interleaver = new Interleaver(output, 1000);
+        interleaver.enqueue(audio(0));
+        interleaver.enqueue(video(30));
+        interleaver.enqueue(audio(20));
+        assertEquals(30, interleaver.getMaxSkewMs());
+        interleaver.resetStats();
+        assertEquals(0, interleaver.getMaxSkewMs());
+        interleaver.enqueue(video(60));
+        assertEquals(40, interleaver.getMaxSkewMs());
+        interleaver.close();
+    }
+
+    @Test
+    public void testUnstampedPassThrough() {
+        SendQueue output = output();
+        Interleaver interleaver = new Interleaver(output, WINDOW_MS);
+        FakePacket config = FakePacket.create(PacketType.SPS_PPS, 10, -1);
+        interleaver.enqueue(video(0));
+        interleaver.enqueue(config);
+        RtmpPacket[] batch = new RtmpPacket[4];
+        assertEquals(1, output.drainTo(batch, batch.length));
+        assertSame(config, batch[0]);
+        batch[0].release();
+
+        interleaver.close();
+        assertTrue(output.isClosed());
+        assertEquals(0, interleaver.getHeldPackets());
+    }
+}
@@ -0,0 +1,144 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import com.zmy.rtmp_pusher.lib.encoder.FakePacket;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket.PacketType;
+import com.zmy.rtmp_pusher.lib.transport.Transport;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PusherTest extends TestCase {
+
+    /**
+     * send()阻塞到abort()为止,或者一直阻塞到unblock,像一个abort打断不了的native调用
+     */
+    private static class BlockingTransport implements Transport {
+        final boolean abortable;
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile boolean aborted = false;
+        volatile boolean connected = false;
+
+        BlockingTransport(boolean abortable) {
+            this.abortable = abortable;
+        }
+
+        @Override
+        public String getUrl() {
+            return "rtmp://localhost/live/test";
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (aborted) throw new IOException("aborted");
+            connected = true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void send(RtmpPacket[] packets, int count) throws IOException {
+            sending.countDown();
+            while (true) {
+                if (abortable && aborted) {
+                    connected = false;
+                    throw new IOException("aborted");
+                }
+                try {
+                    if (unblock.await(10, TimeUnit.MILLISECONDS)) return;
+                } catch (InterruptedException e) {
+                    //阻塞在native里的调用不会响应中断
+                }
+            }
+        }
+
+        @Override
+        public void setChunkSize(int chunkSize) {
+        }
+
+        @Override
+        public long getWriteCalls() {
+            return 0;
+        }
+
+        @Override
+        public long getHeaderBytes() {
+            return 0;
+        }
+
+        @Override
+        public long getWrittenBytes() {
+            return 0;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+
+        @Override
+        public void close() {
+            connected = false;
+            closed.countDown();
+        }
+    }
+
+    private static Pusher startBlocked(final BlockingTransport transport) throws Exception {
+        SendQueue queue = new SendQueue(16, new CongestionPolicy.Builder().build());
+        Pusher pusher = new Pusher(transport.getUrl(), new Transport.Factory() {
+            @Override
+            public Transport create(String url) {
+                return transport;
+            }
+        }, queue, new PusherCallback() {
+            @Override
+            public void onPushError(PusherException exception) {
+            }
+        });
+        pusher.start();
+        queue.enqueue(FakePacket.create(PacketType.AUDIO_SPECIFIC_CONFIG, 2, -1));
+        queue.enqueue(FakePacket.create(PacketType.SPS_PPS, 20, -1));
+        queue.enqueue(FakePacket.create(PacketType.VIDEO_SYNC_FRAME, 100, 0));
+        assertTrue(transport.sending.await(5, TimeUnit.SECONDS));
+        return pusher;
+    }
+
+    @Test
+    public void testReleaseAbortsBlockedSend() throws Exception {
+        BlockingTransport transport = new BlockingTransport(true);
+        Pusher pusher = startBlocked(transport);
+
+        long start = System.nanoTime();
+        pusher.release();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        assertTrue("release took " + elapsedMs + "ms", elapsedMs < Pusher.STOP_TIMEOUT_MS);
+        assertTrue(transport.aborted);
+        assertEquals(0, transport.closed.getCount());
+    }
+
+    @Test
+    public void testReleaseReturnsWithinTimeoutWhenSendIgnoresAbort() throws Exception {
+        BlockingTransport transport = new BlockingTransport(false);
+        Pusher pusher = startBlocked(transport);
+
+        long start = System.nanoTime();
+        pusher.release();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        assertTrue("release took " + elapsedMs + "ms", elapsedMs < Pusher.STOP_TIMEOUT_MS + 1000);
+        //推流线程还在send里,transport不能关
+        assertEquals(1, transport.closed.getCount());
+
+        transport.unblock.countDown();
+        assertTrue(transport.closed.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,216 @@
+package com.zmy.rtmp_pusher.lib.pusher;
+
+import com.zmy.rtmp_pusher.lib.encoder.FakePacket;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket;
+import com.zmy.rtmp_pusher.lib.encoder.RtmpPacket.PacketType;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class SendQueueTest extends TestCase {
+    //时间水位设得很高,只按字节数判断拥塞
+    private static final CongestionPolicy POLICY = new CongestionPolicy.Builder()
+            .bytes(100, 1000)
+            .millis(60000, 120000)
+            .build();
+
+    private static FakePacket packet(PacketType type, int size) {
+        return FakePacket.create(type, size, -1);
+    }
+
+    private static RtmpPacket[] drainAll(SendQueue queue, int max) {
+        RtmpPacket[] batch = new RtmpPacket[max];
+        int count = queue.drainTo(batch, max);
+        RtmpPacket[] result = new RtmpPacket[count];
+        System.arraycopy(batch, 0, result, 0, count);
+        return result;
+    }
+
+    @Test
+    public void testConfigsAndAudioSurviveCongestion() {
+        SendQueue queue = new SendQueue(16, POLICY);
+        FakePacket sync = packet(PacketType.VIDEO_SYNC_FRAME, 600);
+        FakePacket p1 = packet(PacketType.VIDEO_P_FRAME, 500);
+        FakePacket p2 = packet(PacketType.VIDEO_P_FRAME, 10);
+        FakePacket spsPps = packet(PacketType.SPS_PPS, 20);
+        FakePacket asc = packet(PacketType.AUDIO_SPECIFIC_CONFIG, 2);
+        FakePacket audio = packet(PacketType.AUDIO, 50);
+        FakePacket p3 = packet(PacketType.VIDEO_P_FRAME, 10);
+        queue.enqueue(sync);
+        queue.enqueue(p1);
+        //1100字节,超过高水位
+        queue.enqueue(p2);
+        assertTrue(queue.isCongested());
+        queue.enqueue(spsPps);
+        queue.enqueue(asc);
+        queue.enqueue(audio);
+        //拥塞后丢到下一个关键帧为止
+        queue.enqueue(p3);
+
+        assertEquals(2, queue.getDroppedVideoFrames());
+        assertEquals(0, queue.getDroppedAudioFrames());
+        assertEquals(0, p2.getRefCount());
+        assertEquals(0, p3.getRefCount());
+
+        RtmpPacket[] sent = drainAll(queue, 16);
+        assertEquals(5, sent.length);
+        assertSame(sync, sent[0]);
+        assertSame(p1, sent[1]);
+        assertSame(spsPps, sent[2]);
+        assertSame(asc, sent[3]);
+        assertSame(audio, sent[4]);
+        assertFalse(queue.isCongested());
+    }
+
+    @Test
+    public void testPFramesDroppedUntilNextSyncFrame() {
+        final int[] requests = {0};
+        SendQueue queue = new SendQueue(2, POLICY);
+        queue.setSyncFrameRequester(new SyncFrameRequester() {
+            @Override
+            public void requestSyncFrame() {
+                requests[0]++;
+            }
+        });
+        queue.enqueue(packet(PacketType.VIDEO_SYNC_FRAME, 10));
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 10));
+        //通道满了
+        FakePacket full = packet(PacketType.VIDEO_P_FRAME, 10);
+        queue.enqueue(full);
+        assertEquals(0, full.getRefCount());
+        //通道还是满的,先不要关键帧
+        assertEquals(0, requests[0]);
+        FakePacket audio = packet(PacketType.AUDIO, 10);
+        queue.enqueue(audio);
+        assertEquals(0, audio.getRefCount());
+        assertEquals(1, queue.getDroppedAudioFrames());
+
+        assertEquals(2, drainAll(queue, 16).length);
+        //有空位了,但GOP的剩余部分仍然丢掉
+        FakePacket rest = packet(PacketType.VIDEO_P_FRAME, 10);
+        queue.enqueue(rest);
+        assertEquals(0, rest.getRefCount());
+        assertEquals(1, requests[0]);
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 10));
+        assertEquals(1, requests[0]);
+        FakePacket nextSync = packet(PacketType.VIDEO_SYNC_FRAME, 10);
+        FakePacket next = packet(PacketType.VIDEO_P_FRAME, 10);
+        queue.enqueue(nextSync);
+        queue.enqueue(next);
+        RtmpPacket[] sent = drainAll(queue, 16);
+        assertEquals(2, sent.length);
+        assertSame(nextSync, sent[0]);
+        assertSame(next, sent[1]);
+        assertEquals(3, queue.getDroppedVideoFrames());
+    }
+
+    @Test
+    public void testSyncFrameRequestedAfterCongestionClears() {
+        final int[] requests = {0};
+        SendQueue queue = new SendQueue(16, POLICY);
+        queue.setSyncFrameRequester(new SyncFrameRequester() {
+            @Override
+            public void requestSyncFrame() {
+                requests[0]++;
+            }
+        });
+        queue.enqueue(packet(PacketType.VIDEO_SYNC_FRAME, 600));
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 500));
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 10));
+        assertTrue(queue.isCongested());
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 10));
+        assertEquals(0, requests[0]);
+
+        //降到低水位以下,下一个P帧触发请求
+        assertEquals(2, drainAll(queue, 16).length);
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 10));
+        assertFalse(queue.isCongested());
+        assertEquals(1, requests[0]);
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 10));
+        assertEquals(1, requests[0]);
+    }
+
+    @Test
+    public void testConfigHeldBackWhileChannelFull() {
+        SendQueue queue = new SendQueue(2, POLICY);
+        queue.enqueue(packet(PacketType.VIDEO_SYNC_FRAME, 10));
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 10));
+        //通道满了也不阻塞
+        FakePacket oldSpsPps = packet(PacketType.SPS_PPS, 10);
+        queue.enqueue(oldSpsPps);
+        FakePacket spsPps = packet(PacketType.SPS_PPS, 10);
+        queue.enqueue(spsPps);
+        assertEquals(0, oldSpsPps.getRefCount());
+        assertEquals(1, spsPps.getRefCount());
+
+        assertEquals(2, drainAll(queue, 16).length);
+        //配置包入队之前的视频丢到下一个关键帧
+        FakePacket audio = packet(PacketType.AUDIO, 10);
+        FakePacket p = packet(PacketType.VIDEO_P_FRAME, 10);
+        queue.enqueue(audio);
+        queue.enqueue(p);
+        assertEquals(0, p.getRefCount());
+        RtmpPacket[] sent = drainAll(queue, 16);
+        assertEquals(2, sent.length);
+        assertSame(spsPps, sent[0]);
+        assertSame(audio, sent[1]);
+    }
+
+    @Test
+    public void testStaleGopSkippedWhenNewerSyncFrameQueued() {
+        SendQueue queue = new SendQueue(16, POLICY);
+        FakePacket oldSync = packet(PacketType.VIDEO_SYNC_FRAME, 600);
+        FakePacket oldP = packet(PacketType.VIDEO_P_FRAME, 600);
+        FakePacket audio = packet(PacketType.AUDIO, 10);
+        FakePacket newSync = packet(PacketType.VIDEO_SYNC_FRAME, 600);
+        queue.enqueue(oldSync);
+        queue.enqueue(oldP);
+        queue.enqueue(audio);
+        queue.enqueue(newSync);
+        assertFalse(queue.isCongested());
+
+        RtmpPacket[] sent = drainAll(queue, 16);
+        assertEquals(2, sent.length);
+        assertSame(audio, sent[0]);
+        assertSame(newSync, sent[1]);
+        assertEquals(0, oldSync.getRefCount());
+        assertEquals(0, oldP.getRefCount());
+        assertEquals(2, queue.getDroppedVideoFrames());
+        assertEquals(0, queue.getDroppedAudioFrames());
+    }
+
+    @Test
+    public void testCongestionHysteresis() {
+        SendQueue queue = new SendQueue(16, POLICY);
+        queue.enqueue(packet(PacketType.VIDEO_SYNC_FRAME, 600));
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 500));
+        queue.enqueue(packet(PacketType.VIDEO_P_FRAME, 1));
+        assertTrue(queue.isCongested());
+
+        //500字节,低于高水位但高于低水位,仍然拥塞
+        assertEquals(1, drainAll(queue, 1).length);
+        assertEquals(500, queue.getQueuedBytes());
+        assertTrue(queue.isCongested());
+
+        assertEquals(1, drainAll(queue, 1).length);
+        assertEquals(0, queue.getQueuedBytes());
+        assertFalse(queue.isCongested());
+    }
+
+    @Test
+    public void testPolicyWatermarks() {
+        assertTrue(POLICY.isAboveHighWatermark(1000, 0));
+        assertTrue(POLICY.isAboveHighWatermark(0, 120000));
+        assertFalse(POLICY.isAboveHighWatermark(999, 119999));
+        assertTrue(POLICY.isBelowLowWatermark(100, 60000));
+        //两个都要低于低水位
+        assertFalse(POLICY.isBelowLowWatermark(101, 0));
+        assertFalse(POLICY.isBelowLowWatermark(0, 60001));
+        try {
+            new CongestionPolicy.Builder().bytes(1000, 1000).build();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
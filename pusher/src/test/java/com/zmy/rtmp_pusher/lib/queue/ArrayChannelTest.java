@@ -0,0 +1,189 @@
+package com.zmy.rtmp_pusher.lib.queue;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ArrayChannelTest extends TestCase {
+
+    @Test
+    public void testCapacityIsPowerOfTwo() {
+        ArrayChannel<Integer> channel = new ArrayChannel<>(100, null);
+        assertEquals(channel.getCapacity(), 128);
+        assertEquals(channel.getMaxCapacity(), 128);
+    }
+
+    @Test
+    public void testSingleSlotDoesNotOverwrite() {
+        ArrayChannel<Integer> channel = new ArrayChannel<>(1, null);
+        assertEquals(channel.getCapacity(), 2);
+        assertTrue(channel.offer(1));
+        assertTrue(channel.offer(2));
+        assertFalse(channel.offer(3));
+        Integer[] output = new Integer[4];
+        assertEquals(channel.drainTo(output, 4), 2);
+        assertEquals(output[0].intValue(), 1);
+        assertEquals(output[1].intValue(), 2);
+    }
+
+    @Test
+    public void testOfferAndDrain() {
+        ArrayChannel<Integer> channel = new ArrayChannel<>(4, null);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(channel.offer(i));
+        }
+        assertFalse(channel.offer(4));
+        assertEquals(channel.getSize(), 4);
+        Integer[] output = new Integer[8];
+        assertEquals(channel.drainTo(output, 3), 3);
+        assertEquals(output[0].intValue(), 0);
+        assertEquals(output[2].intValue(), 2);
+        assertEquals(channel.drainTo(output, 8), 1);
+        assertEquals(output[0].intValue(), 3);
+        assertEquals(channel.getSize(), 0);
+    }
+
+    @Test
+    public void testEnqueueBlock() {
+        ArrayChannel<Integer> channel = new ArrayChannel<>(4, null);
+        Thread writeThread = new Thread() {
+            @Override
+            public void run() {
+                super.run();
+                for (int i = 0; i < 5; i++) {
+                    channel.enqueue(i);
+                }
+            }
+        };
+        writeThread.start();
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        assertTrue(writeThread.getState() == Thread.State.BLOCKED || writeThread.getState() == Thread.State.WAITING);
+        Integer[] output = new Integer[1];
+        channel.dequeue(output);
+        try {
+            writeThread.join(1000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        assertSame(writeThread.getState(), Thread.State.TERMINATED);
+        assertEquals(channel.getSize(), 4);
+    }
+
+    @Test
+    public void testMultiProducerKeepsPerProducerOrder() {
+        final int producers = 3;
+        final int perProducer = 100000;
+        ArrayChannel<Integer> channel = new ArrayChannel<>(64, null);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    super.run();
+                    for (int i = 0; i < perProducer; i++) {
+                        channel.enqueue(id * perProducer + i);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        int[] last = new int[producers];
+        for (int p = 0; p < producers; p++) {
+            last[p] = -1;
+        }
+        Integer[] output = new Integer[16];
+        int total = 0;
+        while (total < producers * perProducer) {
+            int count = channel.drainTo(output, output.length);
+            for (int i = 0; i < count; i++) {
+                int value = output[i];
+                int id = value / perProducer;
+                assertTrue(value % perProducer > last[id]);
+                last[id] = value % perProducer;
+            }
+            total += count;
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        assertEquals(total, producers * perProducer);
+        for (int p = 0; p < producers; p++) {
+            assertEquals(last[p], perProducer - 1);
+        }
+    }
+
+    @Test
+    public void testReadClose() {
+        ArrayChannel<Integer> channel = new ArrayChannel<>(4, null);
+        final int[] result = {-1};
+        Thread readThread = new Thread() {
+            @Override
+            public void run() {
+                super.run();
+                result[0] = channel.drainTo(new Integer[4], 4);
+            }
+        };
+        readThread.start();
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        assertTrue(readThread.getState() == Thread.State.BLOCKED || readThread.getState() == Thread.State.WAITING);
+        channel.close();
+        try {
+            readThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        assertEquals(result[0], 0);
+        assertTrue(channel.isClosed());
+    }
+
+    @Test
+    public void testFlushDrainsRemaining() {
+        ArrayChannel<Integer> channel = new ArrayChannel<>(8, null);
+        for (int i = 0; i < 5; i++) {
+            channel.enqueue(i);
+        }
+        channel.flush();
+        assertFalse(channel.offer(5));
+        Integer[] output = new Integer[8];
+        assertEquals(channel.drainTo(output, 8), 5);
+        assertEquals(channel.drainTo(output, 8), 0);
+        assertTrue(channel.isClosed());
+    }
+
+    @Test
+    public void testCloseDeletesPending() {
+        final AtomicInteger deleted = new AtomicInteger();
+        ArrayChannel<Integer> channel = new ArrayChannel<>(8, new Deleter<Integer>() {
+            @Override
+            public void delete(Integer integer) {
+                deleted.incrementAndGet();
+            }
+        });
+        for (int i = 0; i < 6; i++) {
+            channel.enqueue(i);
+        }
+        channel.close();
+        assertEquals(deleted.get(), 6);
+        channel.enqueue(6);
+        assertEquals(deleted.get(), 7);
+        assertEquals(channel.getSize(), 0);
+    }
+}
@@ -345,4 +345,77 @@ public class ByteQueueTest extends TestCase {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWrapAroundKeepsOrder() {
+        ByteQueue queue = new ByteQueue(100, 100);
+        final int total = 1024 * 1024;
+        Thread writeThread = new Thread() {
+            @Override
+            public void run() {
+                super.run();
+                Random random = new Random(1);
+                ByteBuffer src = ByteBuffer.allocateDirect(77);
+                int written = 0;
+                while (written < total) {
+                    int size = Math.min(1 + random.nextInt(src.capacity()), total - written);
+                    src.clear();
+                    for (int i = 0; i < size; i++) {
+                        src.put((byte) ((written + i) % 251));
+                    }
+                    src.flip();
+                    queue.enqueue(src);
+                    written += size;
+                }
+                queue.flush();
+            }
+        };
+        writeThread.start();
+        Random random = new Random(2);
+        ByteBuffer output = ByteBuffer.allocateDirect(61);
+        int readBytes = 0;
+        while (true) {
+            output.clear();
+            output.limit(1 + random.nextInt(output.capacity()));
+            int read = queue.dequeue(output);
+            if (read == 0) break;
+            for (int i = 0; i < read; i++) {
+                assertEquals((byte) ((readBytes + i) % 251), output.get(output.position() + i));
+            }
+            readBytes += read;
+        }
+        try {
+            writeThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        assertEquals(total, readBytes);
+        assertTrue(queue.isClosed());
+    }
+
+    @Test
+    public void testPollDoesNotWait() {
+        ByteQueue queue = new ByteQueue(16, 16);
+        final int[] notified = {0};
+        queue.setDataListener(new Runnable() {
+            @Override
+            public void run() {
+                notified[0]++;
+            }
+        });
+        ByteBuffer output = ByteBuffer.allocateDirect(8);
+        assertEquals(0, queue.poll(output));
+        assertFalse(queue.isClosed());
+        queue.enqueue(createSrc(5));
+        assertEquals(1, notified[0]);
+        output.clear();
+        assertEquals(5, queue.poll(output));
+        assertEquals(4, output.get(4));
+        output.clear();
+        assertEquals(0, queue.poll(output));
+        queue.close();
+        assertEquals(2, notified[0]);
+        assertEquals(0, queue.poll(output));
+        assertTrue(queue.isClosed());
+    }
+}
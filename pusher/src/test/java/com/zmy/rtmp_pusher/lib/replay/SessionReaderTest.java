@@ -0,0 +1,82 @@
+package com.zmy.rtmp_pusher.lib.replay;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class SessionReaderTest extends TestCase {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = File.createTempFile("session", ".bin");
+        try {
+            ByteBuffer sps = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f});
+            ByteBuffer pps = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80});
+            ByteBuffer asc = ByteBuffer.wrap(new byte[]{0x12, 0x10});
+            ByteBuffer frame = ByteBuffer.allocate(100000);
+            for (int i = 0; i < frame.capacity(); i++) {
+                frame.put(i, (byte) i);
+            }
+            frame.position(7);
+
+            SessionWriter writer = new SessionWriter(file);
+            writer.writeVideoFormat(sps, pps, 1280, 720);
+            writer.writeAudioFormat(asc, 44100, 2);
+            writer.writeVideo(frame, 10, 90000, 1000000, true);
+            writer.writeAudio(frame, 0, 300, 990000);
+            writer.writeVideo(frame, 20, 500, 1033333, false);
+            //时间戳回退也要能还原
+            writer.writeVideo(frame, 30, 400, 1016666, false);
+            assertEquals(6, writer.getRecords());
+            writer.close();
+            assertEquals(7, frame.position());
+            assertEquals(0, sps.position());
+
+            SessionReader reader = new SessionReader(file);
+            RecordedSample sample = new RecordedSample();
+            assertTrue(reader.next(sample));
+            assertEquals(RecordedSample.KIND_VIDEO_FORMAT, sample.getKind());
+            assertEquals(1280, sample.getWidth());
+            assertEquals(720, sample.getHeight());
+            assertEquals(sps, sample.getSps());
+            assertEquals(pps, sample.getPps());
+
+            assertTrue(reader.next(sample));
+            assertEquals(RecordedSample.KIND_AUDIO_FORMAT, sample.getKind());
+            assertEquals(44100, sample.getSampleRate());
+            assertEquals(2, sample.getChannelCount());
+            assertEquals(asc, sample.getAudioSpecificConfig());
+
+            assertTrue(reader.next(sample));
+            assertEquals(RecordedSample.KIND_VIDEO, sample.getKind());
+            assertTrue(sample.isKeyFrame());
+            assertEquals(1000000, sample.getPresentationTimeUs());
+            assertEquals(90000, sample.getData().remaining());
+            assertEquals((byte) 10, sample.getData().get(0));
+            assertEquals((byte) (90009 & 0xff), sample.getData().get(89999));
+
+            assertTrue(reader.next(sample));
+            assertEquals(RecordedSample.KIND_AUDIO, sample.getKind());
+            assertEquals(990000, sample.getPresentationTimeUs());
+            assertEquals(300, sample.getData().remaining());
+
+            assertTrue(reader.next(sample));
+            assertFalse(sample.isKeyFrame());
+            assertEquals(1033333, sample.getPresentationTimeUs());
+            assertEquals((byte) 20, sample.getData().get(0));
+
+            assertTrue(reader.next(sample));
+            assertEquals(1016666, sample.getPresentationTimeUs());
+            assertEquals(400, sample.getData().remaining());
+
+            assertFalse(reader.next(sample));
+            reader.close();
+        } finally {
+            file.delete();
+        }
+    }
+}
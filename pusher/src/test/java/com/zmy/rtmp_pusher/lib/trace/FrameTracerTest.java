@@ -0,0 +1,67 @@
+package com.zmy.rtmp_pusher.lib.trace;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class FrameTracerTest extends TestCase {
+
+    private static String export(FrameTracer tracer) throws IOException {
+        StringWriter writer = new StringWriter();
+        tracer.writeChromeTrace(writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void testStagesBecomeSlices() throws IOException {
+        FrameTracer tracer = new FrameTracer(4);
+        long now = System.nanoTime();
+        long id = tracer.begin(now / 1000 - 30000, 1234, true);
+        tracer.mark(id, FrameTracer.STAGE_PACKETIZED, now + 1000000);
+        tracer.mark(id, FrameTracer.STAGE_ENQUEUED, now + 2000000);
+        tracer.mark(id, FrameTracer.STAGE_DEQUEUED, now + 3000000);
+        tracer.mark(id, FrameTracer.STAGE_SENT, now + 4000000);
+        String json = export(tracer);
+        assertTrue(json.startsWith("{") && json.endsWith("]}"));
+        assertTrue(json.contains("\"name\":\"encode\""));
+        assertTrue(json.contains("\"name\":\"send queue\",\"cat\":\"video\",\"ph\":\"X\",\"pid\":1,\"tid\":4"));
+        assertTrue(json.contains("\"dur\":1000.000"));
+        assertTrue(json.contains("\"name\":\"key frame\""));
+        assertTrue(json.contains("\"size\":1234,\"keyFrame\":true"));
+    }
+
+    @Test
+    public void testFirstMarkWins() throws IOException {
+        FrameTracer tracer = new FrameTracer(4);
+        long now = System.nanoTime();
+        long id = tracer.begin(now / 1000, 10, false);
+        tracer.mark(id, FrameTracer.STAGE_PACKETIZED, now + 1000000);
+        tracer.mark(id, FrameTracer.STAGE_ENQUEUED, now + 2000000);
+        //第二个输出晚到,不覆盖
+        tracer.mark(id, FrameTracer.STAGE_ENQUEUED, now + 9000000);
+        String json = export(tracer);
+        assertTrue(json.contains("\"name\":\"interleave\",\"cat\":\"video\",\"ph\":\"X\",\"pid\":1,\"tid\":3,\"ts\":"));
+        assertFalse(json.contains("\"name\":\"send queue\",\"cat\""));
+        assertFalse(json.contains("\"dur\":8000.000"));
+    }
+
+    @Test
+    public void testRingKeepsLastFrames() throws IOException {
+        FrameTracer tracer = new FrameTracer(3);
+        long first = tracer.begin(0, 1, false);
+        for (int i = 1; i < 10; i++) {
+            tracer.begin(i, 1, false);
+        }
+        //记录已经被复用,不再盖章
+        tracer.mark(first, FrameTracer.STAGE_SENT, System.nanoTime());
+        assertEquals(10, tracer.getFrameCount());
+        String json = export(tracer);
+        assertFalse(json.contains("\"frame\":5,"));
+        assertTrue(json.contains("\"frame\":6,"));
+        assertTrue(json.contains("\"frame\":9,"));
+        assertFalse(json.contains("\"name\":\"send\",\"cat\""));
+    }
+}
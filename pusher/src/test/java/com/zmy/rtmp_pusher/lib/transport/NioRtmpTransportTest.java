@@ -0,0 +1,98 @@
+package com.zmy.rtmp_pusher.lib.transport;
+
+import com.zmy.rtmp_pusher.lib.LocalRtmpServer;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class NioRtmpTransportTest extends TestCase {
+    private static final int FRAMES = 200;
+    private static final int FRAME_SIZE = 10000;
+
+    @Test
+    public void testPublishWithDefaultChunkSize() throws Exception {
+        LocalRtmpServer server = new LocalRtmpServer();
+        NioRtmpTransport transport = new NioRtmpTransport.Builder().url(server.getUrl("default")).build();
+        try {
+            transport.connect();
+            assertTrue(transport.isConnected());
+            assertEquals(1, server.getPublishedStreams());
+            long chunksBefore = server.getChunks();
+            sendFrames(transport);
+            assertTrue(server.awaitMediaMessages(FRAMES, 5000));
+            assertEquals((long) FRAMES * (5 + FRAME_SIZE), server.getMediaBytes());
+            long chunksPerFrame = (5 + FRAME_SIZE + 127) / 128;
+            assertEquals(FRAMES * chunksPerFrame, server.getChunks() - chunksBefore);
+        } finally {
+            transport.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testPublishWithLargeChunkSize() throws Exception {
+        LocalRtmpServer server = new LocalRtmpServer();
+        NioRtmpTransport transport = new NioRtmpTransport.Builder().url(server.getUrl("large"))
+                .chunkSize(4096).sendBufferSize(256 * 1024).build();
+        try {
+            transport.connect();
+            assertEquals(4096, server.getLastChunkSize());
+            long chunksBefore = server.getChunks();
+            sendFrames(transport);
+            assertTrue(server.awaitMediaMessages(FRAMES, 5000));
+            assertEquals((long) FRAMES * (5 + FRAME_SIZE), server.getMediaBytes());
+            assertEquals(FRAMES * 3L, server.getChunks() - chunksBefore);
+        } finally {
+            transport.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        LocalRtmpServer server = new LocalRtmpServer();
+        NioRtmpTransport transport = new NioRtmpTransport.Builder().url(server.getUrl("again")).build();
+        try {
+            transport.connect();
+            transport.connect();
+            assertEquals(2, server.getPublishedStreams());
+            sendFrames(transport);
+            assertTrue(server.awaitMediaMessages(FRAMES, 5000));
+        } finally {
+            transport.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testSilentServerTimesOut() throws Exception {
+        LocalRtmpServer server = new LocalRtmpServer(true);
+        NioRtmpTransport transport = new NioRtmpTransport.Builder().url(server.getUrl("silent")).timeoutMs(200).build();
+        try {
+            transport.connect();
+            fail("connect should time out");
+        } catch (IOException expected) {
+            assertFalse(transport.isConnected());
+        } finally {
+            transport.close();
+            server.close();
+        }
+    }
+
+    private static void sendFrames(NioRtmpTransport transport) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(5);
+        ByteBuffer payload = ByteBuffer.allocateDirect(FRAME_SIZE);
+        for (int i = 0; i < FRAMES; i++) {
+            header.clear();
+            header.put((byte) 0x27).put((byte) 1).put((byte) 0).put((byte) 0).put((byte) 0);
+            header.flip();
+            payload.clear();
+            transport.writeMediaMessage(NioRtmpTransport.TYPE_VIDEO, i * 33, header, payload);
+        }
+        transport.flush();
+    }
+}
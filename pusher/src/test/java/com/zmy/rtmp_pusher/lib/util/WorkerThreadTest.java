@@ -0,0 +1,65 @@
+package com.zmy.rtmp_pusher.lib.util;
+
+import com.zmy.rtmp_pusher.lib.queue.ArrayChannel;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class WorkerThreadTest extends TestCase {
+
+    @Test
+    public void testFlushedInputDrainedBeforeExit() {
+        final ArrayChannel<Integer> channel = new ArrayChannel<>(8, null);
+        final AtomicInteger consumed = new AtomicInteger();
+        WorkerThread thread = new WorkerThread("reader") {
+            private final Integer[] batch = new Integer[4];
+
+            @Override
+            protected boolean doMain() {
+                int count = channel.drainTo(batch, batch.length);
+                if (count == 0) return true;
+                consumed.addAndGet(count);
+                return false;
+            }
+        };
+        thread.start();
+        for (int i = 0; i < 1000; i++) {
+            channel.enqueue(i);
+        }
+        //不再写入,读完剩下的就退出
+        channel.flush();
+        assertTrue(thread.awaitExit(5000));
+        assertEquals(1000, consumed.get());
+    }
+
+    @Test
+    public void testExitTimesOut() throws InterruptedException {
+        final AtomicBoolean stuck = new AtomicBoolean(true);
+        final CountDownLatch running = new CountDownLatch(1);
+        WorkerThread thread = new WorkerThread("stuck") {
+            @Override
+            protected boolean doMain() {
+                running.countDown();
+                //不响应中断
+                while (stuck.get()) {
+                    LockSupport.parkNanos(1000000);
+                }
+                return true;
+            }
+        };
+        thread.start();
+        running.await();
+        long start = System.nanoTime();
+        assertFalse(thread.exit(100));
+        assertTrue(System.nanoTime() - start < 2000000000L);
+        assertTrue(thread.isAlive());
+        stuck.set(false);
+        assertTrue(thread.exit(5000));
+    }
+}